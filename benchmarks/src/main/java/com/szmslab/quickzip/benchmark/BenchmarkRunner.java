@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * ベンチマークを実行します。
+ * <p>
+ * JMHのコマンドライン引数をそのまま受け付け、アロケーションレートを報告するGCプロファイラを常に追加します。
+ * 例: {@code java -jar target/benchmarks.jar Compress -p corpus=TINY_FILES -p encryptionType=AES_256}
+ * </p>
+ *
+ * @author szmslab
+ */
+public class BenchmarkRunner {
+
+    /**
+     * ベンチマークを実行します。
+     *
+     * @param args
+     *            JMHのコマンドライン引数
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+
+}
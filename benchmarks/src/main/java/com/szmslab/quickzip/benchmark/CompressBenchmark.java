@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.lingala.zip4j.exception.ZipException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.szmslab.quickzip.archiver.ZipCompressor;
+import com.szmslab.quickzip.enums.CompressionMethod;
+import com.szmslab.quickzip.enums.EncryptionType;
+
+/**
+ * {@link ZipCompressor#execute(File, File...)} のスループットを計測します。
+ *
+ * @author szmslab
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressBenchmark {
+
+    /**
+     * 暗号化パスワード。
+     */
+    static final String PASSWORD = "benchmark";
+
+    /**
+     * 圧縮方式。
+     */
+    @Param
+    public CompressionMethod compressionMethod;
+
+    /**
+     * 暗号化形式。
+     */
+    @Param
+    public EncryptionType encryptionType;
+
+    /**
+     * 圧縮元の合成データ。
+     */
+    @Param
+    public Corpus corpus;
+
+    /**
+     * 作業ディレクトリ。
+     */
+    private Workspace workspace;
+
+    /**
+     * 圧縮元のディレクトリ。
+     */
+    private File source;
+
+    /**
+     * 圧縮元の[エントリ数, ファイルサイズの合計]。
+     */
+    private long[] measured;
+
+    /**
+     * 圧縮先のZipファイル。
+     */
+    private File zipFile;
+
+    /**
+     * 圧縮元の合成データを生成します。
+     *
+     * @throws IOException
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workspace = new Workspace();
+        source = corpus.create(workspace.file("source"));
+        measured = Workspace.measure(source);
+        zipFile = workspace.file("benchmark.zip");
+    }
+
+    /**
+     * 作業ディレクトリを削除します。
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workspace.delete();
+    }
+
+    /**
+     * 圧縮します。
+     *
+     * @param throughput
+     *            処理したデータ量とエントリ数のカウンタ
+     * @return 圧縮先のZipファイル
+     * @throws IOException
+     * @throws ZipException
+     */
+    @Benchmark
+    public File compress(Throughput throughput) throws IOException, ZipException {
+        File result = new ZipCompressor()
+            .compressionMethod(compressionMethod)
+            .encryptionType(encryptionType, PASSWORD)
+            .execute(zipFile, source);
+        throughput.add(measured);
+        return result;
+    }
+
+}
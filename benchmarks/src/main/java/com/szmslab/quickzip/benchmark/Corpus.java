@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * ベンチマークで圧縮する合成データの種類です。
+ * <p>
+ * 同じ種類からは常に同じ内容を生成します。
+ * </p>
+ *
+ * @author szmslab
+ */
+public enum Corpus {
+
+    /**
+     * 多数の小さなテキストファイル（512バイト × 5,000ファイル）。
+     */
+    TINY_FILES {
+        @Override
+        void generate(File dir, Random random) throws IOException {
+            for (int i = 0; i < 50; i++) {
+                File sub = mkdir(new File(dir, "dir" + i));
+                for (int j = 0; j < 100; j++) {
+                    writeText(new File(sub, "file" + j + ".txt"), 512, random);
+                }
+            }
+        }
+    },
+
+    /**
+     * 少数の大きなテキストファイル（64MB × 2ファイル）。
+     */
+    HUGE_FILES {
+        @Override
+        void generate(File dir, Random random) throws IOException {
+            for (int i = 0; i < 2; i++) {
+                writeText(new File(dir, "huge" + i + ".txt"), 64 * 1024 * 1024, random);
+            }
+        }
+    },
+
+    /**
+     * 圧縮できないランダムなデータ（4MB × 16ファイル）。
+     */
+    INCOMPRESSIBLE {
+        @Override
+        void generate(File dir, Random random) throws IOException {
+            for (int i = 0; i < 16; i++) {
+                writeRandom(new File(dir, "random" + i + ".bin"), 4 * 1024 * 1024, random);
+            }
+        }
+    },
+
+    /**
+     * 深いディレクトリ階層（64階層 × 各階層4ファイル × 2KB）。
+     */
+    DEEP_TREE {
+        @Override
+        void generate(File dir, Random random) throws IOException {
+            File current = dir;
+            for (int i = 0; i < 64; i++) {
+                current = mkdir(new File(current, "level" + i));
+                for (int j = 0; j < 4; j++) {
+                    writeText(new File(current, "file" + j + ".txt"), 2 * 1024, random);
+                }
+            }
+        }
+    };
+
+    /**
+     * テキストファイルに使用する単語。
+     */
+    private static final String[] WORDS = {
+        "quick", "zip", "archive", "entry", "deflate", "store", "header", "central", "directory", "stream",
+        "buffer", "channel", "password", "salt", "checksum", "record", "extract", "compress", "file", "data"
+    };
+
+    /**
+     * 合成データを生成します。
+     *
+     * @param dir
+     *            生成先のディレクトリ（作成されます）
+     * @return 生成先のディレクトリ
+     * @throws IOException
+     */
+    public File create(File dir) throws IOException {
+        generate(mkdir(dir), new Random(ordinal() + 1));
+        return dir;
+    }
+
+    /**
+     * 合成データをディレクトリに生成します。
+     *
+     * @param dir
+     *            生成先のディレクトリ
+     * @param random
+     *            乱数
+     * @throws IOException
+     */
+    abstract void generate(File dir, Random random) throws IOException;
+
+    /**
+     * ディレクトリを作成します。
+     *
+     * @param dir
+     *            ディレクトリ
+     * @return 作成したディレクトリ
+     * @throws IOException
+     */
+    private static File mkdir(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create directory: " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * 単語を並べたテキストファイルを書き込みます。
+     *
+     * @param file
+     *            書き込み先のファイル
+     * @param size
+     *            ファイルサイズ
+     * @param random
+     *            乱数
+     * @throws IOException
+     */
+    private static void writeText(File file, long size, Random random) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            long written = 0;
+            while (written < size) {
+                byte[] word = (WORDS[random.nextInt(WORDS.length)] + (random.nextInt(8) == 0 ? "\n" : " "))
+                    .getBytes("US-ASCII");
+                int len = (int) Math.min(word.length, size - written);
+                out.write(word, 0, len);
+                written += len;
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * ランダムなデータのファイルを書き込みます。
+     *
+     * @param file
+     *            書き込み先のファイル
+     * @param size
+     *            ファイルサイズ
+     * @param random
+     *            乱数
+     * @throws IOException
+     */
+    private static void writeRandom(File file, long size, Random random) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            long written = 0;
+            while (written < size) {
+                random.nextBytes(buffer);
+                int len = (int) Math.min(buffer.length, size - written);
+                out.write(buffer, 0, len);
+                written += len;
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+}
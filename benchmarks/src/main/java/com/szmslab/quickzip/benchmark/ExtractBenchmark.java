@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.lingala.zip4j.exception.ZipException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.szmslab.quickzip.archiver.ZipCompressor;
+import com.szmslab.quickzip.archiver.ZipExtractor;
+import com.szmslab.quickzip.enums.CompressionMethod;
+import com.szmslab.quickzip.enums.EncryptionType;
+
+/**
+ * {@link ZipExtractor#execute(File, File, String)} のスループットを計測します。
+ *
+ * @author szmslab
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtractBenchmark {
+
+    /**
+     * 解凍するZipファイルの圧縮方式。
+     */
+    @Param
+    public CompressionMethod compressionMethod;
+
+    /**
+     * 解凍するZipファイルの暗号化形式。
+     */
+    @Param
+    public EncryptionType encryptionType;
+
+    /**
+     * 解凍するZipファイルに格納する合成データ。
+     */
+    @Param
+    public Corpus corpus;
+
+    /**
+     * 作業ディレクトリ。
+     */
+    private Workspace workspace;
+
+    /**
+     * 解凍するZipファイル。
+     */
+    private File zipFile;
+
+    /**
+     * 格納した[エントリ数, ファイルサイズの合計]。
+     */
+    private long[] measured;
+
+    /**
+     * 解凍先のディレクトリ。
+     */
+    private File directory;
+
+    /**
+     * 合成データを生成し、解凍するZipファイルを作成します。
+     *
+     * @throws IOException
+     * @throws ZipException
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, ZipException {
+        workspace = new Workspace();
+        File source = corpus.create(workspace.file("source"));
+        measured = Workspace.measure(source);
+        zipFile = new ZipCompressor()
+            .compressionMethod(compressionMethod)
+            .encryptionType(encryptionType, CompressBenchmark.PASSWORD)
+            .execute(workspace.file("benchmark.zip"), source);
+        directory = workspace.file("extract");
+    }
+
+    /**
+     * 作業ディレクトリを削除します。
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workspace.delete();
+    }
+
+    /**
+     * 解凍します（解凍先のファイルは毎回上書きします）。
+     *
+     * @param throughput
+     *            処理したデータ量とエントリ数のカウンタ
+     * @return 解凍先のディレクトリ
+     * @throws IOException
+     * @throws ZipException
+     */
+    @Benchmark
+    public File extract(Throughput throughput) throws IOException, ZipException {
+        File result = new ZipExtractor().execute(directory, zipFile, CompressBenchmark.PASSWORD);
+        throughput.add(measured);
+        return result;
+    }
+
+}
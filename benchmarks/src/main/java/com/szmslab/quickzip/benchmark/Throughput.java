@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 処理したデータ量とエントリ数のカウンタです。
+ * <p>
+ * JMHが秒あたりの値（MB/s、entries/s）として報告します。
+ * </p>
+ *
+ * @author szmslab
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+
+    /**
+     * 1MBのバイト数。
+     */
+    private static final double MEGABYTE = 1024 * 1024;
+
+    /**
+     * 処理したデータ量（MB）。
+     */
+    public double megabytes;
+
+    /**
+     * 処理したエントリ数。
+     */
+    public long entries;
+
+    /**
+     * イテレーション毎にカウンタを初期化します。
+     */
+    @Setup(Level.Iteration)
+    public void reset() {
+        megabytes = 0;
+        entries = 0;
+    }
+
+    /**
+     * 1回の処理の結果を加算します。
+     *
+     * @param measured
+     *            [エントリ数, ファイルサイズの合計]
+     */
+    void add(long[] measured) {
+        entries += measured[0];
+        megabytes += measured[1] / MEGABYTE;
+    }
+
+}
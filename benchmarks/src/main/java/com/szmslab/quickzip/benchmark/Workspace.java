@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * ベンチマークの作業ディレクトリです。
+ *
+ * @author szmslab
+ */
+class Workspace {
+
+    /**
+     * 作業ディレクトリ。
+     */
+    private final File dir;
+
+    /**
+     * コンストラクタです（一時ディレクトリを作成します）。
+     *
+     * @throws IOException
+     */
+    Workspace() throws IOException {
+        this.dir = Files.createTempDirectory("quick-zip-benchmark").toFile();
+    }
+
+    /**
+     * 作業ディレクトリ内のファイルを取得します。
+     *
+     * @param name
+     *            ファイル名
+     * @return ファイル
+     */
+    File file(String name) {
+        return new File(dir, name);
+    }
+
+    /**
+     * 作業ディレクトリを削除します。
+     */
+    void delete() {
+        delete(dir);
+    }
+
+    /**
+     * ディレクトリ配下のファイルとディレクトリの合計を集計します。
+     *
+     * @param file
+     *            ファイルまたはディレクトリ
+     * @return [エントリ数, ファイルサイズの合計]
+     */
+    static long[] measure(File file) {
+        long[] result = new long[2];
+        measure(file, result);
+        return result;
+    }
+
+    private static void measure(File file, long[] result) {
+        result[0]++;
+        File[] children = file.listFiles();
+        if (children == null) {
+            result[1] += file.length();
+            return;
+        }
+        for (File child : children) {
+            measure(child, result);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}
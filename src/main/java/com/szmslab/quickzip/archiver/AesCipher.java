@@ -0,0 +1,541 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.lingala.zip4j.exception.ZipException;
+import net.lingala.zip4j.util.InternalZipConstants;
+import net.lingala.zip4j.util.Zip4jConstants;
+
+/**
+ * WinZip AES形式（AES-CTR + HMAC-SHA1）の暗号化・復号を行うクラスです。
+ * <p>
+ * 鍵ストリームはカウンタブロックをまとめてJCEのAES（ECB）で暗号化して生成するため、
+ * AES-NIなどのCPU命令を使用するJCEの実装で高速に処理できます。
+ * スレッドプールを設定した場合は、大きなデータの鍵ストリームを区間に分けて並列に生成し、
+ * 呼び出し元のスレッドは生成済みの区間から順にXORと認証コードの計算を行います。
+ * </p>
+ * <p>
+ * 暗号化・復号するデータは、最後の呼び出しを除き16バイトの倍数である必要があります。
+ * </p>
+ *
+ * @author szmslab
+ */
+class AesCipher {
+
+    /**
+     * 並列に鍵ストリームを生成する区間のサイズ。
+     */
+    static final int PARALLEL_SEGMENT = 256 * 1024;
+
+    /**
+     * 並列に復号するエントリデータの最小サイズ。
+     */
+    static final long PARALLEL_THRESHOLD = 4L * PARALLEL_SEGMENT;
+
+    /**
+     * 鍵導出（PBKDF2）の反復回数。
+     */
+    private static final int ITERATIONS = 1000;
+
+    /**
+     * パスワード検証値の長さ。
+     */
+    private static final int VERIFIER_LENGTH = 2;
+
+    /**
+     * ソルトの生成。
+     */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * AESの鍵。
+     */
+    private final SecretKeySpec key;
+
+    /**
+     * 認証コードの計算。
+     */
+    private final Mac mac;
+
+    /**
+     * ソルト。
+     */
+    private final byte[] salt;
+
+    /**
+     * パスワード検証値。
+     */
+    private final byte[] verifier;
+
+    /**
+     * 呼び出し元のスレッドで使用するAES。
+     */
+    private final Cipher cipher;
+
+    /**
+     * 鍵ストリームのバッファ。
+     */
+    private byte[] keystream = new byte[0];
+
+    /**
+     * 処理済みのブロック数。
+     */
+    private long counter;
+
+    /**
+     * 鍵ストリームを並列に生成するスレッドプール（並列に生成しない場合はnull）。
+     */
+    private ExecutorService executor;
+
+    /**
+     * 鍵ストリームを並列に生成する際の並列数。
+     */
+    private int parallelism = 1;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param password
+     *            パスワード
+     * @param strength
+     *            鍵の強度（{@link Zip4jConstants#AES_STRENGTH_128} または {@link Zip4jConstants#AES_STRENGTH_256}）
+     * @param salt
+     *            ソルト
+     * @throws ZipException
+     */
+    AesCipher(char[] password, int strength, byte[] salt) throws ZipException {
+        this(strength, salt, deriveKey(password, strength, salt));
+    }
+
+    /**
+     * 導出済みの鍵からインスタンスを生成するコンストラクタです。
+     *
+     * @param strength
+     *            鍵の強度
+     * @param salt
+     *            ソルト
+     * @param derived
+     *            {@link #deriveKey(char[], int, byte[])} で導出した鍵
+     * @throws ZipException
+     */
+    AesCipher(int strength, byte[] salt, byte[] derived) throws ZipException {
+        int keyLength = keyLength(strength);
+        try {
+            this.key = new SecretKeySpec(derived, 0, keyLength, "AES");
+            this.mac = Mac.getInstance("HmacSHA1");
+            mac.init(new SecretKeySpec(derived, keyLength, keyLength, "HmacSHA1"));
+            this.cipher = newCipher();
+        } catch (GeneralSecurityException e) {
+            throw new ZipException(e);
+        }
+        this.salt = salt;
+        this.verifier = Arrays.copyOfRange(derived, keyLength * 2, keyLength * 2 + VERIFIER_LENGTH);
+    }
+
+    /**
+     * 新しいソルトで暗号化用のインスタンスを生成します。
+     *
+     * @param password
+     *            パスワード
+     * @param strength
+     *            鍵の強度
+     * @return 暗号化用のインスタンス
+     * @throws ZipException
+     */
+    static AesCipher forEncryption(char[] password, int strength) throws ZipException {
+        return new AesCipher(password, strength, newSalt(strength));
+    }
+
+    /**
+     * 新しいソルトを生成します。
+     *
+     * @param strength
+     *            鍵の強度
+     * @return ソルト
+     */
+    static byte[] newSalt(int strength) {
+        byte[] salt = new byte[saltLength(strength)];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * ソルトの長さを取得します。
+     *
+     * @param strength
+     *            鍵の強度
+     * @return ソルトの長さ
+     */
+    static int saltLength(int strength) {
+        return strength == Zip4jConstants.AES_STRENGTH_128 ? 8 : 16;
+    }
+
+    /**
+     * 鍵の長さを取得します。
+     *
+     * @param strength
+     *            鍵の強度
+     * @return 鍵の長さ
+     * @throws ZipException
+     */
+    private static int keyLength(int strength) throws ZipException {
+        if (strength == Zip4jConstants.AES_STRENGTH_128) {
+            return 16;
+        } else if (strength == Zip4jConstants.AES_STRENGTH_256) {
+            return 32;
+        }
+        throw new ZipException("unsupported AES key strength: " + strength);
+    }
+
+    /**
+     * 暗号化・復号を1回の呼び出しにまとめるデータの大きさを取得します。
+     * <p>
+     * 鍵ストリームを並列に生成する場合は、並列数分の区間をまとめて処理できる大きさになります。
+     * </p>
+     *
+     * @return 1回の呼び出しにまとめるデータの大きさ
+     */
+    int chunkSize() {
+        if (executor != null && parallelism > 1) {
+            return PARALLEL_SEGMENT * parallelism;
+        }
+        return EntryCompressor.BUFFER_SIZE;
+    }
+
+    /**
+     * 鍵ストリームを並列に生成するスレッドプールを設定します。
+     *
+     * @param executor
+     *            スレッドプール
+     * @param parallelism
+     *            並列数
+     */
+    void setExecutor(ExecutorService executor, int parallelism) {
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * ソルトを取得します。
+     *
+     * @return ソルト
+     */
+    byte[] getSalt() {
+        return salt;
+    }
+
+    /**
+     * パスワード検証値を取得します。
+     *
+     * @return パスワード検証値
+     */
+    byte[] getPasswordVerifier() {
+        return verifier;
+    }
+
+    /**
+     * 認証コード（先頭10バイト）を取得します。
+     * <p>
+     * すべてのデータを処理した後に一度だけ呼び出します。
+     * </p>
+     *
+     * @return 認証コード
+     */
+    byte[] getMac() {
+        return Arrays.copyOf(mac.doFinal(), InternalZipConstants.AES_AUTH_LENGTH);
+    }
+
+    /**
+     * データを暗号化します（データは暗号化したもので置き換えます）。
+     *
+     * @param b
+     *            データ
+     * @param off
+     *            開始位置
+     * @param len
+     *            長さ
+     * @throws IOException
+     */
+    void encrypt(byte[] b, int off, int len) throws IOException {
+        process(b, off, len, true);
+    }
+
+    /**
+     * データを復号します（データは復号したもので置き換えます）。
+     *
+     * @param b
+     *            データ
+     * @param off
+     *            開始位置
+     * @param len
+     *            長さ
+     * @throws IOException
+     */
+    void decrypt(byte[] b, int off, int len) throws IOException {
+        process(b, off, len, false);
+    }
+
+    /**
+     * データを暗号化・復号し、暗号化されたデータで認証コードを更新します。
+     *
+     * @param b
+     *            データ
+     * @param off
+     *            開始位置
+     * @param len
+     *            長さ
+     * @param encrypt
+     *            暗号化する場合はtrue、復号する場合はfalse
+     * @throws IOException
+     */
+    private void process(byte[] b, int off, int len, boolean encrypt) throws IOException {
+        if (len <= 0) {
+            return;
+        }
+        int blocks = (len + InternalZipConstants.AES_BLOCK_SIZE - 1) / InternalZipConstants.AES_BLOCK_SIZE;
+        if (keystream.length < blocks * InternalZipConstants.AES_BLOCK_SIZE) {
+            keystream = new byte[blocks * InternalZipConstants.AES_BLOCK_SIZE];
+        }
+        if (executor == null || parallelism <= 1 || len < PARALLEL_SEGMENT * 2) {
+            generate(cipher, keystream, 0, counter, blocks);
+            apply(b, off, 0, len, encrypt);
+        } else {
+            processParallel(b, off, len, encrypt);
+        }
+        counter += blocks;
+    }
+
+    /**
+     * 鍵ストリームを区間に分けて並列に生成し、生成済みの区間から順にXORと認証コードの計算を行います。
+     *
+     * @param b
+     *            データ
+     * @param off
+     *            開始位置
+     * @param len
+     *            長さ
+     * @param encrypt
+     *            暗号化する場合はtrue、復号する場合はfalse
+     * @throws IOException
+     */
+    private void processParallel(byte[] b, int off, int len, boolean encrypt) throws IOException {
+        int segments = (len + PARALLEL_SEGMENT - 1) / PARALLEL_SEGMENT;
+        List<Future<?>> futures = new ArrayList<Future<?>>(segments);
+        try {
+            // 先頭の区間は呼び出し元のスレッドで生成し、以降の区間は並列に生成する
+            for (int i = 1; i < segments; i++) {
+                futures.add(executor.submit(new KeystreamTask(i * PARALLEL_SEGMENT,
+                    Math.min(PARALLEL_SEGMENT, len - i * PARALLEL_SEGMENT))));
+            }
+            generate(cipher, keystream, 0, counter, PARALLEL_SEGMENT / InternalZipConstants.AES_BLOCK_SIZE);
+            apply(b, off, 0, PARALLEL_SEGMENT, encrypt);
+            for (int i = 1; i < segments; i++) {
+                await(futures.get(i - 1));
+                int start = i * PARALLEL_SEGMENT;
+                apply(b, off + start, start, Math.min(PARALLEL_SEGMENT, len - start), encrypt);
+            }
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * データと鍵ストリームのXORを取り、暗号化されたデータで認証コードを更新します。
+     *
+     * @param b
+     *            データ
+     * @param off
+     *            データの開始位置
+     * @param ksOff
+     *            鍵ストリームの開始位置
+     * @param len
+     *            長さ
+     * @param encrypt
+     *            暗号化する場合はtrue、復号する場合はfalse
+     */
+    private void apply(byte[] b, int off, int ksOff, int len, boolean encrypt) {
+        if (!encrypt) {
+            mac.update(b, off, len);
+        }
+        for (int i = 0; i < len; i++) {
+            b[off + i] ^= keystream[ksOff + i];
+        }
+        if (encrypt) {
+            mac.update(b, off, len);
+        }
+    }
+
+    /**
+     * 区間の鍵ストリームの生成を待ちます。
+     *
+     * @param future
+     *            鍵ストリームの生成タスク
+     * @throws IOException
+     */
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * カウンタブロックを暗号化して鍵ストリームを生成します。
+     * <p>
+     * カウンタは1から始まるリトルエンディアンの値です。
+     * </p>
+     *
+     * @param cipher
+     *            AES（ECB）
+     * @param ks
+     *            鍵ストリームの格納先
+     * @param ksOff
+     *            格納先の開始位置
+     * @param first
+     *            先頭のブロックの番号（0から）
+     * @param blocks
+     *            ブロック数
+     * @throws IOException
+     */
+    private static void generate(Cipher cipher, byte[] ks, int ksOff, long first, int blocks) throws IOException {
+        int length = blocks * InternalZipConstants.AES_BLOCK_SIZE;
+        Arrays.fill(ks, ksOff, ksOff + length, (byte) 0);
+        for (int i = 0; i < blocks; i++) {
+            long nonce = first + i + 1;
+            int pos = ksOff + i * InternalZipConstants.AES_BLOCK_SIZE;
+            for (int j = 0; j < 8; j++) {
+                ks[pos + j] = (byte) (nonce >>> (j * 8));
+            }
+        }
+        try {
+            cipher.doFinal(ks, ksOff, length, ks, ksOff);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * 鍵を設定したAES（ECB）を生成します。
+     *
+     * @return AES（ECB）
+     * @throws GeneralSecurityException
+     */
+    private Cipher newCipher() throws GeneralSecurityException {
+        Cipher aes = Cipher.getInstance("AES/ECB/NoPadding");
+        aes.init(Cipher.ENCRYPT_MODE, key);
+        return aes;
+    }
+
+    /**
+     * PBKDF2（HMAC-SHA1）でAESの鍵、認証コードの鍵、パスワード検証値を導出します。
+     * <p>
+     * パスワードはzip4jと同じく、文字の下位8ビットをバイト列として使用します。
+     * </p>
+     *
+     * @param password
+     *            パスワード
+     * @param strength
+     *            鍵の強度
+     * @param salt
+     *            ソルト
+     * @return 導出した鍵
+     * @throws ZipException
+     */
+    static byte[] deriveKey(char[] password, int strength, byte[] salt) throws ZipException {
+        if (password == null || password.length == 0) {
+            throw new ZipException("input password is empty or null for AES encryption");
+        }
+        int length = keyLength(strength) * 2 + VERIFIER_LENGTH;
+        byte[] bytes = new byte[password.length];
+        for (int i = 0; i < password.length; i++) {
+            bytes[i] = (byte) password[i];
+        }
+        try {
+            Mac prf = Mac.getInstance("HmacSHA1");
+            prf.init(new SecretKeySpec(bytes, "HmacSHA1"));
+            int hLen = prf.getMacLength();
+            byte[] derived = new byte[length];
+            byte[] u = new byte[hLen];
+            byte[] t = new byte[hLen];
+            for (int block = 1, pos = 0; pos < length; block++, pos += hLen) {
+                prf.update(salt);
+                prf.update(new byte[] { (byte) (block >>> 24), (byte) (block >>> 16), (byte) (block >>> 8),
+                    (byte) block });
+                prf.doFinal(u, 0);
+                System.arraycopy(u, 0, t, 0, hLen);
+                for (int i = 1; i < ITERATIONS; i++) {
+                    prf.update(u);
+                    prf.doFinal(u, 0);
+                    for (int j = 0; j < hLen; j++) {
+                        t[j] ^= u[j];
+                    }
+                }
+                System.arraycopy(t, 0, derived, pos, Math.min(hLen, length - pos));
+            }
+            return derived;
+        } catch (GeneralSecurityException e) {
+            throw new ZipException(e);
+        }
+    }
+
+    /**
+     * 1区間分の鍵ストリームを生成するタスクです。
+     */
+    private class KeystreamTask implements Callable<Void> {
+
+        /**
+         * 区間の開始位置（データ内）。
+         */
+        private final int start;
+
+        /**
+         * 区間の長さ。
+         */
+        private final int length;
+
+        /**
+         * 区間の先頭のブロックの番号。
+         */
+        private final long first;
+
+        KeystreamTask(int start, int length) {
+            this.start = start;
+            this.length = length;
+            this.first = counter + start / InternalZipConstants.AES_BLOCK_SIZE;
+        }
+
+        public Void call() throws Exception {
+            int blocks = (length + InternalZipConstants.AES_BLOCK_SIZE - 1) / InternalZipConstants.AES_BLOCK_SIZE;
+            generate(newCipher(), keystream, start, first, blocks);
+            return null;
+        }
+
+    }
+
+}
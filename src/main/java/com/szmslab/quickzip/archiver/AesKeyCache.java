@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import net.lingala.zip4j.exception.ZipException;
+
+/**
+ * 復号に使用するAESの鍵を、パスワードとソルトの組み合わせ毎にキャッシュするクラスです。
+ * <p>
+ * 1回の解凍の間だけ使用し、同じソルトのエントリ（重複排除したエントリなど）では鍵の導出を省略します。
+ * スレッド数を指定した場合は、展開するエントリのソルトを先読みしてスレッドプールで鍵を並行して導出します。
+ * 導出中の鍵が必要になった場合はその完了を待ち、導出が始まっていない場合は必要としたスレッドで導出します。
+ * </p>
+ *
+ * @author szmslab
+ */
+class AesKeyCache {
+
+    /**
+     * 導出済み（導出中）の鍵。
+     */
+    private final ConcurrentMap<String, FutureTask<byte[]>> keys = new ConcurrentHashMap<String, FutureTask<byte[]>>();
+
+    /**
+     * 鍵を先読みして導出するスレッド数（先読みしない場合は0）。
+     */
+    private final int parallelism;
+
+    /**
+     * 鍵を先読みして導出するスレッドプール。
+     */
+    private ExecutorService executor;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param parallelism
+     *            鍵を先読みして導出するスレッド数（先読みしない場合は0）
+     */
+    AesKeyCache(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * 鍵を取得します（キャッシュにない場合は導出します）。
+     *
+     * @param password
+     *            パスワード
+     * @param strength
+     *            鍵の強度
+     * @param salt
+     *            ソルト
+     * @return 導出した鍵
+     * @throws ZipException
+     */
+    byte[] derive(String password, int strength, byte[] salt) throws ZipException {
+        FutureTask<byte[]> task = task(password, strength, salt);
+        // 導出が始まっていなければ自スレッドで導出し、導出中であれば完了を待つ
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZipException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ZipException) {
+                throw (ZipException) e.getCause();
+            }
+            throw new ZipException(e.getCause());
+        }
+    }
+
+    /**
+     * 展開するエントリのソルトを読み込み、鍵の導出をスレッドプールで開始します。
+     * <p>
+     * スレッド数が0の場合、またはAESのエントリがない場合は何もしません。
+     * </p>
+     *
+     * @param reader
+     *            Zipファイルの読み込み
+     * @param records
+     *            展開するZipエントリのヘッダ情報（展開順）
+     * @param password
+     *            パスワード
+     */
+    void prefetch(final ZipArchiveReader reader, List<ZipEntryRecord> records, final String password) {
+        if (parallelism <= 0 || password == null || password.length() == 0) {
+            return;
+        }
+        for (final ZipEntryRecord record : records) {
+            if (!record.isAesEncrypted()) {
+                continue;
+            }
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(parallelism, new WorkerThreadFactory("keys"));
+            }
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        task(password, record.getAesStrength(), reader.readSalt(record)).run();
+                    } catch (IOException e) {
+                        // 展開時に改めて読み込み、エラーを通知する
+                    } catch (ZipException e) {
+                        // 展開時に改めて読み込み、エラーを通知する
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 鍵の先読みを終了し、キャッシュを破棄します。
+     */
+    void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        keys.clear();
+    }
+
+    /**
+     * パスワードとソルトに対応する鍵の導出タスクを取得します（ない場合は登録します）。
+     *
+     * @param password
+     *            パスワード
+     * @param strength
+     *            鍵の強度
+     * @param salt
+     *            ソルト
+     * @return 鍵の導出タスク
+     */
+    private FutureTask<byte[]> task(final String password, final int strength, final byte[] salt) {
+        String key = strength + ":" + new BigInteger(1, salt).toString(16) + ":" + salt.length + ":" + password;
+        FutureTask<byte[]> task = keys.get(key);
+        if (task == null) {
+            FutureTask<byte[]> created = new FutureTask<byte[]>(new Callable<byte[]>() {
+                public byte[] call() throws ZipException {
+                    return AesCipher.deriveKey(password.toCharArray(), strength, salt);
+                }
+            });
+            task = keys.putIfAbsent(key, created);
+            if (task == null) {
+                task = created;
+            }
+        }
+        return task;
+    }
+
+}
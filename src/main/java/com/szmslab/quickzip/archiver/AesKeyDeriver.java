@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.lingala.zip4j.exception.ZipException;
+
+/**
+ * 暗号化に使用するAESの鍵を、別スレッドで事前に導出しておくクラスです。
+ * <p>
+ * 鍵の導出（PBKDF2）はソルトだけに依存し、エントリのデータには依存しないため、
+ * 新しいソルトで導出した鍵をスレッドプールでまとめて用意しておき、エントリの暗号化時に取り出します。
+ * ソルトはエントリ毎に異なるものを使用します（同じソルトを使うと鍵ストリームも同じになるため）。
+ * 用意された鍵がない場合は、取り出すスレッドで導出します。
+ * </p>
+ *
+ * @author szmslab
+ */
+class AesKeyDeriver {
+
+    /**
+     * スレッド毎に用意しておく鍵の数。
+     */
+    private static final int KEYS_PER_THREAD = 16;
+
+    /**
+     * パスワード。
+     */
+    private final char[] password;
+
+    /**
+     * 鍵の強度。
+     */
+    private final int strength;
+
+    /**
+     * 導出済みのソルトと鍵。
+     */
+    private final BlockingQueue<byte[][]> keys;
+
+    /**
+     * 鍵を導出するスレッドプール。
+     */
+    private final ExecutorService executor;
+
+    /**
+     * コンストラクタです（鍵の導出を開始します）。
+     *
+     * @param password
+     *            パスワード
+     * @param strength
+     *            鍵の強度
+     * @param parallelism
+     *            鍵を導出するスレッド数
+     */
+    AesKeyDeriver(char[] password, int strength, int parallelism) {
+        this.password = password;
+        this.strength = strength;
+        this.keys = new ArrayBlockingQueue<byte[][]>(parallelism * KEYS_PER_THREAD);
+        this.executor = Executors.newFixedThreadPool(parallelism, new WorkerThreadFactory("keys"));
+        for (int i = 0; i < parallelism; i++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    derive();
+                }
+            });
+        }
+    }
+
+    /**
+     * 導出済みの鍵で暗号化処理を生成します。
+     *
+     * @return AESの暗号化処理
+     * @throws ZipException
+     */
+    AesCipher next() throws ZipException {
+        byte[][] key = keys.poll();
+        if (key == null) {
+            // 導出が追いつかない場合は待たずに自スレッドで導出する
+            return AesCipher.forEncryption(password, strength);
+        }
+        return new AesCipher(strength, key[0], key[1]);
+    }
+
+    /**
+     * 鍵の導出を終了します。
+     */
+    void close() {
+        executor.shutdownNow();
+        keys.clear();
+    }
+
+    /**
+     * 終了するまで鍵を導出し続けます（鍵を導出するスレッドで実行します）。
+     */
+    private void derive() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                byte[] salt = AesCipher.newSalt(strength);
+                keys.put(new byte[][] { salt, AesCipher.deriveKey(password, strength, salt) });
+            }
+        } catch (InterruptedException e) {
+            // 終了
+        } catch (ZipException e) {
+            // パスワードが不正な場合は、取り出すスレッドでの導出時に通知する
+        }
+    }
+
+}
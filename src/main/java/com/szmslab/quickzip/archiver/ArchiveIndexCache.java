@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Zipファイルのセントラルディレクトリの索引をキャッシュするクラスです。
+ * <p>
+ * 同じZipファイルを繰り返し解凍・参照する場合に、セントラルディレクトリの読み込みと解析を省略します。
+ * キャッシュのキーはZipファイルのパス、サイズ、最終更新日時、ファイル名のエンコーディングで、
+ * Zipファイルが更新された場合は別のキーとなるため古い索引は使用されません。
+ * 保持するエントリ数の合計が上限を超えた場合は、最も長く使用されていない索引から破棄します。
+ * </p>
+ * <p>
+ * 1つのインスタンスを複数の {@link ZipExtractor} で共有でき、スレッドセーフです。
+ * </p>
+ *
+ * @author szmslab
+ */
+public class ArchiveIndexCache {
+
+    /**
+     * 既定の保持するエントリ数の上限。
+     */
+    private static final int DEFAULT_MAX_ENTRIES = 1000000;
+
+    /**
+     * 保持するエントリ数の上限。
+     */
+    private final long maxEntries;
+
+    /**
+     * 索引（アクセス順）。
+     */
+    private final LinkedHashMap<Key, CentralDirectoryIndex> indexes =
+        new LinkedHashMap<Key, CentralDirectoryIndex>(16, 0.75f, true);
+
+    /**
+     * 保持しているエントリ数の合計。
+     */
+    private long entryCount;
+
+    /**
+     * キャッシュのヒット数。
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * キャッシュのミス数。
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * 破棄した索引の数。
+     */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * コンストラクタです。
+     */
+    public ArchiveIndexCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * コンストラクタです。
+     *
+     * @param maxEntries
+     *            保持するエントリ数の上限（全Zipファイルの合計）
+     */
+    public ArchiveIndexCache(long maxEntries) {
+        this.maxEntries = Math.max(0, maxEntries);
+    }
+
+    /**
+     * 保持するエントリ数の上限を取得します。
+     *
+     * @return 保持するエントリ数の上限
+     */
+    public long maxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * 保持しているZipファイルの数を取得します。
+     *
+     * @return 保持しているZipファイルの数
+     */
+    public int size() {
+        synchronized (indexes) {
+            return indexes.size();
+        }
+    }
+
+    /**
+     * 保持しているエントリ数の合計を取得します。
+     *
+     * @return 保持しているエントリ数の合計
+     */
+    public long entryCount() {
+        synchronized (indexes) {
+            return entryCount;
+        }
+    }
+
+    /**
+     * キャッシュのヒット数を取得します。
+     *
+     * @return キャッシュのヒット数
+     */
+    public long hits() {
+        return hits.get();
+    }
+
+    /**
+     * キャッシュのミス数を取得します。
+     *
+     * @return キャッシュのミス数
+     */
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * 上限を超えたために破棄した索引の数を取得します。
+     *
+     * @return 破棄した索引の数
+     */
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /**
+     * 保持している索引をすべて破棄します。
+     */
+    public void clear() {
+        synchronized (indexes) {
+            indexes.clear();
+            entryCount = 0;
+        }
+    }
+
+    /**
+     * Zipファイルの索引を取得します。
+     *
+     * @param zipFile
+     *            Zipファイル
+     * @param encoding
+     *            ファイル名のエンコーディング
+     * @return 索引（キャッシュにない場合はnull）
+     */
+    CentralDirectoryIndex get(File zipFile, String encoding) {
+        CentralDirectoryIndex index;
+        synchronized (indexes) {
+            index = indexes.get(new Key(zipFile, encoding));
+        }
+        if (index != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return index;
+    }
+
+    /**
+     * Zipファイルの索引を追加します。
+     * <p>
+     * 上限を超える場合は、最も長く使用されていない索引から破棄します。
+     * 索引1つで上限を超える場合は追加しません。
+     * </p>
+     *
+     * @param zipFile
+     *            Zipファイル
+     * @param encoding
+     *            ファイル名のエンコーディング
+     * @param index
+     *            索引
+     */
+    void put(File zipFile, String encoding, CentralDirectoryIndex index) {
+        if (index.size() > maxEntries) {
+            return;
+        }
+        synchronized (indexes) {
+            CentralDirectoryIndex old = indexes.put(new Key(zipFile, encoding), index);
+            if (old != null) {
+                entryCount -= old.size();
+            }
+            entryCount += index.size();
+            Iterator<CentralDirectoryIndex> it = indexes.values().iterator();
+            while (entryCount > maxEntries && it.hasNext()) {
+                CentralDirectoryIndex eldest = it.next();
+                if (eldest == index) {
+                    continue;
+                }
+                it.remove();
+                entryCount -= eldest.size();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + ", entries=" + entryCount() + ", hits=" + hits() + ", misses=" + misses()
+            + ", evictions=" + evictions();
+    }
+
+    /**
+     * キャッシュのキーです。
+     */
+    private static class Key {
+
+        /**
+         * Zipファイルのパス。
+         */
+        private final String path;
+
+        /**
+         * Zipファイルのサイズ。
+         */
+        private final long length;
+
+        /**
+         * Zipファイルの最終更新日時。
+         */
+        private final long lastModified;
+
+        /**
+         * ファイル名のエンコーディング。
+         */
+        private final String encoding;
+
+        Key(File zipFile, String encoding) {
+            this.path = zipFile.getAbsolutePath();
+            this.length = zipFile.length();
+            this.lastModified = zipFile.lastModified();
+            this.encoding = encoding;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = path.hashCode();
+            h = h * 31 + (int) (length ^ (length >>> 32));
+            h = h * 31 + (int) (lastModified ^ (lastModified >>> 32));
+            return h * 31 + (encoding != null ? encoding.hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return path.equals(other.path) && length == other.length && lastModified == other.lastModified
+                && (encoding != null ? encoding.equals(other.encoding) : other.encoding == null);
+        }
+
+    }
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zipファイル全体の計測値です。
+ * <p>
+ * エントリ毎の計測値（{@link EntryMetrics}）の合計と、処理全体の経過時間を保持します。
+ * 並列に処理した場合、区分毎の時間の合計は経過時間を超えることがあります。
+ * 前回のZipファイルから再利用したエントリと、重複排除により圧縮を省略したエントリは含みません。
+ * </p>
+ *
+ * @author szmslab
+ * @see ZipMetricsListener
+ */
+public class ArchiveMetrics {
+
+    /**
+     * Zipファイル（ストリームの場合はnull）。
+     */
+    private final File file;
+
+    /**
+     * 解凍かどうか。
+     */
+    private final boolean extraction;
+
+    /**
+     * エントリ数。
+     */
+    private final long entries;
+
+    /**
+     * 読み込んだバイト数。
+     */
+    private final long bytesIn;
+
+    /**
+     * 書き込んだバイト数。
+     */
+    private final long bytesOut;
+
+    /**
+     * 圧縮率。
+     */
+    private final double ratio;
+
+    /**
+     * 区分毎の時間の合計（ナノ秒）。
+     */
+    private final long[] nanos;
+
+    /**
+     * 経過時間（ナノ秒）。
+     */
+    private final long elapsedNanos;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param file
+     *            Zipファイル（ストリームの場合はnull）
+     * @param extraction
+     *            解凍かどうか
+     * @param entries
+     *            エントリ数
+     * @param bytesIn
+     *            読み込んだバイト数
+     * @param bytesOut
+     *            書き込んだバイト数
+     * @param ratio
+     *            圧縮率
+     * @param nanos
+     *            区分毎の時間の合計（ナノ秒）
+     * @param elapsedNanos
+     *            経過時間（ナノ秒）
+     */
+    ArchiveMetrics(File file, boolean extraction, long entries, long bytesIn, long bytesOut, double ratio,
+            long[] nanos, long elapsedNanos) {
+        this.file = file;
+        this.extraction = extraction;
+        this.entries = entries;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.ratio = ratio;
+        this.nanos = nanos;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Zipファイルを取得します。
+     *
+     * @return 圧縮先・解凍元のZipファイル（ストリームの場合はnull）
+     */
+    public File file() {
+        return file;
+    }
+
+    /**
+     * 解凍の計測値かどうかを取得します。
+     *
+     * @return 解凍の場合はtrue、圧縮の場合はfalse
+     */
+    public boolean isExtraction() {
+        return extraction;
+    }
+
+    /**
+     * エントリ数を取得します。
+     *
+     * @return エントリ数
+     */
+    public long entries() {
+        return entries;
+    }
+
+    /**
+     * 読み込んだバイト数を取得します。
+     *
+     * @return 圧縮では圧縮前のサイズの合計、解凍では圧縮後のサイズの合計
+     */
+    public long bytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * 書き込んだバイト数を取得します。
+     *
+     * @return 圧縮では圧縮後のサイズの合計、解凍では展開後のサイズの合計
+     */
+    public long bytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * 圧縮率を取得します。
+     *
+     * @return 圧縮後のサイズの合計 / 圧縮前のサイズの合計（圧縮前のサイズが0の場合は1）
+     */
+    public double ratio() {
+        return ratio;
+    }
+
+    /**
+     * 読み込みの時間の合計を取得します。
+     *
+     * @return 読み込みの時間の合計（ナノ秒）
+     */
+    public long readNanos() {
+        return nanos[EntryMetrics.READ];
+    }
+
+    /**
+     * 圧縮・展開の時間の合計を取得します。
+     *
+     * @return 圧縮・展開の時間の合計（ナノ秒）
+     */
+    public long compressNanos() {
+        return nanos[EntryMetrics.COMPRESS];
+    }
+
+    /**
+     * 暗号化・復号の時間の合計を取得します。
+     *
+     * @return 暗号化・復号の時間の合計（ナノ秒）
+     */
+    public long encryptNanos() {
+        return nanos[EntryMetrics.ENCRYPT];
+    }
+
+    /**
+     * 書き込みの時間の合計を取得します。
+     *
+     * @return 書き込みの時間の合計（ナノ秒）
+     */
+    public long writeNanos() {
+        return nanos[EntryMetrics.WRITE];
+    }
+
+    /**
+     * 経過時間を取得します。
+     *
+     * @return 圧縮・解凍の開始から完了までの時間（ナノ秒）
+     */
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * 1秒あたりに処理した展開後のバイト数を取得します。
+     *
+     * @return 1秒あたりのバイト数
+     */
+    public double bytesPerSecond() {
+        return perSecond(extraction ? bytesOut : bytesIn);
+    }
+
+    /**
+     * 1秒あたりに処理したエントリ数を取得します。
+     *
+     * @return 1秒あたりのエントリ数
+     */
+    public double entriesPerSecond() {
+        return perSecond(entries);
+    }
+
+    @Override
+    public String toString() {
+        return (extraction ? "extract" : "compress") + (file != null ? " " + file.getName() : "")
+            + " [entries=" + entries + ", in=" + bytesIn + ", out=" + bytesOut + ", ratio=" + ratio
+            + ", elapsed=" + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "ms, "
+            + String.format("%.1f", bytesPerSecond() / (1024 * 1024)) + "MB/s]";
+    }
+
+    private double perSecond(long count) {
+        return elapsedNanos > 0 ? count * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+    }
+
+}
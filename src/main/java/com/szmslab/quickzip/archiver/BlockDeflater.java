@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import net.lingala.zip4j.exception.ZipException;
+
+/**
+ * 1つの大きなエントリをブロックに分割し、複数のスレッドで並列にDEFLATE圧縮するクラスです（pigz方式）。
+ * <p>
+ * 各ブロックは直前のブロックの末尾32KBをプリセット辞書として圧縮し、SYNC_FLUSHでバイト境界に揃えてから連結します。
+ * 最後に空の最終ブロックを付加することで、全体として1つの有効なDEFLATEストリームになります。
+ * CRC-32はブロック毎に計算し、crc32_combineで結合します。
+ * </p>
+ *
+ * @author szmslab
+ */
+class BlockDeflater {
+
+    /**
+     * DEFLATEの辞書サイズ。
+     */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    /**
+     * 空の最終ブロック（BFINAL=1、固定ハフマン、EOBのみ）。
+     */
+    private static final byte[] FINAL_BLOCK = { 0x03, 0x00 };
+
+    /**
+     * 圧縮レベル。
+     */
+    private final int level;
+
+    /**
+     * ブロックサイズ。
+     */
+    private final int blockSize;
+
+    /**
+     * ブロックを圧縮するスレッドプール。
+     */
+    private final ExecutorService executor;
+
+    /**
+     * 同時に圧縮するブロックの最大数。
+     */
+    private final int window;
+
+    /**
+     * バッファとDeflaterのプール。
+     */
+    private final ResourcePool pool;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param level
+     *            圧縮レベル
+     * @param blockSize
+     *            ブロックサイズ
+     * @param executor
+     *            ブロックを圧縮するスレッドプール
+     * @param window
+     *            同時に圧縮するブロックの最大数
+     * @param pool
+     *            バッファとDeflaterのプール
+     */
+    BlockDeflater(int level, int blockSize, ExecutorService executor, int window, ResourcePool pool) {
+        this.level = level;
+        this.blockSize = blockSize;
+        this.executor = executor;
+        this.window = window;
+        this.pool = pool;
+    }
+
+    /**
+     * 入力ストリームのデータを圧縮して出力します。
+     * <p>
+     * CRC-32と圧縮前のサイズはエントリのヘッダ情報に設定されます。
+     * </p>
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @param in
+     *            入力ストリーム
+     * @param out
+     *            出力ストリーム
+     * @throws IOException
+     * @throws ZipException
+     */
+    void deflate(ZipEntryRecord record, InputStream in, OutputStream out) throws IOException, ZipException {
+        LinkedList<Future<Block>> pending = new LinkedList<Future<Block>>();
+        long crc = 0;
+        long total = 0;
+        byte[] dictionary = null;
+        try {
+            while (true) {
+                byte[] data = new byte[blockSize];
+                int len = readFully(in, data);
+                if (len > 0) {
+                    pending.add(executor.submit(new BlockTask(data, len, dictionary)));
+                    dictionary = tail(data, len, dictionary);
+                }
+                while (!pending.isEmpty() && (pending.size() >= window || len < blockSize)) {
+                    Block block = await(pending.removeFirst());
+                    out.write(block.compressed, 0, block.compressed.length);
+                    crc = combine(crc, block.crc, block.length);
+                    total += block.length;
+                }
+                if (len < blockSize) {
+                    break;
+                }
+            }
+            out.write(FINAL_BLOCK);
+        } finally {
+            for (Future<Block> future : pending) {
+                future.cancel(true);
+            }
+        }
+        record.setCrc(crc);
+        record.setUncompressedSize(total);
+    }
+
+    /**
+     * 次のブロックの辞書（直前までのデータの末尾32KB）を取得します。
+     *
+     * @param data
+     *            ブロックのデータ
+     * @param len
+     *            ブロックのデータ長
+     * @param previous
+     *            直前のブロックの辞書
+     * @return 辞書
+     */
+    private byte[] tail(byte[] data, int len, byte[] previous) {
+        if (len >= DICTIONARY_SIZE || previous == null) {
+            int size = Math.min(len, DICTIONARY_SIZE);
+            byte[] dictionary = new byte[size];
+            System.arraycopy(data, len - size, dictionary, 0, size);
+            return dictionary;
+        }
+        int keep = Math.min(previous.length, DICTIONARY_SIZE - len);
+        byte[] dictionary = new byte[keep + len];
+        System.arraycopy(previous, previous.length - keep, dictionary, 0, keep);
+        System.arraycopy(data, 0, dictionary, keep, len);
+        return dictionary;
+    }
+
+    /**
+     * バッファが一杯になるか終端に達するまで読み込みます。
+     *
+     * @param in
+     *            入力ストリーム
+     * @param buffer
+     *            バッファ
+     * @return 読み込んだバイト数
+     * @throws IOException
+     */
+    private int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int len = in.read(buffer, total, buffer.length - total);
+            if (len < 0) {
+                break;
+            }
+            total += len;
+        }
+        return total;
+    }
+
+    /**
+     * ブロックの圧縮の完了を待ちます。
+     *
+     * @param future
+     *            ブロックの圧縮タスク
+     * @return 圧縮済みのブロック
+     * @throws IOException
+     * @throws ZipException
+     */
+    private Block await(Future<Block> future) throws IOException, ZipException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZipException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ZipException(e.getCause());
+        }
+    }
+
+    /**
+     * 2つのCRC-32を結合します（zlibの crc32_combine と同じアルゴリズム）。
+     *
+     * @param crc1
+     *            前半のデータのCRC-32
+     * @param crc2
+     *            後半のデータのCRC-32
+     * @param len2
+     *            後半のデータ長
+     * @return 結合したデータのCRC-32
+     */
+    static long combine(long crc1, long crc2, long len2) {
+        if (len2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        // 1ビット分のゼロを処理する演算子
+        odd[0] = 0xedb88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // 2ビット分、4ビット分のゼロを処理する演算子
+        square(even, odd);
+        square(odd, even);
+
+        // len2バイト分のゼロをcrc1に適用する
+        do {
+            square(even, odd);
+            if ((len2 & 1) != 0) {
+                crc1 = times(even, crc1);
+            }
+            len2 >>= 1;
+            if (len2 == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((len2 & 1) != 0) {
+                crc1 = times(odd, crc1);
+            }
+            len2 >>= 1;
+        } while (len2 != 0);
+
+        return (crc1 ^ crc2) & 0xffffffffL;
+    }
+
+    private static long times(long[] mat, long vec) {
+        long sum = 0;
+        int i = 0;
+        while (vec != 0) {
+            if ((vec & 1) != 0) {
+                sum ^= mat[i];
+            }
+            vec >>>= 1;
+            i++;
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] mat) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(mat, mat[n]);
+        }
+    }
+
+    /**
+     * 圧縮済みのブロックです。
+     */
+    private static class Block {
+
+        /**
+         * 圧縮データ。
+         */
+        private final byte[] compressed;
+
+        /**
+         * 圧縮前のデータのCRC-32。
+         */
+        private final long crc;
+
+        /**
+         * 圧縮前のデータ長。
+         */
+        private final int length;
+
+        Block(byte[] compressed, long crc, int length) {
+            this.compressed = compressed;
+            this.crc = crc;
+            this.length = length;
+        }
+
+    }
+
+    /**
+     * 1ブロック分の圧縮タスクです。
+     */
+    private class BlockTask implements Callable<Block> {
+
+        /**
+         * ブロックのデータ。
+         */
+        private final byte[] data;
+
+        /**
+         * ブロックのデータ長。
+         */
+        private final int length;
+
+        /**
+         * プリセット辞書。
+         */
+        private final byte[] dictionary;
+
+        BlockTask(byte[] data, int length, byte[] dictionary) {
+            this.data = data;
+            this.length = length;
+            this.dictionary = dictionary;
+        }
+
+        public Block call() {
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, length);
+
+            Deflater deflater = pool.acquireDeflater(level);
+            byte[] buffer = pool.acquireBuffer();
+            try {
+                if (dictionary != null) {
+                    deflater.setDictionary(dictionary);
+                }
+                deflater.setInput(data, 0, length);
+                ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+                int len = 0;
+                do {
+                    len = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, len);
+                } while (len == buffer.length || !deflater.needsInput());
+                return new Block(out.toByteArray(), crc.getValue(), length);
+            } finally {
+                pool.releaseBuffer(buffer);
+                pool.releaseDeflater(level, deflater);
+            }
+        }
+
+    }
+
+}
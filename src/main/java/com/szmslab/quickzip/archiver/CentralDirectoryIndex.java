@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.szmslab.quickzip.enums.EncryptionType;
+
+/**
+ * セントラルディレクトリの内容をプリミティブ型の配列で保持する索引です。
+ * <p>
+ * エントリ毎にオブジェクトを保持せず、名前（intern済み）以外は配列にまとめてメモリ使用量を抑えます。
+ * エントリ名はオープンアドレス法のハッシュ表で検索できます。
+ * 生成後は変更しないため、複数のスレッドで共有できます。
+ * {@link #record(int)} は呼び出し毎に新しいヘッダ情報を生成します。
+ * </p>
+ *
+ * @author szmslab
+ */
+class CentralDirectoryIndex {
+
+    /**
+     * 暗号化形式の一覧（序数で保持するため）。
+     */
+    private static final EncryptionType[] ENCRYPTION_TYPES = EncryptionType.values();
+
+    /**
+     * エントリ名（格納順、intern済み）。
+     */
+    private final String[] names;
+
+    /**
+     * 汎用フラグ（下位16ビット）、圧縮方式（上位16ビット）。
+     */
+    private final int[] flagsAndMethods;
+
+    /**
+     * 暗号化形式の序数。
+     */
+    private final byte[] encryptionTypes;
+
+    /**
+     * 最終更新日時（DOS形式）。
+     */
+    private final int[] dosTimes;
+
+    /**
+     * CRC-32。
+     */
+    private final int[] crcs;
+
+    /**
+     * 圧縮後のサイズ。
+     */
+    private final long[] compressedSizes;
+
+    /**
+     * 圧縮前のサイズ。
+     */
+    private final long[] uncompressedSizes;
+
+    /**
+     * ローカルファイルヘッダの位置。
+     */
+    private final long[] localHeaderOffsets;
+
+    /**
+     * ファイル属性。
+     */
+    private final int[] externalAttributes;
+
+    /**
+     * エントリ名のハッシュ表（エントリの位置+1、空きは0）。
+     */
+    private final int[] table;
+
+    /**
+     * 重複を除いたエントリ名（格納順）。
+     */
+    private final List<String> uniqueNames;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param records
+     *            Zipエントリのヘッダ情報（格納順）
+     */
+    CentralDirectoryIndex(List<ZipEntryRecord> records) {
+        int n = records.size();
+        names = new String[n];
+        flagsAndMethods = new int[n];
+        encryptionTypes = new byte[n];
+        dosTimes = new int[n];
+        crcs = new int[n];
+        compressedSizes = new long[n];
+        uncompressedSizes = new long[n];
+        localHeaderOffsets = new long[n];
+        externalAttributes = new int[n];
+        int capacity = Integer.highestOneBit(Math.max(n, 1) * 2 - 1) << 1;
+        table = new int[capacity];
+        List<String> unique = new ArrayList<String>(n);
+
+        for (int i = 0; i < n; i++) {
+            ZipEntryRecord record = records.get(i);
+            names[i] = record.getName().intern();
+            flagsAndMethods[i] = (record.getFlags() & 0xffff) | record.getCompressionMethod() << 16;
+            encryptionTypes[i] = (byte) record.getEncryptionType().ordinal();
+            dosTimes[i] = record.getDosTime();
+            crcs[i] = (int) record.getCrc();
+            compressedSizes[i] = record.getCompressedSize();
+            uncompressedSizes[i] = record.getUncompressedSize();
+            localHeaderOffsets[i] = record.getLocalHeaderOffset();
+            externalAttributes[i] = record.getExternalAttributes();
+
+            // 同じ名前のエントリがある場合は、展開時と同じく後のエントリを優先する
+            String key = normalize(names[i]);
+            int slot = slot(key);
+            if (table[slot] == 0) {
+                unique.add(key);
+            }
+            table[slot] = i + 1;
+        }
+        uniqueNames = unique;
+    }
+
+    /**
+     * エントリ数を取得します。
+     *
+     * @return エントリ数
+     */
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * 重複を除いたエントリ名の一覧を取得します。
+     *
+     * @return エントリ名（格納順、区切り文字は"/"）
+     */
+    List<String> names() {
+        return uniqueNames;
+    }
+
+    /**
+     * エントリ名からエントリの位置を検索します。
+     *
+     * @param name
+     *            エントリ名（区切り文字は"/"または"\"）
+     * @return エントリの位置（存在しない場合は-1）
+     */
+    int find(String name) {
+        return table[slot(normalize(name))] - 1;
+    }
+
+    /**
+     * Zipエントリのヘッダ情報を生成します。
+     *
+     * @param i
+     *            エントリの位置
+     * @return Zipエントリのヘッダ情報
+     */
+    ZipEntryRecord record(int i) {
+        ZipEntryRecord record = new ZipEntryRecord();
+        record.setName(names[i]);
+        record.setDirectory(names[i].endsWith("/") || names[i].endsWith("\\"));
+        record.setFlags(flagsAndMethods[i] & 0xffff);
+        record.setCompressionMethod(flagsAndMethods[i] >>> 16);
+        record.setEncryptionType(ENCRYPTION_TYPES[encryptionTypes[i]]);
+        record.setDosTime(dosTimes[i]);
+        record.setCrc(crcs[i] & 0xffffffffL);
+        record.setCompressedSize(compressedSizes[i]);
+        record.setUncompressedSize(uncompressedSizes[i]);
+        record.setLocalHeaderOffset(localHeaderOffsets[i]);
+        record.setExternalAttributes(externalAttributes[i]);
+        return record;
+    }
+
+    /**
+     * すべてのZipエントリのヘッダ情報を生成します。
+     *
+     * @return Zipエントリのヘッダ情報（格納順）
+     */
+    List<ZipEntryRecord> records() {
+        List<ZipEntryRecord> records = new ArrayList<ZipEntryRecord>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            records.add(record(i));
+        }
+        return records;
+    }
+
+    /**
+     * エントリ名のハッシュ表の位置（同じ名前のエントリの位置、または空き）を取得します。
+     *
+     * @param key
+     *            正規化したエントリ名
+     * @return ハッシュ表の位置
+     */
+    private int slot(String key) {
+        int mask = table.length - 1;
+        int h = key.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (table[slot] != 0 && !normalize(names[table[slot] - 1]).equals(key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * エントリ名の区切り文字を"/"に揃えます。
+     *
+     * @param name
+     *            エントリ名
+     * @return 正規化したエントリ名
+     */
+    static String normalize(String name) {
+        return name.replace('\\', '/');
+    }
+
+}
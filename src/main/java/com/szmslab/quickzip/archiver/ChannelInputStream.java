@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * ファイルチャネルの指定範囲を位置指定読み込み（pread）で読み込む入力ストリームです。
+ * <p>
+ * チャネルの位置を変更しないため、1つのチャネルを複数のスレッドで共有できます。
+ * </p>
+ *
+ * @author szmslab
+ */
+class ChannelInputStream extends InputStream {
+
+    /**
+     * ファイルチャネル。
+     */
+    private final FileChannel channel;
+
+    /**
+     * 次に読み込む位置。
+     */
+    private long position;
+
+    /**
+     * 残りのバイト数。
+     */
+    private long remaining;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param channel
+     *            ファイルチャネル
+     * @param position
+     *            読み込み開始位置
+     * @param length
+     *            読み込むバイト数
+     */
+    ChannelInputStream(FileChannel channel, long position, long length) {
+        this.channel = channel;
+        this.position = position;
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+        if (n < 0) {
+            throw new IOException("unexpected end of zip file");
+        }
+        position += n;
+        remaining -= n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, remaining));
+        position += skipped;
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, remaining);
+    }
+
+}
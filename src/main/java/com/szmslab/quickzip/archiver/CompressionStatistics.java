@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.lingala.zip4j.util.Zip4jConstants;
+
+/**
+ * 圧縮結果の統計情報を保持するクラスです。
+ * <p>
+ * 無圧縮（STORE）とDEFLATEのそれぞれで格納したエントリ数とバイト数を集計します。
+ * 適応的な無圧縮格納（{@link ZipCompressor#adaptiveStore(boolean)}）によりSTOREに切り替えたエントリ、
+ * 前回のZipファイル（{@link ZipCompressor#baseline(java.io.File)}）から再利用したエントリ、
+ * 重複排除（{@link ZipCompressor#deduplicate(boolean)}）により圧縮を省略したエントリは、別途集計します。
+ * パイプライン（{@link ZipCompressor#pipeline(boolean)}）では、メモリ上限を超えて一時ファイルに退避したエントリと
+ * メモリ使用量の最大値を集計します。
+ * </p>
+ *
+ * @author szmslab
+ */
+public class CompressionStatistics {
+
+    /**
+     * 無圧縮で格納したエントリ数。
+     */
+    private final AtomicLong storedEntries = new AtomicLong();
+
+    /**
+     * 無圧縮で格納したバイト数。
+     */
+    private final AtomicLong storedBytes = new AtomicLong();
+
+    /**
+     * DEFLATEで格納したエントリ数。
+     */
+    private final AtomicLong deflatedEntries = new AtomicLong();
+
+    /**
+     * DEFLATEで格納したエントリの圧縮前のバイト数。
+     */
+    private final AtomicLong deflatedBytes = new AtomicLong();
+
+    /**
+     * DEFLATEで格納したエントリの圧縮後のバイト数。
+     */
+    private final AtomicLong deflatedCompressedBytes = new AtomicLong();
+
+    /**
+     * 圧縮効果が低いためSTOREに切り替えたエントリ数。
+     */
+    private final AtomicLong fallbackEntries = new AtomicLong();
+
+    /**
+     * 圧縮効果が低いためSTOREに切り替えたバイト数。
+     */
+    private final AtomicLong fallbackBytes = new AtomicLong();
+
+    /**
+     * 前回のZipファイルから再利用したエントリ数。
+     */
+    private final AtomicLong reusedEntries = new AtomicLong();
+
+    /**
+     * 前回のZipファイルから再利用したエントリの圧縮前のバイト数。
+     */
+    private final AtomicLong reusedBytes = new AtomicLong();
+
+    /**
+     * 重複排除により圧縮を省略したエントリ数。
+     */
+    private final AtomicLong deduplicatedEntries = new AtomicLong();
+
+    /**
+     * 重複排除により圧縮を省略したエントリの圧縮前のバイト数。
+     */
+    private final AtomicLong deduplicatedBytes = new AtomicLong();
+
+    /**
+     * 重複排除によりZipファイルに書き込まなかったバイト数。
+     */
+    private final AtomicLong deduplicatedCompressedBytes = new AtomicLong();
+
+    /**
+     * 重複排除のためのハッシュ値の計算に要した時間（ナノ秒）。
+     */
+    private final AtomicLong hashNanos = new AtomicLong();
+
+    /**
+     * 一時ファイルに退避したエントリ数（並列圧縮時）。
+     */
+    private final AtomicLong spilledEntries = new AtomicLong();
+
+    /**
+     * 一時ファイルに退避した圧縮後のバイト数（並列圧縮時）。
+     */
+    private final AtomicLong spilledBytes = new AtomicLong();
+
+    /**
+     * 書き込み待ちの圧縮データのメモリ使用量の最大値（並列圧縮時）。
+     */
+    private final AtomicLong spoolMemoryPeak = new AtomicLong();
+
+    /**
+     * 無圧縮で格納したエントリ数を取得します。
+     *
+     * @return 無圧縮で格納したエントリ数
+     */
+    public long storedEntries() {
+        return storedEntries.get();
+    }
+
+    /**
+     * 無圧縮で格納したバイト数を取得します。
+     *
+     * @return 無圧縮で格納したバイト数
+     */
+    public long storedBytes() {
+        return storedBytes.get();
+    }
+
+    /**
+     * DEFLATEで格納したエントリ数を取得します。
+     *
+     * @return DEFLATEで格納したエントリ数
+     */
+    public long deflatedEntries() {
+        return deflatedEntries.get();
+    }
+
+    /**
+     * DEFLATEで格納したエントリの圧縮前のバイト数を取得します。
+     *
+     * @return DEFLATEで格納したエントリの圧縮前のバイト数
+     */
+    public long deflatedBytes() {
+        return deflatedBytes.get();
+    }
+
+    /**
+     * DEFLATEで格納したエントリの圧縮後のバイト数を取得します。
+     *
+     * @return DEFLATEで格納したエントリの圧縮後のバイト数
+     */
+    public long deflatedCompressedBytes() {
+        return deflatedCompressedBytes.get();
+    }
+
+    /**
+     * 圧縮効果が低いためSTOREに切り替えたエントリ数を取得します。
+     *
+     * @return 圧縮効果が低いためSTOREに切り替えたエントリ数
+     */
+    public long fallbackEntries() {
+        return fallbackEntries.get();
+    }
+
+    /**
+     * 圧縮効果が低いためSTOREに切り替えたバイト数を取得します。
+     *
+     * @return 圧縮効果が低いためSTOREに切り替えたバイト数
+     */
+    public long fallbackBytes() {
+        return fallbackBytes.get();
+    }
+
+    /**
+     * 前回のZipファイルから再利用したエントリ数を取得します。
+     *
+     * @return 前回のZipファイルから再利用したエントリ数
+     */
+    public long reusedEntries() {
+        return reusedEntries.get();
+    }
+
+    /**
+     * 前回のZipファイルから再利用したエントリの圧縮前のバイト数を取得します。
+     *
+     * @return 前回のZipファイルから再利用したエントリの圧縮前のバイト数
+     */
+    public long reusedBytes() {
+        return reusedBytes.get();
+    }
+
+    /**
+     * 重複排除により圧縮を省略したエントリ数を取得します。
+     *
+     * @return 重複排除により圧縮を省略したエントリ数
+     */
+    public long deduplicatedEntries() {
+        return deduplicatedEntries.get();
+    }
+
+    /**
+     * 重複排除により圧縮を省略したエントリの圧縮前のバイト数を取得します。
+     *
+     * @return 重複排除により圧縮を省略したエントリの圧縮前のバイト数
+     */
+    public long deduplicatedBytes() {
+        return deduplicatedBytes.get();
+    }
+
+    /**
+     * 重複排除によりZipファイルに書き込まなかったバイト数を取得します。
+     *
+     * @return 重複排除によりZipファイルに書き込まなかったバイト数
+     */
+    public long deduplicatedCompressedBytes() {
+        return deduplicatedCompressedBytes.get();
+    }
+
+    /**
+     * 重複排除のためのハッシュ値の計算に要した時間を取得します。
+     *
+     * @return ハッシュ値の計算に要した時間（ナノ秒）
+     */
+    public long hashNanos() {
+        return hashNanos.get();
+    }
+
+    /**
+     * 書き込み待ちの間に一時ファイルに退避したエントリ数を取得します。
+     *
+     * @return 一時ファイルに退避したエントリ数
+     */
+    public long spilledEntries() {
+        return spilledEntries.get();
+    }
+
+    /**
+     * 書き込み待ちの間に一時ファイルに退避した圧縮後のバイト数を取得します。
+     *
+     * @return 一時ファイルに退避した圧縮後のバイト数
+     */
+    public long spilledBytes() {
+        return spilledBytes.get();
+    }
+
+    /**
+     * 書き込み待ちの圧縮データのメモリ使用量の最大値を取得します。
+     *
+     * @return メモリ使用量の最大値（バイト）
+     */
+    public long spoolMemoryPeak() {
+        return spoolMemoryPeak.get();
+    }
+
+    /**
+     * 格納したエントリを集計します。
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     */
+    void add(ZipEntryRecord record) {
+        if (record.getCompressionMethod() == Zip4jConstants.COMP_DEFLATE) {
+            deflatedEntries.incrementAndGet();
+            deflatedBytes.addAndGet(record.getUncompressedSize());
+            deflatedCompressedBytes.addAndGet(record.getCompressedSize());
+        } else {
+            storedEntries.incrementAndGet();
+            storedBytes.addAndGet(record.getUncompressedSize());
+        }
+    }
+
+    /**
+     * STOREに切り替えたエントリを集計します。
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     */
+    void addFallback(ZipEntryRecord record) {
+        fallbackEntries.incrementAndGet();
+        fallbackBytes.addAndGet(record.getUncompressedSize());
+    }
+
+    /**
+     * 前回のZipファイルから再利用したエントリを集計します。
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     */
+    void addReused(ZipEntryRecord record) {
+        reusedEntries.incrementAndGet();
+        reusedBytes.addAndGet(record.getUncompressedSize());
+    }
+
+    /**
+     * 重複排除により圧縮を省略したエントリを集計します。
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @param shared
+     *            エントリデータを共有したかどうか
+     */
+    void addDeduplicated(ZipEntryRecord record, boolean shared) {
+        deduplicatedEntries.incrementAndGet();
+        deduplicatedBytes.addAndGet(record.getUncompressedSize());
+        if (shared) {
+            deduplicatedCompressedBytes.addAndGet(record.getCompressedSize());
+        }
+    }
+
+    /**
+     * ハッシュ値の計算に要した時間を集計します。
+     *
+     * @param nanos
+     *            ハッシュ値の計算に要した時間（ナノ秒）
+     */
+    void addHashTime(long nanos) {
+        hashNanos.addAndGet(nanos);
+    }
+
+    /**
+     * 一時ファイルに退避したエントリを集計します。
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     */
+    void addSpilled(ZipEntryRecord record) {
+        spilledEntries.incrementAndGet();
+        spilledBytes.addAndGet(record.getCompressedSize());
+    }
+
+    /**
+     * 書き込み待ちの圧縮データのメモリ使用量の最大値を更新します。
+     *
+     * @param peak
+     *            メモリ使用量の最大値（バイト）
+     */
+    void updateSpoolMemoryPeak(long peak) {
+        long current;
+        while ((current = spoolMemoryPeak.get()) < peak && !spoolMemoryPeak.compareAndSet(current, peak)) {
+            // retry
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "stored=" + storedEntries() + " entries/" + storedBytes() + " bytes"
+            + ", deflated=" + deflatedEntries() + " entries/" + deflatedBytes() + " -> "
+            + deflatedCompressedBytes() + " bytes"
+            + ", fallback=" + fallbackEntries() + " entries/" + fallbackBytes() + " bytes"
+            + ", reused=" + reusedEntries() + " entries/" + reusedBytes() + " bytes"
+            + ", deduplicated=" + deduplicatedEntries() + " entries/" + deduplicatedBytes() + " bytes (saved "
+            + deduplicatedCompressedBytes() + " bytes, hashed in " + hashNanos() / 1000000 + " ms)"
+            + ", spilled=" + spilledEntries() + " entries/" + spilledBytes() + " bytes (peak memory "
+            + spoolMemoryPeak() + " bytes)";
+    }
+
+}
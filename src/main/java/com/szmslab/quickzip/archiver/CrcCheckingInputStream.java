@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+import com.szmslab.quickzip.enums.EncryptionType;
+
+/**
+ * 展開したデータのCRC-32とサイズを終端で検証する入力ストリームです。
+ *
+ * @author szmslab
+ */
+class CrcCheckingInputStream extends FilterInputStream {
+
+    /**
+     * CRC-32の計算。
+     */
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Zipエントリのヘッダ情報。
+     */
+    private final ZipEntryRecord record;
+
+    /**
+     * CRC-32を検証するかどうか。
+     */
+    private final boolean checkCrc;
+
+    /**
+     * 読み込んだバイト数。
+     */
+    private long count;
+
+    /**
+     * 検証済みかどうか。
+     */
+    private boolean verified;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param in
+     *            展開済みデータの入力ストリーム
+     * @param record
+     *            Zipエントリのヘッダ情報
+     */
+    CrcCheckingInputStream(InputStream in, ZipEntryRecord record) {
+        super(in);
+        this.record = record;
+        // AE-2形式ではCRCの代わりに認証コードで検証する
+        this.checkCrc = !record.isAesEncrypted() || record.getCrc() != 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n < 0) {
+            verify();
+            return -1;
+        }
+        crc.update(b, off, n);
+        count += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] b = new byte[(int) Math.min(n, EntryCompressor.BUFFER_SIZE)];
+        long skipped = 0;
+        while (skipped < n) {
+            int len = read(b, 0, (int) Math.min(b.length, n - skipped));
+            if (len < 0) {
+                break;
+            }
+            skipped += len;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * CRC-32とサイズを検証します。
+     *
+     * @throws IOException
+     */
+    private void verify() throws IOException {
+        if (verified) {
+            return;
+        }
+        verified = true;
+        if (checkCrc && crc.getValue() != record.getCrc()) {
+            String message = "invalid CRC for file: " + record.getName();
+            if (record.getEncryptionType() != EncryptionType.NO_ENCRYPTION) {
+                message += " - Wrong Password?";
+            }
+            throw new EntryChecksumException(message);
+        }
+        if (count != record.getUncompressedSize()) {
+            throw new IOException("invalid size for file: " + record.getName());
+        }
+    }
+
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+import net.lingala.zip4j.crypto.engine.ZipCryptoEngine;
+import net.lingala.zip4j.exception.ZipException;
+import net.lingala.zip4j.exception.ZipExceptionConstants;
+import net.lingala.zip4j.util.InternalZipConstants;
+
+/**
+ * 暗号化されたエントリデータを復号する入力ストリームです。
+ * <p>
+ * 下位ストリームは暗号化ヘッダ（ZipCryptoのヘッダ、またはAESのソルトとパスワード検証値）から始まり、
+ * AESの認証コードを含まない範囲を指すものとします。AESの認証コードは終端で検証します。
+ * AESの復号は {@link AesCipher} で行います。
+ * </p>
+ *
+ * @author szmslab
+ */
+class DecryptingInputStream extends FilterInputStream {
+
+    /**
+     * AESのパスワード検証値の長さ。
+     */
+    static final int AES_PASSWORD_VERIFIER_LENGTH = 2;
+
+    /**
+     * ZipCryptoの復号処理。
+     */
+    private ZipCryptoEngine zipCrypto;
+
+    /**
+     * AESの復号処理。
+     */
+    private AesCipher aes;
+
+    /**
+     * AESの格納済み認証コード。
+     */
+    private byte[] storedMac;
+
+    /**
+     * AESの認証コードを末尾のトレイラとして読み込むストリーム（認証コードが格納済みの場合はnull）。
+     */
+    private LocalEntryInputStream trailerSource;
+
+    /**
+     * エントリ名。
+     */
+    private final String name;
+
+    /**
+     * バッファのプール。
+     */
+    private final ResourcePool pool;
+
+    /**
+     * 復号済みデータのバッファ（AESのブロック境界に揃えるため）。
+     */
+    private byte[] buffer;
+
+    /**
+     * バッファをプールから取得したかどうか。
+     */
+    private final boolean pooled;
+
+    /**
+     * バッファ内の次に返す位置。
+     */
+    private int bufferPos;
+
+    /**
+     * バッファ内の有効なデータ長。
+     */
+    private int bufferLength;
+
+    /**
+     * 終端に達したかどうか。
+     */
+    private boolean eof;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param in
+     *            暗号化されたデータの入力ストリーム
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @param password
+     *            パスワード
+     * @param trailerSource
+     *            AESの認証コードを末尾のトレイラとして読み込むストリーム（下位ストリームの読み込み元）
+     * @param pool
+     *            バッファのプール
+     * @throws IOException
+     * @throws ZipException
+     */
+    DecryptingInputStream(InputStream in, ZipEntryRecord record, String password,
+            LocalEntryInputStream trailerSource, ResourcePool pool) throws IOException, ZipException {
+        this(in, record, password, (byte[]) null, pool, null, null, 1);
+        this.trailerSource = trailerSource;
+    }
+
+    /**
+     * AESの鍵のキャッシュを使用し、鍵ストリームを並列に生成するコンストラクタです。
+     *
+     * @param in
+     *            暗号化されたデータの入力ストリーム
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @param password
+     *            パスワード
+     * @param storedMac
+     *            AESの格納済み認証コード（ZipCryptoの場合はnull）
+     * @param pool
+     *            バッファのプール
+     * @param keys
+     *            AESの鍵のキャッシュ（キャッシュしない場合はnull）
+     * @param executor
+     *            AESの鍵ストリームを並列に生成するスレッドプール（並列に生成しない場合はnull）
+     * @param parallelism
+     *            並列数
+     * @throws IOException
+     * @throws ZipException
+     */
+    DecryptingInputStream(InputStream in, ZipEntryRecord record, String password, byte[] storedMac,
+            ResourcePool pool, AesKeyCache keys, ExecutorService executor, int parallelism) throws IOException, ZipException {
+        super(in);
+        this.name = record.getName();
+        this.pool = pool;
+        if (password == null || password.length() == 0) {
+            throw new ZipException("Wrong password!", ZipExceptionConstants.WRONG_PASSWORD);
+        }
+        if (record.isAesEncrypted()) {
+            byte[] salt = readHeader(AesCipher.saltLength(record.getAesStrength()));
+            byte[] verifier = readHeader(AES_PASSWORD_VERIFIER_LENGTH);
+            int strength = record.getAesStrength();
+            byte[] derived = keys != null ? keys.derive(password, strength, salt)
+                    : AesCipher.deriveKey(password.toCharArray(), strength, salt);
+            this.aes = new AesCipher(strength, salt, derived);
+            if (!Arrays.equals(aes.getPasswordVerifier(), verifier)) {
+                throw new ZipException("Wrong Password for file: " + name, ZipExceptionConstants.WRONG_PASSWORD);
+            }
+            this.storedMac = storedMac;
+        } else {
+            byte[] header = readHeader(InternalZipConstants.STD_DEC_HDR_SIZE);
+            this.zipCrypto = new ZipCryptoEngine();
+            zipCrypto.initKeys(password.toCharArray());
+            for (int i = 0; i < header.length; i++) {
+                zipCrypto.updateKeys((byte) (header[i] ^ zipCrypto.decryptByte()));
+            }
+        }
+        if (aes != null && executor != null && parallelism > 1) {
+            // 区間に分けて並列に処理できるよう、並列数分の区間をまとめて読み込む
+            aes.setExecutor(executor, parallelism);
+            this.buffer = new byte[AesCipher.PARALLEL_SEGMENT * parallelism];
+            this.pooled = false;
+        } else {
+            this.buffer = pool.acquireBuffer();
+            this.pooled = true;
+        }
+    }
+
+    /**
+     * 暗号化ヘッダのサイズ（認証コードを含む）を取得します。
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @return 暗号化ヘッダのサイズ
+     */
+    static int overhead(ZipEntryRecord record) {
+        if (record.isAesEncrypted()) {
+            return AesCipher.saltLength(record.getAesStrength()) + AES_PASSWORD_VERIFIER_LENGTH
+                + InternalZipConstants.AES_AUTH_LENGTH;
+        }
+        return InternalZipConstants.STD_DEC_HDR_SIZE;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (buffer == null) {
+            throw new IOException("Stream closed");
+        }
+        if (bufferPos >= bufferLength) {
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, bufferLength - bufferPos);
+        System.arraycopy(buffer, bufferPos, b, off, n);
+        bufferPos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] b = new byte[(int) Math.min(n, EntryCompressor.BUFFER_SIZE)];
+        long skipped = 0;
+        while (skipped < n) {
+            int len = read(b, 0, (int) Math.min(b.length, n - skipped));
+            if (len < 0) {
+                break;
+            }
+            skipped += len;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return bufferLength - bufferPos;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer != null) {
+            if (pooled) {
+                pool.releaseBuffer(buffer);
+            }
+            buffer = null;
+            super.close();
+        }
+    }
+
+    /**
+     * 次のデータを読み込んで復号します。
+     *
+     * @return データを読み込んだかどうか
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        int total = 0;
+        while (total < buffer.length) {
+            int len = in.read(buffer, total, buffer.length - total);
+            if (len < 0) {
+                eof = true;
+                break;
+            }
+            total += len;
+        }
+        bufferPos = 0;
+        bufferLength = total;
+        if (aes != null) {
+            aes.decrypt(buffer, 0, total);
+            if (eof) {
+                verifyMac();
+            }
+        } else {
+            for (int i = 0; i < total; i++) {
+                int value = (buffer[i] ^ zipCrypto.decryptByte()) & 0xff;
+                zipCrypto.updateKeys((byte) value);
+                buffer[i] = (byte) value;
+            }
+        }
+        return total > 0;
+    }
+
+    /**
+     * AESの認証コードを検証します。
+     *
+     * @throws IOException
+     */
+    private void verifyMac() throws IOException {
+        byte[] mac = storedMac;
+        if (mac == null && trailerSource != null) {
+            // ストリームから読み込む場合は、エントリデータの終端で認証コードが確定する
+            mac = trailerSource.trailer();
+        }
+        if (mac == null || !Arrays.equals(aes.getMac(), mac)) {
+            throw new EntryChecksumException("invalid CRC (MAC) for file: " + name);
+        }
+    }
+
+    /**
+     * 暗号化ヘッダを読み込みます。
+     *
+     * @param length
+     *            読み込むバイト数
+     * @return 暗号化ヘッダ
+     * @throws IOException
+     */
+    private byte[] readHeader(int length) throws IOException {
+        byte[] header = new byte[length];
+        int total = 0;
+        while (total < length) {
+            int len = in.read(header, total, length - total);
+            if (len < 0) {
+                throw new IOException("unexpected end of encryption header: " + name);
+            }
+            total += len;
+        }
+        return header;
+    }
+
+}
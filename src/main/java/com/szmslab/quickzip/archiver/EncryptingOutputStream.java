@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import net.lingala.zip4j.crypto.StandardEncrypter;
+import net.lingala.zip4j.exception.ZipException;
+
+/**
+ * エントリデータを暗号化して書き込む出力ストリームです。
+ * <p>
+ * 暗号化ヘッダ（ZipCryptoのヘッダ、またはAESのソルトとパスワード検証値）は生成時に、
+ * AESの認証コードは {@link #finish()} で書き込みます。
+ * AESはデータをバッファにまとめてから {@link AesCipher} で暗号化します。
+ * </p>
+ *
+ * @author szmslab
+ */
+class EncryptingOutputStream extends FilterOutputStream {
+
+    /**
+     * ZipCryptoの暗号化処理。
+     */
+    private StandardEncrypter standard;
+
+    /**
+     * AESの暗号化処理。
+     */
+    private AesCipher aes;
+
+    /**
+     * 暗号化前のデータのバッファ（ZipCryptoの場合は作業バッファ）。
+     */
+    private byte[] buffer;
+
+    /**
+     * バッファ済みのデータ長（AESの場合）。
+     */
+    private int count;
+
+    /**
+     * 認証コードを書き込んだかどうか。
+     */
+    private boolean finished;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param out
+     *            出力ストリーム
+     * @param record
+     *            エントリ
+     * @param password
+     *            暗号化パスワード
+     * @throws IOException
+     * @throws ZipException
+     */
+    EncryptingOutputStream(OutputStream out, ZipEntryRecord record, String password)
+            throws IOException, ZipException {
+        this(out, record, password, null);
+    }
+
+    /**
+     * 準備済みのAESの暗号化処理を使用するコンストラクタです。
+     * <p>
+     * 鍵を事前に導出した場合や、鍵ストリームを並列に生成する場合に使用します。
+     * </p>
+     *
+     * @param out
+     *            出力ストリーム
+     * @param record
+     *            エントリ
+     * @param password
+     *            暗号化パスワード
+     * @param aes
+     *            AESの暗号化処理（AES以外の場合、またはここで鍵を導出する場合はnull）
+     * @throws IOException
+     * @throws ZipException
+     */
+    EncryptingOutputStream(OutputStream out, ZipEntryRecord record, String password, AesCipher aes)
+            throws IOException, ZipException {
+        super(out);
+        char[] chars = password == null ? new char[0] : password.toCharArray();
+        if (record.isAesEncrypted()) {
+            this.aes = aes != null ? aes : AesCipher.forEncryption(chars, record.getAesStrength());
+            out.write(this.aes.getSalt());
+            out.write(this.aes.getPasswordVerifier());
+            buffer = new byte[this.aes.chunkSize()];
+        } else {
+            // データディスクリプタを使用するため、CRCの代わりに更新日時で検証値を生成する
+            standard = new StandardEncrypter(chars, (record.getDosTime() & 0x0000ffff) << 16);
+            out.write(standard.getHeaderBytes());
+            buffer = new byte[0];
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        if (aes == null) {
+            encryptAndWrite(b, off, len);
+            return;
+        }
+        // AESは最終ブロック以外を16バイト単位で暗号化する必要があるため、バッファが満杯になった時点で暗号化する
+        while (len > 0) {
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+        }
+    }
+
+    /**
+     * 残りのデータと認証コードを書き込みます（下位ストリームは閉じません）。
+     *
+     * @throws IOException
+     */
+    void finish() throws IOException {
+        if (aes != null && !finished) {
+            flushBuffer();
+            out.write(aes.getMac());
+            finished = true;
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    /**
+     * バッファ済みのデータを暗号化して書き込みます。
+     *
+     * @throws IOException
+     */
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            aes.encrypt(buffer, 0, count);
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * データをZipCryptoで暗号化して書き込みます（呼び出し元のバッファは変更しません）。
+     *
+     * @param b
+     *            データ
+     * @param off
+     *            開始位置
+     * @param len
+     *            長さ
+     * @throws IOException
+     */
+    private void encryptAndWrite(byte[] b, int off, int len) throws IOException {
+        if (buffer.length < len) {
+            buffer = new byte[len];
+        }
+        System.arraycopy(b, off, buffer, 0, len);
+        try {
+            standard.encryptData(buffer, 0, len);
+        } catch (ZipException e) {
+            throw new IOException(e.getMessage());
+        }
+        out.write(buffer, 0, len);
+    }
+
+}
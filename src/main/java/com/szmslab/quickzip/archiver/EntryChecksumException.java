@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.IOException;
+
+/**
+ * 展開したエントリデータのCRC-32（AESの場合は認証コード）が一致しない場合の例外です。
+ *
+ * @author szmslab
+ */
+class EntryChecksumException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param message
+     *            メッセージ
+     */
+    EntryChecksumException(String message) {
+        super(message);
+    }
+
+}
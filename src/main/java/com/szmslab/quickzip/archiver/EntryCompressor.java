@@ -0,0 +1,1008 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import net.lingala.zip4j.exception.ZipException;
+import net.lingala.zip4j.util.InternalZipConstants;
+import net.lingala.zip4j.util.Zip4jConstants;
+import net.lingala.zip4j.util.Zip4jUtil;
+
+import com.szmslab.quickzip.enums.CompressionMethod;
+import com.szmslab.quickzip.enums.EncryptionType;
+
+/**
+ * 1エントリ分のデータの圧縮・暗号化を行うクラスです。
+ * <p>
+ * 圧縮処理中に状態を変更しないため、複数のスレッドから同時に使用できます。
+ * </p>
+ *
+ * @author szmslab
+ */
+class EntryCompressor {
+
+    /**
+     * 読み込みバッファのサイズ。
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 無圧縮に切り替える試し圧縮の圧縮率（圧縮後/圧縮前）。
+     */
+    static final double ADAPTIVE_STORE_RATIO = 0.95;
+
+    /**
+     * 試し圧縮を行う最小のサンプルサイズ（これより小さいファイルは常に圧縮）。
+     */
+    private static final int ADAPTIVE_STORE_MIN_SAMPLE = 1024;
+
+    /**
+     * ファイル名のエンコーディング。
+     */
+    private final String encoding;
+
+    /**
+     * 圧縮方式。
+     */
+    private final CompressionMethod compressionMethod;
+
+    /**
+     * 暗号化形式。
+     */
+    private final EncryptionType encryptionType;
+
+    /**
+     * 暗号化パスワード。
+     */
+    private final String password;
+
+    /**
+     * バッファとDeflaterのプール。
+     */
+    private final ResourcePool pool;
+
+    /**
+     * 大きなエントリをブロック単位で並列に圧縮する処理。
+     */
+    private BlockDeflater blockDeflater;
+
+    /**
+     * ブロック単位の並列圧縮を行うサイズの閾値。
+     */
+    private long blockThreshold;
+
+    /**
+     * 大きなエントリのAESの鍵ストリームを並列に生成するスレッドプール。
+     */
+    private ExecutorService cipherExecutor;
+
+    /**
+     * AESの鍵ストリームを並列に生成する際の並列数。
+     */
+    private int cipherParallelism = 1;
+
+    /**
+     * AESの鍵を事前に導出する処理（都度導出する場合はnull）。
+     */
+    private AesKeyDeriver keyDeriver;
+
+    /**
+     * 圧縮効果が低いエントリを無圧縮で格納するかどうか。
+     */
+    private boolean adaptiveStore;
+
+    /**
+     * 無圧縮で格納する拡張子（小文字）。
+     */
+    private Set<String> storeExtensions = Collections.emptySet();
+
+    /**
+     * 圧縮結果の統計情報。
+     */
+    private final CompressionStatistics statistics = new CompressionStatistics();
+
+    /**
+     * 非同期実行の進捗（同期実行の場合はnull）。
+     */
+    private ZipProgress progress;
+
+    /**
+     * 計測値の集計（計測しない場合はnull）。
+     */
+    private ZipMetrics metrics;
+
+    /**
+     * 圧縮元の読み込みの帯域の制限（制限しない場合はnull）。
+     */
+    private RateLimiter readLimiter;
+
+    /**
+     * 進捗を圧縮処理で生成したかどうか（終了時に完了を通知する）。
+     */
+    private boolean ownProgress;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param encoding
+     *            ファイル名のエンコーディング
+     * @param compressionMethod
+     *            圧縮方式
+     * @param encryptionType
+     *            暗号化形式
+     * @param password
+     *            暗号化パスワード
+     * @param pool
+     *            バッファとDeflaterのプール
+     */
+    EntryCompressor(String encoding, CompressionMethod compressionMethod, EncryptionType encryptionType,
+            String password, ResourcePool pool) {
+        this.encoding = encoding;
+        this.compressionMethod = compressionMethod;
+        this.encryptionType = encryptionType;
+        this.password = password;
+        this.pool = pool;
+    }
+
+    /**
+     * バッファとDeflaterのプールを取得します。
+     *
+     * @return バッファとDeflaterのプール
+     */
+    ResourcePool getPool() {
+        return pool;
+    }
+
+    /**
+     * 大きなエントリをブロック単位で並列に圧縮する処理を設定します。
+     *
+     * @param blockDeflater
+     *            ブロック単位で並列に圧縮する処理
+     * @param blockThreshold
+     *            ブロック単位の並列圧縮を行うサイズの閾値
+     */
+    void setBlockDeflater(BlockDeflater blockDeflater, long blockThreshold) {
+        this.blockDeflater = blockDeflater;
+        this.blockThreshold = blockThreshold;
+    }
+
+    /**
+     * 大きなエントリのAESの鍵ストリームを並列に生成するスレッドプールを設定します。
+     * <p>
+     * {@link #setBlockDeflater(BlockDeflater, long)} の閾値以上のエントリに適用します。
+     * </p>
+     *
+     * @param cipherExecutor
+     *            スレッドプール
+     * @param cipherParallelism
+     *            並列数
+     */
+    void setCipherExecutor(ExecutorService cipherExecutor, int cipherParallelism) {
+        this.cipherExecutor = cipherExecutor;
+        this.cipherParallelism = cipherParallelism;
+    }
+
+    /**
+     * AESの鍵を事前に導出する処理を設定します。
+     *
+     * @param keyDeriver
+     *            AESの鍵を事前に導出する処理
+     */
+    void setKeyDeriver(AesKeyDeriver keyDeriver) {
+        this.keyDeriver = keyDeriver;
+    }
+
+    /**
+     * 圧縮効果が低いエントリを無圧縮で格納するように設定します。
+     *
+     * @param storeExtensions
+     *            サンプリングせずに無圧縮で格納する拡張子
+     */
+    void setAdaptiveStore(Set<String> storeExtensions) {
+        this.adaptiveStore = true;
+        this.storeExtensions = storeExtensions;
+    }
+
+    /**
+     * 圧縮結果の統計情報を取得します。
+     *
+     * @return 圧縮結果の統計情報
+     */
+    CompressionStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * 非同期実行の進捗を設定します。
+     * <p>
+     * 圧縮元のデータを読み込むたびに進捗を更新し、キャンセルされている場合は読み込みを打ち切ります。
+     * </p>
+     *
+     * @param progress
+     *            進捗
+     */
+    void setProgress(ZipProgress progress) {
+        this.progress = progress;
+        this.ownProgress = false;
+    }
+
+    /**
+     * 同期実行の進捗を生成し、リスナーを設定します。
+     * <p>
+     * 生成した進捗は {@link #close()} で完了を通知します。
+     * </p>
+     *
+     * @param listener
+     *            進捗を受け取るリスナー
+     * @param intervalMillis
+     *            リスナーを呼び出す間隔（ミリ秒）
+     */
+    void createProgress(ZipProgressListener listener, long intervalMillis) {
+        this.progress = new ZipProgress();
+        this.progress.setListener(listener, intervalMillis);
+        this.ownProgress = true;
+    }
+
+    /**
+     * 進捗を取得します。
+     *
+     * @return 進捗（進捗を集計しない場合はnull）
+     */
+    ZipProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * 処理するバイト数の合計を進捗に設定します。
+     *
+     * @param records
+     *            処理するZipエントリのヘッダ情報
+     */
+    void setTotalBytes(List<ZipEntryRecord> records) {
+        if (progress == null) {
+            return;
+        }
+        long total = 0;
+        for (ZipEntryRecord record : records) {
+            total += record.getUncompressedSize();
+        }
+        progress.setTotalBytes(total);
+    }
+
+    /**
+     * 圧縮せずにコピーしたエントリを進捗に加算します。
+     *
+     * @param record
+     *            コピーしたZipエントリのヘッダ情報
+     */
+    void copied(ZipEntryRecord record) {
+        if (progress != null) {
+            progress.addBytes(record.getUncompressedSize());
+            progress.addEntry();
+        }
+    }
+
+    /**
+     * 圧縮元の読み込みの帯域の制限を設定します。
+     * <p>
+     * 設定した場合は、無圧縮のエントリもファイルから直接転送せずに読み込みます。
+     * </p>
+     *
+     * @param readLimiter
+     *            帯域の制限（制限しない場合はnull）
+     */
+    void setReadLimiter(RateLimiter readLimiter) {
+        this.readLimiter = readLimiter;
+    }
+
+    /**
+     * 圧縮元の読み込みの帯域の制限を取得します。
+     *
+     * @return 帯域の制限（制限しない場合はnull）
+     */
+    RateLimiter getReadLimiter() {
+        return readLimiter;
+    }
+
+    /**
+     * 計測値の集計を設定します。
+     *
+     * @param metrics
+     *            計測値の集計（計測しない場合はnull）
+     */
+    void setMetrics(ZipMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 計測値の集計を取得します。
+     *
+     * @return 計測値の集計（計測しない場合はnull）
+     */
+    ZipMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Zipファイルへの書き込みを終えたエントリの計測値を集計します。
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @param writeNanos
+     *            圧縮とは別に行った書き込み（ヘッダ、データの転送）の時間（ナノ秒）
+     */
+    void written(ZipEntryRecord record, long writeNanos) {
+        if (metrics == null) {
+            return;
+        }
+        EntryMetrics entryMetrics = record.getMetrics();
+        if (entryMetrics == null) {
+            entryMetrics = metrics.start(record);
+            entryMetrics.stop();
+        }
+        entryMetrics.add(EntryMetrics.WRITE, writeNanos);
+        record.setMetrics(null);
+        metrics.entryCompleted(entryMetrics, record);
+    }
+
+    /**
+     * Zipファイル全体の計測値を通知します。
+     *
+     * @param file
+     *            圧縮先のZipファイル（ストリームの場合はnull）
+     */
+    void archiveCompleted(File file) {
+        if (metrics != null) {
+            metrics.archiveCompleted(file);
+        }
+    }
+
+    /**
+     * AESの鍵の事前の導出を終了します。
+     */
+    void close() {
+        if (keyDeriver != null) {
+            keyDeriver.close();
+        }
+        if (ownProgress) {
+            progress.finish();
+        }
+    }
+
+    /**
+     * ファイルからZipエントリのヘッダ情報を生成します。
+     * <p>
+     * ファイル属性は走査時に読み込んだものを使用し、ファイルを再度参照しません。
+     * </p>
+     *
+     * @param file
+     *            圧縮元のファイル
+     * @param attributes
+     *            ファイル属性
+     * @param name
+     *            エントリ名
+     * @return Zipエントリのヘッダ情報
+     * @throws IOException
+     */
+    ZipEntryRecord createRecord(File file, BasicFileAttributes attributes, String name) throws IOException {
+        ZipEntryRecord record = new ZipEntryRecord();
+        record.setName(name);
+        record.setNameBytes(name.getBytes(encoding));
+        record.setSourceFile(file);
+        record.setDirectory(attributes.isDirectory());
+        record.setDosTime((int) Zip4jUtil.javaToDosTime(attributes.lastModifiedTime().toMillis()));
+        record.setExternalAttributes(getFileAttributes(file, attributes));
+
+        int flags = ZipEntryRecord.FLAG_DATA_DESCRIPTOR;
+        if (InternalZipConstants.CHARSET_UTF8.equalsIgnoreCase(encoding)) {
+            flags |= ZipEntryRecord.FLAG_UTF8;
+        }
+        if (record.isDirectory()) {
+            record.setCompressionMethod(Zip4jConstants.COMP_STORE);
+        } else {
+            record.setUncompressedSize(attributes.size());
+            record.setCompressionMethod(compressionMethod == CompressionMethod.STORE
+                ? Zip4jConstants.COMP_STORE : Zip4jConstants.COMP_DEFLATE);
+            if (encryptionType != EncryptionType.NO_ENCRYPTION) {
+                record.setEncryptionType(encryptionType);
+                flags |= ZipEntryRecord.FLAG_ENCRYPTED;
+            }
+        }
+        record.setFlags(flags);
+        return record;
+    }
+
+    /**
+     * ファイル以外のデータ元からZipエントリのヘッダ情報を生成します。
+     *
+     * @param source
+     *            圧縮元のデータ
+     * @param name
+     *            エントリ名
+     * @return Zipエントリのヘッダ情報
+     * @throws IOException
+     */
+    ZipEntryRecord createRecord(EntrySource source, String name) throws IOException {
+        ZipEntryRecord record = new ZipEntryRecord();
+        record.setName(name);
+        record.setNameBytes(name.getBytes(encoding));
+        record.setSource(source);
+        record.setDosTime((int) Zip4jUtil.javaToDosTime(source.lastModified()));
+        record.setExternalAttributes(InternalZipConstants.FILE_MODE_NONE);
+        record.setUncompressedSize(Math.max(0, source.size()));
+        record.setCompressionMethod(compressionMethod == CompressionMethod.STORE
+            ? Zip4jConstants.COMP_STORE : Zip4jConstants.COMP_DEFLATE);
+
+        int flags = ZipEntryRecord.FLAG_DATA_DESCRIPTOR;
+        if (InternalZipConstants.CHARSET_UTF8.equalsIgnoreCase(encoding)) {
+            flags |= ZipEntryRecord.FLAG_UTF8;
+        }
+        if (encryptionType != EncryptionType.NO_ENCRYPTION) {
+            record.setEncryptionType(encryptionType);
+            flags |= ZipEntryRecord.FLAG_ENCRYPTED;
+        }
+        record.setFlags(flags);
+        return record;
+    }
+
+    /**
+     * エントリのデータを圧縮・暗号化して出力します。
+     * <p>
+     * CRC-32、圧縮前後のサイズはエントリのヘッダ情報に設定されます。
+     * </p>
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @param sink
+     *            圧縮データの出力先
+     * @throws IOException
+     * @throws ZipException
+     */
+    void compress(ZipEntryRecord record, OutputStream sink) throws IOException, ZipException {
+        if (record.isDirectory()) {
+            return;
+        }
+        InputStream in = openStream(record);
+        try {
+            compress(record, in, sink);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * エントリの圧縮元のデータを読み込む入力ストリームを開きます。
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報（ディレクトリ以外）
+     * @return 圧縮元のデータの入力ストリーム
+     * @throws IOException
+     */
+    InputStream openStream(ZipEntryRecord record) throws IOException {
+        InputStream in;
+        if (record.getSource() != null) {
+            in = record.getSource().openStream();
+        } else {
+            in = new FileChannelInputStream(new FileInputStream(record.getSourceFile()).getChannel());
+        }
+        if (readLimiter != null) {
+            in = new ThrottledInputStream(in, readLimiter);
+        }
+        return progress != null ? new ProgressInputStream(in, progress) : in;
+    }
+
+    /**
+     * エントリのデータを変換せずにファイルからそのまま格納できるか（無圧縮かつ暗号化なし）を判定します。
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @return そのまま格納できる場合はtrue
+     */
+    boolean isRawCopy(ZipEntryRecord record) {
+        return readLimiter == null && !record.isDirectory() && record.getSourceFile() != null
+            && record.getCompressionMethod() == Zip4jConstants.COMP_STORE
+            && record.getEncryptionType() == EncryptionType.NO_ENCRYPTION;
+    }
+
+    /**
+     * 圧縮効果が低いエントリの圧縮方式を無圧縮（STORE）に切り替えます。
+     * <p>
+     * 拡張子が {@link #setAdaptiveStore(Set)} で指定したものであるか、
+     * 先頭ブロックを最速レベルで試し圧縮した結果が {@link #ADAPTIVE_STORE_RATIO} 以上の場合に切り替えます。
+     * ファイル以外のデータ元は一度しか読み込めないため、拡張子だけで判定します。
+     * ヘッダを書き込む前に呼び出す必要があります。
+     * </p>
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @throws IOException
+     */
+    void adapt(ZipEntryRecord record) throws IOException {
+        if (!adaptiveStore || record.isDirectory()
+                || record.getCompressionMethod() != Zip4jConstants.COMP_DEFLATE) {
+            return;
+        }
+        if (hasStoreExtension(record.getName())
+                || (record.getSourceFile() != null && isIncompressible(record.getSourceFile()))) {
+            record.setCompressionMethod(Zip4jConstants.COMP_STORE);
+            statistics.addFallback(record);
+        }
+    }
+
+    /**
+     * 無圧縮で格納する拡張子かどうかを判定します。
+     *
+     * @param name
+     *            エントリ名
+     * @return 無圧縮で格納する拡張子の場合はtrue
+     */
+    private boolean hasStoreExtension(String name) {
+        int index = name.lastIndexOf('.');
+        if (index < 0 || index < name.lastIndexOf('/')) {
+            return false;
+        }
+        return storeExtensions.contains(name.substring(index + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * ファイルの先頭ブロックを試し圧縮し、圧縮効果が低いかどうかを判定します。
+     *
+     * @param file
+     *            圧縮元のファイル
+     * @return 圧縮効果が低い場合はtrue
+     * @throws IOException
+     */
+    private boolean isIncompressible(File file) throws IOException {
+        byte[] sample = pool.acquireBuffer();
+        byte[] deflated = pool.acquireBuffer();
+        Deflater deflater = pool.acquireDeflater(Deflater.BEST_SPEED);
+        try {
+            int len = 0;
+            InputStream in = new FileInputStream(file);
+            try {
+                int n;
+                while (len < sample.length && (n = in.read(sample, len, sample.length - len)) >= 0) {
+                    // 試し圧縮の読み込みも圧縮元の読み込みとして帯域を制限する
+                    if (readLimiter != null) {
+                        readLimiter.acquire(n);
+                    }
+                    len += n;
+                }
+            } finally {
+                in.close();
+            }
+            if (len < ADAPTIVE_STORE_MIN_SAMPLE) {
+                return false;
+            }
+            deflater.setInput(sample, 0, len);
+            deflater.finish();
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(deflated, 0, deflated.length);
+            }
+            return compressed >= len * ADAPTIVE_STORE_RATIO;
+        } finally {
+            pool.releaseDeflater(Deflater.BEST_SPEED, deflater);
+            pool.releaseBuffer(deflated);
+            pool.releaseBuffer(sample);
+        }
+    }
+
+    /**
+     * 圧縮元のファイルのCRC-32とサイズを計算し、エントリのヘッダ情報に設定します。
+     * <p>
+     * {@link #isRawCopy(ZipEntryRecord)} がtrueのエントリに対して使用します。
+     * データは {@link ZipArchiveWriter#transferFrom(File, long)} でファイルから直接書き込むため、
+     * 書き込んだ後に {@link #checkUnchanged(ZipEntryRecord)} でCRC-32の計算後に変更されていないことを確認する必要があります。
+     * </p>
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @throws IOException
+     */
+    void checksum(ZipEntryRecord record) throws IOException {
+        if (progress != null) {
+            progress.check();
+        }
+        EntryMetrics entryMetrics = start(record);
+        int phase = entryMetrics != null ? entryMetrics.enter(EntryMetrics.READ) : 0;
+        record.setSourceLastModified(record.getSourceFile().lastModified());
+        FileInputStream in = new FileInputStream(record.getSourceFile());
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            record.setCrc(crc(record.getSourceFile(), channel, size));
+            if (entryMetrics != null) {
+                entryMetrics.exit(phase);
+            }
+            record.setUncompressedSize(size);
+            record.setCompressedSize(size);
+            if (progress != null) {
+                progress.addBytes(size);
+            }
+            completed(record);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * {@link #checksum(ZipEntryRecord)} でCRC-32を計算した後に、圧縮元のファイルが変更されていないことを確認します。
+     * <p>
+     * ファイルから直接書き込んだ後に呼び出し、サイズか最終更新日時が変わっていれば、
+     * CRC-32と書き込んだデータが一致しない可能性があるため失敗させます。
+     * </p>
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @throws IOException
+     */
+    void checkUnchanged(ZipEntryRecord record) throws IOException {
+        File file = record.getSourceFile();
+        if (file.length() != record.getUncompressedSize() || file.lastModified() != record.getSourceLastModified()) {
+            throw new IOException("file changed while compressing: " + file.getPath());
+        }
+    }
+
+    /**
+     * ファイルのCRC-32を計算します。
+     *
+     * @param file
+     *            ファイル
+     * @return CRC-32
+     * @throws IOException
+     */
+    long crc(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            return crc(file, channel, channel.size());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * ファイルの内容のハッシュ値（SHA-256）を計算します。
+     * <p>
+     * ファイルはバッファ単位で読み込むため、ファイルの大きさに関わらずメモリ使用量は一定です。
+     * </p>
+     *
+     * @param file
+     *            ファイル
+     * @return ハッシュ値
+     * @throws IOException
+     */
+    byte[] digest(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        FileInputStream in = new FileInputStream(file);
+        ByteBuffer buffer = pool.acquireDirectBuffer();
+        try {
+            FileChannel channel = in.getChannel();
+            int len;
+            while ((len = channel.read(buffer)) >= 0) {
+                if (readLimiter != null) {
+                    readLimiter.acquire(len);
+                }
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            pool.releaseDirectBuffer(buffer);
+            in.close();
+        }
+        return digest.digest();
+    }
+
+    /**
+     * チャネルの先頭から指定サイズまでのデータのCRC-32を計算します。
+     * <p>
+     * 計算中にファイルが縮小して指定サイズまで読めない場合は失敗します（拡大した分は読み込みません）。
+     * </p>
+     *
+     * @param file
+     *            ファイル
+     * @param channel
+     *            ファイルのチャネル
+     * @param size
+     *            ファイルのサイズ
+     * @return CRC-32
+     * @throws IOException
+     */
+    private long crc(File file, FileChannel channel, long size) throws IOException {
+        String message = "file size changed while compressing: " + file.getPath();
+        CRC32 crc = new CRC32();
+        // 帯域を制限する場合は、バッファ単位で読み込んで待機する
+        if (size >= FileChannelInputStream.MAP_THRESHOLD && readLimiter == null) {
+            for (long pos = 0; pos < size; pos += FileChannelInputStream.MAP_SEGMENT_SIZE) {
+                long length = Math.min(FileChannelInputStream.MAP_SEGMENT_SIZE, size - pos);
+                if (channel.size() < pos + length) {
+                    throw new IOException(message);
+                }
+                try {
+                    crc.update(channel.map(MapMode.READ_ONLY, pos, length));
+                } catch (InternalError e) {
+                    // マッピング後にファイルが縮小した場合のアクセス違反
+                    throw new IOException(message, e);
+                }
+            }
+        } else {
+            ByteBuffer buffer = pool.acquireDirectBuffer();
+            try {
+                long remaining = size;
+                while (remaining > 0) {
+                    buffer.limit((int) Math.min(buffer.capacity(), remaining));
+                    int len = channel.read(buffer);
+                    if (len < 0) {
+                        throw new IOException(message);
+                    }
+                    if (readLimiter != null) {
+                        readLimiter.acquire(len);
+                    }
+                    buffer.flip();
+                    crc.update(buffer);
+                    buffer.clear();
+                    remaining -= len;
+                }
+            } finally {
+                pool.releaseDirectBuffer(buffer);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * 入力ストリームのデータを圧縮・暗号化して出力します。
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @param in
+     *            入力ストリーム
+     * @param sink
+     *            圧縮データの出力先
+     * @throws IOException
+     * @throws ZipException
+     */
+    void compress(ZipEntryRecord record, InputStream in, OutputStream sink) throws IOException, ZipException {
+        EntryMetrics entryMetrics = start(record);
+        if (entryMetrics != null) {
+            in = new TimedInputStream(in, entryMetrics, EntryMetrics.READ);
+            sink = new TimedOutputStream(sink, entryMetrics, EntryMetrics.WRITE);
+        }
+        CountingOutputStream counter = new CountingOutputStream(sink);
+        EncryptingOutputStream eos = null;
+        OutputStream out = counter;
+        if (record.getEncryptionType() != EncryptionType.NO_ENCRYPTION) {
+            // 鍵の導出も暗号化の時間として計測する
+            int phase = entryMetrics != null ? entryMetrics.enter(EntryMetrics.ENCRYPT) : 0;
+            AesCipher aes = null;
+            if (record.isAesEncrypted()) {
+                aes = keyDeriver != null ? keyDeriver.next()
+                        : AesCipher.forEncryption(password == null ? new char[0] : password.toCharArray(),
+                            record.getAesStrength());
+                if (cipherExecutor != null && record.getUncompressedSize() >= blockThreshold) {
+                    aes.setExecutor(cipherExecutor, cipherParallelism);
+                }
+            }
+            eos = new EncryptingOutputStream(counter, record, password, aes);
+            out = entryMetrics != null ? new TimedOutputStream(eos, entryMetrics, EntryMetrics.ENCRYPT) : eos;
+            if (entryMetrics != null) {
+                entryMetrics.exit(phase);
+            }
+        }
+        if (record.getCompressionMethod() == Zip4jConstants.COMP_DEFLATE
+                && blockDeflater != null && record.getUncompressedSize() >= blockThreshold) {
+            blockDeflater.deflate(record, in, out);
+            if (eos != null) {
+                finish(eos, entryMetrics);
+            }
+            record.setCompressedSize(counter.getCount());
+            completed(record);
+            return;
+        }
+        int level = compressionMethod.ordinal();
+        Deflater deflater = null;
+        if (record.getCompressionMethod() == Zip4jConstants.COMP_DEFLATE) {
+            deflater = pool.acquireDeflater(level);
+        }
+        byte[] buffer = pool.acquireBuffer();
+        byte[] deflated = deflater != null ? pool.acquireBuffer() : null;
+        try {
+            CRC32 crc = new CRC32();
+            long total = 0;
+            int len = 0;
+            while ((len = in.read(buffer)) >= 0) {
+                crc.update(buffer, 0, len);
+                if (deflater != null) {
+                    deflater.setInput(buffer, 0, len);
+                    while (!deflater.needsInput()) {
+                        int n = deflater.deflate(deflated, 0, deflated.length);
+                        out.write(deflated, 0, n);
+                    }
+                } else {
+                    out.write(buffer, 0, len);
+                }
+                total += len;
+            }
+            if (deflater != null) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(deflated, 0, deflated.length);
+                    out.write(deflated, 0, n);
+                }
+            }
+            if (eos != null) {
+                finish(eos, entryMetrics);
+            }
+            out.flush();
+            record.setCrc(crc.getValue());
+            record.setUncompressedSize(total);
+            record.setCompressedSize(counter.getCount());
+            completed(record);
+        } finally {
+            pool.releaseBuffer(buffer);
+            pool.releaseBuffer(deflated);
+            pool.releaseDeflater(level, deflater);
+        }
+    }
+
+    /**
+     * エントリの計測を開始します。
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @return エントリの計測値（計測しない場合はnull）
+     */
+    private EntryMetrics start(ZipEntryRecord record) {
+        if (metrics == null) {
+            return null;
+        }
+        EntryMetrics entryMetrics = metrics.start(record);
+        record.setMetrics(entryMetrics);
+        return entryMetrics;
+    }
+
+    /**
+     * 暗号化の残りのデータと認証コードを出力します。
+     *
+     * @param eos
+     *            暗号化出力ストリーム
+     * @param entryMetrics
+     *            エントリの計測値（計測しない場合はnull）
+     * @throws IOException
+     */
+    private void finish(EncryptingOutputStream eos, EntryMetrics entryMetrics) throws IOException {
+        int phase = entryMetrics != null ? entryMetrics.enter(EntryMetrics.ENCRYPT) : 0;
+        try {
+            eos.finish();
+        } finally {
+            if (entryMetrics != null) {
+                entryMetrics.exit(phase);
+            }
+        }
+    }
+
+    /**
+     * 圧縮を終えたエントリを統計情報と進捗に加算します。
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     */
+    private void completed(ZipEntryRecord record) {
+        if (record.getMetrics() != null) {
+            record.getMetrics().stop();
+        }
+        statistics.add(record);
+        if (progress != null) {
+            progress.addEntry();
+        }
+    }
+
+    /**
+     * ファイル属性（zip4jと同じ形式）を取得します。
+     * <p>
+     * POSIXのファイルシステムでは、名前が"."で始まるものを隠しファイル、所有者の書き込み権限がないものを読み取り専用とします。
+     * </p>
+     *
+     * @param file
+     *            ファイル
+     * @param attributes
+     *            走査時に読み込んだファイル属性
+     * @return ファイル属性
+     */
+    private int getFileAttributes(File file, BasicFileAttributes attributes) {
+        boolean hidden;
+        boolean readOnly;
+        if (attributes instanceof DosFileAttributes) {
+            hidden = ((DosFileAttributes) attributes).isHidden();
+            readOnly = ((DosFileAttributes) attributes).isReadOnly();
+        } else if (attributes instanceof PosixFileAttributes) {
+            hidden = file.getName().startsWith(".");
+            readOnly = !((PosixFileAttributes) attributes).permissions().contains(PosixFilePermission.OWNER_WRITE);
+        } else {
+            hidden = file.isHidden();
+            readOnly = !file.canWrite();
+        }
+        if (attributes.isDirectory()) {
+            return hidden ? InternalZipConstants.FOLDER_MODE_HIDDEN : InternalZipConstants.FOLDER_MODE_NONE;
+        }
+        if (readOnly && hidden) {
+            return InternalZipConstants.FILE_MODE_READ_ONLY_HIDDEN;
+        } else if (readOnly) {
+            return InternalZipConstants.FILE_MODE_READ_ONLY;
+        } else if (hidden) {
+            return InternalZipConstants.FILE_MODE_HIDDEN;
+        }
+        return InternalZipConstants.FILE_MODE_NONE;
+    }
+
+    /**
+     * 書き込まれたバイト数を数える出力ストリームです。
+     */
+    static class CountingOutputStream extends FilterOutputStream {
+
+        /**
+         * 書き込まれたバイト数。
+         */
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+    }
+
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+/**
+ * 処理対象のエントリを選択するフィルタです。
+ *
+ * @author szmslab
+ */
+public interface EntryFilter {
+
+    /**
+     * エントリを処理対象とするかどうかを判定します。
+     *
+     * @param name
+     *            エントリ名（区切り文字は"/"、ディレクトリは"/"で終わる）
+     * @return 処理対象とする場合はtrue
+     */
+    boolean accept(String name);
+
+}
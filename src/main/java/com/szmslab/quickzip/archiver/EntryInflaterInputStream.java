@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * エントリデータ（ヘッダなしのDEFLATEストリーム）を展開する入力ストリームです。
+ * <p>
+ * ヘッダなしのDEFLATEストリームの終端で必要になるダミーの1バイトを補います（java.util.zip.ZipFileと同じ）。
+ * Inflaterと読み込みバッファはプールから取得し、閉じる際に返却します。
+ * </p>
+ *
+ * @author szmslab
+ */
+class EntryInflaterInputStream extends FilterInputStream {
+
+    /**
+     * バッファとInflaterのプール。
+     */
+    private final ResourcePool pool;
+
+    /**
+     * Inflater。
+     */
+    private Inflater inflater;
+
+    /**
+     * 読み込みバッファ。
+     */
+    private byte[] buffer;
+
+    /**
+     * 下位ストリームの終端に達したかどうか。
+     */
+    private boolean eof;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param in
+     *            圧縮データの入力ストリーム
+     * @param pool
+     *            バッファとInflaterのプール
+     */
+    EntryInflaterInputStream(InputStream in, ResourcePool pool) {
+        super(in);
+        this.pool = pool;
+        this.inflater = pool.acquireInflater();
+        this.buffer = pool.acquireBuffer();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (inflater == null) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        try {
+            int n;
+            while ((n = inflater.inflate(b, off, len)) == 0) {
+                if (inflater.finished() || inflater.needsDictionary()) {
+                    drain();
+                    return -1;
+                }
+                if (inflater.needsInput()) {
+                    fill();
+                }
+            }
+            return n;
+        } catch (DataFormatException e) {
+            String message = e.getMessage();
+            throw new ZipException(message != null ? message : "Invalid ZLIB data format");
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] b = new byte[(int) Math.min(n, 512)];
+        long skipped = 0;
+        while (skipped < n) {
+            int len = read(b, 0, (int) Math.min(b.length, n - skipped));
+            if (len < 0) {
+                break;
+            }
+            skipped += len;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return inflater == null || inflater.finished() ? 0 : 1;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (inflater != null) {
+            pool.releaseInflater(inflater);
+            pool.releaseBuffer(buffer);
+            inflater = null;
+            buffer = null;
+            super.close();
+        }
+    }
+
+    /**
+     * 圧縮データの終端以降に残っているデータを読み捨てます。
+     * <p>
+     * 下位ストリームを終端まで読み込むことで、下位ストリームの終端での検証（AESの認証コードなど）を確実に行います。
+     * </p>
+     *
+     * @throws IOException
+     */
+    private void drain() throws IOException {
+        while (!eof) {
+            if (in.read(buffer, 0, buffer.length) < 0) {
+                eof = true;
+            }
+        }
+    }
+
+    /**
+     * 次の圧縮データを読み込みます。
+     *
+     * @throws IOException
+     */
+    private void fill() throws IOException {
+        if (eof) {
+            throw new EOFException("Unexpected end of ZLIB input stream");
+        }
+        int len = in.read(buffer, 0, buffer.length);
+        if (len == -1) {
+            buffer[0] = 0;
+            len = 1;
+            eof = true;
+        }
+        inflater.setInput(buffer, 0, len);
+    }
+
+}
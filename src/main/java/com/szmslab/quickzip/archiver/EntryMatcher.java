@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 含めるパターン、除外するパターン（glob形式）とフィルタでエントリを選択するクラスです。
+ * <p>
+ * 含めるパターンのいずれかに一致し（未指定の場合はすべて）、除外するパターンのいずれにも一致せず、
+ * フィルタが受け入れたエントリを選択します。
+ * </p>
+ * <p>
+ * パターンはエントリ名全体（区切り文字は"/"）と照合します。
+ * "*" は"/"以外の0文字以上、"?" は"/"以外の1文字、"**" は"/"を含む0文字以上、
+ * "**&#47;" は0階層以上のディレクトリ、"[...]" は文字クラス、"{a,b}" はいずれかに一致します。
+ * </p>
+ *
+ * @author szmslab
+ */
+class EntryMatcher {
+
+    /**
+     * すべてのエントリを選択するインスタンス。
+     */
+    static final EntryMatcher ALL = new EntryMatcher(new ArrayList<String>(), new ArrayList<String>(), null);
+
+    /**
+     * 含めるパターン。
+     */
+    private final List<Pattern> includes;
+
+    /**
+     * 除外するパターン。
+     */
+    private final List<Pattern> excludes;
+
+    /**
+     * フィルタ。
+     */
+    private final EntryFilter filter;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param includes
+     *            含めるパターン（glob形式）
+     * @param excludes
+     *            除外するパターン（glob形式）
+     * @param filter
+     *            フィルタ（未指定の場合はnull）
+     */
+    EntryMatcher(List<String> includes, List<String> excludes, EntryFilter filter) {
+        this.includes = compile(includes);
+        this.excludes = compile(excludes);
+        this.filter = filter;
+    }
+
+    /**
+     * すべてのエントリを選択するかどうかを判定します。
+     *
+     * @return すべてのエントリを選択する場合はtrue
+     */
+    boolean isAll() {
+        return includes.isEmpty() && excludes.isEmpty() && filter == null;
+    }
+
+    /**
+     * エントリを選択するかどうかを判定します。
+     *
+     * @param name
+     *            エントリ名
+     * @return 選択する場合はtrue
+     */
+    boolean matches(String name) {
+        String path = name.replace('\\', '/');
+        if (!includes.isEmpty() && !find(includes, path)) {
+            return false;
+        }
+        if (find(excludes, path)) {
+            return false;
+        }
+        return filter == null || filter.accept(path);
+    }
+
+    /**
+     * いずれかのパターンに一致するかどうかを判定します。
+     *
+     * @param patterns
+     *            パターン
+     * @param path
+     *            エントリ名
+     * @return 一致する場合はtrue
+     */
+    private static boolean find(List<Pattern> patterns, String path) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(path).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * glob形式のパターンを正規表現に変換します。
+     *
+     * @param globs
+     *            glob形式のパターン
+     * @return 正規表現
+     */
+    private static List<Pattern> compile(List<String> globs) {
+        List<Pattern> patterns = new ArrayList<Pattern>(globs.size());
+        for (String glob : globs) {
+            patterns.add(toPattern(glob));
+        }
+        return patterns;
+    }
+
+    /**
+     * glob形式のパターンを正規表現に変換します。
+     *
+     * @param glob
+     *            glob形式のパターン
+     * @return 正規表現
+     */
+    static Pattern toPattern(String glob) {
+        String g = glob.replace('\\', '/');
+        StringBuilder sb = new StringBuilder();
+        boolean inGroup = false;
+        for (int i = 0; i < g.length(); i++) {
+            char c = g.charAt(i);
+            switch (c) {
+            case '*':
+                if (i + 1 < g.length() && g.charAt(i + 1) == '*') {
+                    if (i + 2 < g.length() && g.charAt(i + 2) == '/') {
+                        // "**/" は0階層以上のディレクトリ
+                        sb.append("(?:.*/)?");
+                        i += 2;
+                    } else {
+                        sb.append(".*");
+                        i++;
+                    }
+                } else {
+                    sb.append("[^/]*");
+                }
+                break;
+            case '?':
+                sb.append("[^/]");
+                break;
+            case '[':
+                int close = g.indexOf(']', i + 1);
+                if (close < 0) {
+                    sb.append("\\[");
+                } else {
+                    String body = g.substring(i + 1, close);
+                    if (body.startsWith("!")) {
+                        body = "^" + body.substring(1);
+                    }
+                    sb.append('[').append(body.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                    i = close;
+                }
+                break;
+            case '{':
+                sb.append("(?:");
+                inGroup = true;
+                break;
+            case '}':
+                sb.append(inGroup ? ")" : "\\}");
+                inGroup = false;
+                break;
+            case ',':
+                sb.append(inGroup ? "|" : ",");
+                break;
+            default:
+                if ("\\.^$+()|".indexOf(c) >= 0) {
+                    sb.append('\\');
+                }
+                sb.append(c);
+            }
+        }
+        return Pattern.compile(sb.toString());
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+/**
+ * エントリ毎の計測値です。
+ * <p>
+ * 圧縮では圧縮元の読み込み、圧縮（DEFLATE）、暗号化、Zipファイルへの書き込みの時間を、
+ * 解凍ではZipファイルからの読み込み、展開、復号、ファイルへの書き込みの時間を計測します。
+ * 各時間は重複せず、いずれにも該当しない時間（CRC-32の計算など）は圧縮・展開の時間に含めます。
+ * 読み込みを別スレッドで先読みする場合、読み込みの時間は先読みを待った時間です。
+ * </p>
+ *
+ * @author szmslab
+ * @see ZipMetricsListener
+ */
+public class EntryMetrics {
+
+    /**
+     * 計測区分：読み込み。
+     */
+    static final int READ = 0;
+
+    /**
+     * 計測区分：圧縮・展開。
+     */
+    static final int COMPRESS = 1;
+
+    /**
+     * 計測区分：暗号化・復号。
+     */
+    static final int ENCRYPT = 2;
+
+    /**
+     * 計測区分：書き込み。
+     */
+    static final int WRITE = 3;
+
+    /**
+     * 計測を終了した状態。
+     */
+    private static final int STOPPED = -1;
+
+    /**
+     * エントリ名。
+     */
+    private final String name;
+
+    /**
+     * 区分毎の時間（ナノ秒）。
+     */
+    private final long[] nanos = new long[4];
+
+    /**
+     * 現在の計測区分。
+     */
+    private int phase = COMPRESS;
+
+    /**
+     * 現在の計測区分の開始時刻。
+     */
+    private long mark = System.nanoTime();
+
+    /**
+     * 読み込んだバイト数。
+     */
+    private long bytesIn;
+
+    /**
+     * 書き込んだバイト数。
+     */
+    private long bytesOut;
+
+    /**
+     * 圧縮率。
+     */
+    private double ratio = 1;
+
+    /**
+     * コンストラクタです（圧縮・展開の区分で計測を開始します）。
+     *
+     * @param name
+     *            エントリ名
+     */
+    EntryMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * エントリ名を取得します。
+     *
+     * @return エントリ名
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * 読み込んだバイト数を取得します。
+     *
+     * @return 圧縮では圧縮前のサイズ、解凍では圧縮後のサイズ
+     */
+    public long bytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * 書き込んだバイト数を取得します。
+     *
+     * @return 圧縮では圧縮後のサイズ、解凍では展開後のサイズ
+     */
+    public long bytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * 圧縮率を取得します。
+     *
+     * @return 圧縮後のサイズ / 圧縮前のサイズ（圧縮前のサイズが0の場合は1）
+     */
+    public double ratio() {
+        return ratio;
+    }
+
+    /**
+     * 読み込みの時間を取得します。
+     *
+     * @return 読み込みの時間（ナノ秒）
+     */
+    public long readNanos() {
+        return nanos[READ];
+    }
+
+    /**
+     * 圧縮・展開の時間を取得します。
+     *
+     * @return 圧縮・展開の時間（ナノ秒）
+     */
+    public long compressNanos() {
+        return nanos[COMPRESS];
+    }
+
+    /**
+     * 暗号化・復号の時間を取得します。
+     *
+     * @return 暗号化・復号の時間（ナノ秒）
+     */
+    public long encryptNanos() {
+        return nanos[ENCRYPT];
+    }
+
+    /**
+     * 書き込みの時間を取得します。
+     *
+     * @return 書き込みの時間（ナノ秒）
+     */
+    public long writeNanos() {
+        return nanos[WRITE];
+    }
+
+    /**
+     * 計測した時間の合計を取得します。
+     *
+     * @return 時間の合計（ナノ秒）
+     */
+    public long totalNanos() {
+        return nanos[READ] + nanos[COMPRESS] + nanos[ENCRYPT] + nanos[WRITE];
+    }
+
+    @Override
+    public String toString() {
+        return name + " [in=" + bytesIn + ", out=" + bytesOut + ", ratio=" + ratio
+            + ", read=" + nanos[READ] + "ns, compress=" + nanos[COMPRESS] + "ns, encrypt=" + nanos[ENCRYPT]
+            + "ns, write=" + nanos[WRITE] + "ns]";
+    }
+
+    /**
+     * 計測区分を切り替えます（それまでの時間は元の区分に加算します）。
+     *
+     * @param phase
+     *            新しい計測区分
+     * @return 元の計測区分（{@link #exit(int)} に渡します）
+     */
+    int enter(int phase) {
+        int previous = this.phase;
+        switchTo(phase);
+        return previous;
+    }
+
+    /**
+     * 計測区分を元に戻します。
+     *
+     * @param previous
+     *            {@link #enter(int)} が返した元の計測区分
+     */
+    void exit(int previous) {
+        switchTo(previous);
+    }
+
+    /**
+     * 指定した区分に時間を加算します。
+     *
+     * @param phase
+     *            計測区分
+     * @param elapsed
+     *            時間（ナノ秒）
+     */
+    void add(int phase, long elapsed) {
+        nanos[phase] += elapsed;
+    }
+
+    /**
+     * 計測を終了します（以降の区分の切り替えは時間を加算しません）。
+     */
+    void stop() {
+        switchTo(STOPPED);
+    }
+
+    /**
+     * 読み書きしたバイト数を設定します。
+     *
+     * @param bytesIn
+     *            読み込んだバイト数
+     * @param bytesOut
+     *            書き込んだバイト数
+     * @param compressedSize
+     *            圧縮後のサイズ
+     * @param uncompressedSize
+     *            圧縮前のサイズ
+     */
+    void setBytes(long bytesIn, long bytesOut, long compressedSize, long uncompressedSize) {
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.ratio = uncompressedSize > 0 ? (double) compressedSize / uncompressedSize : 1;
+    }
+
+    private void switchTo(int next) {
+        if (phase == STOPPED) {
+            return;
+        }
+        long now = System.nanoTime();
+        nanos[phase] += now - mark;
+        mark = now;
+        phase = next;
+    }
+
+}
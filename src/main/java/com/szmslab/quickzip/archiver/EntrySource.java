@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * ファイル以外（メモリ上のデータや入力ストリーム）から圧縮するエントリのデータ元です。
+ * <p>
+ * {@link #of(String, byte[])} / {@link #of(String, ByteBuffer)} / {@link #of(String, InputStream)} で生成するか、
+ * {@link #openStream()} を実装して任意のデータ元を定義します。
+ * {@link #openStream()} は圧縮時に1回だけ呼び出され、開いた入力ストリームは圧縮後に閉じられます。
+ * </p>
+ *
+ * @author szmslab
+ */
+public abstract class EntrySource {
+
+    /**
+     * エントリ名。
+     */
+    private final String name;
+
+    /**
+     * データのサイズ（不明な場合は-1）。
+     */
+    private long size = -1;
+
+    /**
+     * 最終更新日時。
+     */
+    private long lastModified = System.currentTimeMillis();
+
+    /**
+     * コンストラクタです。
+     *
+     * @param name
+     *            エントリ名（"/"区切り）
+     */
+    protected EntrySource(String name) {
+        if (name == null || name.length() == 0) {
+            throw new IllegalArgumentException("entry name is null or empty");
+        }
+        this.name = name;
+    }
+
+    /**
+     * バイト配列をデータ元とするエントリを生成します。
+     *
+     * @param name
+     *            エントリ名（"/"区切り）
+     * @param data
+     *            データ
+     * @return エントリのデータ元
+     */
+    public static EntrySource of(String name, final byte[] data) {
+        return new EntrySource(name) {
+            @Override
+            public InputStream openStream() {
+                return new ByteArrayInputStream(data);
+            }
+        }.size(data.length);
+    }
+
+    /**
+     * バイトバッファ（positionからlimitまで）をデータ元とするエントリを生成します。
+     * <p>
+     * バッファの位置は変更しません。
+     * </p>
+     *
+     * @param name
+     *            エントリ名（"/"区切り）
+     * @param data
+     *            データ
+     * @return エントリのデータ元
+     */
+    public static EntrySource of(String name, final ByteBuffer data) {
+        return new EntrySource(name) {
+            @Override
+            public InputStream openStream() {
+                return new ByteBufferInputStream(data.duplicate());
+            }
+        }.size(data.remaining());
+    }
+
+    /**
+     * 入力ストリームをデータ元とするエントリを生成します。
+     * <p>
+     * 入力ストリームは終端まで読み込んだ後に閉じられます。
+     * </p>
+     *
+     * @param name
+     *            エントリ名（"/"区切り）
+     * @param in
+     *            入力ストリーム
+     * @return エントリのデータ元
+     */
+    public static EntrySource of(String name, final InputStream in) {
+        return new EntrySource(name) {
+            @Override
+            public InputStream openStream() {
+                return in;
+            }
+        };
+    }
+
+    /**
+     * エントリ名を取得します。
+     *
+     * @return エントリ名
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * データのサイズを取得します。
+     *
+     * @return データのサイズ（不明な場合は-1）
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * データのサイズを設定します。
+     * <p>
+     * 大きなエントリのブロック単位の並列圧縮（{@link ZipCompressor#blockParallelThreshold(long)}）の判定に使用します。
+     * 格納されるサイズは実際に読み込んだデータ量です。
+     * 4GBに近いサイズを指定した場合は、ローカルファイルヘッダをZIP64形式で書き込みます。
+     * サイズが不明な場合は、ファイルに書き込む際は書き込み後に実際のサイズに合わせてヘッダを書き直しますが、
+     * ストリームに書き込む際はZIP64形式にできないため、4GB以上になると失敗します。
+     * </p>
+     *
+     * @param size
+     *            データのサイズ（不明な場合は-1）
+     * @return 自身のインスタンス
+     */
+    public EntrySource size(long size) {
+        this.size = size;
+        return this;
+    }
+
+    /**
+     * 最終更新日時を取得します。
+     *
+     * @return 最終更新日時
+     */
+    public long lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * 最終更新日時を設定します（既定はインスタンスの生成日時）。
+     *
+     * @param lastModified
+     *            最終更新日時
+     * @return 自身のインスタンス
+     */
+    public EntrySource lastModified(long lastModified) {
+        this.lastModified = lastModified;
+        return this;
+    }
+
+    /**
+     * データの入力ストリームを開きます。
+     *
+     * @return データの入力ストリーム
+     * @throws IOException
+     */
+    public abstract InputStream openStream() throws IOException;
+
+    /**
+     * バイトバッファを読み込む入力ストリームです。
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        /**
+         * バイトバッファ。
+         */
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+    }
+
+}
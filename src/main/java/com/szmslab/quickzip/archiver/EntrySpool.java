@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * 圧縮済みのエントリデータを一時的に保持する出力ストリームです。
+ * <p>
+ * 共有するメモリ上限の範囲内ではメモリに保持し、上限を超えると一時ファイルに退避します。
+ * 書き込み側が {@link #attach()} で引き取った後は保持せず、{@link #drainTo(ZipArchiveWriter)} に順に引き渡します
+ * （引き渡し待ちのデータが {@link #HANDOFF_LIMIT} を超える間は、圧縮側の書き込みを待たせます）。
+ * メモリは {@link #delete()} で返却します。
+ * </p>
+ *
+ * @author szmslab
+ */
+class EntrySpool extends OutputStream {
+
+    /**
+     * 引き取った後の、引き渡し待ちのデータの上限。
+     */
+    static final int HANDOFF_LIMIT = 1024 * 1024;
+
+    /**
+     * メモリ使用量の上限。
+     */
+    private final MemoryBudget budget;
+
+    /**
+     * 一時ファイルを作成するディレクトリ（nullの場合はシステムの一時ディレクトリ）。
+     */
+    private final File directory;
+
+    /**
+     * メモリ上のデータ。
+     */
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+
+    /**
+     * 一時ファイル。
+     */
+    private File tempFile;
+
+    /**
+     * 一時ファイルへの出力ストリーム。
+     */
+    private OutputStream fileOut;
+
+    /**
+     * 書き込み済みのサイズ。
+     */
+    private long size;
+
+    /**
+     * 引き取る前に一時ファイルに書き込んだサイズ。
+     */
+    private long spilledSize;
+
+    /**
+     * 引き渡し待ちのデータ。
+     */
+    private final LinkedList<byte[]> handoff = new LinkedList<byte[]>();
+
+    /**
+     * 引き渡し待ちのデータのサイズ。
+     */
+    private long handoffSize;
+
+    /**
+     * 圧縮データの書き込みを開始したかどうか。
+     */
+    private boolean opened;
+
+    /**
+     * 書き込み側が引き取ったかどうか。
+     */
+    private boolean attached;
+
+    /**
+     * 圧縮側の書き込みを終えたかどうか。
+     */
+    private boolean closed;
+
+    /**
+     * 破棄したかどうか。
+     */
+    private boolean deleted;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param budget
+     *            メモリ使用量の上限（複数の一時保持で共有）
+     * @param directory
+     *            一時ファイルを作成するディレクトリ（nullの場合はシステムの一時ディレクトリ）
+     */
+    EntrySpool(MemoryBudget budget, File directory) {
+        this.budget = budget;
+        this.directory = directory;
+    }
+
+    /**
+     * 書き込み済みのサイズを取得します。
+     *
+     * @return 書き込み済みのサイズ
+     */
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * 一時ファイルに退避したかどうかを判定します。
+     *
+     * @return 一時ファイルに退避した場合はtrue
+     */
+    synchronized boolean isSpilled() {
+        return tempFile != null;
+    }
+
+    /**
+     * 圧縮データの書き込みを開始したことを通知します（書き込み側が引き取れるようになります）。
+     * <p>
+     * ヘッダ情報の圧縮方式などを確定した後に呼び出す必要があります。
+     * </p>
+     */
+    synchronized void open() {
+        opened = true;
+        notifyAll();
+    }
+
+    /**
+     * 書き込み側が引き取ります。
+     * <p>
+     * 圧縮側が終了していなければ引き取り、以降のデータは保持せずに {@link #drainTo(ZipArchiveWriter)} に引き渡します。
+     * 圧縮データの書き込みが始まるか、圧縮側が終了するまで待ちます。
+     * </p>
+     *
+     * @return 圧縮データを引き渡す場合はtrue、圧縮側が終了していた（または書き込みを開始しなかった）場合はfalse
+     * @throws IOException
+     */
+    synchronized boolean attach() throws IOException {
+        if (closed) {
+            return false;
+        }
+        attached = true;
+        if (fileOut != null) {
+            // 退避済みのデータを書き込み側が読めるように閉じる（以降は一時ファイルに書き込まない）
+            fileOut.close();
+            fileOut = null;
+            spilledSize = size;
+        } else if (size > 0) {
+            handoff.add(memory.toByteArray());
+            handoffSize += size;
+            memory = null;
+            budget.release(size);
+        }
+        while (!opened && !closed) {
+            waitForChange();
+        }
+        return opened;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (deleted) {
+            throw new IOException("spool discarded");
+        }
+        if (attached) {
+            while (handoffSize >= HANDOFF_LIMIT) {
+                waitForChange();
+                if (deleted) {
+                    throw new IOException("spool discarded");
+                }
+            }
+            handoff.add(Arrays.copyOfRange(b, off, off + len));
+            handoffSize += len;
+            size += len;
+            notifyAll();
+            return;
+        }
+        if (fileOut == null && !budget.tryAcquire(len)) {
+            tempFile = File.createTempFile("quick-zip", ".spool", directory);
+            tempFile.deleteOnExit();
+            fileOut = new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024);
+            memory.writeTo(fileOut);
+            memory = null;
+            budget.release(size);
+        }
+        if (fileOut != null) {
+            fileOut.write(b, off, len);
+        } else {
+            memory.write(b, off, len);
+        }
+        size += len;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        notifyAll();
+        if (fileOut != null) {
+            fileOut.close();
+        }
+    }
+
+    /**
+     * 保持しているデータをZipファイルに書き込みます。
+     *
+     * @param writer
+     *            Zipファイルの書き込み
+     * @throws IOException
+     */
+    void writeTo(ZipArchiveWriter writer) throws IOException {
+        close();
+        if (tempFile == null) {
+            byte[] data = memory.toByteArray();
+            writer.write(data, 0, data.length);
+            return;
+        }
+        writer.transferFrom(tempFile, size);
+    }
+
+    /**
+     * 引き取ったデータを、圧縮側が終了するまで順にZipファイルに書き込みます。
+     * <p>
+     * 圧縮側が失敗した場合も終了を待って戻るため、呼び出し元で圧縮タスクの結果を確認する必要があります。
+     * </p>
+     *
+     * @param writer
+     *            Zipファイルの書き込み
+     * @return 書き込みにかかった時間（ナノ秒）
+     * @throws IOException
+     */
+    long drainTo(ZipArchiveWriter writer) throws IOException {
+        long elapsed = 0;
+        if (spilledSize > 0) {
+            long start = System.nanoTime();
+            writer.transferFrom(tempFile, spilledSize);
+            elapsed += System.nanoTime() - start;
+        }
+        while (true) {
+            byte[] data;
+            synchronized (this) {
+                while (handoff.isEmpty() && !closed) {
+                    waitForChange();
+                }
+                if (handoff.isEmpty()) {
+                    return elapsed;
+                }
+                data = handoff.removeFirst();
+                handoffSize -= data.length;
+                notifyAll();
+            }
+            long start = System.nanoTime();
+            writer.write(data, 0, data.length);
+            elapsed += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * 保持しているデータを破棄します。
+     * <p>
+     * 引き渡し待ちで待機している圧縮側の書き込みは失敗します。
+     * </p>
+     */
+    synchronized void delete() {
+        deleted = true;
+        try {
+            close();
+        } catch (IOException e) {
+            // ignore
+        }
+        if (memory != null) {
+            memory = null;
+            budget.release(size);
+        }
+        handoff.clear();
+        handoffSize = 0;
+        if (tempFile != null) {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * 状態の変化を待ちます。
+     *
+     * @throws IOException
+     */
+    private void waitForChange() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * 圧縮元のファイルをファイルチャネルから読み込む入力ストリームです。
+ * <p>
+ * 呼び出し元のバッファへ直接読み込むため、BufferedInputStreamのような中間バッファを持ちません。
+ * 大きなファイルはメモリマップして読み込みます。
+ * </p>
+ *
+ * @author szmslab
+ */
+class FileChannelInputStream extends InputStream {
+
+    /**
+     * メモリマップを使用するファイルサイズの閾値。
+     */
+    static final long MAP_THRESHOLD = 16L * 1024 * 1024;
+
+    /**
+     * 一度にメモリマップするサイズ。
+     */
+    static final long MAP_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * ファイルチャネル。
+     */
+    private final FileChannel channel;
+
+    /**
+     * 読み込むバイト数（開いた時点のファイルサイズ）。
+     */
+    private final long size;
+
+    /**
+     * メモリマップを使用するかどうか。
+     */
+    private final boolean map;
+
+    /**
+     * 次に読み込む位置。
+     */
+    private long position;
+
+    /**
+     * メモリマップした領域。
+     */
+    private MappedByteBuffer segment;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param channel
+     *            ファイルチャネル
+     * @throws IOException
+     */
+    FileChannelInputStream(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.map = size >= MAP_THRESHOLD;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int n;
+        if (map) {
+            if (segment == null || !segment.hasRemaining()) {
+                segment = channel.map(MapMode.READ_ONLY, position, Math.min(MAP_SEGMENT_SIZE, size - position));
+            }
+            n = Math.min(len, segment.remaining());
+            segment.get(b, off, n);
+        } else {
+            n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, size - position)), position);
+            if (n < 0) {
+                return -1;
+            }
+        }
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, size - position));
+        position += skipped;
+        segment = null;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, size - position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        segment = null;
+        channel.close();
+    }
+
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+
+import net.lingala.zip4j.exception.ZipException;
+import net.lingala.zip4j.util.InternalZipConstants;
+
+/**
+ * 圧縮対象のファイルを走査し、Zipエントリのヘッダ情報を生成するクラスです。
+ * <p>
+ * ディレクトリは {@link DirectoryStream} で列挙し、ファイル属性はエントリ毎に一度だけ読み込んでヘッダ情報の生成に使用します。
+ * 子を持つディレクトリは子のみを、空のディレクトリとファイルはそのものをエントリとし、ディレクトリ内の列挙順に生成します。
+ * </p>
+ * <p>
+ * 並列数が2以上の場合は、サブディレクトリをフォーク/ジョインで並列に列挙します。
+ * 走査するスレッドは列挙の終わったディレクトリから列挙順に引き渡すため、
+ * 大きなサブディレクトリの配下全体の走査を待たずに圧縮を開始でき、エントリの順序は逐次の走査と同じです。
+ * </p>
+ *
+ * @author szmslab
+ */
+class FileTreeWalker {
+
+    /**
+     * 読み込むファイル属性の型（ファイルシステムが対応するもの）。
+     */
+    private static final Class<? extends BasicFileAttributes> ATTRIBUTES_TYPE = attributesType();
+
+    /**
+     * 走査しながら引き渡す場合のキューの容量。
+     */
+    private static final int QUEUE_CAPACITY = 1024;
+
+    /**
+     * 圧縮処理（ヘッダ情報の生成に使用）。
+     */
+    private final EntryCompressor compressor;
+
+    /**
+     * 並列数。
+     */
+    private final int parallelism;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param compressor
+     *            圧縮処理
+     * @param parallelism
+     *            並列数（1以下の場合は逐次に走査）
+     */
+    FileTreeWalker(EntryCompressor compressor, int parallelism) {
+        this.compressor = compressor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * 圧縮対象のファイルを走査し、すべてのヘッダ情報を生成します。
+     *
+     * @param parentPath
+     *            親のエントリパス
+     * @param files
+     *            圧縮対象のファイル
+     * @return Zipエントリのヘッダ情報（格納順）
+     * @throws IOException
+     * @throws ZipException
+     */
+    List<ZipEntryRecord> walk(String parentPath, File[] files) throws IOException, ZipException {
+        final List<ZipEntryRecord> records = new ArrayList<ZipEntryRecord>();
+        try {
+            walk(parentPath, files, new Sink() {
+                public void put(ZipEntryRecord record) {
+                    records.add(record);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZipException(e);
+        }
+        return records;
+    }
+
+    /**
+     * 別スレッドで圧縮対象のファイルを走査し、生成したヘッダ情報から順に引き渡します。
+     *
+     * @param parentPath
+     *            親のエントリパス
+     * @param files
+     *            圧縮対象のファイル
+     * @param trailing
+     *            ファイルの後に引き渡すヘッダ情報
+     * @return ヘッダ情報のキュー
+     */
+    RecordQueue start(final String parentPath, final File[] files, final List<ZipEntryRecord> trailing) {
+        final RecordQueue records = new RecordQueue(QUEUE_CAPACITY);
+        records.start(new WorkerThreadFactory("walker").newThread(new Runnable() {
+            public void run() {
+                try {
+                    walk(parentPath, files, new Sink() {
+                        public void put(ZipEntryRecord record) throws InterruptedException {
+                            records.put(record);
+                        }
+                    });
+                    for (ZipEntryRecord record : trailing) {
+                        records.put(record);
+                    }
+                    records.finish();
+                } catch (InterruptedException e) {
+                    // 書き込み側で打ち切られた
+                } catch (Throwable t) {
+                    records.fail(t);
+                }
+            }
+        }));
+        return records;
+    }
+
+    /**
+     * 圧縮対象のファイルを走査し、ヘッダ情報をキューに追加します。
+     *
+     * @param parentPath
+     *            親のエントリパス
+     * @param files
+     *            圧縮対象のファイル
+     * @param queue
+     *            ヘッダ情報の追加先
+     * @throws IOException
+     * @throws ZipException
+     * @throws InterruptedException
+     */
+    private void walk(String parentPath, File[] files, Sink queue)
+            throws IOException, ZipException, InterruptedException {
+        ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        try {
+            for (File file : files) {
+                if (file == null || !file.exists()) {
+                    throw new ZipException("input file does not exist");
+                }
+                Path path = file.toPath();
+                Node node = new Node(path, file.getName(), Files.readAttributes(path, ATTRIBUTES_TYPE));
+                if (pool == null) {
+                    walk(parentPath, node, queue);
+                } else {
+                    walk(parentPath, node, queue, pool);
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * ファイルまたはディレクトリを逐次に走査します。
+     *
+     * @param parentPath
+     *            親のエントリパス
+     * @param node
+     *            走査するファイルまたはディレクトリ
+     * @param queue
+     *            ヘッダ情報の追加先
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void walk(String parentPath, Node node, Sink queue) throws IOException, InterruptedException {
+        if (node.attributes.isDirectory()) {
+            List<Node> children = list(node.path);
+            if (!children.isEmpty()) {
+                String path = parentPath + node.name + InternalZipConstants.ZIP_FILE_SEPARATOR;
+                for (Node child : children) {
+                    walk(path, child, queue);
+                }
+                return;
+            }
+        }
+        queue.put(createRecord(parentPath, node));
+    }
+
+    /**
+     * ファイルまたはディレクトリを並列に走査します。
+     * <p>
+     * ディレクトリ毎に列挙するタスクを生成し、列挙の終わったディレクトリの内容から列挙順に引き渡します。
+     * </p>
+     *
+     * @param parentPath
+     *            親のエントリパス
+     * @param node
+     *            走査するファイルまたはディレクトリ
+     * @param queue
+     *            ヘッダ情報の追加先
+     * @param pool
+     *            フォーク/ジョインのスレッドプール
+     * @throws IOException
+     * @throws ZipException
+     * @throws InterruptedException
+     */
+    private void walk(String parentPath, Node node, Sink queue, ForkJoinPool pool)
+            throws IOException, ZipException, InterruptedException {
+        if (node.attributes.isDirectory()) {
+            drain(pool.submit(new DirectoryTask(parentPath, node)), queue);
+        } else {
+            queue.put(createRecord(parentPath, node));
+        }
+    }
+
+    /**
+     * ディレクトリの列挙結果を列挙順に引き渡します。
+     * <p>
+     * サブディレクトリは列挙が終わるのを待ち、その内容を続けて引き渡します。
+     * </p>
+     *
+     * @param task
+     *            ディレクトリを列挙するタスク
+     * @param queue
+     *            ヘッダ情報の追加先
+     * @throws IOException
+     * @throws ZipException
+     * @throws InterruptedException
+     */
+    private static void drain(Future<List<Item>> task, Sink queue)
+            throws IOException, ZipException, InterruptedException {
+        for (Item item : await(task)) {
+            if (item.record != null) {
+                queue.put(item.record);
+            } else {
+                drain(item.task, queue);
+            }
+        }
+    }
+
+    /**
+     * ディレクトリ直下のファイルとディレクトリを、ファイル属性とともに列挙します。
+     * <p>
+     * 読み込めないディレクトリは空のディレクトリとして扱います。
+     * </p>
+     *
+     * @param directory
+     *            ディレクトリ
+     * @return ファイルとディレクトリ（列挙順）
+     * @throws IOException
+     */
+    private static List<Node> list(Path directory) throws IOException {
+        DirectoryStream<Path> stream;
+        try {
+            stream = Files.newDirectoryStream(directory);
+        } catch (IOException e) {
+            return Collections.emptyList();
+        }
+        List<Node> children = new ArrayList<Node>();
+        try {
+            for (Path child : stream) {
+                children.add(new Node(child, child.getFileName().toString(),
+                    Files.readAttributes(child, ATTRIBUTES_TYPE)));
+            }
+        } catch (DirectoryIteratorException e) {
+            throw e.getCause();
+        } finally {
+            stream.close();
+        }
+        return children;
+    }
+
+    /**
+     * ヘッダ情報を生成します。
+     *
+     * @param parentPath
+     *            親のエントリパス
+     * @param node
+     *            ファイルまたはディレクトリ
+     * @return Zipエントリのヘッダ情報
+     * @throws IOException
+     */
+    private ZipEntryRecord createRecord(String parentPath, Node node) throws IOException {
+        String name = parentPath + node.name;
+        if (node.attributes.isDirectory()) {
+            name += InternalZipConstants.ZIP_FILE_SEPARATOR;
+        }
+        return compressor.createRecord(node.path.toFile(), node.attributes, name);
+    }
+
+    /**
+     * 並列走査のタスクの完了を待ちます。
+     *
+     * @param future
+     *            走査タスク
+     * @return ディレクトリの列挙結果
+     * @throws IOException
+     * @throws ZipException
+     * @throws InterruptedException
+     */
+    private static List<Item> await(Future<List<Item>> future)
+            throws IOException, ZipException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ZipException(cause);
+        }
+    }
+
+    /**
+     * ファイルシステムが対応するファイル属性の型を判定します。
+     * <p>
+     * 読み取り専用と隠しファイルの判定に必要な属性を、一度の読み込みで取得できる型を選択します。
+     * </p>
+     *
+     * @return ファイル属性の型
+     */
+    private static Class<? extends BasicFileAttributes> attributesType() {
+        Set<String> views = FileSystems.getDefault().supportedFileAttributeViews();
+        if (views.contains("posix")) {
+            return PosixFileAttributes.class;
+        } else if (views.contains("dos")) {
+            return DosFileAttributes.class;
+        }
+        return BasicFileAttributes.class;
+    }
+
+    /**
+     * ヘッダ情報の追加先です。
+     */
+    private interface Sink {
+
+        /**
+         * ヘッダ情報を追加します。
+         *
+         * @param record
+         *            Zipエントリのヘッダ情報
+         * @throws InterruptedException
+         */
+        void put(ZipEntryRecord record) throws InterruptedException;
+
+    }
+
+    /**
+     * 走査するファイルまたはディレクトリです。
+     */
+    private static class Node {
+
+        /**
+         * パス。
+         */
+        private final Path path;
+
+        /**
+         * 名前。
+         */
+        private final String name;
+
+        /**
+         * ファイル属性。
+         */
+        private final BasicFileAttributes attributes;
+
+        Node(Path path, String name, BasicFileAttributes attributes) {
+            this.path = path;
+            this.name = name;
+            this.attributes = attributes;
+        }
+
+    }
+
+    /**
+     * ディレクトリの列挙結果の要素（ファイルのヘッダ情報、またはサブディレクトリを列挙するタスク）です。
+     */
+    private static class Item {
+
+        /**
+         * ヘッダ情報（サブディレクトリの場合はnull）。
+         */
+        private final ZipEntryRecord record;
+
+        /**
+         * サブディレクトリを列挙するタスク（ファイルの場合はnull）。
+         */
+        private final DirectoryTask task;
+
+        Item(ZipEntryRecord record, DirectoryTask task) {
+            this.record = record;
+            this.task = task;
+        }
+
+    }
+
+    /**
+     * ディレクトリ直下を列挙し、サブディレクトリを列挙するタスクをフォークするタスクです。
+     * <p>
+     * サブディレクトリの完了は待たないため、配下全体の走査を待たずに結果を引き渡せます。
+     * </p>
+     */
+    private class DirectoryTask extends RecursiveTask<List<Item>> {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * 親のエントリパス。
+         */
+        private final String parentPath;
+
+        /**
+         * 走査するディレクトリ。
+         */
+        private final Node node;
+
+        DirectoryTask(String parentPath, Node node) {
+            this.parentPath = parentPath;
+            this.node = node;
+        }
+
+        @Override
+        protected List<Item> compute() {
+            try {
+                List<Node> children = list(node.path);
+                List<Item> items = new ArrayList<Item>(Math.max(children.size(), 1));
+                if (children.isEmpty()) {
+                    items.add(new Item(createRecord(parentPath, node), null));
+                    return items;
+                }
+                String path = parentPath + node.name + InternalZipConstants.ZIP_FILE_SEPARATOR;
+                for (Node child : children) {
+                    if (child.attributes.isDirectory()) {
+                        DirectoryTask task = new DirectoryTask(path, child);
+                        task.fork();
+                        items.add(new Item(null, task));
+                    } else {
+                        items.add(new Item(createRecord(path, child), null));
+                    }
+                }
+                return items;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+    }
+
+}
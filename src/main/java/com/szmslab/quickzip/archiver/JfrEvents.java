@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * 計測値をJDK Flight Recorderのイベントとして記録するクラスです。
+ * <p>
+ * jdk.jfrパッケージを参照するため、Flight Recorderを利用できることを確認してから使用します（{@link ZipMetrics}）。
+ * </p>
+ *
+ * @author szmslab
+ */
+class JfrEvents {
+
+    private JfrEvents() {
+    }
+
+    /**
+     * いずれかのイベントが記録対象かどうかを判定します。
+     *
+     * @return 記録中の場合はtrue
+     */
+    static boolean isEnabled() {
+        return EventType.getEventType(EntryEvent.class).isEnabled()
+            || EventType.getEventType(ArchiveEvent.class).isEnabled();
+    }
+
+    /**
+     * エントリの計測値を記録します。
+     *
+     * @param metrics
+     *            エントリの計測値
+     * @param extraction
+     *            解凍かどうか
+     */
+    static void entry(EntryMetrics metrics, boolean extraction) {
+        EntryEvent event = new EntryEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.operation = extraction ? "extract" : "compress";
+        event.name = metrics.name();
+        event.bytesIn = metrics.bytesIn();
+        event.bytesOut = metrics.bytesOut();
+        event.ratio = metrics.ratio();
+        event.readTime = metrics.readNanos();
+        event.compressTime = metrics.compressNanos();
+        event.encryptTime = metrics.encryptNanos();
+        event.writeTime = metrics.writeNanos();
+        event.commit();
+    }
+
+    /**
+     * Zipファイル全体の計測値を記録します。
+     *
+     * @param metrics
+     *            Zipファイル全体の計測値
+     */
+    static void archive(ArchiveMetrics metrics) {
+        ArchiveEvent event = new ArchiveEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.operation = metrics.isExtraction() ? "extract" : "compress";
+        event.file = metrics.file() != null ? metrics.file().getPath() : null;
+        event.entries = metrics.entries();
+        event.bytesIn = metrics.bytesIn();
+        event.bytesOut = metrics.bytesOut();
+        event.ratio = metrics.ratio();
+        event.elapsedTime = metrics.elapsedNanos();
+        event.bytesPerSecond = (long) metrics.bytesPerSecond();
+        event.commit();
+    }
+
+    /**
+     * エントリの圧縮・解凍のイベントです。
+     */
+    @Name("com.szmslab.quickzip.Entry")
+    @Label("Zip Entry")
+    @Description("Compression or extraction of a zip entry")
+    @Category("quick-zip")
+    @StackTrace(false)
+    static class EntryEvent extends Event {
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Entry Name")
+        String name;
+
+        @Label("Bytes In")
+        @DataAmount
+        long bytesIn;
+
+        @Label("Bytes Out")
+        @DataAmount
+        long bytesOut;
+
+        @Label("Compression Ratio")
+        double ratio;
+
+        @Label("Read Time")
+        @Timespan
+        long readTime;
+
+        @Label("Compress Time")
+        @Timespan
+        long compressTime;
+
+        @Label("Encrypt Time")
+        @Timespan
+        long encryptTime;
+
+        @Label("Write Time")
+        @Timespan
+        long writeTime;
+
+    }
+
+    /**
+     * Zipファイル全体の圧縮・解凍のイベントです。
+     */
+    @Name("com.szmslab.quickzip.Archive")
+    @Label("Zip Archive")
+    @Description("Compression or extraction of a whole zip file")
+    @Category("quick-zip")
+    @StackTrace(false)
+    static class ArchiveEvent extends Event {
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Zip File")
+        String file;
+
+        @Label("Entries")
+        long entries;
+
+        @Label("Bytes In")
+        @DataAmount
+        long bytesIn;
+
+        @Label("Bytes Out")
+        @DataAmount
+        long bytesOut;
+
+        @Label("Compression Ratio")
+        double ratio;
+
+        @Label("Elapsed Time")
+        @Timespan
+        long elapsedTime;
+
+        @Label("Throughput")
+        @DataAmount
+        @Frequency
+        long bytesPerSecond;
+
+    }
+
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+
+import net.lingala.zip4j.exception.ZipException;
+import net.lingala.zip4j.util.InternalZipConstants;
+
+/**
+ * Zipファイルのストリームからローカルファイルヘッダに続くエントリデータ（圧縮・暗号化済み）を読み込む入力ストリームです。
+ * <p>
+ * ローカルファイルヘッダにサイズが格納されていない場合（データディスクリプタ付きでサイズが0の場合）は、
+ * データディスクリプタのシグネチャと圧縮後のサイズが一致する位置をエントリデータの終端とします。
+ * シグネチャのないデータディスクリプタはこの場合には扱えません。
+ * ZIP64形式のデータディスクリプタ（サイズが8バイト）は、ローカルファイルヘッダにZIP64拡張フィールドがある場合、
+ * 圧縮後のサイズが4GBを超える場合、または続くデータがヘッダのシグネチャでない場合に判定します。
+ * 終端のデータディスクリプタは読み込んでエントリのヘッダ情報に反映し、読み過ぎたデータは下位ストリームに戻します。
+ * </p>
+ * <p>
+ * AESの認証コードのようにエントリデータの末尾に付くデータ（トレイラ）は、エントリデータとしては返さずに {@link #trailer()} で取得します。
+ * 閉じる際はエントリデータの終端まで読み捨て、下位ストリームは閉じません。
+ * </p>
+ *
+ * @author szmslab
+ */
+class LocalEntryInputStream extends InputStream {
+
+    /**
+     * ZIP64形式のデータディスクリプタの長さ。
+     */
+    private static final int EXTHDR_ZIP64 = InternalZipConstants.EXTHDR + 8;
+
+    /**
+     * Zipファイルのストリーム。
+     */
+    private final PushbackInputStream in;
+
+    /**
+     * Zipエントリのヘッダ情報。
+     */
+    private final ZipEntryRecord record;
+
+    /**
+     * バッファのプール。
+     */
+    private final ResourcePool pool;
+
+    /**
+     * サイズがローカルファイルヘッダに格納されているかどうか。
+     */
+    private final boolean sizeKnown;
+
+    /**
+     * 末尾のトレイラ（AESの認証コード）。
+     */
+    private final byte[] trailer;
+
+    /**
+     * 残りのエントリデータのバイト数（サイズが格納されている場合）。
+     */
+    private long remaining;
+
+    /**
+     * 先読みバッファ（サイズが格納されていない場合）。
+     */
+    private byte[] buffer;
+
+    /**
+     * 先読みバッファ内の次に返す位置。
+     */
+    private int start;
+
+    /**
+     * 先読みバッファ内の返すことのできるデータの終端。
+     */
+    private int limit;
+
+    /**
+     * 先読みバッファ内の有効なデータ長。
+     */
+    private int end;
+
+    /**
+     * 次にデータディスクリプタを探す位置。
+     */
+    private int scanFrom;
+
+    /**
+     * 先読みバッファの先頭のエントリデータ内の位置。
+     */
+    private long base;
+
+    /**
+     * エントリデータの終端（データディスクリプタ）を読み込んだかどうか。
+     */
+    private boolean eof;
+
+    /**
+     * 閉じたかどうか。
+     */
+    private boolean closed;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param in
+     *            Zipファイルのストリーム（エントリデータの先頭に位置していること）
+     * @param record
+     *            Zipエントリのヘッダ情報（ローカルファイルヘッダから読み込んだもの）
+     * @param trailerLength
+     *            末尾のトレイラの長さ
+     * @param pool
+     *            バッファのプール
+     * @throws ZipException
+     */
+    LocalEntryInputStream(PushbackInputStream in, ZipEntryRecord record, int trailerLength, ResourcePool pool)
+            throws ZipException {
+        this.in = in;
+        this.record = record;
+        this.pool = pool;
+        this.trailer = new byte[trailerLength];
+        this.sizeKnown = (record.getFlags() & ZipEntryRecord.FLAG_DATA_DESCRIPTOR) == 0
+            || record.getCompressedSize() != 0;
+        if (sizeKnown) {
+            remaining = record.getCompressedSize() - trailerLength;
+            if (remaining < 0) {
+                throw new ZipException("invalid compressed size for file: " + record.getName());
+            }
+        } else {
+            buffer = pool.acquireBuffer();
+        }
+    }
+
+    /**
+     * 末尾のトレイラを取得します。
+     * <p>
+     * エントリデータを終端まで読み込んだ後に有効になります。
+     * </p>
+     *
+     * @return 末尾のトレイラ
+     */
+    byte[] trailer() {
+        return trailer;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        return sizeKnown ? readKnown(b, off, len) : readScanned(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] b = new byte[(int) Math.min(n, 512)];
+        long skipped = 0;
+        while (skipped < n) {
+            int len = read(b, 0, (int) Math.min(b.length, n - skipped));
+            if (len < 0) {
+                break;
+            }
+            skipped += len;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closed) {
+            return 0;
+        }
+        return sizeKnown ? (int) Math.min(remaining, in.available()) : limit - start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            // 次のエントリを読めるように、エントリデータの終端まで読み捨てる
+            byte[] b = pool.acquireBuffer();
+            try {
+                while (read(b, 0, b.length) >= 0) {
+                    // skip
+                }
+            } finally {
+                pool.releaseBuffer(b);
+            }
+        } finally {
+            closed = true;
+            pool.releaseBuffer(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * サイズが格納されているエントリデータを読み込みます。
+     *
+     * @param b
+     *            読み込み先
+     * @param off
+     *            開始位置
+     * @param len
+     *            最大の長さ
+     * @return 読み込んだバイト数（終端の場合は-1）
+     * @throws IOException
+     */
+    private int readKnown(byte[] b, int off, int len) throws IOException {
+        if (remaining == 0) {
+            if (!eof) {
+                readFully(trailer, 0, trailer.length);
+                if ((record.getFlags() & ZipEntryRecord.FLAG_DATA_DESCRIPTOR) != 0) {
+                    readDataDescriptor();
+                }
+                eof = true;
+            }
+            return -1;
+        }
+        int n = in.read(b, off, (int) Math.min(len, remaining));
+        if (n < 0) {
+            throw new IOException("unexpected end of zip stream: " + record.getName());
+        }
+        remaining -= n;
+        return n;
+    }
+
+    /**
+     * サイズが格納されていないエントリデータを、データディスクリプタを探しながら読み込みます。
+     *
+     * @param b
+     *            読み込み先
+     * @param off
+     *            開始位置
+     * @param len
+     *            最大の長さ
+     * @return 読み込んだバイト数（終端の場合は-1）
+     * @throws IOException
+     */
+    private int readScanned(byte[] b, int off, int len) throws IOException {
+        while (start >= limit) {
+            if (eof) {
+                return -1;
+            }
+            scan();
+        }
+        int n = Math.min(len, limit - start);
+        System.arraycopy(buffer, start, b, off, n);
+        start += n;
+        return n;
+    }
+
+    /**
+     * 先読みバッファにデータを読み込み、データディスクリプタを探します。
+     *
+     * @throws IOException
+     */
+    private void scan() throws IOException {
+        // 未返却のデータをバッファの先頭に詰める
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            base += start;
+            scanFrom -= start;
+            limit -= start;
+            end -= start;
+            start = 0;
+        }
+        int n = in.read(buffer, end, buffer.length - end);
+        if (n < 0) {
+            throw new IOException("unexpected end of zip stream (data descriptor not found): " + record.getName());
+        }
+        end += n;
+
+        // ZIP64形式の判定のため、データディスクリプタの後ろのシグネチャまで先読みする
+        int last = end - EXTHDR_ZIP64;
+        for (int i = Math.max(scanFrom, 0); i <= last; i++) {
+            if (ZipArchiveReader.readInt(buffer, i) != InternalZipConstants.EXTSIG || base + i < trailer.length) {
+                continue;
+            }
+            boolean zip64 = record.isZip64() || base + i >= InternalZipConstants.ZIP_64_LIMIT
+                || (ZipArchiveReader.readInt(buffer, i + 12) == 0
+                    && !isHeader(buffer, i + InternalZipConstants.EXTHDR));
+            long compressedSize = zip64 ? ZipArchiveReader.readLong(buffer, i + 8)
+                : ZipArchiveReader.readInt(buffer, i + 8);
+            if (compressedSize == base + i) {
+                int length = zip64 ? EXTHDR_ZIP64 : InternalZipConstants.EXTHDR;
+                record.setCrc(ZipArchiveReader.readInt(buffer, i + 4));
+                record.setCompressedSize(compressedSize);
+                record.setUncompressedSize(zip64 ? ZipArchiveReader.readLong(buffer, i + 16)
+                    : ZipArchiveReader.readInt(buffer, i + 12));
+                System.arraycopy(buffer, i - trailer.length, trailer, 0, trailer.length);
+                // 読み過ぎた後続のデータを戻す
+                in.unread(buffer, i + length, end - i - length);
+                limit = i - trailer.length;
+                end = i;
+                eof = true;
+                return;
+            }
+        }
+        // データディスクリプタが始まる可能性のある位置とトレイラは返さずに残す
+        scanFrom = Math.max(last + 1, 0);
+        limit = Math.max(start, scanFrom - trailer.length);
+    }
+
+    /**
+     * 指定位置のデータがローカルファイルヘッダまたはセントラルディレクトリのシグネチャかどうかを判定します。
+     *
+     * @param b
+     *            データ
+     * @param off
+     *            位置
+     * @return シグネチャの場合はtrue
+     */
+    private static boolean isHeader(byte[] b, int off) {
+        long signature = ZipArchiveReader.readInt(b, off);
+        return signature == InternalZipConstants.LOCSIG || signature == InternalZipConstants.CENSIG;
+    }
+
+    /**
+     * サイズが格納されているエントリのデータディスクリプタを読み込みます。
+     * <p>
+     * ローカルファイルヘッダにZIP64拡張フィールドがある場合は、サイズが8バイトの形式として読み込みます。
+     * </p>
+     *
+     * @throws IOException
+     */
+    private void readDataDescriptor() throws IOException {
+        int length = record.isZip64() ? EXTHDR_ZIP64 : InternalZipConstants.EXTHDR;
+        byte[] descriptor = new byte[length];
+        readFully(descriptor, 0, 4);
+        int off = 0;
+        if (ZipArchiveReader.readInt(descriptor, 0) == InternalZipConstants.EXTSIG) {
+            readFully(descriptor, 4, length - 4);
+            off = 4;
+        } else {
+            // シグネチャのないデータディスクリプタ
+            readFully(descriptor, 4, length - 8);
+        }
+        record.setCrc(ZipArchiveReader.readInt(descriptor, off));
+    }
+
+    /**
+     * 指定バイト数を読み込みます。
+     *
+     * @param b
+     *            読み込み先
+     * @param off
+     *            開始位置
+     * @param len
+     *            読み込むバイト数
+     * @throws IOException
+     */
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            int n = in.read(b, off + total, len - total);
+            if (n < 0) {
+                throw new IOException("unexpected end of zip stream: " + record.getName());
+            }
+            total += n;
+        }
+    }
+
+}
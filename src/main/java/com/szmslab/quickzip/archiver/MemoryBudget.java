@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 複数のスレッドで共有するメモリ使用量の上限です。
+ * <p>
+ * 確保は待機せずに成否を返すため、確保できない場合は呼び出し元でメモリ以外（一時ファイルなど）に退避します。
+ * </p>
+ *
+ * @author szmslab
+ */
+class MemoryBudget {
+
+    /**
+     * 上限（バイト）。
+     */
+    private final long limit;
+
+    /**
+     * 確保済みのバイト数。
+     */
+    private final AtomicLong used = new AtomicLong();
+
+    /**
+     * 確保済みのバイト数の最大値。
+     */
+    private final AtomicLong peak = new AtomicLong();
+
+    /**
+     * コンストラクタです。
+     *
+     * @param limit
+     *            上限（バイト）
+     */
+    MemoryBudget(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * 上限を超えない場合のみ確保します。
+     *
+     * @param size
+     *            確保するバイト数
+     * @return 確保できた場合はtrue
+     */
+    boolean tryAcquire(long size) {
+        while (true) {
+            long current = used.get();
+            if (current + size > limit) {
+                return false;
+            }
+            if (used.compareAndSet(current, current + size)) {
+                long max;
+                while ((max = peak.get()) < current + size && !peak.compareAndSet(max, current + size)) {
+                    // retry
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 確保したメモリを返却します。
+     *
+     * @param size
+     *            返却するバイト数
+     */
+    void release(long size) {
+        used.addAndGet(-size);
+    }
+
+    /**
+     * 確保済みのバイト数の最大値を取得します。
+     *
+     * @return 確保済みのバイト数の最大値
+     */
+    long peak() {
+        return peak.get();
+    }
+
+}
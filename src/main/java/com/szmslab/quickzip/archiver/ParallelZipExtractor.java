@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.lingala.zip4j.exception.ZipException;
+import net.lingala.zip4j.util.InternalZipConstants;
+import net.lingala.zip4j.util.Zip4jUtil;
+
+/**
+ * 複数のスレッドでエントリを並列に展開し、ファイルに書き込むクラスです。
+ * <p>
+ * セントラルディレクトリは一度だけ読み込み、各スレッドは共有のファイルチャネルから位置指定読み込みでエントリデータを取り出します。
+ * ディレクトリは展開前にまとめて作成します。
+ * 並列数が1の場合と、シークできないストリームから展開する場合は、呼び出し元のスレッドで順に展開します。
+ * </p>
+ *
+ * @author szmslab
+ */
+class ParallelZipExtractor {
+
+    /**
+     * 並列数。
+     */
+    private final int parallelism;
+
+    /**
+     * 展開するエントリの選択。
+     */
+    private final EntryMatcher matcher;
+
+    /**
+     * 非同期実行の進捗（同期実行の場合はnull）。
+     */
+    private final ZipProgress progress;
+
+    /**
+     * 計測値の集計（計測しない場合はnull）。
+     */
+    private final ZipMetrics metrics;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param parallelism
+     *            並列数
+     * @param matcher
+     *            展開するエントリの選択
+     * @param progress
+     *            非同期実行の進捗（同期実行の場合はnull）
+     * @param metrics
+     *            計測値の集計（計測しない場合はnull）
+     */
+    ParallelZipExtractor(int parallelism, EntryMatcher matcher, ZipProgress progress, ZipMetrics metrics) {
+        this.parallelism = parallelism;
+        this.matcher = matcher;
+        this.progress = progress;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Zipファイルのエントリを並列に展開します。
+     *
+     * @param reader
+     *            Zipファイルの読み込み
+     * @param records
+     *            Zipエントリのヘッダ情報（セントラルディレクトリ）
+     * @param directory
+     *            解凍先のディレクトリ
+     * @param password
+     *            パスワード
+     * @throws IOException
+     * @throws ZipException
+     */
+    void extract(ZipArchiveReader reader, List<ZipEntryRecord> records, File directory, String password)
+            throws IOException, ZipException {
+        String root = directory.getCanonicalPath();
+
+        // ディレクトリを先に作成し、ファイルのエントリだけを並列に展開する
+        List<ZipEntryRecord> files = new ArrayList<ZipEntryRecord>();
+        List<File> targets = new ArrayList<File>();
+        long totalBytes = 0;
+        for (ZipEntryRecord record : records) {
+            // 選択されなかったエントリはデータを読み込まない
+            if (!matcher.matches(record.getName())) {
+                continue;
+            }
+            File target = resolve(root, record);
+            if (record.isDirectory()) {
+                mkdirs(target);
+            } else {
+                mkdirs(target.getParentFile());
+                files.add(record);
+                targets.add(target);
+                totalBytes += record.getUncompressedSize();
+            }
+        }
+        if (progress != null) {
+            progress.setTotalBytes(totalBytes);
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+        AesKeyCache keys = reader.getKeyCache();
+        if (keys != null) {
+            // AESの鍵の導出を展開に先行して並行に行う
+            keys.prefetch(reader, files, password);
+        }
+        if (parallelism <= 1) {
+            for (int i = 0; i < files.size(); i++) {
+                call(new ExtractTask(reader, files.get(i), targets.get(i), password, progress, metrics));
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, files.size()),
+                new WorkerThreadFactory("extractor"));
+        // 大きなAESのエントリは、エントリ単位の並列とは別に鍵ストリームを並列に生成する
+        ExecutorService cipherExecutor = null;
+        if (hasLargeAesEntry(files)) {
+            cipherExecutor = Executors.newFixedThreadPool(parallelism, new WorkerThreadFactory("cipher"));
+            reader.setCipherExecutor(cipherExecutor, parallelism);
+        }
+        CompletionService<Void> completion = new ExecutorCompletionService<Void>(executor);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(files.size());
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                futures.add(completion.submit(
+                    new ExtractTask(reader, files.get(i), targets.get(i), password, progress, metrics)));
+            }
+            // 失敗したエントリがあれば、残りの完了を待たずに中断する
+            for (int i = 0; i < files.size(); i++) {
+                await(completion.take());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZipException(e);
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            executor.shutdownNow();
+            if (cipherExecutor != null) {
+                reader.setCipherExecutor(null, 1);
+                cipherExecutor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * 鍵ストリームを並列に生成する大きさのAESのエントリがあるかどうかを判定します。
+     *
+     * @param files
+     *            展開するエントリ
+     * @return 該当するエントリがある場合はtrue
+     */
+    private static boolean hasLargeAesEntry(List<ZipEntryRecord> files) {
+        for (ZipEntryRecord record : files) {
+            if (record.isAesEncrypted() && record.getCompressedSize() >= AesCipher.PARALLEL_THRESHOLD) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Zipファイルのストリームのエントリを到着順に展開します。
+     * <p>
+     * エントリデータは下位ストリームから順に読み込むため、並列数に関わらず呼び出し元のスレッドで1つずつ展開します。
+     * </p>
+     *
+     * @param reader
+     *            Zipファイルのストリームの読み込み
+     * @param directory
+     *            解凍先のディレクトリ
+     * @param password
+     *            パスワード
+     * @throws IOException
+     * @throws ZipException
+     */
+    void extract(ZipStreamReader reader, File directory, String password) throws IOException, ZipException {
+        String root = directory.getCanonicalPath();
+        ZipEntryRecord record;
+        while ((record = reader.nextEntry()) != null) {
+            // 選択されなかったエントリは復号・展開せずに読み捨てる
+            if (!matcher.matches(record.getName())) {
+                continue;
+            }
+            File target = resolve(root, record);
+            if (record.isDirectory()) {
+                mkdirs(target);
+                continue;
+            }
+            mkdirs(target.getParentFile());
+            try {
+                EntryMetrics entryMetrics = metrics != null ? metrics.start(record) : null;
+                extractEntry(reader.openEntry(record, password, entryMetrics), record, target, reader.getPool(),
+                    progress, entryMetrics);
+                if (entryMetrics != null) {
+                    metrics.entryCompleted(entryMetrics, record);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ZipException(e);
+            }
+        }
+    }
+
+    /**
+     * エントリの展開先を取得します。
+     *
+     * @param root
+     *            解凍先のディレクトリ（正規パス）
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @return エントリの展開先
+     * @throws IOException
+     * @throws ZipException
+     */
+    static File resolve(String root, ZipEntryRecord record) throws IOException, ZipException {
+        String name = record.getName().replace('\\', '/');
+        File target = new File(root, name.replace("/", InternalZipConstants.FILE_SEPARATOR));
+        String path = target.getCanonicalPath();
+        // 解凍先のディレクトリの外に書き込むエントリは拒否する
+        if (!path.equals(root) && !path.startsWith(root + File.separator)) {
+            throw new ZipException("illegal file name that breaks out of the target directory: " + record.getName());
+        }
+        return target;
+    }
+
+    /**
+     * ディレクトリを作成します。
+     *
+     * @param dir
+     *            ディレクトリ
+     * @throws IOException
+     */
+    static void mkdirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("unable to create directory: " + dir.getPath());
+        }
+    }
+
+    /**
+     * 展開タスクを呼び出し元のスレッドで実行します。
+     *
+     * @param task
+     *            展開タスク
+     * @throws IOException
+     * @throws ZipException
+     */
+    private void call(ExtractTask task) throws IOException, ZipException {
+        try {
+            task.call();
+        } catch (IOException e) {
+            throw e;
+        } catch (ZipException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZipException(e);
+        } catch (Exception e) {
+            throw new ZipException(e);
+        }
+    }
+
+    /**
+     * 展開タスクの完了を待ちます。
+     *
+     * @param future
+     *            展開タスク
+     * @throws IOException
+     * @throws ZipException
+     * @throws InterruptedException
+     */
+    private void await(Future<Void> future) throws IOException, ZipException, InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ZipException) {
+                throw (ZipException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ZipException(cause);
+        }
+    }
+
+    /**
+     * エントリデータをファイルに書き込み、最終更新日時と読み取り専用属性を設定します。
+     *
+     * @param in
+     *            エントリデータの入力ストリーム（書き込み後に閉じます）
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @param target
+     *            展開先のファイル
+     * @param pool
+     *            バッファのプール
+     * @param progress
+     *            非同期実行の進捗（同期実行の場合はnull）
+     * @param metrics
+     *            エントリの計測値（計測しない場合はnull）
+     * @throws IOException
+     * @throws ZipException
+     * @throws InterruptedException
+     */
+    static void extractEntry(InputStream in, ZipEntryRecord record, File target, ResourcePool pool,
+            ZipProgress progress, EntryMetrics metrics) throws IOException, ZipException, InterruptedException {
+        try {
+            write(in, target, pool, progress, metrics);
+        } catch (EntryChecksumException e) {
+            // zip4jと同じく、展開中のエラーはZipExceptionとして通知する
+            throw new ZipException(e.getMessage());
+        } catch (IOException e) {
+            throw new ZipException(e);
+        } finally {
+            in.close();
+        }
+        if (record.getDosTime() > 0) {
+            target.setLastModified(Zip4jUtil.dosToJavaTme(record.getDosTime()));
+        }
+        if ((record.getExternalAttributes() & InternalZipConstants.FILE_MODE_READ_ONLY) != 0) {
+            Zip4jUtil.setFileReadOnly(target);
+        }
+        if (progress != null) {
+            progress.addEntry();
+        }
+    }
+
+    /**
+     * エントリデータをファイルに書き込みます。
+     * <p>
+     * 非同期実行の場合は書き込んだバイト数を進捗に加算し、失敗またはキャンセルされた場合は書き込み途中のファイルを削除します。
+     * </p>
+     *
+     * @param in
+     *            エントリデータの入力ストリーム
+     * @param target
+     *            展開先のファイル
+     * @param pool
+     *            バッファのプール
+     * @param progress
+     *            非同期実行の進捗（同期実行の場合はnull）
+     * @param metrics
+     *            エントリの計測値（計測しない場合はnull）
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private static void write(InputStream in, File target, ResourcePool pool, ZipProgress progress,
+            EntryMetrics metrics) throws IOException, InterruptedException {
+        boolean completed = false;
+        OutputStream out = new FileOutputStream(target);
+        if (metrics != null) {
+            out = new TimedOutputStream(out, metrics, EntryMetrics.WRITE);
+        }
+        try {
+            byte[] buffer = pool.acquireBuffer();
+            try {
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedException();
+                    }
+                    if (progress != null) {
+                        progress.check();
+                        progress.addBytes(len);
+                    }
+                    out.write(buffer, 0, len);
+                }
+            } finally {
+                pool.releaseBuffer(buffer);
+            }
+            completed = true;
+        } finally {
+            out.close();
+            if (!completed && progress != null) {
+                target.delete();
+            }
+        }
+    }
+
+    /**
+     * 1エントリ分の展開タスクです。
+     */
+    private static class ExtractTask implements Callable<Void> {
+
+        /**
+         * Zipファイルの読み込み。
+         */
+        private final ZipArchiveReader reader;
+
+        /**
+         * Zipエントリのヘッダ情報。
+         */
+        private final ZipEntryRecord record;
+
+        /**
+         * 展開先のファイル。
+         */
+        private final File target;
+
+        /**
+         * パスワード。
+         */
+        private final String password;
+
+        /**
+         * 非同期実行の進捗。
+         */
+        private final ZipProgress progress;
+
+        /**
+         * 計測値の集計。
+         */
+        private final ZipMetrics metrics;
+
+        ExtractTask(ZipArchiveReader reader, ZipEntryRecord record, File target, String password,
+                ZipProgress progress, ZipMetrics metrics) {
+            this.reader = reader;
+            this.record = record;
+            this.target = target;
+            this.password = password;
+            this.progress = progress;
+            this.metrics = metrics;
+        }
+
+        public Void call() throws Exception {
+            EntryMetrics entryMetrics = metrics != null ? metrics.start(record) : null;
+            extractEntry(reader.openEntry(record, password, entryMetrics), record, target, reader.getPool(), progress,
+                entryMetrics);
+            if (entryMetrics != null) {
+                metrics.entryCompleted(entryMetrics, record);
+            }
+            return null;
+        }
+
+    }
+
+}
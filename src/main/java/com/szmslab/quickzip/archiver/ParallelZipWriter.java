@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.lingala.zip4j.exception.ZipException;
+
+/**
+ * 複数のスレッドでエントリを並列に圧縮し、元の順序でZipファイルに書き込むクラスです。
+ * <p>
+ * 読み込み、圧縮・暗号化、書き込みを別のスレッドで実行する段階的なパイプラインとして動作します。
+ * 読み込み用のスレッドが圧縮元のデータを先読みし、圧縮用のスレッドが圧縮・暗号化した結果を一時保持し、
+ * 呼び出し元のスレッドが元の順序でZipファイルに書き込みます。
+ * 各段階の間は上限のあるキューでつなぎ、書き込み待ちのエントリ数と一時保持のメモリ使用量を制限します
+ * （メモリの上限を超える分は一時ファイルに退避します）。
+ * 書き込む順番が来たエントリは圧縮の完了を待たずに、圧縮したデータを一時保持せずに順に書き込むため、
+ * 大きなエントリでも一時ファイルに退避するのは、それより前のエントリを書き込んでいる間に圧縮した分のみです。
+ * </p>
+ *
+ * @author szmslab
+ */
+class ParallelZipWriter {
+
+    /**
+     * メモリ上限を指定しない場合の、書き込み待ちのエントリ毎のメモリ使用量。
+     */
+    static final int SPOOL_MEMORY_THRESHOLD = 1024 * 1024;
+
+    /**
+     * エントリ毎に先読みするバッファの数。
+     */
+    private static final int READ_AHEAD = 4;
+
+    /**
+     * ブロック単位の並列圧縮のブロックサイズ。
+     */
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * 圧縮処理。
+     */
+    private final EntryCompressor compressor;
+
+    /**
+     * 並列数。
+     */
+    private final int parallelism;
+
+    /**
+     * ブロック単位の並列圧縮を行うサイズの閾値。
+     */
+    private final long blockThreshold;
+
+    /**
+     * 圧縮レベル。
+     */
+    private final int level;
+
+    /**
+     * 書き込み待ちのエントリ数の上限。
+     */
+    private final int depth;
+
+    /**
+     * 書き込み待ちの圧縮データのメモリ使用量の上限。
+     */
+    private final MemoryBudget budget;
+
+    /**
+     * 一時ファイルを作成するディレクトリ（nullの場合はシステムの一時ディレクトリ）。
+     */
+    private final File spoolDirectory;
+
+    /**
+     * 読み込み用のスレッドプール。
+     */
+    private ExecutorService readExecutor;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param compressor
+     *            圧縮処理
+     * @param parallelism
+     *            並列数
+     * @param level
+     *            圧縮レベル
+     * @param blockThreshold
+     *            ブロック単位の並列圧縮を行うサイズの閾値
+     * @param depth
+     *            書き込み待ちのエントリ数の上限（0以下の場合は並列数の2倍）
+     * @param memoryLimit
+     *            書き込み待ちの圧縮データのメモリ使用量の上限（0以下の場合はエントリ数の上限 × 1MB）
+     * @param spoolDirectory
+     *            メモリの上限を超える圧縮データを退避する一時ファイルのディレクトリ（nullの場合はシステムの一時ディレクトリ）
+     */
+    ParallelZipWriter(EntryCompressor compressor, int parallelism, int level, long blockThreshold, int depth,
+            long memoryLimit, File spoolDirectory) {
+        this.compressor = compressor;
+        this.parallelism = parallelism;
+        this.level = level;
+        this.blockThreshold = blockThreshold;
+        this.depth = depth > 0 ? depth : parallelism * 2;
+        this.budget = new MemoryBudget(memoryLimit > 0 ? memoryLimit : (long) this.depth * SPOOL_MEMORY_THRESHOLD);
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    /**
+     * エントリを並列に圧縮してZipファイルに書き込みます。
+     * <p>
+     * 書き込み待ちのエントリ数とメモリ使用量を制限し、一時データの量を抑えます。
+     * </p>
+     *
+     * @param writer
+     *            Zipファイルの書き込み
+     * @param records
+     *            Zipエントリのヘッダ情報のキュー
+     * @throws IOException
+     * @throws ZipException
+     */
+    void write(ZipArchiveWriter writer, RecordQueue records) throws IOException, ZipException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new WorkerThreadFactory("compressor"));
+        // 先読みは圧縮中のエントリ毎に行うため、圧縮用と同じ数のスレッドを用意する
+        readExecutor = Executors.newFixedThreadPool(parallelism, new WorkerThreadFactory("reader"));
+        // エントリ単位のタスクがブロックの完了を待つため、ブロック用のスレッドプールは分ける
+        ExecutorService blockExecutor = null;
+        if (parallelism > 1) {
+            blockExecutor = Executors.newFixedThreadPool(parallelism, new WorkerThreadFactory("block"));
+            compressor.setBlockDeflater(new BlockDeflater(level, BLOCK_SIZE, blockExecutor, parallelism * 2,
+                compressor.getPool()), blockThreshold);
+            // AESの鍵ストリームの生成も、ブロックを待たないタスクとして同じスレッドプールで並列に行う
+            compressor.setCipherExecutor(blockExecutor, parallelism);
+        }
+        LinkedList<Future<Void>> window = new LinkedList<Future<Void>>();
+        LinkedList<ZipEntryRecord> pending = new LinkedList<ZipEntryRecord>();
+        LinkedList<EntrySpool> spools = new LinkedList<EntrySpool>();
+        try {
+            ZipEntryRecord next = records.take();
+            while (next != null || !pending.isEmpty()) {
+                while (next != null && window.size() < depth) {
+                    EntrySpool spool = new EntrySpool(budget, spoolDirectory);
+                    window.add(executor.submit(new CompressTask(next, spool)));
+                    pending.add(next);
+                    spools.add(spool);
+                    next = records.take();
+                }
+                ZipEntryRecord record = pending.removeFirst();
+                EntrySpool spool = spools.removeFirst();
+                Future<Void> future = window.removeFirst();
+                try {
+                    long elapsed;
+                    if (spool.attach()) {
+                        // 圧縮中のエントリは完了を待たずに、圧縮したデータを順に書き込む
+                        long start = System.nanoTime();
+                        writer.putEntry(record);
+                        elapsed = System.nanoTime() - start + spool.drainTo(writer);
+                        await(future);
+                    } else {
+                        await(future);
+                        long start = System.nanoTime();
+                        writer.putEntry(record);
+                        if (compressor.isRawCopy(record)) {
+                            writer.transferFrom(record.getSourceFile(), record.getUncompressedSize());
+                            compressor.checkUnchanged(record);
+                        } else {
+                            spool.writeTo(writer);
+                        }
+                        elapsed = System.nanoTime() - start;
+                    }
+                    long start = System.nanoTime();
+                    writer.closeEntry(record);
+                    compressor.written(record, elapsed + System.nanoTime() - start);
+                    if (spool.isSpilled()) {
+                        compressor.getStatistics().addSpilled(record);
+                    }
+                } finally {
+                    spool.delete();
+                }
+            }
+            compressor.getStatistics().updateSpoolMemoryPeak(budget.peak());
+        } finally {
+            executor.shutdownNow();
+            readExecutor.shutdownNow();
+            if (blockExecutor != null) {
+                blockExecutor.shutdownNow();
+            }
+            for (Future<Void> future : window) {
+                future.cancel(true);
+            }
+            for (EntrySpool spool : spools) {
+                spool.delete();
+            }
+        }
+    }
+
+    /**
+     * 圧縮タスクの完了を待ちます。
+     *
+     * @param future
+     *            圧縮タスク
+     * @throws IOException
+     * @throws ZipException
+     */
+    private void await(Future<Void> future) throws IOException, ZipException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZipException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ZipException) {
+                throw (ZipException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ZipException(cause);
+        }
+    }
+
+    /**
+     * 1エントリ分の圧縮タスクです。
+     */
+    private class CompressTask implements Callable<Void> {
+
+        /**
+         * Zipエントリのヘッダ情報。
+         */
+        private final ZipEntryRecord record;
+
+        /**
+         * 圧縮データの一時保持。
+         */
+        private final EntrySpool spool;
+
+        CompressTask(ZipEntryRecord record, EntrySpool spool) {
+            this.record = record;
+            this.spool = spool;
+        }
+
+        public Void call() throws Exception {
+            try {
+                compressor.adapt(record);
+                // 無圧縮かつ暗号化なしのエントリはCRC-32だけを計算し、書き込み時にファイルから直接転送する
+                if (compressor.isRawCopy(record)) {
+                    compressor.checksum(record);
+                } else if (!record.isDirectory()) {
+                    InputStream in = new PrefetchInputStream(compressor.openStream(record), READ_AHEAD, readExecutor,
+                        compressor.getPool());
+                    try {
+                        // 圧縮方式が確定したため、書き込む順番が来ていれば圧縮データを直接引き渡す
+                        spool.open();
+                        compressor.compress(record, in, spool);
+                    } finally {
+                        in.close();
+                    }
+                }
+                return null;
+            } finally {
+                // 失敗した場合も、引き渡しを待つ書き込み側に終了を通知する
+                spool.close();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 別スレッドで先読みする入力ストリームです。
+ * <p>
+ * 読み込み用のスレッドが下位ストリームをバッファ単位で読み込み、上限数までのバッファを先読みしておくため、
+ * ディスクの読み込み待ちと圧縮処理が重なって実行されます。
+ * 下位ストリームは読み込み用のスレッドが終端で閉じます（途中で閉じた場合は読み込みを打ち切って閉じます）。
+ * </p>
+ *
+ * @author szmslab
+ */
+class PrefetchInputStream extends InputStream {
+
+    /**
+     * 終端を表すバッファ。
+     */
+    private static final Chunk END = new Chunk(null, -1);
+
+    /**
+     * 下位ストリーム。
+     */
+    private final InputStream in;
+
+    /**
+     * 先読みしたバッファ。
+     */
+    private final BlockingQueue<Chunk> chunks;
+
+    /**
+     * バッファのプール。
+     */
+    private final ResourcePool pool;
+
+    /**
+     * 読み込みタスク。
+     */
+    private final Future<?> task;
+
+    /**
+     * 読み込み中に発生した例外。
+     */
+    private volatile IOException failure;
+
+    /**
+     * 読み込み中のバッファ。
+     */
+    private Chunk current;
+
+    /**
+     * 読み込み中のバッファ内の位置。
+     */
+    private int position;
+
+    /**
+     * 閉じたかどうか。
+     */
+    private boolean closed;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param in
+     *            下位ストリーム
+     * @param depth
+     *            先読みするバッファの最大数
+     * @param executor
+     *            読み込み用のスレッドプール
+     * @param pool
+     *            バッファのプール
+     */
+    PrefetchInputStream(final InputStream in, int depth, ExecutorService executor, ResourcePool pool) {
+        this.in = in;
+        this.chunks = new ArrayBlockingQueue<Chunk>(depth);
+        this.pool = pool;
+        this.task = executor.submit(new Runnable() {
+            public void run() {
+                prefetch();
+            }
+        });
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (current == END) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (current == null || position >= current.length) {
+            if (current != null) {
+                pool.releaseBuffer(current.data);
+            }
+            current = take();
+            position = 0;
+        }
+        if (current == END) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current.data, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        task.cancel(true);
+        if (current != null && current != END) {
+            pool.releaseBuffer(current.data);
+        }
+        current = null;
+        Chunk chunk;
+        while ((chunk = chunks.poll()) != null) {
+            if (chunk != END) {
+                pool.releaseBuffer(chunk.data);
+            }
+        }
+        // 読み込みが開始されていない場合もあるため、下位ストリームはここでも閉じる
+        in.close();
+    }
+
+    /**
+     * 先読みしたバッファを取り出します（読み込まれるまで待機します）。
+     *
+     * @return 先読みしたバッファ
+     * @throws IOException
+     */
+    private Chunk take() throws IOException {
+        Chunk chunk;
+        try {
+            chunk = chunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (chunk == END && failure != null) {
+            throw failure;
+        }
+        return chunk;
+    }
+
+    /**
+     * 下位ストリームを終端まで読み込み、バッファ単位で引き渡します（読み込み用のスレッドで実行します）。
+     */
+    private void prefetch() {
+        try {
+            try {
+                readAll();
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new IOException(e);
+            }
+            chunks.put(END);
+        } catch (InterruptedException e) {
+            // 読み込み側で閉じられた
+        }
+    }
+
+    /**
+     * 下位ストリームを終端まで読み込み、バッファ単位で格納してから閉じます。
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void readAll() throws IOException, InterruptedException {
+        try {
+            int n = 0;
+            while (n >= 0) {
+                byte[] buffer = pool.acquireBuffer();
+                int length = 0;
+                while (length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) >= 0) {
+                    length += n;
+                }
+                if (length > 0) {
+                    chunks.put(new Chunk(buffer, length));
+                } else {
+                    pool.releaseBuffer(buffer);
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 先読みしたバッファです。
+     */
+    private static class Chunk {
+
+        /**
+         * データ。
+         */
+        private final byte[] data;
+
+        /**
+         * データの長さ。
+         */
+        private final int length;
+
+        Chunk(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 読み込んだバイト数を進捗に加算し、キャンセルされた場合は読み込みを打ち切る入力ストリームです。
+ *
+ * @author szmslab
+ */
+class ProgressInputStream extends FilterInputStream {
+
+    /**
+     * 進捗。
+     */
+    private final ZipProgress progress;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param in
+     *            下位ストリーム
+     * @param progress
+     *            進捗
+     */
+    ProgressInputStream(InputStream in, ZipProgress progress) {
+        super(in);
+        this.progress = progress;
+    }
+
+    @Override
+    public int read() throws IOException {
+        progress.check();
+        int b = in.read();
+        if (b >= 0) {
+            progress.addBytes(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        progress.check();
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            progress.addBytes(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        progress.check();
+        long skipped = in.skip(n);
+        progress.addBytes(skipped);
+        return skipped;
+    }
+
+}
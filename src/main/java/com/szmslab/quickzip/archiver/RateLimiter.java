@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 読み込み・書き込みの帯域（バイト/秒）を制限するトークンバケットです。
+ * <p>
+ * 読み書きしたバイト数に応じて次の読み書きを待機させ、平均の転送速度を上限以下に抑えます。
+ * 使用されなかった帯域は最大1秒分まで蓄積し、その分はまとめて読み書きできます。
+ * 上限は圧縮の実行中でも変更でき、以降の読み書きに反映されます。
+ * 同じインスタンスを複数の圧縮処理で共有すると、それらの合計の転送速度を制限します。
+ * </p>
+ *
+ * @author szmslab
+ * @see ZipCompressor#readLimiter(RateLimiter)
+ * @see ZipCompressor#writeLimiter(RateLimiter)
+ */
+public class RateLimiter {
+
+    /**
+     * 蓄積できる帯域（ナノ秒）。
+     */
+    private static final long MAX_BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * 1秒あたりのバイト数の上限（0以下の場合は制限しない）。
+     */
+    private long bytesPerSecond;
+
+    /**
+     * 次の読み書きが可能になる時刻。
+     */
+    private long nextFreeNanos = System.nanoTime();
+
+    /**
+     * コンストラクタです。
+     *
+     * @param bytesPerSecond
+     *            1秒あたりのバイト数の上限（0以下の場合は制限しない）
+     */
+    public RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * 1秒あたりのバイト数の上限を取得します。
+     *
+     * @return 1秒あたりのバイト数の上限（0以下の場合は制限しない）
+     */
+    public synchronized long bytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * 1秒あたりのバイト数の上限を設定します。
+     * <p>
+     * 実行中の圧縮にも、次の読み書きから反映されます。
+     * </p>
+     *
+     * @param bytesPerSecond
+     *            1秒あたりのバイト数の上限（0以下の場合は制限しない）
+     * @return 自身のインスタンス
+     */
+    public synchronized RateLimiter bytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        // 変更前の上限で予約済みの待機時間は引き継がない
+        nextFreeNanos = Math.min(nextFreeNanos, System.nanoTime());
+        return this;
+    }
+
+    /**
+     * 指定したバイト数を読み書きできるまで待機します。
+     * <p>
+     * 待機時間は前回までに読み書きしたバイト数から求め、今回のバイト数は次の呼び出しの待機時間に反映します。
+     * </p>
+     *
+     * @param bytes
+     *            読み書きするバイト数
+     * @throws InterruptedIOException
+     *             待機中に割り込まれた場合
+     */
+    void acquire(long bytes) throws InterruptedIOException {
+        long wait = reserve(bytes);
+        if (wait <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * 指定したバイト数の帯域を予約します。
+     *
+     * @param bytes
+     *            読み書きするバイト数
+     * @return 読み書きを開始するまでの待機時間（ナノ秒）
+     */
+    private synchronized long reserve(long bytes) {
+        if (bytesPerSecond <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        // 使用されなかった帯域は最大1秒分まで蓄積する
+        if (now - nextFreeNanos > MAX_BURST_NANOS) {
+            nextFreeNanos = now - MAX_BURST_NANOS;
+        }
+        long wait = nextFreeNanos - now;
+        nextFreeNanos += (long) (bytes * (double) TimeUnit.SECONDS.toNanos(1) / bytesPerSecond);
+        return wait;
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.lingala.zip4j.exception.ZipException;
+
+/**
+ * 圧縮対象のZipエントリのヘッダ情報を、生成するスレッドから書き込むスレッドへ引き渡すキューです。
+ * <p>
+ * ディレクトリの走査と並行して圧縮を開始できるよう、走査したエントリから順に引き渡します。
+ * キューの容量を超える場合は、走査するスレッドは書き込みが進むまで待機します。
+ * 走査に失敗した場合は、書き込むスレッドが {@link #take()} で同じ例外を受け取ります。
+ * </p>
+ *
+ * @author szmslab
+ */
+class RecordQueue {
+
+    /**
+     * 終端を表すヘッダ情報。
+     */
+    private static final ZipEntryRecord END = new ZipEntryRecord();
+
+    /**
+     * ヘッダ情報のキュー。
+     */
+    private final BlockingQueue<ZipEntryRecord> queue;
+
+    /**
+     * ヘッダ情報を生成するスレッド（生成済みの場合はnull）。
+     */
+    private Thread producer;
+
+    /**
+     * 生成中に発生した例外。
+     */
+    private volatile Throwable failure;
+
+    /**
+     * 終端まで取り出したかどうか。
+     */
+    private boolean finished;
+
+    /**
+     * 追加したヘッダ情報の圧縮前のサイズの合計。
+     */
+    private final AtomicLong queuedBytes = new AtomicLong();
+
+    /**
+     * すべてのヘッダ情報を追加したかどうか。
+     */
+    private boolean complete;
+
+    /**
+     * 処理するバイト数の合計を通知する進捗（通知しない場合はnull）。
+     */
+    private ZipProgress progress;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param capacity
+     *            キューの容量
+     */
+    RecordQueue(int capacity) {
+        this.queue = new ArrayBlockingQueue<ZipEntryRecord>(capacity + 1);
+    }
+
+    /**
+     * 生成済みのヘッダ情報を格納したキューを生成します。
+     * <p>
+     * 再利用・重複排除するエントリを除いたものを格納するため、処理するバイト数の合計は進捗に設定しません
+     * （収集した時点で呼び出し元が設定します）。
+     * </p>
+     *
+     * @param records
+     *            Zipエントリのヘッダ情報（格納順）
+     */
+    RecordQueue(List<ZipEntryRecord> records) {
+        this(records.size());
+        queue.addAll(records);
+        queue.add(END);
+    }
+
+    /**
+     * すべてのヘッダ情報を追加した時点で、圧縮前のサイズの合計を進捗に設定するようにします。
+     *
+     * @param progress
+     *            進捗（通知しない場合はnull）
+     */
+    synchronized void setProgress(ZipProgress progress) {
+        this.progress = progress;
+        if (complete && progress != null) {
+            progress.setTotalBytes(queuedBytes.get());
+        }
+    }
+
+    /**
+     * ヘッダ情報を生成するスレッドを開始します。
+     *
+     * @param thread
+     *            ヘッダ情報を生成するスレッド
+     */
+    void start(Thread thread) {
+        producer = thread;
+        thread.start();
+    }
+
+    /**
+     * ヘッダ情報を追加します（容量を超える場合は取り出されるまで待機します）。
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @throws InterruptedException
+     */
+    void put(ZipEntryRecord record) throws InterruptedException {
+        queuedBytes.addAndGet(record.getUncompressedSize());
+        queue.put(record);
+    }
+
+    /**
+     * すべてのヘッダ情報を追加したことを通知します。
+     *
+     * @throws InterruptedException
+     */
+    void finish() throws InterruptedException {
+        synchronized (this) {
+            complete = true;
+            if (progress != null) {
+                progress.setTotalBytes(queuedBytes.get());
+            }
+        }
+        queue.put(END);
+    }
+
+    /**
+     * ヘッダ情報の生成に失敗したことを通知します。
+     * <p>
+     * 取り出されていないヘッダ情報は破棄します。
+     * </p>
+     *
+     * @param cause
+     *            発生した例外
+     */
+    void fail(Throwable cause) {
+        failure = cause;
+        queue.clear();
+        queue.offer(END);
+    }
+
+    /**
+     * 次のヘッダ情報を取り出します（生成されるまで待機します）。
+     *
+     * @return Zipエントリのヘッダ情報（終端の場合はnull）
+     * @throws IOException
+     * @throws ZipException
+     */
+    ZipEntryRecord take() throws IOException, ZipException {
+        if (finished) {
+            return null;
+        }
+        ZipEntryRecord record;
+        try {
+            record = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZipException(e);
+        }
+        if (record != END) {
+            return record;
+        }
+        finished = true;
+        Throwable cause = failure;
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof ZipException) {
+            throw (ZipException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        } else if (cause != null) {
+            throw new ZipException(cause);
+        }
+        return null;
+    }
+
+    /**
+     * ヘッダ情報の生成を打ち切ります。
+     */
+    void close() {
+        if (producer != null) {
+            producer.interrupt();
+            producer = null;
+        }
+    }
+
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 圧縮・解凍で使用するバッファとDeflater/Inflaterを再利用するためのプールです。
+ * <p>
+ * 1つのインスタンスを複数の {@link ZipCompressor} / {@link ZipExtractor} で共有でき、スレッドセーフです。
+ * 小さなZipファイルを繰り返し圧縮・解凍する場合に、バッファの確保とzlibのネイティブメモリの確保・解放を抑えます。
+ * 保持するオブジェクトは種類毎に最大保持数までとし、超えた分は破棄します。
+ * </p>
+ *
+ * @author szmslab
+ */
+public class ResourcePool {
+
+    /**
+     * 既定の最大保持数。
+     */
+    private static final int DEFAULT_MAX_IDLE = 64;
+
+    /**
+     * 種類毎の最大保持数。
+     */
+    private final int maxIdle;
+
+    /**
+     * 入出力用のバッファ。
+     */
+    private final ArrayDeque<byte[]> buffers = new ArrayDeque<byte[]>();
+
+    /**
+     * ダイレクトバッファ。
+     */
+    private final ArrayDeque<ByteBuffer> directBuffers = new ArrayDeque<ByteBuffer>();
+
+    /**
+     * 圧縮レベル毎のDeflater（ヘッダなし）。
+     */
+    private final Map<Integer, ArrayDeque<Deflater>> deflaters = new HashMap<Integer, ArrayDeque<Deflater>>();
+
+    /**
+     * Inflater（ヘッダなし）。
+     */
+    private final ArrayDeque<Inflater> inflaters = new ArrayDeque<Inflater>();
+
+    /**
+     * コンストラクタです。
+     */
+    public ResourcePool() {
+        this(DEFAULT_MAX_IDLE);
+    }
+
+    /**
+     * コンストラクタです。
+     *
+     * @param maxIdle
+     *            種類毎の最大保持数
+     */
+    public ResourcePool(int maxIdle) {
+        this.maxIdle = Math.max(0, maxIdle);
+    }
+
+    /**
+     * 種類毎の最大保持数を取得します。
+     *
+     * @return 種類毎の最大保持数
+     */
+    public int maxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * 入出力用のバッファ（{@link EntryCompressor#BUFFER_SIZE} バイト）を取得します。
+     *
+     * @return バッファ
+     */
+    byte[] acquireBuffer() {
+        synchronized (buffers) {
+            byte[] buffer = buffers.poll();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return new byte[EntryCompressor.BUFFER_SIZE];
+    }
+
+    /**
+     * 入出力用のバッファを返却します。
+     *
+     * @param buffer
+     *            バッファ
+     */
+    void releaseBuffer(byte[] buffer) {
+        if (buffer == null || buffer.length != EntryCompressor.BUFFER_SIZE) {
+            return;
+        }
+        synchronized (buffers) {
+            if (buffers.size() < maxIdle) {
+                buffers.push(buffer);
+            }
+        }
+    }
+
+    /**
+     * ダイレクトバッファ（{@link EntryCompressor#BUFFER_SIZE} バイト）を取得します。
+     *
+     * @return ダイレクトバッファ
+     */
+    ByteBuffer acquireDirectBuffer() {
+        synchronized (directBuffers) {
+            ByteBuffer buffer = directBuffers.poll();
+            if (buffer != null) {
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(EntryCompressor.BUFFER_SIZE);
+    }
+
+    /**
+     * ダイレクトバッファを返却します。
+     *
+     * @param buffer
+     *            ダイレクトバッファ
+     */
+    void releaseDirectBuffer(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        synchronized (directBuffers) {
+            if (directBuffers.size() < maxIdle) {
+                directBuffers.push(buffer);
+            }
+        }
+    }
+
+    /**
+     * 指定した圧縮レベルのDeflater（ヘッダなし）を取得します。
+     *
+     * @param level
+     *            圧縮レベル
+     * @return Deflater
+     */
+    Deflater acquireDeflater(int level) {
+        synchronized (deflaters) {
+            ArrayDeque<Deflater> queue = deflaters.get(level);
+            if (queue != null && !queue.isEmpty()) {
+                return queue.pop();
+            }
+        }
+        return new Deflater(level, true);
+    }
+
+    /**
+     * Deflaterを返却します。
+     * <p>
+     * 状態はリセットされます。最大保持数を超える場合は解放します。
+     * </p>
+     *
+     * @param level
+     *            圧縮レベル
+     * @param deflater
+     *            Deflater
+     */
+    void releaseDeflater(int level, Deflater deflater) {
+        if (deflater == null) {
+            return;
+        }
+        deflater.reset();
+        synchronized (deflaters) {
+            ArrayDeque<Deflater> queue = deflaters.get(level);
+            if (queue == null) {
+                queue = new ArrayDeque<Deflater>();
+                deflaters.put(level, queue);
+            }
+            if (queue.size() < maxIdle) {
+                queue.push(deflater);
+                return;
+            }
+        }
+        deflater.end();
+    }
+
+    /**
+     * Inflater（ヘッダなし）を取得します。
+     *
+     * @return Inflater
+     */
+    Inflater acquireInflater() {
+        synchronized (inflaters) {
+            Inflater inflater = inflaters.poll();
+            if (inflater != null) {
+                return inflater;
+            }
+        }
+        return new Inflater(true);
+    }
+
+    /**
+     * Inflaterを返却します。
+     * <p>
+     * 状態はリセットされます。最大保持数を超える場合は解放します。
+     * </p>
+     *
+     * @param inflater
+     *            Inflater
+     */
+    void releaseInflater(Inflater inflater) {
+        if (inflater == null) {
+            return;
+        }
+        inflater.reset();
+        synchronized (inflaters) {
+            if (inflaters.size() < maxIdle) {
+                inflaters.push(inflater);
+                return;
+            }
+        }
+        inflater.end();
+    }
+
+    /**
+     * 保持しているオブジェクトをすべて破棄し、Deflater/Inflaterのネイティブメモリを解放します。
+     */
+    public void clear() {
+        synchronized (buffers) {
+            buffers.clear();
+        }
+        synchronized (directBuffers) {
+            directBuffers.clear();
+        }
+        synchronized (deflaters) {
+            for (ArrayDeque<Deflater> queue : deflaters.values()) {
+                for (Deflater deflater : queue) {
+                    deflater.end();
+                }
+            }
+            deflaters.clear();
+        }
+        synchronized (inflaters) {
+            for (Inflater inflater : inflaters) {
+                inflater.end();
+            }
+            inflaters.clear();
+        }
+    }
+
+}
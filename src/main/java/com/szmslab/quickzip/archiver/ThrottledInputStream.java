@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 読み込みの帯域を {@link RateLimiter} で制限する入力ストリームです。
+ *
+ * @author szmslab
+ */
+class ThrottledInputStream extends FilterInputStream {
+
+    /**
+     * 帯域の制限。
+     */
+    private final RateLimiter limiter;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param in
+     *            下位ストリーム
+     * @param limiter
+     *            帯域の制限
+     */
+    ThrottledInputStream(InputStream in, RateLimiter limiter) {
+        super(in);
+        this.limiter = limiter;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b >= 0) {
+            limiter.acquire(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            limiter.acquire(n);
+        }
+        return n;
+    }
+
+}
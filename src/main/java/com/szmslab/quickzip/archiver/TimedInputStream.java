@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 下位ストリームの読み込みにかかった時間を、エントリの計測値の指定した区分に加算する入力ストリームです。
+ *
+ * @author szmslab
+ */
+class TimedInputStream extends FilterInputStream {
+
+    /**
+     * エントリの計測値。
+     */
+    private final EntryMetrics metrics;
+
+    /**
+     * 計測区分。
+     */
+    private final int phase;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param in
+     *            下位ストリーム
+     * @param metrics
+     *            エントリの計測値
+     * @param phase
+     *            計測区分
+     */
+    TimedInputStream(InputStream in, EntryMetrics metrics, int phase) {
+        super(in);
+        this.metrics = metrics;
+        this.phase = phase;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int previous = metrics.enter(phase);
+        try {
+            return in.read();
+        } finally {
+            metrics.exit(previous);
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int previous = metrics.enter(phase);
+        try {
+            return in.read(b, off, len);
+        } finally {
+            metrics.exit(previous);
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        int previous = metrics.enter(phase);
+        try {
+            return in.skip(n);
+        } finally {
+            metrics.exit(previous);
+        }
+    }
+
+}
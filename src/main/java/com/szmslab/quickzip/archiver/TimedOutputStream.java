@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 下位ストリームへの書き込みにかかった時間を、エントリの計測値の指定した区分に加算する出力ストリームです。
+ *
+ * @author szmslab
+ */
+class TimedOutputStream extends FilterOutputStream {
+
+    /**
+     * エントリの計測値。
+     */
+    private final EntryMetrics metrics;
+
+    /**
+     * 計測区分。
+     */
+    private final int phase;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param out
+     *            下位ストリーム
+     * @param metrics
+     *            エントリの計測値
+     * @param phase
+     *            計測区分
+     */
+    TimedOutputStream(OutputStream out, EntryMetrics metrics, int phase) {
+        super(out);
+        this.metrics = metrics;
+        this.phase = phase;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        int previous = metrics.enter(phase);
+        try {
+            out.write(b);
+        } finally {
+            metrics.exit(previous);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int previous = metrics.enter(phase);
+        try {
+            out.write(b, off, len);
+        } finally {
+            metrics.exit(previous);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        int previous = metrics.enter(phase);
+        try {
+            out.flush();
+        } finally {
+            metrics.exit(previous);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        int previous = metrics.enter(phase);
+        try {
+            out.close();
+        } finally {
+            metrics.exit(previous);
+        }
+    }
+
+}
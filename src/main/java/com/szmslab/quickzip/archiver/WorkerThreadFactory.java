@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 圧縮・解凍用のワーカースレッドを生成するファクトリです。
+ *
+ * @author szmslab
+ */
+class WorkerThreadFactory implements ThreadFactory {
+
+    /**
+     * スレッド名の接頭辞。
+     */
+    private final String prefix;
+
+    /**
+     * スレッド番号。
+     */
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * コンストラクタです。
+     *
+     * @param name
+     *            スレッドの用途名
+     */
+    WorkerThreadFactory(String name) {
+        this.prefix = "quick-zip-" + name + "-";
+    }
+
+    public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, prefix + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collections;
+import java.util.List;
+
+import net.lingala.zip4j.exception.ZipException;
+
+/**
+ * 開いたZipファイルから、エントリを名前で指定して個別に読み込むクラスです。
+ * <p>
+ * セントラルディレクトリは開く際に一度だけ読み込み（{@link ZipExtractor#indexCache(ArchiveIndexCache)} を設定した場合はキャッシュを使用し）、
+ * エントリ名のハッシュ索引を作成します。
+ * エントリの読み込みは対象エントリのデータだけを位置指定読み込みで取り出し、読み込みに合わせて展開・復号するため、
+ * Zipファイル全体の大きさに関わらずエントリの大きさに比例したコストで読み込めます。
+ * 複数のスレッドから同時にエントリを開くことができます。
+ * </p>
+ * <p>
+ * {@link ZipExtractor#open(File)} で開き、使用後は {@link #close()} で閉じます。
+ * </p>
+ *
+ * @author szmslab
+ */
+public class ZipArchive implements Closeable {
+
+    /**
+     * Zipファイルの読み込み。
+     */
+    private final ZipArchiveReader reader;
+
+    /**
+     * 閉じる際にプールを破棄するかどうか。
+     */
+    private final boolean ownPool;
+
+    /**
+     * セントラルディレクトリの索引。
+     */
+    private final CentralDirectoryIndex index;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param reader
+     *            Zipファイルの読み込み
+     * @param index
+     *            セントラルディレクトリの索引
+     * @param ownPool
+     *            閉じる際にプールを破棄するかどうか
+     */
+    ZipArchive(ZipArchiveReader reader, CentralDirectoryIndex index, boolean ownPool) {
+        this.reader = reader;
+        this.index = index;
+        this.ownPool = ownPool;
+    }
+
+    /**
+     * エントリ名の一覧を取得します。
+     *
+     * @return エントリ名の一覧（格納順、ディレクトリは"/"で終わる）
+     */
+    public List<String> entryNames() {
+        return Collections.unmodifiableList(index.names());
+    }
+
+    /**
+     * エントリが存在するかどうかを判定します。
+     *
+     * @param name
+     *            エントリ名
+     * @return 存在する場合はtrue
+     */
+    public boolean contains(String name) {
+        return name != null && index.find(name) >= 0;
+    }
+
+    /**
+     * エントリの展開後のサイズを取得します。
+     *
+     * @param name
+     *            エントリ名
+     * @return 展開後のサイズ
+     * @throws ZipException
+     */
+    public long size(String name) throws ZipException {
+        return lookup(name).getUncompressedSize();
+    }
+
+    /**
+     * エントリデータの入力ストリームを開きます。
+     *
+     * @param name
+     *            エントリ名
+     * @return エントリデータの入力ストリーム
+     * @throws IOException
+     * @throws ZipException
+     */
+    public InputStream openEntry(String name) throws IOException, ZipException {
+        return openEntry(name, null);
+    }
+
+    /**
+     * エントリデータの入力ストリームを開きます。
+     * <p>
+     * 入力ストリームは読み込みに合わせて展開・復号し、終端でCRC-32（AESの場合は認証コード）を検証します。
+     * 検証に失敗した場合は {@link IOException} を送出します。
+     * </p>
+     *
+     * @param name
+     *            エントリ名
+     * @param password
+     *            パスワード
+     * @return エントリデータの入力ストリーム
+     * @throws IOException
+     * @throws ZipException
+     */
+    public InputStream openEntry(String name, String password) throws IOException, ZipException {
+        ZipEntryRecord record = lookup(name);
+        if (record.isDirectory()) {
+            throw new ZipException("entry is a directory: " + name);
+        }
+        return reader.openEntry(record, password);
+    }
+
+    /**
+     * エントリデータのチャネルを開きます。
+     *
+     * @param name
+     *            エントリ名
+     * @return エントリデータのチャネル
+     * @throws IOException
+     * @throws ZipException
+     */
+    public ReadableByteChannel openChannel(String name) throws IOException, ZipException {
+        return openChannel(name, null);
+    }
+
+    /**
+     * エントリデータのチャネルを開きます。
+     *
+     * @param name
+     *            エントリ名
+     * @param password
+     *            パスワード
+     * @return エントリデータのチャネル
+     * @throws IOException
+     * @throws ZipException
+     * @see #openEntry(String, String)
+     */
+    public ReadableByteChannel openChannel(String name, String password) throws IOException, ZipException {
+        return Channels.newChannel(openEntry(name, password));
+    }
+
+    /**
+     * Zipファイルを閉じます。
+     * <p>
+     * 開いているエントリの入力ストリームは以降読み込めません。
+     * </p>
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } finally {
+            if (ownPool) {
+                reader.getPool().clear();
+            }
+        }
+    }
+
+    /**
+     * エントリのヘッダ情報を索引から取得します。
+     *
+     * @param name
+     *            エントリ名
+     * @return Zipエントリのヘッダ情報
+     * @throws ZipException
+     */
+    private ZipEntryRecord lookup(String name) throws ZipException {
+        int i = name != null ? index.find(name) : -1;
+        if (i < 0) {
+            throw new ZipException("entry not found: " + name);
+        }
+        return index.record(i);
+    }
+
+}
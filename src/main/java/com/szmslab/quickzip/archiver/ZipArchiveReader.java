@@ -0,0 +1,632 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import net.lingala.zip4j.crypto.engine.ZipCryptoEngine;
+import net.lingala.zip4j.exception.ZipException;
+import net.lingala.zip4j.util.InternalZipConstants;
+import net.lingala.zip4j.util.Zip4jConstants;
+
+import com.szmslab.quickzip.enums.EncryptionType;
+
+/**
+ * Zipファイルのセントラルディレクトリを読み込み、エントリデータを位置指定読み込みで取り出すクラスです。
+ * <p>
+ * エントリの入力ストリームはファイルチャネルの位置を変更しないため、複数のスレッドから同時に開くことができます。
+ * ZIP64形式（ZIP64形式のEOCDとロケータ、セントラルディレクトリのZIP64拡張フィールド）にも対応します。
+ * </p>
+ *
+ * @author szmslab
+ */
+class ZipArchiveReader {
+
+    /**
+     * EOCDのコメントの最大長。
+     */
+    private static final int MAX_COMMENT_LENGTH = 0xffff;
+
+    /**
+     * ZIP64形式のEOCDの固定部分の長さ。
+     */
+    private static final int ZIP64_ENDHDR_MIN = 56;
+    /**
+     * Zipファイル。
+     */
+    private final File zipFile;
+
+    /**
+     * ファイル名のエンコーディング。
+     */
+    private final String encoding;
+
+    /**
+     * Zipファイルのアクセス。
+     */
+    private final RandomAccessFile file;
+
+    /**
+     * Zipファイルのチャネル。
+     */
+    private final FileChannel channel;
+
+    /**
+     * バッファとInflaterのプール。
+     */
+    private final ResourcePool pool;
+
+    /**
+     * 大きなエントリのAESの鍵ストリームを並列に生成するスレッドプール。
+     */
+    private volatile ExecutorService cipherExecutor;
+
+    /**
+     * AESの鍵ストリームを並列に生成する際の並列数。
+     */
+    private volatile int cipherParallelism = 1;
+
+    /**
+     * AESの鍵のキャッシュ（キャッシュしない場合はnull）。
+     */
+    private volatile AesKeyCache keyCache;
+
+    /**
+     * エントリデータの読み込みの帯域の制限（制限しない場合はnull）。
+     */
+    private volatile RateLimiter readLimiter;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param zipFile
+     *            Zipファイル
+     * @param encoding
+     *            ファイル名のエンコーディング
+     * @param pool
+     *            バッファとInflaterのプール
+     * @throws IOException
+     */
+    ZipArchiveReader(File zipFile, String encoding, ResourcePool pool) throws IOException {
+        this.zipFile = zipFile;
+        this.encoding = encoding;
+        this.pool = pool;
+        this.file = new RandomAccessFile(zipFile, "r");
+        this.channel = file.getChannel();
+    }
+
+    /**
+     * 大きなエントリのAESの鍵ストリームを並列に生成するスレッドプールを設定します。
+     * <p>
+     * 暗号化されたデータが {@link AesCipher#PARALLEL_THRESHOLD} 以上のエントリに適用します。
+     * </p>
+     *
+     * @param cipherExecutor
+     *            スレッドプール（並列に生成しない場合はnull）
+     * @param cipherParallelism
+     *            並列数
+     */
+    void setCipherExecutor(ExecutorService cipherExecutor, int cipherParallelism) {
+        this.cipherParallelism = cipherParallelism;
+        this.cipherExecutor = cipherExecutor;
+    }
+
+    /**
+     * AESの鍵のキャッシュを設定します。
+     *
+     * @param keyCache
+     *            AESの鍵のキャッシュ（キャッシュしない場合はnull）
+     */
+    void setKeyCache(AesKeyCache keyCache) {
+        this.keyCache = keyCache;
+    }
+
+    /**
+     * AESの鍵のキャッシュを取得します。
+     *
+     * @return AESの鍵のキャッシュ（キャッシュしない場合はnull）
+     */
+    AesKeyCache getKeyCache() {
+        return keyCache;
+    }
+
+    /**
+     * エントリデータの読み込みの帯域の制限を設定します。
+     * <p>
+     * 設定した場合は、エントリデータのコピーもチャネル間の直接転送を行わずに読み込みます。
+     * </p>
+     *
+     * @param readLimiter
+     *            帯域の制限（制限しない場合はnull）
+     */
+    void setReadLimiter(RateLimiter readLimiter) {
+        this.readLimiter = readLimiter;
+    }
+
+    /**
+     * セントラルディレクトリを読み込みます。
+     *
+     * @return Zipエントリのヘッダ情報（格納順）
+     * @throws IOException
+     * @throws ZipException
+     */
+    List<ZipEntryRecord> readEntries() throws IOException, ZipException {
+        long[] end = readEndOfCentralDirectory();
+        long count = end[0];
+        long size = end[1];
+        long offset = end[2];
+        if (count > Integer.MAX_VALUE || size > Integer.MAX_VALUE || offset + size > channel.size()) {
+            throw new ZipException("invalid central directory: " + zipFile.getName());
+        }
+
+        byte[] cen = read(offset, (int) size);
+        List<ZipEntryRecord> records = new ArrayList<ZipEntryRecord>((int) Math.min(count, size / InternalZipConstants.CENHDR));
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (pos + InternalZipConstants.CENHDR > cen.length
+                    || readInt(cen, pos) != InternalZipConstants.CENSIG) {
+                throw new ZipException("invalid central directory header: " + zipFile.getName());
+            }
+            int flags = readShort(cen, pos + 8);
+            int method = readShort(cen, pos + 10);
+            int nameLength = readShort(cen, pos + 28);
+            int extraLength = readShort(cen, pos + 30);
+            int commentLength = readShort(cen, pos + 32);
+            int next = pos + InternalZipConstants.CENHDR + nameLength + extraLength + commentLength;
+            if (next > cen.length) {
+                throw new ZipException("invalid central directory header: " + zipFile.getName());
+            }
+
+            ZipEntryRecord record = new ZipEntryRecord();
+            byte[] nameBytes = new byte[nameLength];
+            System.arraycopy(cen, pos + InternalZipConstants.CENHDR, nameBytes, 0, nameLength);
+            record.setNameBytes(nameBytes);
+            record.setName(decodeName(nameBytes, flags));
+            record.setDirectory(record.getName().endsWith("/") || record.getName().endsWith("\\"));
+            record.setFlags(flags);
+            record.setCompressionMethod(method);
+            record.setDosTime((int) readInt(cen, pos + 12));
+            record.setCrc(readInt(cen, pos + 16));
+            record.setCompressedSize(readInt(cen, pos + 20));
+            record.setUncompressedSize(readInt(cen, pos + 24));
+            record.setExternalAttributes((int) readInt(cen, pos + 38));
+            record.setLocalHeaderOffset(readInt(cen, pos + 42));
+            readZip64Extra(record, cen, pos + InternalZipConstants.CENHDR + nameLength, extraLength, true);
+            if ((flags & ZipEntryRecord.FLAG_ENCRYPTED) != 0) {
+                if (method == Zip4jConstants.ENC_METHOD_AES) {
+                    readAesExtra(record, cen, pos + InternalZipConstants.CENHDR + nameLength, extraLength);
+                } else {
+                    record.setEncryptionType(EncryptionType.ZIP_CRYPTO);
+                }
+            }
+            if (record.getCompressionMethod() != Zip4jConstants.COMP_STORE
+                    && record.getCompressionMethod() != Zip4jConstants.COMP_DEFLATE) {
+                throw new ZipException("unsupported compression method: " + record.getName());
+            }
+            records.add(record);
+            pos = next;
+        }
+        return records;
+    }
+
+    /**
+     * セントラルディレクトリの開始位置を取得します。
+     *
+     * @return セントラルディレクトリの開始位置
+     * @throws IOException
+     * @throws ZipException
+     */
+    long centralDirectoryOffset() throws IOException, ZipException {
+        return readEndOfCentralDirectory()[2];
+    }
+
+    /**
+     * エントリデータ（展開・復号済み）の入力ストリームを開きます。
+     * <p>
+     * 入力ストリームは終端でCRC-32（AESの場合は認証コード）を検証します。
+     * </p>
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @param password
+     *            パスワード
+     * @return エントリデータの入力ストリーム
+     * @throws IOException
+     * @throws ZipException
+     */
+    InputStream openEntry(ZipEntryRecord record, String password) throws IOException, ZipException {
+        return openEntry(record, password, null);
+    }
+
+    /**
+     * エントリデータを読み込み、読み込み・復号の時間を計測する入力ストリームを開きます。
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @param password
+     *            パスワード
+     * @param metrics
+     *            エントリの計測値（計測しない場合はnull）
+     * @return エントリデータの入力ストリーム
+     * @throws IOException
+     * @throws ZipException
+     */
+    InputStream openEntry(ZipEntryRecord record, String password, EntryMetrics metrics)
+            throws IOException, ZipException {
+        long offset = dataOffset(record);
+        long length = record.getCompressedSize();
+        InputStream in;
+        if (record.getEncryptionType() == EncryptionType.NO_ENCRYPTION) {
+            in = timed(openData(offset, length), metrics, EntryMetrics.READ);
+        } else {
+            byte[] mac = null;
+            if (record.isAesEncrypted()) {
+                length -= InternalZipConstants.AES_AUTH_LENGTH;
+                mac = read(offset + length, InternalZipConstants.AES_AUTH_LENGTH);
+            }
+            ExecutorService executor = length >= AesCipher.PARALLEL_THRESHOLD ? cipherExecutor : null;
+            // 鍵の導出も復号の時間として計測する
+            int phase = metrics != null ? metrics.enter(EntryMetrics.ENCRYPT) : 0;
+            try {
+                in = timed(new DecryptingInputStream(
+                    timed(openData(offset, length), metrics, EntryMetrics.READ), record,
+                    password, mac, pool, keyCache, executor, cipherParallelism), metrics, EntryMetrics.ENCRYPT);
+            } finally {
+                if (metrics != null) {
+                    metrics.exit(phase);
+                }
+            }
+        }
+        if (record.getCompressionMethod() == Zip4jConstants.COMP_DEFLATE) {
+            in = new EntryInflaterInputStream(in, pool);
+        }
+        return new CrcCheckingInputStream(in, record);
+    }
+
+    /**
+     * 計測する場合は、読み込みの時間を計測する入力ストリームでラップします。
+     *
+     * @param in
+     *            入力ストリーム
+     * @param metrics
+     *            エントリの計測値（計測しない場合はnull）
+     * @param phase
+     *            計測区分
+     * @return 入力ストリーム
+     */
+    static InputStream timed(InputStream in, EntryMetrics metrics, int phase) {
+        return metrics != null ? new TimedInputStream(in, metrics, phase) : in;
+    }
+
+    /**
+     * エントリデータ（圧縮・暗号化済み）を展開・復号せずにそのまま書き込みます。
+     *
+     * @param offset
+     *            エントリデータの開始位置
+     * @param length
+     *            エントリデータのサイズ
+     * @param writer
+     *            Zipファイルの書き込み
+     * @throws IOException
+     * @see #dataOffset(ZipEntryRecord)
+     */
+    void transferTo(long offset, long length, ZipArchiveWriter writer) throws IOException {
+        if (offset + length > channel.size()) {
+            throw new IOException("unexpected end of zip file: " + zipFile.getName());
+        }
+        RateLimiter limiter = readLimiter;
+        if (limiter == null) {
+            writer.transferFrom(channel, offset, length);
+            return;
+        }
+        InputStream in = openData(offset, length);
+        byte[] b = pool.acquireBuffer();
+        try {
+            int len;
+            while ((len = in.read(b)) >= 0) {
+                writer.write(b, 0, len);
+            }
+        } finally {
+            pool.releaseBuffer(b);
+            in.close();
+        }
+    }
+
+    /**
+     * エントリデータの範囲を読み込む入力ストリームを開きます。
+     *
+     * @param offset
+     *            エントリデータの開始位置
+     * @param length
+     *            読み込むバイト数
+     * @return 入力ストリーム（帯域を制限する場合は、制限する入力ストリーム）
+     */
+    private InputStream openData(long offset, long length) {
+        InputStream in = new ChannelInputStream(channel, offset, length);
+        RateLimiter limiter = readLimiter;
+        return limiter != null ? new ThrottledInputStream(in, limiter) : in;
+    }
+
+    /**
+     * バッファとInflaterのプールを取得します。
+     *
+     * @return バッファとInflaterのプール
+     */
+    ResourcePool getPool() {
+        return pool;
+    }
+
+    /**
+     * Zipファイルを閉じます。
+     *
+     * @throws IOException
+     */
+    void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * エントリデータの開始位置をローカルファイルヘッダから取得します。
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @return エントリデータの開始位置
+     * @throws IOException
+     * @throws ZipException
+     */
+    long dataOffset(ZipEntryRecord record) throws IOException, ZipException {
+        byte[] loc = read(record.getLocalHeaderOffset(), InternalZipConstants.LOCHDR);
+        if (readInt(loc, 0) != InternalZipConstants.LOCSIG) {
+            throw new ZipException("invalid local file header: " + record.getName());
+        }
+        return record.getLocalHeaderOffset() + InternalZipConstants.LOCHDR + readShort(loc, 26) + readShort(loc, 28);
+    }
+
+    /**
+     * AESで暗号化されたエントリのソルトを読み込みます。
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @return ソルト
+     * @throws IOException
+     * @throws ZipException
+     */
+    byte[] readSalt(ZipEntryRecord record) throws IOException, ZipException {
+        return read(dataOffset(record), AesCipher.saltLength(record.getAesStrength()));
+    }
+
+    /**
+     * 暗号化ヘッダのパスワード検証値のみで、エントリを指定したパスワードで復号できるかどうかを判定します。
+     * <p>
+     * エントリデータは読み込みません。
+     * 検証値はAESが2バイト、ZipCryptoが1バイトのため、誤ったパスワードでもまれに一致します。
+     * </p>
+     *
+     * @param record
+     *            暗号化されたエントリのヘッダ情報
+     * @param password
+     *            パスワード
+     * @return 検証値が一致した場合はtrue
+     * @throws IOException
+     * @throws ZipException
+     */
+    boolean checkPassword(ZipEntryRecord record, String password) throws IOException, ZipException {
+        if (password == null || password.length() == 0) {
+            return false;
+        }
+        long offset = dataOffset(record);
+        if (record.isAesEncrypted()) {
+            int strength = record.getAesStrength();
+            int saltLength = AesCipher.saltLength(strength);
+            byte[] header = read(offset, saltLength + DecryptingInputStream.AES_PASSWORD_VERIFIER_LENGTH);
+            byte[] salt = Arrays.copyOf(header, saltLength);
+            AesKeyCache keys = keyCache;
+            byte[] derived = keys != null ? keys.derive(password, strength, salt)
+                : AesCipher.deriveKey(password.toCharArray(), strength, salt);
+            return Arrays.equals(new AesCipher(strength, salt, derived).getPasswordVerifier(),
+                Arrays.copyOfRange(header, saltLength, header.length));
+        }
+        byte[] header = read(offset, InternalZipConstants.STD_DEC_HDR_SIZE);
+        ZipCryptoEngine engine = new ZipCryptoEngine();
+        engine.initKeys(password.toCharArray());
+        int check = 0;
+        for (int i = 0; i < header.length; i++) {
+            check = (header[i] ^ engine.decryptByte()) & 0xff;
+            engine.updateKeys((byte) check);
+        }
+        // データディスクリプタ付きのエントリは最終更新時刻、それ以外はCRC-32の上位バイトを検証値とするが、
+        // 書き込むツールによって異なるため、どちらかと一致すればよい
+        return check == ((record.getDosTime() >>> 8) & 0xff) || check == ((record.getCrc() >>> 24) & 0xff);
+    }
+
+    /**
+     * AESの拡張フィールドを読み込みます。
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @param b
+     *            セントラルディレクトリまたはローカルファイルヘッダ
+     * @param off
+     *            拡張フィールドの開始位置
+     * @param len
+     *            拡張フィールドの長さ
+     * @throws ZipException
+     */
+    static void readAesExtra(ZipEntryRecord record, byte[] b, int off, int len) throws ZipException {
+        int pos = off;
+        while (pos + 4 <= off + len) {
+            int id = readShort(b, pos);
+            int size = readShort(b, pos + 2);
+            if (id == InternalZipConstants.AESSIG && size >= 7 && pos + 4 + size <= off + len) {
+                int strength = b[pos + 8] & 0xff;
+                if (strength == Zip4jConstants.AES_STRENGTH_128) {
+                    record.setEncryptionType(EncryptionType.AES_128);
+                } else if (strength == Zip4jConstants.AES_STRENGTH_256) {
+                    record.setEncryptionType(EncryptionType.AES_256);
+                } else {
+                    throw new ZipException("unsupported AES key strength: " + record.getName());
+                }
+                record.setCompressionMethod(readShort(b, pos + 9));
+                return;
+            }
+            pos += 4 + size;
+        }
+        throw new ZipException("AES extra data record not found: " + record.getName());
+    }
+
+    /**
+     * ZIP64拡張フィールドを読み込み、ヘッダに格納できなかった値を設定します。
+     * <p>
+     * ZIP64拡張フィールドには、ヘッダの値が0xffffffffのもののみが圧縮前のサイズ、圧縮後のサイズ、
+     * ローカルファイルヘッダの位置の順に格納されています。
+     * ローカルファイルヘッダの場合は、ZIP64拡張フィールドがあればエントリのヘッダ情報をZIP64形式とします。
+     * </p>
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @param b
+     *            セントラルディレクトリまたはローカルファイルヘッダ
+     * @param off
+     *            拡張フィールドの開始位置
+     * @param len
+     *            拡張フィールドの長さ
+     * @param central
+     *            セントラルディレクトリの場合はtrue
+     * @throws ZipException
+     */
+    static void readZip64Extra(ZipEntryRecord record, byte[] b, int off, int len, boolean central)
+            throws ZipException {
+        boolean size = record.getUncompressedSize() == InternalZipConstants.ZIP_64_LIMIT;
+        boolean compressedSize = record.getCompressedSize() == InternalZipConstants.ZIP_64_LIMIT;
+        boolean offset = central && record.getLocalHeaderOffset() == InternalZipConstants.ZIP_64_LIMIT;
+        if (central && !size && !compressedSize && !offset) {
+            return;
+        }
+        int pos = off;
+        while (pos + 4 <= off + len) {
+            int id = readShort(b, pos);
+            int dataSize = readShort(b, pos + 2);
+            if (id == InternalZipConstants.EXTRAFIELDZIP64LENGTH && pos + 4 + dataSize <= off + len) {
+                int p = pos + 4;
+                int limit = p + dataSize;
+                if (size && p + 8 <= limit) {
+                    record.setUncompressedSize(readLong(b, p));
+                    p += 8;
+                }
+                if (compressedSize && p + 8 <= limit) {
+                    record.setCompressedSize(readLong(b, p));
+                    p += 8;
+                }
+                if (offset && p + 8 <= limit) {
+                    record.setLocalHeaderOffset(readLong(b, p));
+                }
+                if (!central) {
+                    record.setZip64(true);
+                }
+                return;
+            }
+            pos += 4 + dataSize;
+        }
+        if (central) {
+            throw new ZipException("zip64 extended information not found: " + record.getName());
+        }
+    }
+
+    /**
+     * EOCD（セントラルディレクトリの終端レコード）を探して読み込みます。
+     * <p>
+     * 直前にZIP64形式のEOCDロケータがある場合は、ZIP64形式のEOCDを読み込みます。
+     * </p>
+     *
+     * @return エントリ数、セントラルディレクトリのサイズ、セントラルディレクトリの開始位置
+     * @throws IOException
+     * @throws ZipException
+     */
+    private long[] readEndOfCentralDirectory() throws IOException, ZipException {
+        long fileSize = channel.size();
+        int length = (int) Math.min(fileSize, InternalZipConstants.ENDHDR + MAX_COMMENT_LENGTH);
+        byte[] tail = read(fileSize - length, length);
+        for (int pos = length - InternalZipConstants.ENDHDR; pos >= 0; pos--) {
+            if (readInt(tail, pos) == InternalZipConstants.ENDSIG) {
+                long endPosition = fileSize - length + pos;
+                if (endPosition >= ZipArchiveWriter.ZIP64_LOCHDR) {
+                    byte[] locator = read(endPosition - ZipArchiveWriter.ZIP64_LOCHDR, ZipArchiveWriter.ZIP64_LOCHDR);
+                    if (readInt(locator, 0) == InternalZipConstants.ZIP64ENDCENDIRLOC) {
+                        byte[] end = read(readLong(locator, 8), ZIP64_ENDHDR_MIN);
+                        if (readInt(end, 0) != InternalZipConstants.ZIP64ENDCENDIRREC) {
+                            throw new ZipException("invalid zip64 end of central directory: " + zipFile.getName());
+                        }
+                        return new long[] { readLong(end, 32), readLong(end, 40), readLong(end, 48) };
+                    }
+                }
+                return new long[] { readShort(tail, pos + 10), readInt(tail, pos + 12), readInt(tail, pos + 16) };
+            }
+        }
+        throw new ZipException("zip headers not found. probably not a zip file: " + zipFile.getName());
+    }
+
+    /**
+     * エントリ名をデコードします。
+     *
+     * @param nameBytes
+     *            エンコード済みのエントリ名
+     * @param flags
+     *            汎用フラグ
+     * @return エントリ名
+     * @throws UnsupportedEncodingException
+     */
+    private String decodeName(byte[] nameBytes, int flags) throws UnsupportedEncodingException {
+        if ((flags & ZipEntryRecord.FLAG_UTF8) != 0) {
+            return new String(nameBytes, InternalZipConstants.CHARSET_UTF8);
+        }
+        return new String(nameBytes, encoding);
+    }
+
+    /**
+     * 指定位置から指定バイト数を読み込みます。
+     *
+     * @param position
+     *            読み込み開始位置
+     * @param length
+     *            読み込むバイト数
+     * @return 読み込んだデータ
+     * @throws IOException
+     */
+    private byte[] read(long position, int length) throws IOException {
+        byte[] b = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(b);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of zip file: " + zipFile.getName());
+            }
+        }
+        return b;
+    }
+
+    static int readShort(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8;
+    }
+
+    static long readInt(byte[] b, int off) {
+        return ((b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (long) (b[off + 3] & 0xff) << 24);
+    }
+
+    static long readLong(byte[] b, int off) {
+        return readInt(b, off) | readInt(b, off + 4) << 32;
+    }
+
+}
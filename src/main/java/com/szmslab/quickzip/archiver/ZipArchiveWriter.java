@@ -0,0 +1,778 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.lingala.zip4j.exception.ZipException;
+import net.lingala.zip4j.util.InternalZipConstants;
+
+/**
+ * Zipファイルのヘッダとエントリデータを順に書き込むクラスです。
+ * <p>
+ * ヘッダのレイアウトはzip4jの ZipOutputStream と同じ（データディスクリプタ付き）です。
+ * 書き込み済みの位置に戻ることはないため、シークできない出力先にも書き込めます。
+ * </p>
+ * <p>
+ * 4GB以上のエントリ、4GB以上の位置にあるエントリ、65535を超えるエントリ数はZIP64形式で書き込みます。
+ * 圧縮前のサイズが閾値以上のエントリは、ローカルファイルヘッダにZIP64拡張フィールドを付け、データディスクリプタのサイズを8バイトにします。
+ * サイズが事前にわからないエントリは、{@link #setHeaderRewritable(boolean)} を設定した場合のみZIP64拡張フィールドを確保し、
+ * 書き込み後に実際のサイズに合わせてローカルファイルヘッダを書き直します。
+ * </p>
+ *
+ * @author szmslab
+ */
+class ZipArchiveWriter {
+
+    /**
+     * 展開に必要なバージョン。
+     */
+    private static final int VERSION = 20;
+
+    /**
+     * 展開に必要なバージョン（ZIP64形式）。
+     */
+    private static final int VERSION_ZIP64 = 45;
+
+    /**
+     * AES拡張フィールドのサイズ。
+     */
+    private static final int AES_EXTRA_SIZE = 11;
+
+    /**
+     * ローカルファイルヘッダのZIP64拡張フィールドのサイズ。
+     */
+    private static final int LOCAL_ZIP64_EXTRA_SIZE = 20;
+
+    /**
+     * 使用しなかったZIP64拡張フィールドを置き換える、読み飛ばされる拡張フィールドのID（Androidのzipalignと同じ）。
+     */
+    private static final int PADDING_EXTRA_ID = 0xd935;
+
+    /**
+     * ZIP64形式のEOCDのサイズ。
+     */
+    private static final int ZIP64_ENDHDR = 56;
+
+    /**
+     * ZIP64形式のEOCDロケータのサイズ。
+     */
+    static final int ZIP64_LOCHDR = 20;
+
+    /**
+     * 2バイトのフィールドの最大値（これ以上はZIP64形式）。
+     */
+    static final int ZIP64_MAGIC_SHORT = 0xffff;
+
+    /**
+     * ローカルファイルヘッダをZIP64形式で書き込む圧縮前のサイズの閾値（圧縮・暗号化によるサイズ増加分の余裕を含む）。
+     */
+    private static final long ZIP64_THRESHOLD = InternalZipConstants.ZIP_64_LIMIT - 64L * 1024 * 1024;
+
+    /**
+     * 出力ストリーム。
+     */
+    private final OutputStream out;
+
+    /**
+     * 出力先のチャネル（出力先がファイルまたはチャネルの場合）。
+     */
+    private final WritableByteChannel channel;
+
+    /**
+     * 閉じる際に出力先も閉じるかどうか。
+     */
+    private final boolean closeOutput;
+
+    /**
+     * バッファとDeflaterのプール。
+     */
+    private final ResourcePool pool;
+
+    /**
+     * 書き込みバッファ。
+     */
+    private byte[] buffer;
+
+    /**
+     * 書き込みバッファ内のデータ長。
+     */
+    private int count;
+
+    /**
+     * エントリデータの出力ストリーム。
+     */
+    private final OutputStream entryStream = new EntryOutputStream();
+
+    /**
+     * 書き込み済みのエントリ。
+     */
+    private final List<ZipEntryRecord> records = new ArrayList<ZipEntryRecord>();
+
+    /**
+     * ヘッダ組み立て用のバッファ。
+     */
+    private final byte[] header = new byte[64];
+
+    /**
+     * 現在の書き込み位置。
+     */
+    private long position;
+
+    /**
+     * 書き込みの帯域の制限（制限しない場合はnull）。
+     */
+    private RateLimiter limiter;
+
+    /**
+     * サイズ不明のエントリのローカルファイルヘッダを書き込み後に書き直すかどうか。
+     */
+    private boolean headerRewritable;
+
+    /**
+     * ローカルファイルヘッダを書き込み後に書き直す、書き込み中のエントリ（ない場合はnull）。
+     */
+    private ZipEntryRecord rewriting;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param out
+     *            出力ストリーム
+     * @param pool
+     *            バッファのプール
+     * @param closeOutput
+     *            閉じる際に出力ストリームも閉じるかどうか
+     */
+    ZipArchiveWriter(OutputStream out, ResourcePool pool, boolean closeOutput) {
+        this(out, out instanceof FileOutputStream ? ((FileOutputStream) out).getChannel() : null, pool, closeOutput);
+    }
+
+    /**
+     * コンストラクタです。
+     *
+     * @param channel
+     *            出力先のチャネル（ブロッキングモード）
+     * @param pool
+     *            バッファのプール
+     * @param closeOutput
+     *            閉じる際にチャネルも閉じるかどうか
+     */
+    ZipArchiveWriter(WritableByteChannel channel, ResourcePool pool, boolean closeOutput) {
+        this(Channels.newOutputStream(channel), channel, pool, closeOutput);
+    }
+
+    private ZipArchiveWriter(OutputStream out, WritableByteChannel channel, ResourcePool pool, boolean closeOutput) {
+        this.out = out;
+        this.channel = channel;
+        this.pool = pool;
+        this.closeOutput = closeOutput;
+        this.buffer = pool.acquireBuffer();
+    }
+
+    /**
+     * 現在の書き込み位置を取得します。
+     *
+     * @return 現在の書き込み位置
+     */
+    long position() {
+        return position;
+    }
+
+    /**
+     * 書き込みの帯域の制限を設定します。
+     * <p>
+     * 設定した場合は、チャネル間の直接転送を行わずにバッファを経由して書き込みます。
+     * </p>
+     *
+     * @param limiter
+     *            帯域の制限（制限しない場合はnull）
+     */
+    void setRateLimiter(RateLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * サイズ不明のエントリのローカルファイルヘッダを、書き込み後に書き直すかどうかを設定します。
+     * <p>
+     * 出力先がファイルの先頭から書き込むチャネル（または {@link #resume(long, List)} で位置付けたチャネル）の場合のみ設定できます。
+     * 設定しない場合、サイズ不明のエントリはZIP64形式にできないため、4GB以上になると失敗します。
+     * </p>
+     *
+     * @param headerRewritable
+     *            ローカルファイルヘッダを書き直すかどうか
+     */
+    void setHeaderRewritable(boolean headerRewritable) {
+        this.headerRewritable = headerRewritable && channel instanceof FileChannel;
+    }
+
+    /**
+     * 既存のZipファイルの続きから書き込むように設定します。
+     * <p>
+     * 出力先は既存のエントリデータの直後（既存のセントラルディレクトリの位置）に位置付けておく必要があります。
+     * 既存のエントリは {@link #finish()} で新しいエントリとともにセントラルディレクトリに書き込みます。
+     * </p>
+     *
+     * @param position
+     *            書き込み開始位置
+     * @param existing
+     *            残す既存のエントリ
+     */
+    void resume(long position, List<ZipEntryRecord> existing) {
+        this.position = position;
+        records.addAll(existing);
+    }
+
+    /**
+     * ローカルファイルヘッダを書き込みます。
+     *
+     * @param record
+     *            エントリ
+     * @throws IOException
+     */
+    void putEntry(ZipEntryRecord record) throws IOException {
+        putEntry(record, false);
+    }
+
+    /**
+     * ローカルファイルヘッダを書き込みます。
+     * <p>
+     * サイズが事前にわからない場合に {@link #setHeaderRewritable(boolean)} を設定していれば、
+     * 4GBを超えても読めるようにZIP64拡張フィールドを確保し、{@link #closeEntry(ZipEntryRecord)} で実際のサイズに書き直します。
+     * 設定していなければ、ZIP64拡張フィールドのない（データディスクリプタのサイズが4バイトの）ヘッダにします。
+     * </p>
+     *
+     * @param record
+     *            エントリ
+     * @param sizeUnknown
+     *            サイズが事前にわからない（データディスクリプタで確定する）かどうか
+     * @throws IOException
+     */
+    void putEntry(ZipEntryRecord record, boolean sizeUnknown) throws IOException {
+        record.setLocalHeaderOffset(position);
+        records.add(record);
+
+        boolean zip64 = record.getUncompressedSize() >= ZIP64_THRESHOLD
+            || record.getCompressedSize() >= ZIP64_THRESHOLD;
+        if (sizeUnknown && headerRewritable && (record.getFlags() & ZipEntryRecord.FLAG_DATA_DESCRIPTOR) != 0) {
+            zip64 = true;
+            rewriting = record;
+        }
+        record.setZip64(zip64);
+        writeInt(header, 0, InternalZipConstants.LOCSIG);
+        writeShort(header, 4, zip64 ? VERSION_ZIP64 : VERSION);
+        writeShort(header, 6, record.getFlags());
+        writeShort(header, 8, record.getHeaderMethod());
+        writeInt(header, 10, record.getDosTime());
+        writeInt(header, 14, record.getHeaderCrc());
+        writeInt(header, 18, zip64 ? InternalZipConstants.ZIP_64_LIMIT : record.getCompressedSize());
+        writeInt(header, 22, zip64 ? InternalZipConstants.ZIP_64_LIMIT : record.getUncompressedSize());
+        writeShort(header, 26, record.getNameBytes().length);
+        writeShort(header, 28, localExtraLength(record));
+        write(header, 0, InternalZipConstants.LOCHDR);
+        write(record.getNameBytes(), 0, record.getNameBytes().length);
+        if (zip64) {
+            writeShort(header, 0, InternalZipConstants.EXTRAFIELDZIP64LENGTH);
+            writeShort(header, 2, LOCAL_ZIP64_EXTRA_SIZE - 4);
+            writeLong(header, 4, record.getUncompressedSize());
+            writeLong(header, 12, record.getCompressedSize());
+            write(header, 0, LOCAL_ZIP64_EXTRA_SIZE);
+        }
+        writeExtra(record);
+    }
+
+    /**
+     * エントリデータ（圧縮・暗号化済み）を書き込みます。
+     *
+     * @param b
+     *            データ
+     * @param off
+     *            開始位置
+     * @param len
+     *            長さ
+     * @throws IOException
+     */
+    void write(byte[] b, int off, int len) throws IOException {
+        if (len >= buffer.length) {
+            flushBuffer();
+            if (limiter != null) {
+                limiter.acquire(len);
+            }
+            out.write(b, off, len);
+        } else {
+            if (len > buffer.length - count) {
+                flushBuffer();
+            }
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+        position += len;
+    }
+
+    /**
+     * エントリデータ（圧縮・暗号化済み）を書き込む出力ストリームを取得します。
+     * <p>
+     * 出力ストリームを閉じてもZipファイルは閉じられません。
+     * </p>
+     *
+     * @return エントリデータの出力ストリーム
+     */
+    OutputStream entryStream() {
+        return entryStream;
+    }
+
+    /**
+     * ファイルの内容をそのままエントリデータとして書き込みます。
+     * <p>
+     * 出力先がファイルまたはチャネルの場合は、{@link FileChannel#transferTo(long, long, WritableByteChannel)}
+     * によりユーザ空間へのコピーを行わずに書き込みます。
+     * </p>
+     *
+     * @param file
+     *            書き込むファイル
+     * @param length
+     *            書き込むバイト数
+     * @throws IOException
+     */
+    void transferFrom(File file, long length) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            transferFrom(in.getChannel(), 0, length, "file size changed while compressing: " + file.getPath());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * チャネルの指定範囲をそのままエントリデータとして書き込みます。
+     *
+     * @param src
+     *            読み込むチャネル
+     * @param offset
+     *            読み込み開始位置
+     * @param length
+     *            書き込むバイト数
+     * @throws IOException
+     */
+    void transferFrom(FileChannel src, long offset, long length) throws IOException {
+        transferFrom(src, offset, length, "unexpected end of zip file");
+    }
+
+    /**
+     * チャネルの指定範囲をそのままエントリデータとして書き込みます。
+     *
+     * @param src
+     *            読み込むチャネル
+     * @param offset
+     *            読み込み開始位置
+     * @param length
+     *            書き込むバイト数
+     * @param message
+     *            途中で終端に達した場合のエラーメッセージ
+     * @throws IOException
+     */
+    private void transferFrom(FileChannel src, long offset, long length, String message) throws IOException {
+        if (channel == null || limiter != null) {
+            byte[] b = pool.acquireBuffer();
+            try {
+                long remaining = length;
+                while (remaining > 0) {
+                    int len = src.read(ByteBuffer.wrap(b, 0, (int) Math.min(b.length, remaining)),
+                        offset + length - remaining);
+                    if (len < 0) {
+                        throw new IOException(message);
+                    }
+                    write(b, 0, len);
+                    remaining -= len;
+                }
+            } finally {
+                pool.releaseBuffer(b);
+            }
+            return;
+        }
+        // バッファ済みのヘッダを先に書き出してから、チャネル間で直接転送する
+        flushBuffer();
+        long transferred = 0;
+        while (transferred < length) {
+            long len = src.transferTo(offset + transferred, length - transferred, channel);
+            if (len <= 0) {
+                throw new IOException(message);
+            }
+            transferred += len;
+        }
+        position += length;
+    }
+
+    /**
+     * 他のZipファイルのエントリを、エントリデータ（圧縮・暗号化済み）を展開・復号せずにそのままコピーします。
+     * <p>
+     * ヘッダは書き直し、エントリのヘッダ情報のローカルファイルヘッダの位置は書き込み先の位置に更新されます。
+     * </p>
+     *
+     * @param reader
+     *            コピー元のZipファイルの読み込み
+     * @param record
+     *            コピー元のZipエントリのヘッダ情報
+     * @throws IOException
+     * @throws ZipException
+     */
+    void copyEntry(ZipArchiveReader reader, ZipEntryRecord record) throws IOException, ZipException {
+        long offset = reader.dataOffset(record);
+        putEntry(record);
+        reader.transferTo(offset, record.getCompressedSize(), this);
+        closeEntry(record);
+    }
+
+    /**
+     * 書き込み済みのエントリのデータを共有する、セントラルディレクトリのみのエントリを追加します。
+     * <p>
+     * ローカルファイルヘッダとエントリデータは書き込まず、セントラルディレクトリからコピー元のローカルファイルヘッダを参照します。
+     * </p>
+     *
+     * @param original
+     *            書き込み済みのエントリ
+     * @param record
+     *            追加するエントリ
+     */
+    void putAlias(ZipEntryRecord original, ZipEntryRecord record) {
+        record.setLocalHeaderOffset(original.getLocalHeaderOffset());
+        records.add(record);
+    }
+
+    /**
+     * 書き込み済みのエントリのデータを、出力先から読み込んで別のエントリとしてそのままコピーします。
+     *
+     * @param output
+     *            出力先のZipファイルのチャネル（読み込み用）
+     * @param original
+     *            書き込み済みのエントリ
+     * @param record
+     *            追加するエントリ
+     * @throws IOException
+     */
+    void copyEntry(FileChannel output, ZipEntryRecord original, ZipEntryRecord record) throws IOException {
+        flushBuffer();
+        out.flush();
+        // 書き直したヘッダは拡張フィールドの長さが変わらないため、書き込み済みのヘッダから読み取る
+        ByteBuffer lengths = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        while (lengths.hasRemaining()) {
+            if (output.read(lengths, original.getLocalHeaderOffset() + 26 + lengths.position()) < 0) {
+                throw new IOException("unexpected end of zip file");
+            }
+        }
+        long offset = original.getLocalHeaderOffset() + InternalZipConstants.LOCHDR
+            + (lengths.getShort(0) & 0xffff) + (lengths.getShort(2) & 0xffff);
+        putEntry(record);
+        transferFrom(output, offset, record.getCompressedSize());
+        closeEntry(record);
+    }
+
+    /**
+     * エントリを閉じます（必要に応じてデータディスクリプタを書き込みます）。
+     *
+     * @param record
+     *            エントリ
+     * @throws IOException
+     */
+    void closeEntry(ZipEntryRecord record) throws IOException {
+        if (record == rewriting) {
+            rewriting = null;
+            rewriteLocalHeader(record);
+        }
+        if ((record.getFlags() & ZipEntryRecord.FLAG_DATA_DESCRIPTOR) != 0) {
+            writeInt(header, 0, InternalZipConstants.EXTSIG);
+            writeInt(header, 4, record.getHeaderCrc());
+            if (record.isZip64()) {
+                // ローカルファイルヘッダにZIP64拡張フィールドを付けた場合のみ、8バイトのサイズで書き込む
+                writeLong(header, 8, record.getCompressedSize());
+                writeLong(header, 16, record.getUncompressedSize());
+                write(header, 0, InternalZipConstants.EXTHDR + 8);
+            } else {
+                if (record.getCompressedSize() >= InternalZipConstants.ZIP_64_LIMIT
+                        || record.getUncompressedSize() >= InternalZipConstants.ZIP_64_LIMIT) {
+                    // 書き込み中に圧縮元が大きくなった場合など、ZIP64拡張フィールドのないヘッダとは矛盾する
+                    throw new IOException("entry size exceeds the size declared in the local header: "
+                        + record.getName());
+                }
+                writeInt(header, 8, record.getCompressedSize());
+                writeInt(header, 12, record.getUncompressedSize());
+                write(header, 0, InternalZipConstants.EXTHDR);
+            }
+        }
+    }
+
+    /**
+     * サイズ不明で書き込んだエントリのローカルファイルヘッダを、実際のCRCとサイズに書き直します。
+     * <p>
+     * 4GB未満の場合はZIP64形式をやめ、確保したZIP64拡張フィールドは読み飛ばされる拡張フィールドに置き換えます
+     * （ZIP64拡張フィールドのないヘッダとして、データディスクリプタのサイズを4バイトにします）。
+     * </p>
+     *
+     * @param record
+     *            エントリ
+     * @throws IOException
+     */
+    private void rewriteLocalHeader(ZipEntryRecord record) throws IOException {
+        flushBuffer();
+        out.flush();
+        FileChannel file = (FileChannel) channel;
+        long offset = record.getLocalHeaderOffset();
+        long extraOffset = offset + InternalZipConstants.LOCHDR + record.getNameBytes().length;
+        boolean zip64 = record.getCompressedSize() >= InternalZipConstants.ZIP_64_LIMIT
+            || record.getUncompressedSize() >= InternalZipConstants.ZIP_64_LIMIT;
+        if (zip64) {
+            writeLong(header, 0, record.getUncompressedSize());
+            writeLong(header, 8, record.getCompressedSize());
+            writeAt(file, header, 16, extraOffset + 4);
+            writeInt(header, 0, record.getHeaderCrc());
+            writeAt(file, header, 4, offset + 14);
+        } else {
+            record.setZip64(false);
+            writeShort(header, 0, VERSION);
+            writeAt(file, header, 2, offset + 4);
+            writeInt(header, 0, record.getHeaderCrc());
+            writeInt(header, 4, record.getCompressedSize());
+            writeInt(header, 8, record.getUncompressedSize());
+            writeAt(file, header, 12, offset + 14);
+            writeShort(header, 0, PADDING_EXTRA_ID);
+            writeAt(file, header, 2, extraOffset);
+        }
+    }
+
+    /**
+     * 書き込み位置を変えずに、チャネルの指定位置に書き込みます。
+     *
+     * @param file
+     *            書き込み先のチャネル
+     * @param b
+     *            データ
+     * @param len
+     *            長さ
+     * @param offset
+     *            書き込み位置
+     * @throws IOException
+     */
+    private static void writeAt(FileChannel file, byte[] b, int len, long offset) throws IOException {
+        ByteBuffer src = ByteBuffer.wrap(b, 0, len);
+        while (src.hasRemaining()) {
+            file.write(src, offset + src.position());
+        }
+    }
+
+    /**
+     * セントラルディレクトリを書き込み、Zipファイルを完成させます。
+     *
+     * @throws IOException
+     */
+    void finish() throws IOException {
+        long offsetOfCentralDir = position;
+        for (ZipEntryRecord record : records) {
+            boolean zip64Size = record.getUncompressedSize() >= InternalZipConstants.ZIP_64_LIMIT;
+            boolean zip64CompressedSize = record.getCompressedSize() >= InternalZipConstants.ZIP_64_LIMIT;
+            boolean zip64Offset = record.getLocalHeaderOffset() >= InternalZipConstants.ZIP_64_LIMIT;
+            int zip64Length = (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+            int extraLength = (record.isAesEncrypted() ? AES_EXTRA_SIZE : 0)
+                + (zip64Length > 0 ? 4 + zip64Length : 0);
+            int version = record.isZip64() || zip64Length > 0 ? VERSION_ZIP64 : VERSION;
+            writeInt(header, 0, InternalZipConstants.CENSIG);
+            writeShort(header, 4, version);
+            writeShort(header, 6, version);
+            writeShort(header, 8, record.getFlags());
+            writeShort(header, 10, record.getHeaderMethod());
+            writeInt(header, 12, record.getDosTime());
+            writeInt(header, 16, record.getHeaderCrc());
+            writeInt(header, 20, zip64CompressedSize ? InternalZipConstants.ZIP_64_LIMIT : record.getCompressedSize());
+            writeInt(header, 24, zip64Size ? InternalZipConstants.ZIP_64_LIMIT : record.getUncompressedSize());
+            writeShort(header, 28, record.getNameBytes().length);
+            writeShort(header, 30, extraLength);
+            writeShort(header, 32, 0);
+            writeShort(header, 34, 0);
+            writeShort(header, 36, 0);
+            writeInt(header, 38, record.getExternalAttributes());
+            writeInt(header, 42, zip64Offset ? InternalZipConstants.ZIP_64_LIMIT : record.getLocalHeaderOffset());
+            write(header, 0, InternalZipConstants.CENHDR);
+            write(record.getNameBytes(), 0, record.getNameBytes().length);
+            if (zip64Length > 0) {
+                // ZIP64拡張フィールドには、ヘッダに格納できない値のみを順に格納する
+                writeShort(header, 0, InternalZipConstants.EXTRAFIELDZIP64LENGTH);
+                writeShort(header, 2, zip64Length);
+                int off = 4;
+                if (zip64Size) {
+                    writeLong(header, off, record.getUncompressedSize());
+                    off += 8;
+                }
+                if (zip64CompressedSize) {
+                    writeLong(header, off, record.getCompressedSize());
+                    off += 8;
+                }
+                if (zip64Offset) {
+                    writeLong(header, off, record.getLocalHeaderOffset());
+                    off += 8;
+                }
+                write(header, 0, off);
+            }
+            writeExtra(record);
+        }
+        long sizeOfCentralDir = position - offsetOfCentralDir;
+
+        int count = records.size();
+        if (count >= ZIP64_MAGIC_SHORT || sizeOfCentralDir >= InternalZipConstants.ZIP_64_LIMIT
+                || offsetOfCentralDir >= InternalZipConstants.ZIP_64_LIMIT) {
+            long offsetOfZip64End = position;
+            writeInt(header, 0, InternalZipConstants.ZIP64ENDCENDIRREC);
+            writeLong(header, 4, ZIP64_ENDHDR - 12);
+            writeShort(header, 12, VERSION_ZIP64);
+            writeShort(header, 14, VERSION_ZIP64);
+            writeInt(header, 16, 0);
+            writeInt(header, 20, 0);
+            writeLong(header, 24, count);
+            writeLong(header, 32, count);
+            writeLong(header, 40, sizeOfCentralDir);
+            writeLong(header, 48, offsetOfCentralDir);
+            write(header, 0, ZIP64_ENDHDR);
+
+            writeInt(header, 0, InternalZipConstants.ZIP64ENDCENDIRLOC);
+            writeInt(header, 4, 0);
+            writeLong(header, 8, offsetOfZip64End);
+            writeInt(header, 16, 1);
+            write(header, 0, ZIP64_LOCHDR);
+        }
+
+        writeInt(header, 0, InternalZipConstants.ENDSIG);
+        writeShort(header, 4, 0);
+        writeShort(header, 6, 0);
+        writeShort(header, 8, Math.min(count, ZIP64_MAGIC_SHORT));
+        writeShort(header, 10, Math.min(count, ZIP64_MAGIC_SHORT));
+        writeInt(header, 12, Math.min(sizeOfCentralDir, InternalZipConstants.ZIP_64_LIMIT));
+        writeInt(header, 16, Math.min(offsetOfCentralDir, InternalZipConstants.ZIP_64_LIMIT));
+        writeShort(header, 20, 0);
+        write(header, 0, InternalZipConstants.ENDHDR);
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * 出力ストリームを閉じます。
+     * <p>
+     * 出力先を閉じない場合は、書き込みバッファのデータを書き出すだけです。
+     * </p>
+     *
+     * @throws IOException
+     */
+    void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            flushBuffer();
+            out.flush();
+        } finally {
+            if (closeOutput) {
+                out.close();
+            }
+            pool.releaseBuffer(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * 書き込みバッファのデータを出力ストリームに書き出します。
+     *
+     * @throws IOException
+     */
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            if (limiter != null) {
+                limiter.acquire(count);
+            }
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * ローカルファイルヘッダの拡張フィールドの長さを取得します。
+     *
+     * @param record
+     *            エントリ
+     * @return 拡張フィールドの長さ
+     */
+    private static int localExtraLength(ZipEntryRecord record) {
+        return (record.isAesEncrypted() ? AES_EXTRA_SIZE : 0) + (record.isZip64() ? LOCAL_ZIP64_EXTRA_SIZE : 0);
+    }
+
+    /**
+     * 拡張フィールド（AES）を書き込みます。
+     *
+     * @param record
+     *            エントリ
+     * @throws IOException
+     */
+    private void writeExtra(ZipEntryRecord record) throws IOException {
+        if (record.isAesEncrypted()) {
+            writeShort(header, 0, InternalZipConstants.AESSIG);
+            writeShort(header, 2, 7);
+            writeShort(header, 4, 2);
+            header[6] = 'A';
+            header[7] = 'E';
+            header[8] = (byte) record.getAesStrength();
+            writeShort(header, 9, record.getCompressionMethod());
+            write(header, 0, AES_EXTRA_SIZE);
+        }
+    }
+
+    /**
+     * エントリデータを書き込む出力ストリームです。
+     */
+    private class EntryOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            ZipArchiveWriter.this.write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ZipArchiveWriter.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            // Zipファイルは閉じない
+        }
+
+    }
+
+    static void writeShort(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+    }
+
+    static void writeInt(byte[] b, int off, long value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+        b[off + 2] = (byte) (value >>> 16);
+        b[off + 3] = (byte) (value >>> 24);
+    }
+
+    static void writeLong(byte[] b, int off, long value) {
+        writeInt(b, off, value);
+        writeInt(b, off + 4, value >>> 32);
+    }
+
+}
@@ -6,22 +6,40 @@
  */
 package com.szmslab.quickzip.archiver;
 
-import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
 
 import net.lingala.zip4j.exception.ZipException;
-import net.lingala.zip4j.io.ZipOutputStream;
-import net.lingala.zip4j.model.ZipModel;
-import net.lingala.zip4j.model.ZipParameters;
 import net.lingala.zip4j.util.InternalZipConstants;
 import net.lingala.zip4j.util.Zip4jConstants;
 import net.lingala.zip4j.util.Zip4jUtil;
 
 import com.szmslab.quickzip.enums.CompressionMethod;
 import com.szmslab.quickzip.enums.EncryptionType;
+import com.szmslab.quickzip.enums.UpdatePolicy;
 
 /**
  * Zip形式でのファイルの圧縮を行うクラスです。
@@ -55,6 +73,114 @@ public class ZipCompressor {
      */
     private String rootPathOfZipEntry = "";
 
+    /**
+     * 圧縮の並列数。
+     */
+    private int parallelism = 1;
+
+    /**
+     * ディレクトリ走査の並列数。
+     */
+    private int walkParallelism = 1;
+
+    /**
+     * 並列数が1の場合も、読み込み・圧縮・書き込みを別のスレッドで実行するかどうか。
+     */
+    private boolean pipeline = false;
+
+    /**
+     * パイプラインの書き込み待ちのエントリ数の上限（0の場合は圧縮の並列数の2倍）。
+     */
+    private int pipelineDepth = 0;
+
+    /**
+     * パイプラインの書き込み待ちの圧縮データのメモリ使用量の上限（0の場合は書き込み待ちのエントリ数 × 1MB）。
+     */
+    private long pipelineMemory = 0;
+
+    /**
+     * ブロック単位の並列圧縮を行うサイズの閾値。
+     */
+    private long blockParallelThreshold = 64L * 1024 * 1024;
+
+    /**
+     * AESの鍵を事前に導出するスレッド数（0の場合はエントリ毎に導出する）。
+     */
+    private int keyDerivationParallelism = 0;
+
+    /**
+     * バッファとDeflaterのプール。
+     */
+    private ResourcePool resourcePool;
+
+    /**
+     * 圧縮効果が低いエントリを無圧縮で格納するかどうか。
+     */
+    private boolean adaptiveStore = false;
+
+    /**
+     * 無圧縮で格納する拡張子。
+     */
+    private Set<String> storeExtensions = new HashSet<String>(Arrays.asList(
+        "jpg", "jpeg", "png", "gif", "webp", "heic", "mp3", "mp4", "m4a", "m4v", "mov", "avi", "mkv",
+        "zip", "jar", "war", "gz", "tgz", "bz2", "xz", "7z", "rar", "lz4", "zst",
+        "docx", "xlsx", "pptx"));
+
+    /**
+     * 既存のZipファイルを更新する際の、置き換えたエントリの扱い。
+     */
+    private UpdatePolicy updatePolicy = UpdatePolicy.APPEND;
+
+    /**
+     * 変更のないエントリを再利用する前回のZipファイル。
+     */
+    private File baseline;
+
+    /**
+     * 前回のZipファイルのエントリを再利用する際にCRC-32も比較するかどうか。
+     */
+    private boolean baselineChecksum = false;
+
+    /**
+     * 内容が同じファイルを1回だけ圧縮するかどうか。
+     */
+    private boolean deduplicate = false;
+
+    /**
+     * 重複排除の際に、重複するエントリにもローカルファイルヘッダとデータを書き込むかどうか。
+     */
+    private boolean readerCompatible = false;
+
+    /**
+     * 直前の圧縮結果の統計情報。
+     */
+    private CompressionStatistics statistics;
+
+    /**
+     * 計測値を受け取るリスナー。
+     */
+    private ZipMetricsListener metricsListener;
+
+    /**
+     * 圧縮元の読み込みの帯域の制限。
+     */
+    private RateLimiter readLimiter;
+
+    /**
+     * Zipファイルの書き込みの帯域の制限。
+     */
+    private RateLimiter writeLimiter;
+
+    /**
+     * 進捗を受け取るリスナー。
+     */
+    private ZipProgressListener progressListener;
+
+    /**
+     * 進捗を受け取るリスナーを呼び出す間隔（ミリ秒）。
+     */
+    private long progressInterval = 1000;
+
     /**
      * コンストラクタです。
      */
@@ -178,162 +304,1659 @@ public class ZipCompressor {
     }
 
     /**
-     * 対象のファイルをZip形式で圧縮します。
+     * 圧縮の並列数を取得します。
      *
-     * @param zipFilePath
-     *            圧縮先のZipファイルパス
-     * @param filePaths
-     *            圧縮元のファイルパス
-     * @return 圧縮先のZipファイル
-     * @throws IOException
-     * @throws ZipException
+     * @return 圧縮の並列数
      */
-    public File execute(String zipFilePath, String... filePaths) throws IOException, ZipException {
-        File zipFile = new File(zipFilePath);
-        File[] files = new File[filePaths.length];
-        for (int i = 0; i < filePaths.length; i++) {
-            files[i] = new File(filePaths[i]);
+    public int parallelism() {
+        return parallelism;
+    }
+
+    /**
+     * 圧縮の並列数を設定します。
+     * <p>
+     * 2以上を指定すると、エントリ毎に複数のスレッドで並列に圧縮し、元の順序でZipファイルに書き込みます。
+     * </p>
+     *
+     * @param parallelism
+     *            圧縮の並列数
+     * @return 自身のインスタンス
+     */
+    public ZipCompressor parallelism(int parallelism) {
+        if (parallelism > 0) {
+            this.parallelism = parallelism;
         }
-        return execute(zipFile, files);
+        return this;
     }
 
     /**
-     * 対象のファイルをZip形式で圧縮します。
+     * ディレクトリ走査の並列数を取得します。
      *
-     * @param zipFile
-     *            圧縮先のZipファイル
-     * @param files
-     *            圧縮元のファイル
-     * @return 圧縮先のZipファイル
-     * @throws IOException
-     * @throws ZipException
+     * @return ディレクトリ走査の並列数
      */
-    public File execute(File zipFile, File... files) throws IOException, ZipException {
-        // 出力先ディレクトリチェック（存在しなければ作成する）
-        Zip4jUtil.checkOutputFolder(zipFile.getParent());
+    public int walkParallelism() {
+        return walkParallelism;
+    }
 
-        // Zip圧縮
-        ZipModel model = createZipModel();
-        ZipParameters parameter = createZipParameters();
-        ZipOutputStream zos = null;
-        try {
-            zos = new ZipOutputStream(new FileOutputStream(zipFile), model);
-            write(zos, parameter, files);
-            zos.finish();
-        } finally {
-            if (zos != null) {
-                zos.close();
-            }
+    /**
+     * ディレクトリ走査の並列数を設定します。
+     * <p>
+     * 2以上を指定すると、サブディレクトリを複数のスレッドで並列に走査します（エントリの順序は変わりません）。
+     * ネットワークファイルシステム上の大量のファイルを圧縮する場合に、ファイル属性の読み込みの待ち時間を短縮します。
+     * </p>
+     *
+     * @param walkParallelism
+     *            ディレクトリ走査の並列数
+     * @return 自身のインスタンス
+     */
+    public ZipCompressor walkParallelism(int walkParallelism) {
+        if (walkParallelism > 0) {
+            this.walkParallelism = walkParallelism;
         }
-        return zipFile;
+        return this;
+    }
+
+    /**
+     * 並列数が1の場合もパイプラインで圧縮するかどうかを取得します。
+     *
+     * @return パイプラインで圧縮する場合はtrue
+     */
+    public boolean pipeline() {
+        return pipeline;
+    }
+
+    /**
+     * 並列数が1の場合もパイプラインで圧縮するかどうかを設定します。
+     * <p>
+     * パイプラインでは、圧縮元のデータの読み込み（先読み）、圧縮・暗号化、Zipファイルへの書き込みを別のスレッドで実行し、
+     * 各段階の間を上限のあるキューでつなぎます。ディスクの入出力と圧縮処理が重なって実行されるため、
+     * 処理時間は各段階の合計ではなく、最も遅い段階に近づきます。
+     * 圧縮の並列数が2以上の場合は、この設定に関わらずパイプラインで圧縮します。
+     * </p>
+     *
+     * @param pipeline
+     *            パイプラインで圧縮する場合はtrue
+     * @return 自身のインスタンス
+     */
+    public ZipCompressor pipeline(boolean pipeline) {
+        this.pipeline = pipeline;
+        return this;
+    }
+
+    /**
+     * パイプラインの書き込み待ちのエントリ数の上限を取得します。
+     *
+     * @return 書き込み待ちのエントリ数の上限（0の場合は圧縮の並列数の2倍）
+     */
+    public int pipelineDepth() {
+        return pipelineDepth;
+    }
+
+    /**
+     * パイプラインの書き込み待ちのエントリ数の上限を設定します。
+     * <p>
+     * 圧縮を開始してから書き込むまでのエントリ数（キューの深さ）を制限します。
+     * 0を指定すると圧縮の並列数の2倍とします。
+     * </p>
+     *
+     * @param pipelineDepth
+     *            書き込み待ちのエントリ数の上限
+     * @return 自身のインスタンス
+     */
+    public ZipCompressor pipelineDepth(int pipelineDepth) {
+        if (pipelineDepth >= 0) {
+            this.pipelineDepth = pipelineDepth;
+        }
+        return this;
+    }
+
+    /**
+     * パイプラインの書き込み待ちの圧縮データのメモリ使用量の上限を取得します。
+     *
+     * @return メモリ使用量の上限（バイト、0の場合は書き込み待ちのエントリ数 × 1MB）
+     */
+    public long pipelineMemory() {
+        return pipelineMemory;
     }
 
     /**
-     * Zipモデルを生成します。
+     * パイプラインの書き込み待ちの圧縮データのメモリ使用量の上限を設定します。
+     * <p>
+     * 全エントリの合計で上限を超える圧縮データは、一時ファイル（Zipファイルに書き込む場合は同じディレクトリ）に退避します。
+     * 書き込む順番が来たエントリの圧縮データは一時保持せずに書き込むため、退避するのは先に圧縮を終えたエントリの分のみです。
+     * 0を指定すると書き込み待ちのエントリ数 × 1MBとします。
+     * </p>
      *
-     * @return Zipモデル
+     * @param pipelineMemory
+     *            メモリ使用量の上限（バイト）
+     * @return 自身のインスタンス
      */
-    private ZipModel createZipModel() {
-        ZipModel model = new ZipModel();
-        model.setFileNameCharset(encoding);
-        return model;
+    public ZipCompressor pipelineMemory(long pipelineMemory) {
+        if (pipelineMemory >= 0) {
+            this.pipelineMemory = pipelineMemory;
+        }
+        return this;
     }
 
     /**
-     * Zipパラメータを生成します。
+     * ブロック単位の並列圧縮を行うサイズの閾値を取得します。
      *
-     * @return Zipパラメータ
+     * @return ブロック単位の並列圧縮を行うサイズの閾値
      */
-    private ZipParameters createZipParameters() {
-        ZipParameters parameter = new ZipParameters();
+    public long blockParallelThreshold() {
+        return blockParallelThreshold;
+    }
 
-        // 圧縮方式
-        switch (compressionMethod) {
-        case STORE:
-            parameter.setCompressionMethod(Zip4jConstants.COMP_STORE);
-            break;
-        default:
-            parameter.setCompressionMethod(Zip4jConstants.COMP_DEFLATE);
-            break;
+    /**
+     * ブロック単位の並列圧縮を行うサイズの閾値を設定します。
+     * <p>
+     * 圧縮の並列数が2以上の場合、このサイズ以上のファイルはブロックに分割して並列にDEFLATE圧縮します。
+     * </p>
+     *
+     * @param blockParallelThreshold
+     *            ブロック単位の並列圧縮を行うサイズの閾値
+     * @return 自身のインスタンス
+     */
+    public ZipCompressor blockParallelThreshold(long blockParallelThreshold) {
+        if (blockParallelThreshold > 0) {
+            this.blockParallelThreshold = blockParallelThreshold;
         }
-        parameter.setCompressionLevel(compressionMethod.ordinal());
+        return this;
+    }
+
+    /**
+     * AESの鍵を事前に導出するスレッド数を取得します。
+     *
+     * @return AESの鍵を事前に導出するスレッド数
+     */
+    public int keyDerivationParallelism() {
+        return keyDerivationParallelism;
+    }
 
-        // 暗号化形式
-        switch (encryptionType) {
-        case NO_ENCRYPTION:
-            parameter.setEncryptFiles(false);
-            parameter.setEncryptionMethod(Zip4jConstants.ENC_NO_ENCRYPTION);
-            parameter.setAesKeyStrength(-1);
-            parameter.setPassword((String) null);
-            break;
-        case ZIP_CRYPTO:
-            parameter.setEncryptFiles(true);
-            parameter.setEncryptionMethod(Zip4jConstants.ENC_METHOD_STANDARD);
-            parameter.setAesKeyStrength(-1);
-            parameter.setPassword(password);
-            break;
-        case AES_128:
-            parameter.setEncryptFiles(true);
-            parameter.setEncryptionMethod(Zip4jConstants.ENC_METHOD_AES);
-            parameter.setAesKeyStrength(Zip4jConstants.AES_STRENGTH_128);
-            parameter.setPassword(password);
-            break;
-        case AES_256:
-            parameter.setEncryptFiles(true);
-            parameter.setEncryptionMethod(Zip4jConstants.ENC_METHOD_AES);
-            parameter.setAesKeyStrength(Zip4jConstants.AES_STRENGTH_256);
-            parameter.setPassword(password);
-            break;
-        default:
-            break;
+    /**
+     * AESの鍵を事前に導出するスレッド数を設定します。
+     * <p>
+     * 1以上の場合、AESで暗号化する際に、エントリ毎のソルトと鍵（PBKDF2）を指定したスレッド数で事前に導出しておきます。
+     * 小さなファイルが多い場合に、エントリ毎の鍵の導出にかかる時間を圧縮と重ねられます。
+     * 導出が追いつかない場合は、圧縮するスレッドで導出します。
+     * </p>
+     *
+     * @param keyDerivationParallelism
+     *            AESの鍵を事前に導出するスレッド数（0の場合はエントリ毎に導出する）
+     * @return 自身のインスタンス
+     */
+    public ZipCompressor keyDerivationParallelism(int keyDerivationParallelism) {
+        if (keyDerivationParallelism >= 0) {
+            this.keyDerivationParallelism = keyDerivationParallelism;
         }
+        return this;
+    }
+
+    /**
+     * バッファとDeflaterのプールを取得します。
+     *
+     * @return バッファとDeflaterのプール
+     */
+    public ResourcePool resourcePool() {
+        return resourcePool;
+    }
 
-        // Zipエントリのルートパス
-        parameter.setRootFolderInZip(rootPathOfZipEntry);
+    /**
+     * バッファとDeflaterのプールを設定します。
+     * <p>
+     * 複数のインスタンスで同じプールを共有すると、圧縮の度にバッファやDeflaterを確保せずに再利用します。
+     * 未設定の場合は、圧縮毎にプールを生成して終了時に破棄します。
+     * </p>
+     *
+     * @param resourcePool
+     *            バッファとDeflaterのプール
+     * @return 自身のインスタンス
+     */
+    public ZipCompressor resourcePool(ResourcePool resourcePool) {
+        this.resourcePool = resourcePool;
+        return this;
+    }
 
-        return parameter;
+    /**
+     * 圧縮効果が低いエントリを無圧縮で格納するかどうかを取得します。
+     *
+     * @return 圧縮効果が低いエントリを無圧縮で格納するかどうか
+     */
+    public boolean adaptiveStore() {
+        return adaptiveStore;
     }
 
     /**
-     * Zip出力ストリームに対象ファイルのデータを書き込みます。
+     * 圧縮効果が低いエントリを無圧縮で格納するかどうかを設定します。
+     * <p>
+     * trueを指定すると、拡張子が {@link #storeExtensions()} に含まれるファイルと、
+     * 先頭ブロックの試し圧縮で十分に縮まないファイル（圧縮済みの画像・動画・アーカイブなど）を無圧縮（STORE）で格納します。
+     * 圧縮方式がSTOREの場合は何もしません。
+     * </p>
      *
-     * @param zos
-     *            Zip出力ストリーム
-     * @param parameter
-     *            Zipパラメータ
-     * @param files
-     *            圧縮対象のファイル
-     * @throws IOException
-     * @throws ZipException
+     * @param adaptiveStore
+     *            圧縮効果が低いエントリを無圧縮で格納するかどうか
+     * @return 自身のインスタンス
      */
-    private void write(ZipOutputStream zos, ZipParameters parameter, File... files) throws IOException, ZipException {
-        for (File file : files) {
-            File[] childFiles = file.listFiles();
-            if (childFiles != null && childFiles.length > 0) {
-                String parentPath = parameter.getRootFolderInZip();
-                parameter.setRootFolderInZip(parentPath + file.getName());
-                write(zos, parameter, childFiles);
-                parameter.setRootFolderInZip(parentPath);
-            } else {
-                zos.putNextEntry(file, parameter);
-                if (!file.isDirectory()) {
-                    BufferedInputStream bis = null;
-                    try {
-                        bis = new BufferedInputStream(new FileInputStream(file));
-                        byte [] buffer = new byte[8096];
-                        int len = 0;
-                        while ((len = bis.read(buffer)) >= 0) {
-                            zos.write(buffer, 0, len);
-                        }
-                    } finally {
-                        if (bis != null) {
-                            bis.close();
-                        }
-                    }
+    public ZipCompressor adaptiveStore(boolean adaptiveStore) {
+        this.adaptiveStore = adaptiveStore;
+        return this;
+    }
+
+    /**
+     * 無圧縮で格納する拡張子を取得します。
+     *
+     * @return 無圧縮で格納する拡張子
+     */
+    public Set<String> storeExtensions() {
+        return Collections.unmodifiableSet(storeExtensions);
+    }
+
+    /**
+     * 無圧縮で格納する拡張子を設定します。
+     * <p>
+     * {@link #adaptiveStore(boolean)} が有効な場合に、試し圧縮を行わずに無圧縮で格納する拡張子です。
+     * 大文字・小文字は区別しません。
+     * </p>
+     *
+     * @param extensions
+     *            無圧縮で格納する拡張子（"jpg"、".jpg" のどちらの形式でも可）
+     * @return 自身のインスタンス
+     */
+    public ZipCompressor storeExtensions(String... extensions) {
+        Set<String> set = new HashSet<String>();
+        if (extensions != null) {
+            for (String extension : extensions) {
+                if (Zip4jUtil.isStringNotNullAndNotEmpty(extension)) {
+                    set.add(extension.replaceFirst("^\\.", "").toLowerCase(Locale.ENGLISH));
                 }
-                zos.closeEntry();
             }
         }
+        this.storeExtensions = set;
+        return this;
+    }
+
+    /**
+     * 既存のZipファイルを更新する際の、置き換えたエントリの扱いを取得します。
+     *
+     * @return 置き換えたエントリの扱い
+     */
+    public UpdatePolicy updatePolicy() {
+        return updatePolicy;
+    }
+
+    /**
+     * 既存のZipファイルを更新する際の、置き換えたエントリの扱いを設定します。
+     *
+     * @param updatePolicy
+     *            置き換えたエントリの扱い
+     * @return 自身のインスタンス
+     * @see #update(File, File...)
+     */
+    public ZipCompressor updatePolicy(UpdatePolicy updatePolicy) {
+        if (updatePolicy != null) {
+            this.updatePolicy = updatePolicy;
+        }
+        return this;
+    }
+
+    /**
+     * 変更のないエントリを再利用する前回のZipファイルを取得します。
+     *
+     * @return 前回のZipファイル
+     */
+    public File baseline() {
+        return baseline;
+    }
+
+    /**
+     * 変更のないエントリを再利用する前回のZipファイルを設定します。
+     * <p>
+     * 圧縮元のファイルのうち、前回のZipファイルに同じ名前のエントリがあり、サイズと最終更新日時が一致するものは、
+     * ファイルを読み込まずに前回のZipファイルの圧縮済みデータとCRC-32をそのままコピーします。
+     * 圧縮方式（STOREかDEFLATEか）または暗号化形式が現在の設定と異なるエントリは再利用しません。
+     * 暗号化されたエントリは、暗号化ヘッダのパスワード検証値が現在のパスワードと一致する場合のみ再利用します。
+     * 検証値は短いため、確実に確認する場合は {@link #baselineChecksum(boolean)} を指定して復号したデータのCRC-32も比較します。
+     * 再利用したエントリは、圧縮するエントリより前に格納します。
+     * 出力先がストリームまたはチャネルの場合も、同様に再利用したエントリを書き込みます。
+     * 圧縮先と同じZipファイルを指定した場合は、一時ファイルに書き込んでから置き換えます。
+     * 前回のZipファイルが存在しない場合は、すべてのエントリを圧縮します。
+     * </p>
+     *
+     * @param baseline
+     *            前回のZipファイル（再利用しない場合はnull）
+     * @return 自身のインスタンス
+     */
+    public ZipCompressor baseline(File baseline) {
+        this.baseline = baseline;
+        return this;
+    }
+
+    /**
+     * 前回のZipファイルのエントリを再利用する際にCRC-32も比較するかどうかを取得します。
+     *
+     * @return CRC-32も比較するかどうか
+     */
+    public boolean baselineChecksum() {
+        return baselineChecksum;
+    }
+
+    /**
+     * 前回のZipファイルのエントリを再利用する際にCRC-32も比較するかどうかを設定します。
+     * <p>
+     * trueを指定すると、サイズと最終更新日時が一致するファイルのCRC-32を計算し、一致する場合のみ再利用します。
+     * ファイルの読み込みは必要になりますが、圧縮は行いません。
+     * </p>
+     *
+     * @param baselineChecksum
+     *            CRC-32も比較するかどうか
+     * @return 自身のインスタンス
+     */
+    public ZipCompressor baselineChecksum(boolean baselineChecksum) {
+        this.baselineChecksum = baselineChecksum;
+        return this;
+    }
+
+    /**
+     * 内容が同じファイルを1回だけ圧縮するかどうかを取得します。
+     *
+     * @return 内容が同じファイルを1回だけ圧縮するかどうか
+     */
+    public boolean deduplicate() {
+        return deduplicate;
+    }
+
+    /**
+     * 内容が同じファイルを1回だけ圧縮するかどうかを設定します。
+     * <p>
+     * trueを指定すると、サイズが同じファイルの内容のハッシュ値（SHA-256）を比較し、
+     * 内容が同じファイルは最初のエントリのみ圧縮して書き込みます。
+     * 以降のエントリはセントラルディレクトリのみを書き込み、最初のエントリのローカルファイルヘッダとデータを共有します。
+     * このようなZipファイルはセントラルディレクトリを読むツールでは展開できますが、
+     * ローカルファイルヘッダを順に読むツール（{@link ZipExtractor#execute(File, java.io.InputStream)} など）では
+     * 共有したエントリを展開できません。その場合は {@link #readerCompatible(boolean)} を指定します。
+     * </p>
+     *
+     * @param deduplicate
+     *            内容が同じファイルを1回だけ圧縮するかどうか
+     * @return 自身のインスタンス
+     */
+    public ZipCompressor deduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+        return this;
+    }
+
+    /**
+     * 重複排除の際に、重複するエントリにもローカルファイルヘッダとデータを書き込むかどうかを取得します。
+     *
+     * @return 重複するエントリにもローカルファイルヘッダとデータを書き込むかどうか
+     */
+    public boolean readerCompatible() {
+        return readerCompatible;
+    }
+
+    /**
+     * 重複排除の際に、重複するエントリにもローカルファイルヘッダとデータを書き込むかどうかを設定します。
+     * <p>
+     * trueを指定すると、重複するエントリにも通常通りローカルファイルヘッダとデータを書き込むため、
+     * どのツールでも展開できます（Zipファイルのサイズは削減されません）。
+     * 出力先がファイルの場合は書き込み済みの圧縮データをコピーして圧縮を省略し、
+     * 出力先がストリームまたはチャネルの場合は重複排除を行いません。
+     * </p>
+     *
+     * @param readerCompatible
+     *            重複するエントリにもローカルファイルヘッダとデータを書き込むかどうか
+     * @return 自身のインスタンス
+     */
+    public ZipCompressor readerCompatible(boolean readerCompatible) {
+        this.readerCompatible = readerCompatible;
+        return this;
+    }
+
+    /**
+     * 計測値を受け取るリスナーを取得します。
+     *
+     * @return 計測値を受け取るリスナー
+     */
+    public ZipMetricsListener metricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * 計測値を受け取るリスナーを設定します。
+     * <p>
+     * 圧縮したエントリ毎に、圧縮前後のサイズと、読み込み・圧縮・暗号化・書き込みにかかった時間を通知し、
+     * 完了時にZipファイル全体の合計とスループットを通知します。
+     * リスナーを設定せず、JDK Flight Recorderで記録していない場合は計測を行いません。
+     * </p>
+     *
+     * @param metricsListener
+     *            計測値を受け取るリスナー（計測しない場合はnull）
+     * @return 自身のインスタンス
+     */
+    public ZipCompressor metricsListener(ZipMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+        return this;
+    }
+
+    /**
+     * 圧縮元の読み込みの帯域の制限を取得します。
+     *
+     * @return 圧縮元の読み込みの帯域の制限
+     */
+    public RateLimiter readLimiter() {
+        return readLimiter;
+    }
+
+    /**
+     * 圧縮元の読み込みの帯域の制限を設定します。
+     * <p>
+     * 同じ制限を複数の圧縮処理で共有すると、合計の帯域を制限できます。
+     * 重複排除や {@link #baselineChecksum(boolean)} のためのファイルの読み込みと、
+     * 前回のZipファイル・更新するZipファイルからのエントリデータの読み込みも制限します。
+     * 制限する場合は、無圧縮のエントリもファイルから直接転送せずに読み込みます。
+     * </p>
+     *
+     * @param readLimiter
+     *            圧縮元の読み込みの帯域の制限（制限しない場合はnull）
+     * @return 自身のインスタンス
+     */
+    public ZipCompressor readLimiter(RateLimiter readLimiter) {
+        this.readLimiter = readLimiter;
+        return this;
+    }
+
+    /**
+     * Zipファイルの書き込みの帯域の制限を取得します。
+     *
+     * @return Zipファイルの書き込みの帯域の制限
+     */
+    public RateLimiter writeLimiter() {
+        return writeLimiter;
+    }
+
+    /**
+     * Zipファイルの書き込みの帯域の制限を設定します。
+     * <p>
+     * 同じ制限を複数の圧縮処理で共有すると、合計の帯域を制限できます。
+     * 制限する場合は、ファイルからのチャネル間の直接転送を行いません。
+     * </p>
+     *
+     * @param writeLimiter
+     *            Zipファイルの書き込みの帯域の制限（制限しない場合はnull）
+     * @return 自身のインスタンス
+     */
+    public ZipCompressor writeLimiter(RateLimiter writeLimiter) {
+        this.writeLimiter = writeLimiter;
+        return this;
+    }
+
+    /**
+     * 進捗を受け取るリスナーを取得します。
+     *
+     * @return 進捗を受け取るリスナー
+     */
+    public ZipProgressListener progressListener() {
+        return progressListener;
+    }
+
+    /**
+     * 進捗を受け取るリスナーを設定します。
+     * <p>
+     * 処理中は {@link #progressInterval(long)} の間隔で、終了時には必ず1回、圧縮処理のスレッドから呼び出します。
+     * 非同期実行では {@link ZipFuture#progress()} と同じ進捗を通知します。
+     * </p>
+     *
+     * @param progressListener
+     *            進捗を受け取るリスナー（通知しない場合はnull）
+     * @return 自身のインスタンス
+     */
+    public ZipCompressor progressListener(ZipProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * 進捗を受け取るリスナーを呼び出す間隔を取得します。
+     *
+     * @return 進捗を受け取るリスナーを呼び出す間隔（ミリ秒）
+     */
+    public long progressInterval() {
+        return progressInterval;
+    }
+
+    /**
+     * 進捗を受け取るリスナーを呼び出す間隔を設定します。
+     * <p>
+     * 0の場合は、読み込みとエントリの完了の都度呼び出します。
+     * </p>
+     *
+     * @param progressInterval
+     *            進捗を受け取るリスナーを呼び出す間隔（ミリ秒、0以上）
+     * @return 自身のインスタンス
+     */
+    public ZipCompressor progressInterval(long progressInterval) {
+        if (progressInterval >= 0) {
+            this.progressInterval = progressInterval;
+        }
+        return this;
+    }
+
+    /**
+     * 直前の圧縮結果の統計情報を取得します。
+     *
+     * @return 直前の圧縮結果の統計情報（未実行の場合はnull）
+     */
+    public CompressionStatistics statistics() {
+        return statistics;
+    }
+
+    /**
+     * 対象のファイルをZip形式で圧縮します。
+     *
+     * @param zipFilePath
+     *            圧縮先のZipファイルパス
+     * @param filePaths
+     *            圧縮元のファイルパス
+     * @return 圧縮先のZipファイル
+     * @throws IOException
+     * @throws ZipException
+     */
+    public File execute(String zipFilePath, String... filePaths) throws IOException, ZipException {
+        File zipFile = new File(zipFilePath);
+        File[] files = new File[filePaths.length];
+        for (int i = 0; i < filePaths.length; i++) {
+            files[i] = new File(filePaths[i]);
+        }
+        return execute(zipFile, files);
+    }
+
+    /**
+     * 対象のファイルをZip形式で圧縮します。
+     *
+     * @param zipFile
+     *            圧縮先のZipファイル
+     * @param files
+     *            圧縮元のファイル
+     * @return 圧縮先のZipファイル
+     * @throws IOException
+     * @throws ZipException
+     */
+    public File execute(File zipFile, File... files) throws IOException, ZipException {
+        return execute(zipFile, files, new EntrySource[0]);
+    }
+
+    /**
+     * メモリ上のデータなど、ファイル以外のデータ元をZip形式で圧縮します。
+     * <p>
+     * エントリ名には {@link #rootPathOfZipEntry(String)} で指定したパスが前に付きます。
+     * </p>
+     *
+     * @param zipFile
+     *            圧縮先のZipファイル
+     * @param sources
+     *            圧縮元のデータ
+     * @return 圧縮先のZipファイル
+     * @throws IOException
+     * @throws ZipException
+     */
+    public File execute(File zipFile, EntrySource... sources) throws IOException, ZipException {
+        return execute(zipFile, new File[0], sources);
+    }
+
+    /**
+     * 対象のファイルをZip形式で圧縮し、出力ストリームに書き込みます。
+     * <p>
+     * 各エントリのサイズとCRC-32はデータディスクリプタに書き込むため、出力先をシークすることはありません。
+     * 最初のエントリの圧縮中から順次書き込まれるため、HTTPレスポンスなどに直接出力できます。
+     * 出力ストリームは閉じません。
+     * </p>
+     *
+     * @param out
+     *            圧縮先の出力ストリーム
+     * @param files
+     *            圧縮元のファイル
+     * @throws IOException
+     * @throws ZipException
+     */
+    public void execute(OutputStream out, File... files) throws IOException, ZipException {
+        execute(out, files, new EntrySource[0]);
+    }
+
+    /**
+     * ファイル以外のデータ元をZip形式で圧縮し、出力ストリームに書き込みます。
+     * <p>
+     * 出力ストリームは閉じません。
+     * </p>
+     *
+     * @param out
+     *            圧縮先の出力ストリーム
+     * @param sources
+     *            圧縮元のデータ
+     * @throws IOException
+     * @throws ZipException
+     */
+    public void execute(OutputStream out, EntrySource... sources) throws IOException, ZipException {
+        execute(out, new File[0], sources);
+    }
+
+    /**
+     * 対象のファイルをZip形式で圧縮し、チャネルに書き込みます。
+     * <p>
+     * {@link #execute(OutputStream, File...)} のチャネル版です。
+     * 無圧縮かつ暗号化なしのエントリは、ファイルからチャネルへ直接転送します。
+     * チャネルはブロッキングモードである必要があり、閉じません。
+     * </p>
+     *
+     * @param channel
+     *            圧縮先のチャネル
+     * @param files
+     *            圧縮元のファイル
+     * @throws IOException
+     * @throws ZipException
+     */
+    public void execute(WritableByteChannel channel, File... files) throws IOException, ZipException {
+        execute(channel, files, new EntrySource[0]);
+    }
+
+    /**
+     * ファイル以外のデータ元をZip形式で圧縮し、チャネルに書き込みます。
+     * <p>
+     * チャネルはブロッキングモードである必要があり、閉じません。
+     * </p>
+     *
+     * @param channel
+     *            圧縮先のチャネル
+     * @param sources
+     *            圧縮元のデータ
+     * @throws IOException
+     * @throws ZipException
+     */
+    public void execute(WritableByteChannel channel, EntrySource... sources) throws IOException, ZipException {
+        execute(channel, new File[0], sources);
+    }
+
+    /**
+     * 対象のファイルをZip形式で非同期に圧縮します。
+     * <p>
+     * 圧縮は指定したスレッドプールで実行し、呼び出し元のスレッドは待機しません。
+     * 結果の {@link ZipFuture#progress()} で進捗を参照でき、{@link ZipFuture#cancel(boolean)} でキャンセルできます。
+     * 失敗またはキャンセルした場合は、書き込み途中のZipファイルを削除します
+     * （{@link #baseline(File)} に圧縮先と同じZipファイルを指定した場合は、元のZipファイルを残します）。
+     * 実行中はこのインスタンスの設定を変更しないでください。
+     * </p>
+     *
+     * @param executor
+     *            圧縮を実行するスレッドプール
+     * @param zipFile
+     *            圧縮先のZipファイル
+     * @param files
+     *            圧縮元のファイル
+     * @return 圧縮先のZipファイルを結果とするZipFuture
+     */
+    public ZipFuture executeAsync(Executor executor, File zipFile, File... files) {
+        return executeAsync(executor, zipFile, files, new EntrySource[0]);
+    }
+
+    /**
+     * ファイル以外のデータ元をZip形式で非同期に圧縮します。
+     *
+     * @param executor
+     *            圧縮を実行するスレッドプール
+     * @param zipFile
+     *            圧縮先のZipファイル
+     * @param sources
+     *            圧縮元のデータ
+     * @return 圧縮先のZipファイルを結果とするZipFuture
+     * @see #executeAsync(Executor, File, File...)
+     */
+    public ZipFuture executeAsync(Executor executor, File zipFile, EntrySource... sources) {
+        return executeAsync(executor, zipFile, new File[0], sources);
+    }
+
+    /**
+     * 既存のZipファイルに対象のファイルを追加します。
+     * <p>
+     * 既存のエントリは再圧縮せず、同じ名前のエントリは新しいエントリで置き換えます。
+     * {@link #updatePolicy(UpdatePolicy)} が {@link UpdatePolicy#APPEND} の場合は、
+     * 既存のセントラルディレクトリの位置から新しいエントリを書き込み、セントラルディレクトリのみを書き直します
+     * （置き換えたエントリのデータは参照されない領域として残ります。書き込み中に失敗した場合は、元のセントラルディレクトリを書き戻します）。
+     * {@link UpdatePolicy#COMPACT} の場合は、一時ファイルに既存のエントリデータをそのままコピーして新しいエントリを追加し、
+     * 完成後に元のZipファイルと置き換えます。
+     * Zipファイルが存在しない場合は新規に作成します。
+     * </p>
+     *
+     * @param zipFile
+     *            更新するZipファイル
+     * @param files
+     *            追加するファイル
+     * @return 更新したZipファイル
+     * @throws IOException
+     * @throws ZipException
+     */
+    public File update(File zipFile, File... files) throws IOException, ZipException {
+        return update(zipFile, files, new EntrySource[0]);
+    }
+
+    /**
+     * 既存のZipファイルにファイル以外のデータ元を追加します。
+     *
+     * @param zipFile
+     *            更新するZipファイル
+     * @param sources
+     *            追加するデータ
+     * @return 更新したZipファイル
+     * @throws IOException
+     * @throws ZipException
+     * @see #update(File, File...)
+     */
+    public File update(File zipFile, EntrySource... sources) throws IOException, ZipException {
+        return update(zipFile, new File[0], sources);
+    }
+
+    /**
+     * 対象のファイルとデータ元をZip形式で圧縮します。
+     *
+     * @param zipFile
+     *            圧縮先のZipファイル
+     * @param files
+     *            圧縮元のファイル
+     * @param sources
+     *            圧縮元のデータ
+     * @return 圧縮先のZipファイル
+     * @throws IOException
+     * @throws ZipException
+     */
+    private File execute(File zipFile, File[] files, EntrySource[] sources) throws IOException, ZipException {
+        return execute(zipFile, files, sources, null);
+    }
+
+    /**
+     * 対象のファイルとデータ元をZip形式で圧縮し、進捗を更新します。
+     *
+     * @param zipFile
+     *            圧縮先のZipファイル
+     * @param files
+     *            圧縮元のファイル
+     * @param sources
+     *            圧縮元のデータ
+     * @param progress
+     *            進捗（同期実行の場合はnull）
+     * @return 圧縮先のZipファイル
+     * @throws IOException
+     * @throws ZipException
+     */
+    private File execute(File zipFile, File[] files, EntrySource[] sources, ZipProgress progress)
+            throws IOException, ZipException {
+        // 出力先ディレクトリチェック（存在しなければ作成する）
+        Zip4jUtil.checkOutputFolder(zipFile.getParent());
+
+        ResourcePool pool = acquirePool();
+        EntryCompressor compressor = createCompressor(pool);
+        try {
+            if (progress != null) {
+                if (progressListener != null) {
+                    progress.setListener(progressListener, progressInterval);
+                }
+                compressor.setProgress(progress);
+            }
+            if (baseline != null && Zip4jUtil.checkFileExists(baseline)) {
+                rebuild(zipFile, pool, compressor, collect(compressor, files, sources));
+            } else if (deduplicate) {
+                compress(new ZipArchiveWriter(new FileOutputStream(zipFile), pool, true), zipFile, compressor,
+                    collect(compressor, files, sources));
+            } else {
+                // 走査と並行して圧縮する
+                RecordQueue records = walk(compressor, files, sources);
+                try {
+                    compress(new ZipArchiveWriter(new FileOutputStream(zipFile), pool, true), zipFile, compressor,
+                        records);
+                } finally {
+                    records.close();
+                }
+            }
+            compressor.archiveCompleted(zipFile);
+        } finally {
+            compressor.close();
+            releasePool(pool);
+        }
+        return zipFile;
+    }
+
+    /**
+     * 対象のファイルとデータ元をZip形式で非同期に圧縮します。
+     *
+     * @param executor
+     *            圧縮を実行するスレッドプール
+     * @param zipFile
+     *            圧縮先のZipファイル
+     * @param files
+     *            圧縮元のファイル
+     * @param sources
+     *            圧縮元のデータ
+     * @return 圧縮先のZipファイルを結果とするZipFuture
+     */
+    private ZipFuture executeAsync(Executor executor, final File zipFile, final File[] files,
+            final EntrySource[] sources) {
+        return new ZipFuture().start(executor, new ZipFuture.Task() {
+            public File call(ZipProgress progress) throws IOException, ZipException {
+                boolean completed = false;
+                try {
+                    execute(zipFile, files, sources, progress);
+                    // 書き込み完了後にキャンセルされた場合も、Zipファイルを残さない
+                    progress.check();
+                    completed = true;
+                    return zipFile;
+                } finally {
+                    if (!completed && !(baseline != null
+                            && baseline.getCanonicalFile().equals(zipFile.getCanonicalFile()))) {
+                        zipFile.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 対象のファイルとデータ元をZip形式で圧縮し、出力ストリームに書き込みます。
+     *
+     * @param out
+     *            圧縮先の出力ストリーム
+     * @param files
+     *            圧縮元のファイル
+     * @param sources
+     *            圧縮元のデータ
+     * @throws IOException
+     * @throws ZipException
+     */
+    private void execute(OutputStream out, File[] files, EntrySource[] sources) throws IOException, ZipException {
+        if (out == null) {
+            throw new ZipException("output stream is null");
+        }
+        ResourcePool pool = acquirePool();
+        EntryCompressor compressor = createCompressor(pool);
+        try {
+            if (baseline != null && Zip4jUtil.checkFileExists(baseline)) {
+                rebuild(new ZipArchiveWriter(out, pool, false), null, pool, compressor, collect(compressor, files, sources));
+            } else if (deduplicate && !readerCompatible) {
+                compress(new ZipArchiveWriter(out, pool, false), null, compressor, collect(compressor, files, sources));
+            } else {
+                RecordQueue records = walk(compressor, files, sources);
+                try {
+                    compress(new ZipArchiveWriter(out, pool, false), null, compressor, records);
+                } finally {
+                    records.close();
+                }
+            }
+            compressor.archiveCompleted(null);
+        } finally {
+            compressor.close();
+            releasePool(pool);
+        }
+    }
+
+    /**
+     * 対象のファイルとデータ元をZip形式で圧縮し、チャネルに書き込みます。
+     *
+     * @param channel
+     *            圧縮先のチャネル
+     * @param files
+     *            圧縮元のファイル
+     * @param sources
+     *            圧縮元のデータ
+     * @throws IOException
+     * @throws ZipException
+     */
+    private void execute(WritableByteChannel channel, File[] files, EntrySource[] sources)
+            throws IOException, ZipException {
+        if (channel == null) {
+            throw new ZipException("output channel is null");
+        }
+        ResourcePool pool = acquirePool();
+        EntryCompressor compressor = createCompressor(pool);
+        try {
+            if (baseline != null && Zip4jUtil.checkFileExists(baseline)) {
+                rebuild(new ZipArchiveWriter(channel, pool, false), null, pool, compressor,
+                    collect(compressor, files, sources));
+            } else if (deduplicate && !readerCompatible) {
+                compress(new ZipArchiveWriter(channel, pool, false), null, compressor, collect(compressor, files, sources));
+            } else {
+                RecordQueue records = walk(compressor, files, sources);
+                try {
+                    compress(new ZipArchiveWriter(channel, pool, false), null, compressor, records);
+                } finally {
+                    records.close();
+                }
+            }
+            compressor.archiveCompleted(null);
+        } finally {
+            compressor.close();
+            releasePool(pool);
+        }
+    }
+
+    /**
+     * 既存のZipファイルに対象のファイルとデータ元を追加します。
+     *
+     * @param zipFile
+     *            更新するZipファイル
+     * @param files
+     *            追加するファイル
+     * @param sources
+     *            追加するデータ
+     * @return 更新したZipファイル
+     * @throws IOException
+     * @throws ZipException
+     */
+    private File update(File zipFile, File[] files, EntrySource[] sources) throws IOException, ZipException {
+        if (!Zip4jUtil.checkFileExists(zipFile)) {
+            return execute(zipFile, files, sources);
+        }
+        ResourcePool pool = acquirePool();
+        EntryCompressor compressor = createCompressor(pool);
+        try {
+            List<ZipEntryRecord> records = collect(compressor, files, sources);
+            if (updatePolicy == UpdatePolicy.COMPACT) {
+                compact(zipFile, pool, compressor, records);
+            } else {
+                append(zipFile, pool, compressor, records);
+            }
+            compressor.archiveCompleted(zipFile);
+        } finally {
+            compressor.close();
+            releasePool(pool);
+        }
+        return zipFile;
+    }
+
+    /**
+     * 前回のZipファイルの変更のないエントリを再利用してZipファイルを作成します。
+     *
+     * @param zipFile
+     *            圧縮先のZipファイル
+     * @param pool
+     *            バッファとDeflaterのプール
+     * @param compressor
+     *            圧縮処理
+     * @param records
+     *            Zipエントリのヘッダ情報
+     * @throws IOException
+     * @throws ZipException
+     */
+    private void rebuild(File zipFile, ResourcePool pool, EntryCompressor compressor, List<ZipEntryRecord> records)
+            throws IOException, ZipException {
+        boolean inPlace = baseline.getCanonicalFile().equals(zipFile.getCanonicalFile());
+        File target = inPlace
+            ? File.createTempFile(zipFile.getName(), ".tmp", zipFile.getAbsoluteFile().getParentFile()) : zipFile;
+        boolean completed = false;
+        try {
+            rebuild(new ZipArchiveWriter(new FileOutputStream(target), pool, true), target, pool, compressor, records);
+            if (inPlace) {
+                Files.move(target.toPath(), zipFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            completed = true;
+        } finally {
+            if (inPlace && !completed) {
+                target.delete();
+            }
+        }
+    }
+
+    /**
+     * 前回のZipファイルの変更のないエントリを再利用してZipファイルを書き込み、書き込み先を閉じます。
+     *
+     * @param writer
+     *            Zipファイルの書き込み
+     * @param output
+     *            書き込み先のZipファイル（ファイル以外に書き込む場合はnull）
+     * @param pool
+     *            バッファとDeflaterのプール
+     * @param compressor
+     *            圧縮処理
+     * @param records
+     *            Zipエントリのヘッダ情報
+     * @throws IOException
+     * @throws ZipException
+     */
+    private void rebuild(ZipArchiveWriter writer, File output, ResourcePool pool, EntryCompressor compressor,
+            List<ZipEntryRecord> records) throws IOException, ZipException {
+        ZipArchiveReader reader;
+        try {
+            reader = new ZipArchiveReader(baseline, encoding, pool);
+            reader.setReadLimiter(readLimiter);
+        } catch (IOException e) {
+            writer.close();
+            throw e;
+        }
+        try {
+            List<ZipEntryRecord> copies = reuse(reader, compressor, records);
+            compress(writer, output, reader, copies, compressor, records);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * 前回のZipファイルから再利用できるエントリを取り出します。
+     * <p>
+     * 再利用するエントリは圧縮対象から除きます。
+     * 暗号化されたエントリは、パスワード検証値が1つでも一致しない場合、前回とパスワードが異なるものとして再利用しません
+     * （検証値は短く、誤ったパスワードでも偶然一致することがあるため）。
+     * </p>
+     *
+     * @param reader
+     *            前回のZipファイルの読み込み
+     * @param compressor
+     *            圧縮処理
+     * @param records
+     *            圧縮対象のZipエントリのヘッダ情報
+     * @return 再利用する前回のZipエントリのヘッダ情報
+     * @throws IOException
+     * @throws ZipException
+     */
+    private List<ZipEntryRecord> reuse(ZipArchiveReader reader, EntryCompressor compressor,
+            List<ZipEntryRecord> records) throws IOException, ZipException {
+        Map<String, ZipEntryRecord> entries = new HashMap<String, ZipEntryRecord>();
+        for (ZipEntryRecord entry : reader.readEntries()) {
+            entries.put(CentralDirectoryIndex.normalize(entry.getName()), entry);
+        }
+        Map<ZipEntryRecord, ZipEntryRecord> candidates = new LinkedHashMap<ZipEntryRecord, ZipEntryRecord>();
+        boolean passwordMatched = true;
+        for (ZipEntryRecord record : records) {
+            ZipEntryRecord entry = entries.get(CentralDirectoryIndex.normalize(record.getName()));
+            if (entry == null || !isReusable(record, entry)) {
+                continue;
+            }
+            candidates.put(record, entry);
+            // 暗号化ヘッダの検証値のみを読み込み、エントリデータは復号しない
+            if (passwordMatched && entry.getEncryptionType() != EncryptionType.NO_ENCRYPTION
+                    && !reader.checkPassword(entry, password)) {
+                passwordMatched = false;
+            }
+        }
+        List<ZipEntryRecord> copies = new ArrayList<ZipEntryRecord>();
+        Set<ZipEntryRecord> reused = new HashSet<ZipEntryRecord>();
+        for (Map.Entry<ZipEntryRecord, ZipEntryRecord> candidate : candidates.entrySet()) {
+            ZipEntryRecord record = candidate.getKey();
+            ZipEntryRecord entry = candidate.getValue();
+            boolean encrypted = entry.getEncryptionType() != EncryptionType.NO_ENCRYPTION;
+            if (encrypted && !passwordMatched) {
+                continue;
+            }
+            if (baselineChecksum) {
+                // CRC-32を比較する場合のみ、暗号化されたエントリを復号してCRC-32（AESの場合は認証コード）を確認する
+                long crc = encrypted ? decryptedCrc(reader, entry) : entry.getCrc();
+                if (crc < 0 || compressor.crc(record.getSourceFile()) != crc) {
+                    continue;
+                }
+            }
+            // 名前とファイル属性は現在の設定・ファイルに合わせる
+            entry.setName(record.getName());
+            entry.setNameBytes(record.getNameBytes());
+            entry.setFlags(entry.getFlags() & ~ZipEntryRecord.FLAG_UTF8 | record.getFlags() & ZipEntryRecord.FLAG_UTF8);
+            entry.setExternalAttributes(record.getExternalAttributes());
+            compressor.getStatistics().addReused(entry);
+            copies.add(entry);
+            reused.add(record);
+        }
+        records.removeAll(reused);
+        return copies;
+    }
+
+    /**
+     * 前回のZipファイルのエントリを、ヘッダ情報から再利用できるかどうかを判定します。
+     *
+     * @param record
+     *            圧縮対象のZipエントリのヘッダ情報
+     * @param entry
+     *            前回のZipエントリのヘッダ情報
+     * @return 再利用できる場合はtrue
+     */
+    private boolean isReusable(ZipEntryRecord record, ZipEntryRecord entry) {
+        if (record.getSourceFile() == null || record.isDirectory() || entry.isDirectory()
+                || entry.getUncompressedSize() != record.getUncompressedSize()
+                || entry.getDosTime() != record.getDosTime()
+                || entry.getEncryptionType() != record.getEncryptionType()) {
+            return false;
+        }
+        return entry.getCompressionMethod() == record.getCompressionMethod()
+            || adaptiveStore && entry.getCompressionMethod() == Zip4jConstants.COMP_STORE;
+    }
+
+    /**
+     * 前回のZipファイルの暗号化されたエントリを現在のパスワードで復号し、CRC-32を計算します。
+     *
+     * @param reader
+     *            前回のZipファイルの読み込み
+     * @param entry
+     *            前回のZipエントリのヘッダ情報
+     * @return CRC-32（復号したデータが壊れている場合は-1）
+     * @throws IOException
+     */
+    private long decryptedCrc(ZipArchiveReader reader, ZipEntryRecord entry) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] b = reader.getPool().acquireBuffer();
+        try {
+            InputStream in = reader.openEntry(entry, password);
+            try {
+                int len;
+                while ((len = in.read(b)) >= 0) {
+                    crc.update(b, 0, len);
+                }
+            } finally {
+                in.close();
+            }
+            return crc.getValue();
+        } catch (EntryChecksumException e) {
+            return -1;
+        } catch (java.util.zip.ZipException e) {
+            // 検証値が偶然一致した誤ったパスワードでは、展開できないデータになる
+            return -1;
+        } catch (ZipException e) {
+            return -1;
+        } finally {
+            reader.getPool().releaseBuffer(b);
+        }
+    }
+
+    /**
+     * 既存のZipファイルのセントラルディレクトリの位置から新しいエントリを書き込みます。
+     *
+     * @param zipFile
+     *            更新するZipファイル
+     * @param pool
+     *            バッファとDeflaterのプール
+     * @param compressor
+     *            圧縮処理
+     * @param records
+     *            追加するZipエントリのヘッダ情報
+     * @throws IOException
+     * @throws ZipException
+     */
+    private void append(File zipFile, ResourcePool pool, EntryCompressor compressor, List<ZipEntryRecord> records)
+            throws IOException, ZipException {
+        List<ZipEntryRecord> kept;
+        long offset;
+        ZipArchiveReader reader = new ZipArchiveReader(zipFile, encoding, pool);
+        try {
+            kept = retain(reader.readEntries(), records);
+            offset = reader.centralDirectoryOffset();
+        } finally {
+            reader.close();
+        }
+
+        RandomAccessFile file = new RandomAccessFile(zipFile, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            // 失敗した場合に元に戻せるよう、上書きするセントラルディレクトリと終端レコードを退避する
+            long length = channel.size();
+            if (length - offset > Integer.MAX_VALUE) {
+                throw new ZipException("central directory is too large to append: " + zipFile);
+            }
+            ByteBuffer saved = ByteBuffer.allocate((int) (length - offset));
+            while (saved.hasRemaining()) {
+                if (channel.read(saved, offset + saved.position()) < 0) {
+                    throw new EOFException("unexpected end of zip file: " + zipFile);
+                }
+            }
+            boolean completed = false;
+            try {
+                channel.position(offset);
+                ZipArchiveWriter writer = new ZipArchiveWriter(channel, pool, false);
+                writer.resume(offset, kept);
+                compress(writer, zipFile, compressor, records);
+                // 新しいセントラルディレクトリが元より短い場合に残る末尾を切り詰める
+                channel.truncate(channel.position());
+                completed = true;
+            } finally {
+                if (!completed) {
+                    restore(channel, offset, saved, length);
+                }
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * 追加に失敗したZipファイルに、退避したセントラルディレクトリと終端レコードを書き戻します。
+     *
+     * @param channel
+     *            Zipファイルのチャネル
+     * @param offset
+     *            元のセントラルディレクトリの位置
+     * @param saved
+     *            退避したセントラルディレクトリと終端レコード
+     * @param length
+     *            元のZipファイルのサイズ
+     * @throws IOException
+     */
+    private void restore(FileChannel channel, long offset, ByteBuffer saved, long length) throws IOException {
+        saved.rewind();
+        while (saved.hasRemaining()) {
+            channel.write(saved, offset + saved.position());
+        }
+        channel.truncate(length);
+        channel.force(false);
+    }
+
+    /**
+     * 一時ファイルに既存のエントリデータをコピーして新しいエントリを追加し、元のZipファイルと置き換えます。
+     *
+     * @param zipFile
+     *            更新するZipファイル
+     * @param pool
+     *            バッファとDeflaterのプール
+     * @param compressor
+     *            圧縮処理
+     * @param records
+     *            追加するZipエントリのヘッダ情報
+     * @throws IOException
+     * @throws ZipException
+     */
+    private void compact(File zipFile, ResourcePool pool, EntryCompressor compressor, List<ZipEntryRecord> records)
+            throws IOException, ZipException {
+        File tempFile = File.createTempFile(zipFile.getName(), ".tmp", zipFile.getAbsoluteFile().getParentFile());
+        boolean completed = false;
+        try {
+            ZipArchiveReader reader = new ZipArchiveReader(zipFile, encoding, pool);
+            reader.setReadLimiter(readLimiter);
+            try {
+                List<ZipEntryRecord> kept = retain(reader.readEntries(), records);
+                // 残す既存のエントリのコピーも進捗に含める
+                List<ZipEntryRecord> all = new ArrayList<ZipEntryRecord>(kept);
+                all.addAll(records);
+                compressor.setTotalBytes(all);
+                compress(new ZipArchiveWriter(new FileOutputStream(tempFile), pool, true), tempFile, reader, kept,
+                    compressor, records);
+            } finally {
+                reader.close();
+            }
+            Files.move(tempFile.toPath(), zipFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            completed = true;
+        } finally {
+            if (!completed) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * 既存のエントリから、追加するエントリと同じ名前のものを除きます。
+     *
+     * @param existing
+     *            既存のZipエントリのヘッダ情報
+     * @param records
+     *            追加するZipエントリのヘッダ情報
+     * @return 残す既存のZipエントリのヘッダ情報
+     */
+    private static List<ZipEntryRecord> retain(List<ZipEntryRecord> existing, List<ZipEntryRecord> records) {
+        Set<String> names = new HashSet<String>();
+        for (ZipEntryRecord record : records) {
+            names.add(CentralDirectoryIndex.normalize(record.getName()));
+        }
+        List<ZipEntryRecord> kept = new ArrayList<ZipEntryRecord>(existing.size());
+        for (ZipEntryRecord record : existing) {
+            if (!names.contains(CentralDirectoryIndex.normalize(record.getName()))) {
+                kept.add(record);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * バッファとDeflaterのプールを取得します（未設定の場合は生成します）。
+     *
+     * @return バッファとDeflaterのプール
+     */
+    private ResourcePool acquirePool() {
+        return resourcePool != null ? resourcePool : new ResourcePool();
+    }
+
+    /**
+     * {@link #acquirePool()} で生成したプールを破棄します。
+     *
+     * @param pool
+     *            バッファとDeflaterのプール
+     */
+    private void releasePool(ResourcePool pool) {
+        if (pool != resourcePool) {
+            pool.clear();
+        }
+    }
+
+    /**
+     * 現在の設定で圧縮処理を生成します。
+     *
+     * @param pool
+     *            バッファとDeflaterのプール
+     * @return 圧縮処理
+     */
+    private EntryCompressor createCompressor(ResourcePool pool) {
+        EntryCompressor compressor = new EntryCompressor(encoding, compressionMethod, encryptionType, password, pool);
+        if (adaptiveStore) {
+            compressor.setAdaptiveStore(new HashSet<String>(storeExtensions));
+        }
+        if (keyDerivationParallelism > 0
+                && (encryptionType == EncryptionType.AES_128 || encryptionType == EncryptionType.AES_256)) {
+            compressor.setKeyDeriver(new AesKeyDeriver(password == null ? new char[0] : password.toCharArray(),
+                encryptionType == EncryptionType.AES_128 ? Zip4jConstants.AES_STRENGTH_128
+                    : Zip4jConstants.AES_STRENGTH_256, keyDerivationParallelism));
+        }
+        compressor.setMetrics(ZipMetrics.create(metricsListener, false));
+        compressor.setReadLimiter(readLimiter);
+        if (progressListener != null) {
+            compressor.createProgress(progressListener, progressInterval);
+        }
+        statistics = compressor.getStatistics();
+        return compressor;
+    }
+
+    /**
+     * エントリを圧縮してZipファイルを書き込み、書き込み先を閉じます。
+     *
+     * @param writer
+     *            Zipファイルの書き込み
+     * @param output
+     *            書き込み先のZipファイル（ファイル以外に書き込む場合はnull）
+     * @param compressor
+     *            圧縮処理
+     * @param records
+     *            Zipエントリのヘッダ情報
+     * @throws IOException
+     * @throws ZipException
+     */
+    private void compress(ZipArchiveWriter writer, File output, EntryCompressor compressor,
+            List<ZipEntryRecord> records) throws IOException, ZipException {
+        compress(writer, output, null, new ArrayList<ZipEntryRecord>(), compressor, records);
+    }
+
+    /**
+     * 走査しながら引き渡されるエントリを圧縮してZipファイルを書き込み、書き込み先を閉じます。
+     *
+     * @param writer
+     *            Zipファイルの書き込み
+     * @param output
+     *            書き込み先のZipファイル（ファイル以外に書き込む場合はnull）
+     * @param compressor
+     *            圧縮処理
+     * @param records
+     *            Zipエントリのヘッダ情報のキュー
+     * @throws IOException
+     * @throws ZipException
+     */
+    private void compress(ZipArchiveWriter writer, File output, EntryCompressor compressor, RecordQueue records)
+            throws IOException, ZipException {
+        writer.setRateLimiter(writeLimiter);
+        writer.setHeaderRewritable(output != null);
+        try {
+            write(writer, output, compressor, records);
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * 既存のエントリをコピーし、エントリを圧縮してZipファイルを書き込み、書き込み先を閉じます。
+     *
+     * @param writer
+     *            Zipファイルの書き込み
+     * @param output
+     *            書き込み先のZipファイル（ファイル以外に書き込む場合はnull）
+     * @param source
+     *            コピー元のZipファイルの読み込み（コピーしない場合はnull）
+     * @param copies
+     *            コピーする既存のZipエントリのヘッダ情報
+     * @param compressor
+     *            圧縮処理
+     * @param records
+     *            Zipエントリのヘッダ情報
+     * @throws IOException
+     * @throws ZipException
+     */
+    private void compress(ZipArchiveWriter writer, File output, ZipArchiveReader source,
+            List<ZipEntryRecord> copies, EntryCompressor compressor, List<ZipEntryRecord> records)
+            throws IOException, ZipException {
+        writer.setRateLimiter(writeLimiter);
+        // 出力先がファイルの場合は、サイズ不明のエントリのヘッダを書き込み後に実際のサイズに書き直す
+        writer.setHeaderRewritable(output != null);
+        try {
+            for (ZipEntryRecord record : copies) {
+                writer.copyEntry(source, record);
+                compressor.copied(record);
+            }
+            // 互換モードでは書き込み済みのデータを読み戻すため、出力先がファイルの場合のみ重複排除する
+            Map<ZipEntryRecord, ZipEntryRecord> duplicates = deduplicate && (output != null || !readerCompatible)
+                ? findDuplicates(compressor, records) : new LinkedHashMap<ZipEntryRecord, ZipEntryRecord>();
+            write(writer, output, compressor, new RecordQueue(records));
+            if (!duplicates.isEmpty()) {
+                writeDuplicates(writer, output, compressor, duplicates);
+            }
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * 内容が同じファイルを探します。
+     * <p>
+     * サイズが同じファイルのみハッシュ値を計算して比較します。
+     * 重複するエントリは圧縮対象から除きます。
+     * </p>
+     *
+     * @param compressor
+     *            圧縮処理
+     * @param records
+     *            圧縮対象のZipエントリのヘッダ情報
+     * @return 重複するエントリと、内容が同じ最初のエントリ（格納順）
+     * @throws IOException
+     */
+    private Map<ZipEntryRecord, ZipEntryRecord> findDuplicates(EntryCompressor compressor,
+            List<ZipEntryRecord> records) throws IOException {
+        Map<Long, List<ZipEntryRecord>> sizes = new HashMap<Long, List<ZipEntryRecord>>();
+        for (ZipEntryRecord record : records) {
+            if (record.getSourceFile() != null && !record.isDirectory() && record.getUncompressedSize() > 0) {
+                List<ZipEntryRecord> list = sizes.get(record.getUncompressedSize());
+                if (list == null) {
+                    list = new ArrayList<ZipEntryRecord>();
+                    sizes.put(record.getUncompressedSize(), list);
+                }
+                list.add(record);
+            }
+        }
+
+        long start = System.nanoTime();
+        Map<ZipEntryRecord, ZipEntryRecord> duplicates = new LinkedHashMap<ZipEntryRecord, ZipEntryRecord>();
+        for (ZipEntryRecord record : records) {
+            List<ZipEntryRecord> list = sizes.remove(record.getUncompressedSize());
+            if (list == null || list.size() < 2) {
+                continue;
+            }
+            Map<String, ZipEntryRecord> originals = new HashMap<String, ZipEntryRecord>();
+            for (ZipEntryRecord candidate : list) {
+                String key = new BigInteger(1, compressor.digest(candidate.getSourceFile())).toString(16);
+                if (readerCompatible && candidate.getEncryptionType() == EncryptionType.ZIP_CRYPTO) {
+                    // ZipCryptoの暗号化ヘッダの検証値は更新日時から作るため、更新日時も一致する必要がある
+                    key += ":" + candidate.getDosTime();
+                }
+                ZipEntryRecord original = originals.get(key);
+                if (original == null) {
+                    originals.put(key, candidate);
+                } else {
+                    duplicates.put(candidate, original);
+                }
+            }
+        }
+        compressor.getStatistics().addHashTime(System.nanoTime() - start);
+        records.removeAll(duplicates.keySet());
+        return duplicates;
+    }
+
+    /**
+     * 重複するエントリを書き込みます。
+     * <p>
+     * 互換モードでない場合は、内容が同じエントリのデータを共有するセントラルディレクトリのみを書き込みます。
+     * 互換モードの場合は、書き込み済みの圧縮データを読み戻してそのままコピーします。
+     * </p>
+     *
+     * @param writer
+     *            Zipファイルの書き込み
+     * @param output
+     *            書き込み先のZipファイル
+     * @param compressor
+     *            圧縮処理
+     * @param duplicates
+     *            重複するエントリと、内容が同じ最初のエントリ
+     * @throws IOException
+     */
+    private void writeDuplicates(ZipArchiveWriter writer, File output, EntryCompressor compressor,
+            Map<ZipEntryRecord, ZipEntryRecord> duplicates) throws IOException {
+        RandomAccessFile file = readerCompatible ? new RandomAccessFile(output, "r") : null;
+        try {
+            for (Map.Entry<ZipEntryRecord, ZipEntryRecord> entry : duplicates.entrySet()) {
+                ZipEntryRecord record = entry.getKey();
+                ZipEntryRecord original = entry.getValue();
+                record.setCrc(original.getCrc());
+                record.setCompressedSize(original.getCompressedSize());
+                record.setUncompressedSize(original.getUncompressedSize());
+                record.setCompressionMethod(original.getCompressionMethod());
+                if (file != null) {
+                    writer.copyEntry(file.getChannel(), original, record);
+                } else {
+                    writer.putAlias(original, record);
+                }
+                compressor.getStatistics().addDeduplicated(record, file == null);
+                compressor.copied(record);
+            }
+        } finally {
+            if (file != null) {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * 圧縮対象のファイルとデータ元を収集します。
+     *
+     * @param compressor
+     *            圧縮処理
+     * @param files
+     *            圧縮対象のファイル
+     * @param sources
+     *            圧縮対象のデータ元
+     * @return Zipエントリのヘッダ情報
+     * @throws IOException
+     * @throws ZipException
+     */
+    private List<ZipEntryRecord> collect(EntryCompressor compressor, File[] files, EntrySource[] sources)
+            throws IOException, ZipException {
+        List<ZipEntryRecord> records = new FileTreeWalker(compressor, walkParallelism).walk(rootPathOfZipEntry, files);
+        records.addAll(createRecords(compressor, sources));
+        // 再利用・重複排除するエントリも含め、収集した時点で合計が確定する
+        compressor.setTotalBytes(records);
+        return records;
+    }
+
+    /**
+     * 圧縮対象のファイルを別スレッドで走査し、走査したものから順に引き渡します。
+     * <p>
+     * 指定されたファイルの存在は走査の開始前に確認します。
+     * </p>
+     *
+     * @param compressor
+     *            圧縮処理
+     * @param files
+     *            圧縮対象のファイル
+     * @param sources
+     *            圧縮対象のデータ元（ファイルの後に引き渡す）
+     * @return Zipエントリのヘッダ情報のキュー
+     * @throws IOException
+     * @throws ZipException
+     */
+    private RecordQueue walk(EntryCompressor compressor, File[] files, EntrySource[] sources)
+            throws IOException, ZipException {
+        for (File file : files) {
+            if (!Zip4jUtil.checkFileExists(file)) {
+                throw new ZipException("input file does not exist");
+            }
+        }
+        return new FileTreeWalker(compressor, walkParallelism)
+            .start(rootPathOfZipEntry, files, createRecords(compressor, sources));
+    }
+
+    /**
+     * データ元からZipエントリのヘッダ情報を生成します。
+     *
+     * @param compressor
+     *            圧縮処理
+     * @param sources
+     *            圧縮対象のデータ元
+     * @return Zipエントリのヘッダ情報
+     * @throws IOException
+     * @throws ZipException
+     */
+    private List<ZipEntryRecord> createRecords(EntryCompressor compressor, EntrySource[] sources)
+            throws IOException, ZipException {
+        List<ZipEntryRecord> records = new ArrayList<ZipEntryRecord>(sources.length);
+        for (EntrySource source : sources) {
+            if (source == null) {
+                throw new ZipException("input source is null");
+            }
+            records.add(compressor.createRecord(source, rootPathOfZipEntry + source.name()));
+        }
+        return records;
+    }
+
+    /**
+     * Zipファイルに対象ファイルのデータを順に書き込みます。
+     * <p>
+     * 圧縮の並列数が2以上の場合、またはパイプラインを有効にした場合は、{@link ParallelZipWriter} で圧縮します。
+     * 無圧縮かつ暗号化なしのエントリは、ファイルの内容をZipファイルへ直接転送します。
+     * </p>
+     *
+     * @param writer
+     *            Zipファイルの書き込み
+     * @param output
+     *            書き込み先のZipファイル（ファイル以外に書き込む場合はnull）
+     * @param compressor
+     *            圧縮処理
+     * @param records
+     *            Zipエントリのヘッダ情報のキュー
+     * @throws IOException
+     * @throws ZipException
+     */
+    private void write(ZipArchiveWriter writer, File output, EntryCompressor compressor, RecordQueue records)
+            throws IOException, ZipException {
+        records.setProgress(compressor.getProgress());
+        if (parallelism > 1 || pipeline) {
+            // メモリの上限を超える圧縮データは、システムの一時ディレクトリではなく書き込み先と同じディレクトリに退避する
+            new ParallelZipWriter(compressor, parallelism, compressionMethod.ordinal(), blockParallelThreshold,
+                pipelineDepth, pipelineMemory, output != null ? output.getAbsoluteFile().getParentFile() : null)
+                .write(writer, records);
+            return;
+        }
+        ZipEntryRecord record;
+        while ((record = records.take()) != null) {
+            compressor.adapt(record);
+            long start;
+            if (compressor.isRawCopy(record)) {
+                compressor.checksum(record);
+                start = System.nanoTime();
+                writer.putEntry(record);
+                writer.transferFrom(record.getSourceFile(), record.getUncompressedSize());
+                compressor.checkUnchanged(record);
+            } else {
+                // 圧縮しながら書き込むため、サイズを指定していないデータ元はサイズ不明のヘッダにする
+                writer.putEntry(record, record.getSource() != null && record.getSource().size() < 0);
+                // 圧縮データの書き込みは圧縮中に計測する
+                compressor.compress(record, writer.entryStream());
+                start = System.nanoTime();
+            }
+            writer.closeEntry(record);
+            compressor.written(record, System.nanoTime() - start);
+        }
     }
 
 }
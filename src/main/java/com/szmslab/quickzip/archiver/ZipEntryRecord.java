@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.File;
+
+import net.lingala.zip4j.util.Zip4jConstants;
+
+import com.szmslab.quickzip.enums.EncryptionType;
+
+/**
+ * Zipエントリのヘッダ情報を保持するクラスです。
+ *
+ * @author szmslab
+ */
+class ZipEntryRecord {
+
+    /**
+     * 汎用フラグ：暗号化。
+     */
+    static final int FLAG_ENCRYPTED = 1;
+
+    /**
+     * 汎用フラグ：データディスクリプタ。
+     */
+    static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+
+    /**
+     * 汎用フラグ：UTF-8ファイル名。
+     */
+    static final int FLAG_UTF8 = 1 << 11;
+
+    /**
+     * エントリ名。
+     */
+    private String name;
+
+    /**
+     * エンコード済みのエントリ名。
+     */
+    private byte[] nameBytes;
+
+    /**
+     * 圧縮元のファイル。
+     */
+    private File sourceFile;
+
+    /**
+     * 圧縮元のデータ（ファイル以外から圧縮する場合）。
+     */
+    private EntrySource source;
+
+    /**
+     * ディレクトリかどうか。
+     */
+    private boolean directory;
+
+    /**
+     * 圧縮方式（{@link Zip4jConstants#COMP_STORE} または {@link Zip4jConstants#COMP_DEFLATE}）。
+     */
+    private int compressionMethod = Zip4jConstants.COMP_STORE;
+
+    /**
+     * 暗号化形式。
+     */
+    private EncryptionType encryptionType = EncryptionType.NO_ENCRYPTION;
+
+    /**
+     * 汎用フラグ。
+     */
+    private int flags;
+
+    /**
+     * 最終更新日時（DOS形式）。
+     */
+    private int dosTime;
+
+    /**
+     * CRC-32。
+     */
+    private long crc;
+
+    /**
+     * 圧縮後のサイズ（暗号化ヘッダ等を含む）。
+     */
+    private long compressedSize;
+
+    /**
+     * 圧縮前のサイズ。
+     */
+    private long uncompressedSize;
+
+    /**
+     * ローカルファイルヘッダのオフセット。
+     */
+    private long localHeaderOffset;
+
+    /**
+     * 外部ファイル属性。
+     */
+    private int externalAttributes;
+
+    /**
+     * ローカルファイルヘッダとデータディスクリプタがZIP64形式かどうか。
+     */
+    private boolean zip64;
+
+    /**
+     * CRC-32を計算した時点の圧縮元のファイルの最終更新日時。
+     */
+    private long sourceLastModified;
+
+    /**
+     * 圧縮中のエントリの計測値（計測しない場合はnull）。
+     */
+    private EntryMetrics metrics;
+
+    String getName() {
+        return name;
+    }
+
+    void setName(String name) {
+        this.name = name;
+    }
+
+    byte[] getNameBytes() {
+        return nameBytes;
+    }
+
+    void setNameBytes(byte[] nameBytes) {
+        this.nameBytes = nameBytes;
+    }
+
+    File getSourceFile() {
+        return sourceFile;
+    }
+
+    void setSourceFile(File sourceFile) {
+        this.sourceFile = sourceFile;
+    }
+
+    EntrySource getSource() {
+        return source;
+    }
+
+    void setSource(EntrySource source) {
+        this.source = source;
+    }
+
+    boolean isDirectory() {
+        return directory;
+    }
+
+    void setDirectory(boolean directory) {
+        this.directory = directory;
+    }
+
+    int getCompressionMethod() {
+        return compressionMethod;
+    }
+
+    void setCompressionMethod(int compressionMethod) {
+        this.compressionMethod = compressionMethod;
+    }
+
+    EncryptionType getEncryptionType() {
+        return encryptionType;
+    }
+
+    void setEncryptionType(EncryptionType encryptionType) {
+        this.encryptionType = encryptionType;
+    }
+
+    int getFlags() {
+        return flags;
+    }
+
+    void setFlags(int flags) {
+        this.flags = flags;
+    }
+
+    int getDosTime() {
+        return dosTime;
+    }
+
+    void setDosTime(int dosTime) {
+        this.dosTime = dosTime;
+    }
+
+    long getCrc() {
+        return crc;
+    }
+
+    void setCrc(long crc) {
+        this.crc = crc;
+    }
+
+    long getCompressedSize() {
+        return compressedSize;
+    }
+
+    void setCompressedSize(long compressedSize) {
+        this.compressedSize = compressedSize;
+    }
+
+    long getUncompressedSize() {
+        return uncompressedSize;
+    }
+
+    void setUncompressedSize(long uncompressedSize) {
+        this.uncompressedSize = uncompressedSize;
+    }
+
+    long getLocalHeaderOffset() {
+        return localHeaderOffset;
+    }
+
+    void setLocalHeaderOffset(long localHeaderOffset) {
+        this.localHeaderOffset = localHeaderOffset;
+    }
+
+    int getExternalAttributes() {
+        return externalAttributes;
+    }
+
+    void setExternalAttributes(int externalAttributes) {
+        this.externalAttributes = externalAttributes;
+    }
+
+    boolean isZip64() {
+        return zip64;
+    }
+
+    void setZip64(boolean zip64) {
+        this.zip64 = zip64;
+    }
+
+    long getSourceLastModified() {
+        return sourceLastModified;
+    }
+
+    void setSourceLastModified(long sourceLastModified) {
+        this.sourceLastModified = sourceLastModified;
+    }
+
+    EntryMetrics getMetrics() {
+        return metrics;
+    }
+
+    void setMetrics(EntryMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * AES暗号化されたエントリかどうかを取得します。
+     *
+     * @return AES暗号化されたエントリかどうか
+     */
+    boolean isAesEncrypted() {
+        return encryptionType == EncryptionType.AES_128 || encryptionType == EncryptionType.AES_256;
+    }
+
+    /**
+     * ヘッダに書き込む圧縮方式を取得します（AES暗号化の場合は99）。
+     *
+     * @return ヘッダに書き込む圧縮方式
+     */
+    int getHeaderMethod() {
+        return isAesEncrypted() ? Zip4jConstants.ENC_METHOD_AES : compressionMethod;
+    }
+
+    /**
+     * ヘッダに書き込むCRC-32を取得します（AE-2形式ではCRCを格納しない）。
+     *
+     * @return ヘッダに書き込むCRC-32
+     */
+    long getHeaderCrc() {
+        return isAesEncrypted() ? 0 : crc;
+    }
+
+    /**
+     * AES鍵長（zip4jの定数）を取得します。
+     *
+     * @return AES鍵長
+     */
+    int getAesStrength() {
+        return encryptionType == EncryptionType.AES_128
+            ? Zip4jConstants.AES_STRENGTH_128 : Zip4jConstants.AES_STRENGTH_256;
+    }
+
+}
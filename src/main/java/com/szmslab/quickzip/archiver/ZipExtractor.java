@@ -8,8 +8,12 @@ package com.szmslab.quickzip.archiver;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
 
-import net.lingala.zip4j.core.ZipFile;
 import net.lingala.zip4j.exception.ZipException;
 import net.lingala.zip4j.util.InternalZipConstants;
 import net.lingala.zip4j.util.Zip4jUtil;
@@ -31,6 +35,46 @@ public class ZipExtractor {
      */
     private boolean autoCreateDirectory = false;
 
+    /**
+     * 解凍の並列数。
+     */
+    private int parallelism = 1;
+
+    /**
+     * AESの鍵を先読みして導出するスレッド数（0の場合は展開時に導出する）。
+     */
+    private int keyDerivationParallelism = 0;
+
+    /**
+     * バッファとInflaterのプール。
+     */
+    private ResourcePool resourcePool;
+
+    /**
+     * セントラルディレクトリの索引のキャッシュ。
+     */
+    private ArchiveIndexCache indexCache;
+
+    /**
+     * 解凍するエントリのパターン（glob形式）。
+     */
+    private List<String> includes = new ArrayList<String>();
+
+    /**
+     * 解凍しないエントリのパターン（glob形式）。
+     */
+    private List<String> excludes = new ArrayList<String>();
+
+    /**
+     * 解凍するエントリのフィルタ。
+     */
+    private EntryFilter filter;
+
+    /**
+     * 計測値を受け取るリスナー。
+     */
+    private ZipMetricsListener metricsListener;
+
     /**
      * コンストラクタ
      */
@@ -84,6 +128,210 @@ public class ZipExtractor {
         return this;
     }
 
+    /**
+     * 解凍の並列数を取得します。
+     *
+     * @return 解凍の並列数
+     */
+    public int parallelism() {
+        return parallelism;
+    }
+
+    /**
+     * 解凍の並列数を設定します。
+     * <p>
+     * 2以上を指定すると、セントラルディレクトリを一度だけ読み込み、エントリ毎に複数のスレッドで並列に解凍します。
+     * </p>
+     *
+     * @param parallelism
+     *            解凍の並列数
+     * @return 自身のインスタンス
+     */
+    public ZipExtractor parallelism(int parallelism) {
+        if (parallelism > 0) {
+            this.parallelism = parallelism;
+        }
+        return this;
+    }
+
+    /**
+     * AESの鍵を先読みして導出するスレッド数を取得します。
+     *
+     * @return AESの鍵を先読みして導出するスレッド数
+     */
+    public int keyDerivationParallelism() {
+        return keyDerivationParallelism;
+    }
+
+    /**
+     * AESの鍵を先読みして導出するスレッド数を設定します。
+     * <p>
+     * 1以上の場合、AESで暗号化されたエントリのソルトを先読みし、鍵（PBKDF2）を指定したスレッド数で展開に先行して導出します。
+     * 設定に関わらず、導出した鍵は解凍の間パスワードとソルトの組み合わせ毎にキャッシュします。
+     * </p>
+     *
+     * @param keyDerivationParallelism
+     *            AESの鍵を先読みして導出するスレッド数（0の場合は展開時に導出する）
+     * @return 自身のインスタンス
+     */
+    public ZipExtractor keyDerivationParallelism(int keyDerivationParallelism) {
+        if (keyDerivationParallelism >= 0) {
+            this.keyDerivationParallelism = keyDerivationParallelism;
+        }
+        return this;
+    }
+
+    /**
+     * バッファとInflaterのプールを取得します。
+     *
+     * @return バッファとInflaterのプール
+     */
+    public ResourcePool resourcePool() {
+        return resourcePool;
+    }
+
+    /**
+     * バッファとInflaterのプールを設定します。
+     * <p>
+     * 複数のインスタンスで同じプールを共有すると、解凍の度にバッファやInflaterを確保せずに再利用します。
+     * 未設定の場合は、解凍毎にプールを生成して終了時に破棄します。
+     * </p>
+     *
+     * @param resourcePool
+     *            バッファとInflaterのプール
+     * @return 自身のインスタンス
+     */
+    public ZipExtractor resourcePool(ResourcePool resourcePool) {
+        this.resourcePool = resourcePool;
+        return this;
+    }
+
+    /**
+     * セントラルディレクトリの索引のキャッシュを取得します。
+     *
+     * @return セントラルディレクトリの索引のキャッシュ
+     */
+    public ArchiveIndexCache indexCache() {
+        return indexCache;
+    }
+
+    /**
+     * セントラルディレクトリの索引のキャッシュを設定します。
+     * <p>
+     * 同じZipファイルを繰り返し解凍・参照する場合に、複数のインスタンスで同じキャッシュを共有すると、
+     * セントラルディレクトリの読み込みと解析を省略します。
+     * </p>
+     *
+     * @param indexCache
+     *            セントラルディレクトリの索引のキャッシュ
+     * @return 自身のインスタンス
+     */
+    public ZipExtractor indexCache(ArchiveIndexCache indexCache) {
+        this.indexCache = indexCache;
+        return this;
+    }
+
+    /**
+     * 解凍するエントリのパターンを取得します。
+     *
+     * @return 解凍するエントリのパターン（glob形式）
+     */
+    public List<String> includes() {
+        return Collections.unmodifiableList(includes);
+    }
+
+    /**
+     * 解凍するエントリのパターンを設定します。
+     * <p>
+     * いずれかのパターンに一致するエントリだけを解凍します（未指定の場合はすべて）。
+     * パターンはエントリ名全体と照合し、"*" は"/"以外の0文字以上、"**" は"/"を含む0文字以上、
+     * "**&#47;" は0階層以上のディレクトリに一致します（例："**&#47;*.json"）。
+     * 選択はセントラルディレクトリに対して行い、選択されなかったエントリのデータは読み込みません。
+     * </p>
+     *
+     * @param patterns
+     *            解凍するエントリのパターン（glob形式）
+     * @return 自身のインスタンス
+     */
+    public ZipExtractor includes(String... patterns) {
+        this.includes = toList(patterns);
+        return this;
+    }
+
+    /**
+     * 解凍しないエントリのパターンを取得します。
+     *
+     * @return 解凍しないエントリのパターン（glob形式）
+     */
+    public List<String> excludes() {
+        return Collections.unmodifiableList(excludes);
+    }
+
+    /**
+     * 解凍しないエントリのパターンを設定します。
+     * <p>
+     * {@link #includes(String...)} に一致しても、いずれかのパターンに一致するエントリは解凍しません。
+     * </p>
+     *
+     * @param patterns
+     *            解凍しないエントリのパターン（glob形式）
+     * @return 自身のインスタンス
+     */
+    public ZipExtractor excludes(String... patterns) {
+        this.excludes = toList(patterns);
+        return this;
+    }
+
+    /**
+     * 解凍するエントリのフィルタを取得します。
+     *
+     * @return 解凍するエントリのフィルタ
+     */
+    public EntryFilter filter() {
+        return filter;
+    }
+
+    /**
+     * 解凍するエントリのフィルタを設定します。
+     * <p>
+     * パターンによる選択に加えて、フィルタが受け入れたエントリだけを解凍します。
+     * </p>
+     *
+     * @param filter
+     *            解凍するエントリのフィルタ
+     * @return 自身のインスタンス
+     */
+    public ZipExtractor filter(EntryFilter filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * 計測値を受け取るリスナーを取得します。
+     *
+     * @return 計測値を受け取るリスナー
+     */
+    public ZipMetricsListener metricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * 計測値を受け取るリスナーを設定します。
+     * <p>
+     * 解凍したエントリ毎に、圧縮前後のサイズと、読み込み・展開・復号・書き込みにかかった時間を通知し、
+     * 完了時にZipファイル全体の合計とスループットを通知します。
+     * リスナーを設定せず、JDK Flight Recorderで記録していない場合は計測を行いません。
+     * </p>
+     *
+     * @param metricsListener
+     *            計測値を受け取るリスナー（計測しない場合はnull）
+     * @return 自身のインスタンス
+     */
+    public ZipExtractor metricsListener(ZipMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+        return this;
+    }
+
     /**
      * 対象のファイルをZip形式で解凍します。
      *
@@ -145,6 +393,72 @@ public class ZipExtractor {
      * @throws ZipException
      */
     public File execute(File directory, File zipFile, String password) throws IOException, ZipException {
+        return execute(directory, zipFile, password, null);
+    }
+
+    /**
+     * 対象のファイルをZip形式で非同期に解凍します。
+     *
+     * @param executor
+     *            解凍を実行するスレッドプール
+     * @param directory
+     *            解凍先のディレクトリ
+     * @param zipFile
+     *            解凍元のZipファイル
+     * @return 解凍先のディレクトリを結果とするZipFuture
+     * @see #executeAsync(Executor, File, File, String)
+     */
+    public ZipFuture executeAsync(Executor executor, File directory, File zipFile) {
+        return executeAsync(executor, directory, zipFile, null);
+    }
+
+    /**
+     * 対象のファイルをZip形式で非同期に解凍します。
+     * <p>
+     * 解凍は指定したスレッドプールで実行し、呼び出し元のスレッドは待機しません。
+     * 結果の {@link ZipFuture#progress()} で進捗を参照でき、{@link ZipFuture#cancel(boolean)} でキャンセルできます。
+     * 失敗またはキャンセルした場合は、書き込み途中のファイルを削除します（書き込みを終えたファイルは残ります）。
+     * 実行中はこのインスタンスの設定を変更しないでください。
+     * </p>
+     *
+     * @param executor
+     *            解凍を実行するスレッドプール
+     * @param directory
+     *            解凍先のディレクトリ
+     * @param zipFile
+     *            解凍元のZipファイル
+     * @param password
+     *            パスワード
+     * @return 解凍先のディレクトリを結果とするZipFuture
+     */
+    public ZipFuture executeAsync(Executor executor, final File directory, final File zipFile,
+            final String password) {
+        return new ZipFuture().start(executor, new ZipFuture.Task() {
+            public File call(ZipProgress progress) throws IOException, ZipException {
+                File result = execute(directory, zipFile, password, progress);
+                progress.check();
+                return result;
+            }
+        });
+    }
+
+    /**
+     * 対象のファイルをZip形式で解凍し、進捗を更新します。
+     *
+     * @param directory
+     *            解凍先のディレクトリ
+     * @param zipFile
+     *            解凍元のZipファイル
+     * @param password
+     *            パスワード
+     * @param progress
+     *            進捗（同期実行の場合はnull）
+     * @return 解凍先のディレクトリ
+     * @throws IOException
+     * @throws ZipException
+     */
+    private File execute(File directory, File zipFile, String password, ZipProgress progress)
+            throws IOException, ZipException {
         // 解凍先のディレクトリの配下に、解凍元のZipファイル名と同じ名前のディレクトリを設定
         if (autoCreateDirectory) {
             String path = directory.getPath();
@@ -158,14 +472,182 @@ public class ZipExtractor {
         Zip4jUtil.checkOutputFolder(directory.getPath());
 
         // Zip解凍
-        ZipFile zip = new ZipFile(zipFile);
-        zip.setFileNameCharset(encoding);
-        if (zip.isEncrypted() && Zip4jUtil.isStringNotNullAndNotEmpty(password)) {
-            zip.setPassword(password);
+        EntryMatcher matcher = createMatcher();
+        ResourcePool pool = resourcePool != null ? resourcePool : new ResourcePool();
+        ZipArchiveReader reader = new ZipArchiveReader(zipFile, encoding, pool);
+        AesKeyCache keys = new AesKeyCache(keyDerivationParallelism);
+        reader.setKeyCache(keys);
+        ZipMetrics metrics = ZipMetrics.create(metricsListener, true);
+        try {
+            CentralDirectoryIndex index = readIndex(zipFile, reader);
+            new ParallelZipExtractor(parallelism, matcher, progress, metrics)
+                .extract(reader, index.records(), directory, password);
+            if (metrics != null) {
+                metrics.archiveCompleted(zipFile);
+            }
+        } finally {
+            keys.close();
+            try {
+                reader.close();
+            } finally {
+                if (pool != resourcePool) {
+                    pool.clear();
+                }
+            }
         }
-        zip.extractAll(directory.getCanonicalPath());
 
         return directory;
     }
 
+    /**
+     * Zipファイルのストリームを解凍します。
+     *
+     * @param directory
+     *            解凍先のディレクトリ
+     * @param in
+     *            解凍元のZipファイルのストリーム
+     * @return 解凍先のディレクトリ
+     * @throws IOException
+     * @throws ZipException
+     * @see #execute(File, InputStream, String)
+     */
+    public File execute(File directory, InputStream in) throws IOException, ZipException {
+        return execute(directory, in, null);
+    }
+
+    /**
+     * Zipファイルのストリームを解凍します。
+     * <p>
+     * セントラルディレクトリを使わずにローカルファイルヘッダを先頭から順にたどり、エントリを受信した順に書き込みます。
+     * ソケットなどのシークできないストリームから、一時ファイルを作成せずに解凍できます。
+     * ストリームは閉じません。また、解凍元のファイル名がないため {@link #autoCreateDirectory(boolean)} は無視します。
+     * </p>
+     * <p>
+     * データディスクリプタ付きでサイズが格納されていないエントリは、シグネチャ付きのデータディスクリプタで終端を判定します。
+     * ローカルファイルヘッダには属性がないため、読み取り専用属性は復元しません。
+     * </p>
+     *
+     * @param directory
+     *            解凍先のディレクトリ
+     * @param in
+     *            解凍元のZipファイルのストリーム
+     * @param password
+     *            パスワード
+     * @return 解凍先のディレクトリ
+     * @throws IOException
+     * @throws ZipException
+     */
+    public File execute(File directory, InputStream in, String password) throws IOException, ZipException {
+        if (in == null) {
+            throw new ZipException("input stream is null");
+        }
+
+        // 出力先ディレクトリチェック（存在しなければ作成する）
+        Zip4jUtil.checkOutputFolder(directory.getPath());
+
+        // Zip解凍
+        ResourcePool pool = resourcePool != null ? resourcePool : new ResourcePool();
+        ZipMetrics metrics = ZipMetrics.create(metricsListener, true);
+        try {
+            new ParallelZipExtractor(parallelism, createMatcher(), null, metrics)
+                .extract(new ZipStreamReader(in, encoding, pool), directory, password);
+            if (metrics != null) {
+                metrics.archiveCompleted(null);
+            }
+        } finally {
+            if (pool != resourcePool) {
+                pool.clear();
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * 対象のZipファイルを開き、エントリを個別に読み込めるようにします。
+     * <p>
+     * 大きなZipファイルから一部のエントリだけを読み込む場合に、全体を解凍せずに済みます。
+     * 使用後は {@link ZipArchive#close()} で閉じる必要があります。
+     * </p>
+     *
+     * @param zipFile
+     *            Zipファイル
+     * @return 開いたZipファイル
+     * @throws IOException
+     * @throws ZipException
+     */
+    public ZipArchive open(File zipFile) throws IOException, ZipException {
+        if (!Zip4jUtil.checkFileExists(zipFile)) {
+            throw new ZipException("zip file does not exist: " + zipFile);
+        }
+        ResourcePool pool = resourcePool != null ? resourcePool : new ResourcePool();
+        ZipArchiveReader reader = new ZipArchiveReader(zipFile, encoding, pool);
+        boolean opened = false;
+        try {
+            CentralDirectoryIndex index = readIndex(zipFile, reader);
+            ZipArchive archive = new ZipArchive(reader, index, pool != resourcePool);
+            opened = true;
+            return archive;
+        } finally {
+            if (!opened) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * セントラルディレクトリの索引を取得します（キャッシュを設定している場合はキャッシュから取得します）。
+     *
+     * @param zipFile
+     *            Zipファイル
+     * @param reader
+     *            Zipファイルの読み込み
+     * @return セントラルディレクトリの索引
+     * @throws IOException
+     * @throws ZipException
+     */
+    private CentralDirectoryIndex readIndex(File zipFile, ZipArchiveReader reader) throws IOException, ZipException {
+        if (indexCache != null) {
+            CentralDirectoryIndex index = indexCache.get(zipFile, encoding);
+            if (index != null) {
+                return index;
+            }
+        }
+        CentralDirectoryIndex index = new CentralDirectoryIndex(reader.readEntries());
+        if (indexCache != null) {
+            indexCache.put(zipFile, encoding, index);
+        }
+        return index;
+    }
+
+    /**
+     * 解凍するエントリの選択を生成します。
+     *
+     * @return 解凍するエントリの選択
+     */
+    private EntryMatcher createMatcher() {
+        if (includes.isEmpty() && excludes.isEmpty() && filter == null) {
+            return EntryMatcher.ALL;
+        }
+        return new EntryMatcher(includes, excludes, filter);
+    }
+
+    /**
+     * パターンの配列をリストに変換します（空のパターンは除きます）。
+     *
+     * @param patterns
+     *            パターン
+     * @return パターンのリスト
+     */
+    static List<String> toList(String... patterns) {
+        List<String> list = new ArrayList<String>();
+        if (patterns != null) {
+            for (String pattern : patterns) {
+                if (Zip4jUtil.isStringNotNullAndNotEmpty(pattern)) {
+                    list.add(pattern);
+                }
+            }
+        }
+        return list;
+    }
+
 }
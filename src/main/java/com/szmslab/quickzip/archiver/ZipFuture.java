@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import net.lingala.zip4j.exception.ZipException;
+
+/**
+ * 非同期の圧縮・解凍の結果です。
+ * <p>
+ * 呼び出し元が指定したスレッドプール（仮想スレッドのExecutorも可）で実行し、
+ * 完了すると圧縮先のZipファイル、または解凍先のディレクトリを結果とします。
+ * {@link #cancel(boolean)} でキャンセルすると、処理中のエントリの読み込み・書き込みを打ち切り、書き込み途中の出力を削除します。
+ * 削除の完了は {@link ZipProgress#await()} で待機できます。
+ * </p>
+ *
+ * @author szmslab
+ * @see ZipCompressor#executeAsync(Executor, File, File...)
+ * @see ZipExtractor#executeAsync(Executor, File, File)
+ */
+public class ZipFuture extends CompletableFuture<File> {
+
+    /**
+     * 進捗。
+     */
+    private final ZipProgress progress = new ZipProgress();
+
+    /**
+     * 実行中のスレッド（実行中でない場合はnull）。
+     */
+    private Thread runner;
+
+    /**
+     * コンストラクタです。
+     */
+    ZipFuture() {
+    }
+
+    /**
+     * 進捗を取得します。
+     *
+     * @return 進捗
+     */
+    public ZipProgress progress() {
+        return progress;
+    }
+
+    /**
+     * 処理をキャンセルします。
+     * <p>
+     * 処理中のエントリはバッファ単位の読み込み・書き込みの区切りで打ち切ります。
+     * mayInterruptIfRunningがtrueの場合は、実行中のスレッドに割り込み、ファイルの入出力の待機も打ち切ります。
+     * </p>
+     *
+     * @param mayInterruptIfRunning
+     *            実行中のスレッドに割り込むかどうか
+     * @return キャンセルした場合はtrue
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        progress.cancel();
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (mayInterruptIfRunning) {
+            synchronized (this) {
+                if (runner != null) {
+                    runner.interrupt();
+                }
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * 処理をスレッドプールで開始します。
+     *
+     * @param executor
+     *            処理を実行するスレッドプール
+     * @param task
+     *            処理
+     * @return 自身のインスタンス
+     */
+    ZipFuture start(Executor executor, final Task task) {
+        if (executor == null) {
+            completeExceptionally(new ZipException("executor is null"));
+            progress.finish();
+            return this;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    ZipFuture.this.run(task);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            completeExceptionally(e);
+            progress.finish();
+        }
+        return this;
+    }
+
+    /**
+     * 処理を実行し、結果を設定します。
+     *
+     * @param task
+     *            処理
+     */
+    private void run(Task task) {
+        if (isDone()) {
+            // 開始前にキャンセルされた
+            progress.finish();
+            return;
+        }
+        synchronized (this) {
+            runner = Thread.currentThread();
+        }
+        File result = null;
+        Throwable failure = null;
+        try {
+            result = task.call(progress);
+        } catch (Throwable e) {
+            failure = e;
+        } finally {
+            synchronized (this) {
+                runner = null;
+            }
+            // キャンセル時の割り込みをスレッドプールのスレッドに残さない
+            Thread.interrupted();
+            // 結果を受け取った時点で進捗も終了しているよう、先に終了を通知する
+            progress.finish();
+        }
+        if (failure != null) {
+            completeExceptionally(failure);
+        } else {
+            complete(result);
+        }
+    }
+
+    /**
+     * 非同期に実行する圧縮・解凍の処理です。
+     */
+    interface Task {
+
+        /**
+         * 処理を実行します。
+         * <p>
+         * 失敗またはキャンセルされた場合は、書き込み途中の出力を削除してから例外をスローします。
+         * </p>
+         *
+         * @param progress
+         *            進捗
+         * @return 圧縮先のZipファイル、または解凍先のディレクトリ
+         * @throws IOException
+         * @throws ZipException
+         */
+        File call(ZipProgress progress) throws IOException, ZipException;
+
+    }
+
+}
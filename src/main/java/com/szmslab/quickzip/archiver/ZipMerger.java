@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.lingala.zip4j.exception.ZipException;
+import net.lingala.zip4j.util.InternalZipConstants;
+import net.lingala.zip4j.util.Zip4jUtil;
+
+/**
+ * 複数のZipファイルのエントリを、展開・再圧縮せずに1つのZipファイルにまとめるクラスです。
+ * <p>
+ * 選択したエントリの圧縮済み（暗号化されている場合は暗号化済み）のデータをそのままコピーし、
+ * ヘッダとセントラルディレクトリのみを書き直します。
+ * 暗号化されたエントリは元のパスワードのまま格納されます。
+ * 同じ名前のエントリが複数のZipファイルにある場合は、後に指定したZipファイルのエントリを格納します。
+ * 1つのZipファイルを指定して、エントリを選択した新しいZipファイルを作成することもできます。
+ * </p>
+ *
+ * @author szmslab
+ */
+public class ZipMerger {
+
+    /**
+     * ファイル名のエンコーディング。
+     */
+    private String encoding = InternalZipConstants.CHARSET_DEFAULT;
+
+    /**
+     * バッファのプール。
+     */
+    private ResourcePool resourcePool;
+
+    /**
+     * 格納するエントリのパターン（glob形式）。
+     */
+    private List<String> includes = new ArrayList<String>();
+
+    /**
+     * 格納しないエントリのパターン（glob形式）。
+     */
+    private List<String> excludes = new ArrayList<String>();
+
+    /**
+     * 格納するエントリのフィルタ。
+     */
+    private EntryFilter filter;
+
+    /**
+     * コンストラクタです。
+     */
+    public ZipMerger() {
+        if (Zip4jUtil.isWindows()) {
+            encoding("Windows-31J");
+        }
+    }
+
+    /**
+     * ファイル名のエンコーディングを取得します。
+     *
+     * @return ファイル名のエンコーディング
+     */
+    public String encoding() {
+        return encoding;
+    }
+
+    /**
+     * ファイル名のエンコーディングを設定します。
+     * <p>
+     * エントリ名の選択に使用します。エントリ名はエンコード済みのまま格納します。
+     * </p>
+     *
+     * @param encoding
+     *            ファイル名のエンコーディング
+     * @return 自身のインスタンス
+     */
+    public ZipMerger encoding(String encoding) {
+        if (Zip4jUtil.isStringNotNullAndNotEmpty(encoding)) {
+            this.encoding = encoding;
+        }
+        return this;
+    }
+
+    /**
+     * バッファのプールを取得します。
+     *
+     * @return バッファのプール
+     */
+    public ResourcePool resourcePool() {
+        return resourcePool;
+    }
+
+    /**
+     * バッファのプールを設定します。
+     *
+     * @param resourcePool
+     *            バッファのプール
+     * @return 自身のインスタンス
+     */
+    public ZipMerger resourcePool(ResourcePool resourcePool) {
+        this.resourcePool = resourcePool;
+        return this;
+    }
+
+    /**
+     * 格納するエントリのパターンを取得します。
+     *
+     * @return 格納するエントリのパターン（glob形式）
+     */
+    public List<String> includes() {
+        return Collections.unmodifiableList(includes);
+    }
+
+    /**
+     * 格納するエントリのパターンを設定します。
+     * <p>
+     * いずれかのパターンに一致するエントリだけを格納します（未指定の場合はすべて）。
+     * パターンの形式は {@link ZipExtractor#includes(String...)} と同じです。
+     * </p>
+     *
+     * @param patterns
+     *            格納するエントリのパターン（glob形式）
+     * @return 自身のインスタンス
+     */
+    public ZipMerger includes(String... patterns) {
+        this.includes = ZipExtractor.toList(patterns);
+        return this;
+    }
+
+    /**
+     * 格納しないエントリのパターンを取得します。
+     *
+     * @return 格納しないエントリのパターン（glob形式）
+     */
+    public List<String> excludes() {
+        return Collections.unmodifiableList(excludes);
+    }
+
+    /**
+     * 格納しないエントリのパターンを設定します。
+     *
+     * @param patterns
+     *            格納しないエントリのパターン（glob形式）
+     * @return 自身のインスタンス
+     */
+    public ZipMerger excludes(String... patterns) {
+        this.excludes = ZipExtractor.toList(patterns);
+        return this;
+    }
+
+    /**
+     * 格納するエントリのフィルタを取得します。
+     *
+     * @return 格納するエントリのフィルタ
+     */
+    public EntryFilter filter() {
+        return filter;
+    }
+
+    /**
+     * 格納するエントリのフィルタを設定します。
+     *
+     * @param filter
+     *            格納するエントリのフィルタ
+     * @return 自身のインスタンス
+     */
+    public ZipMerger filter(EntryFilter filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * 対象のZipファイルのエントリを1つのZipファイルにまとめます。
+     * <p>
+     * 出力先がファイルの場合、エントリデータはファイルチャネル間で直接転送します。
+     * 一時ファイルに書き込んでから出力先と置き換えるため、失敗した場合も既存の出力先のファイルは残ります
+     * （出力先と同じZipファイルを対象に含めることもできます）。
+     * </p>
+     *
+     * @param zipFile
+     *            出力先のZipファイル
+     * @param archives
+     *            対象のZipファイル
+     * @return 出力先のZipファイル
+     * @throws IOException
+     * @throws ZipException
+     */
+    public File execute(File zipFile, File... archives) throws IOException, ZipException {
+        checkArchives(archives);
+        // 出力先ディレクトリチェック（存在しなければ作成する）
+        Zip4jUtil.checkOutputFolder(zipFile.getParent());
+
+        File target = File.createTempFile(zipFile.getName(), ".tmp", zipFile.getAbsoluteFile().getParentFile());
+        boolean completed = false;
+        try {
+            ResourcePool pool = acquirePool();
+            try {
+                merge(new ZipArchiveWriter(new FileOutputStream(target), pool, true), pool, archives);
+            } finally {
+                releasePool(pool);
+            }
+            Files.move(target.toPath(), zipFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            completed = true;
+        } finally {
+            if (!completed) {
+                target.delete();
+            }
+        }
+        return zipFile;
+    }
+
+    /**
+     * 対象のZipファイルのエントリを1つのZipファイルにまとめ、出力ストリームに書き込みます。
+     * <p>
+     * 出力ストリームは閉じません。
+     * </p>
+     *
+     * @param out
+     *            出力先の出力ストリーム
+     * @param archives
+     *            対象のZipファイル
+     * @throws IOException
+     * @throws ZipException
+     */
+    public void execute(OutputStream out, File... archives) throws IOException, ZipException {
+        if (out == null) {
+            throw new ZipException("output stream is null");
+        }
+        checkArchives(archives);
+        ResourcePool pool = acquirePool();
+        try {
+            merge(new ZipArchiveWriter(out, pool, false), pool, archives);
+        } finally {
+            releasePool(pool);
+        }
+    }
+
+    /**
+     * 対象のZipファイルのエントリをコピーしてZipファイルを書き込み、書き込み先を閉じます。
+     *
+     * @param writer
+     *            Zipファイルの書き込み
+     * @param pool
+     *            バッファのプール
+     * @param archives
+     *            対象のZipファイル
+     * @throws IOException
+     * @throws ZipException
+     */
+    private void merge(ZipArchiveWriter writer, ResourcePool pool, File[] archives)
+            throws IOException, ZipException {
+        EntryMatcher matcher = includes.isEmpty() && excludes.isEmpty() && filter == null
+            ? EntryMatcher.ALL : new EntryMatcher(includes, excludes, filter);
+        List<ZipArchiveReader> readers = new ArrayList<ZipArchiveReader>();
+        try {
+            // 同じ名前のエントリは後のZipファイルのもので置き換える（格納位置は最初に現れた位置）
+            Map<String, ZipEntryRecord> entries = new LinkedHashMap<String, ZipEntryRecord>();
+            Map<String, ZipArchiveReader> sources = new HashMap<String, ZipArchiveReader>();
+            for (File archive : archives) {
+                ZipArchiveReader reader = new ZipArchiveReader(archive, encoding, pool);
+                readers.add(reader);
+                for (ZipEntryRecord record : reader.readEntries()) {
+                    if (matcher.matches(record.getName())) {
+                        String key = CentralDirectoryIndex.normalize(record.getName());
+                        entries.put(key, record);
+                        sources.put(key, reader);
+                    }
+                }
+            }
+            for (Map.Entry<String, ZipEntryRecord> entry : entries.entrySet()) {
+                writer.copyEntry(sources.get(entry.getKey()), entry.getValue());
+            }
+            writer.finish();
+        } finally {
+            try {
+                writer.close();
+            } finally {
+                for (ZipArchiveReader reader : readers) {
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 対象のZipファイルが存在することを確認します。
+     *
+     * @param archives
+     *            対象のZipファイル
+     * @throws ZipException
+     */
+    private static void checkArchives(File[] archives) throws ZipException {
+        for (File archive : archives) {
+            if (!Zip4jUtil.checkFileExists(archive)) {
+                throw new ZipException("zip file does not exist: " + archive);
+            }
+        }
+    }
+
+    /**
+     * バッファのプールを取得します（未設定の場合は生成します）。
+     *
+     * @return バッファのプール
+     */
+    private ResourcePool acquirePool() {
+        return resourcePool != null ? resourcePool : new ResourcePool();
+    }
+
+    /**
+     * {@link #acquirePool()} で生成したプールを破棄します。
+     *
+     * @param pool
+     *            バッファのプール
+     */
+    private void releasePool(ResourcePool pool) {
+        if (pool != resourcePool) {
+            pool.clear();
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 1回の圧縮・解凍の計測値を集計し、リスナーとJDK Flight Recorderに通知するクラスです。
+ * <p>
+ * リスナーが未設定で、かつFlight Recorderで記録中でない場合は生成しません（計測を行いません）。
+ * Flight Recorderのイベントは、実行中のJVMで利用できる場合のみ使用します。
+ * </p>
+ *
+ * @author szmslab
+ */
+class ZipMetrics {
+
+    /**
+     * JDK Flight Recorderを利用できるかどうか。
+     */
+    private static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+    /**
+     * リスナー（未設定の場合はnull）。
+     */
+    private final ZipMetricsListener listener;
+
+    /**
+     * Flight Recorderのイベントを記録するかどうか。
+     */
+    private final boolean jfr;
+
+    /**
+     * 解凍かどうか。
+     */
+    private final boolean extraction;
+
+    /**
+     * 開始時刻。
+     */
+    private final long start = System.nanoTime();
+
+    /**
+     * エントリ数。
+     */
+    private final AtomicLong entries = new AtomicLong();
+
+    /**
+     * 読み込んだバイト数。
+     */
+    private final AtomicLong bytesIn = new AtomicLong();
+
+    /**
+     * 書き込んだバイト数。
+     */
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    /**
+     * 圧縮後のサイズの合計。
+     */
+    private final AtomicLong compressedSize = new AtomicLong();
+
+    /**
+     * 圧縮前のサイズの合計。
+     */
+    private final AtomicLong uncompressedSize = new AtomicLong();
+
+    /**
+     * 区分毎の時間の合計。
+     */
+    private final AtomicLongArray nanos = new AtomicLongArray(4);
+
+    private ZipMetrics(ZipMetricsListener listener, boolean jfr, boolean extraction) {
+        this.listener = listener;
+        this.jfr = jfr;
+        this.extraction = extraction;
+    }
+
+    /**
+     * 計測が必要な場合に集計を開始します。
+     *
+     * @param listener
+     *            リスナー（未設定の場合はnull）
+     * @param extraction
+     *            解凍かどうか
+     * @return 集計（計測しない場合はnull）
+     */
+    static ZipMetrics create(ZipMetricsListener listener, boolean extraction) {
+        boolean jfr = JFR_AVAILABLE && JfrEvents.isEnabled();
+        if (listener == null && !jfr) {
+            return null;
+        }
+        return new ZipMetrics(listener, jfr, extraction);
+    }
+
+    /**
+     * エントリの計測を開始します。
+     *
+     * @param record
+     *            Zipエントリのヘッダ情報
+     * @return エントリの計測値
+     */
+    EntryMetrics start(ZipEntryRecord record) {
+        return new EntryMetrics(record.getName());
+    }
+
+    /**
+     * エントリの計測を終了し、集計して通知します。
+     *
+     * @param metrics
+     *            エントリの計測値
+     * @param record
+     *            Zipエントリのヘッダ情報（サイズ設定済み）
+     */
+    void entryCompleted(EntryMetrics metrics, ZipEntryRecord record) {
+        metrics.stop();
+        long compressed = record.isDirectory() ? 0 : record.getCompressedSize();
+        long uncompressed = record.isDirectory() ? 0 : record.getUncompressedSize();
+        if (extraction) {
+            metrics.setBytes(compressed, uncompressed, compressed, uncompressed);
+        } else {
+            metrics.setBytes(uncompressed, compressed, compressed, uncompressed);
+        }
+        entries.incrementAndGet();
+        bytesIn.addAndGet(metrics.bytesIn());
+        bytesOut.addAndGet(metrics.bytesOut());
+        compressedSize.addAndGet(compressed);
+        uncompressedSize.addAndGet(uncompressed);
+        nanos.addAndGet(EntryMetrics.READ, metrics.readNanos());
+        nanos.addAndGet(EntryMetrics.COMPRESS, metrics.compressNanos());
+        nanos.addAndGet(EntryMetrics.ENCRYPT, metrics.encryptNanos());
+        nanos.addAndGet(EntryMetrics.WRITE, metrics.writeNanos());
+        if (jfr) {
+            JfrEvents.entry(metrics, extraction);
+        }
+        if (listener != null) {
+            listener.entryCompleted(metrics);
+        }
+    }
+
+    /**
+     * Zipファイル全体の計測を終了し、通知します。
+     *
+     * @param file
+     *            Zipファイル（ストリームの場合はnull）
+     */
+    void archiveCompleted(File file) {
+        long uncompressed = uncompressedSize.get();
+        ArchiveMetrics metrics = new ArchiveMetrics(file, extraction, entries.get(), bytesIn.get(), bytesOut.get(),
+            uncompressed > 0 ? (double) compressedSize.get() / uncompressed : 1,
+            new long[] { nanos.get(0), nanos.get(1), nanos.get(2), nanos.get(3) }, System.nanoTime() - start);
+        if (jfr) {
+            JfrEvents.archive(metrics);
+        }
+        if (listener != null) {
+            listener.archiveCompleted(metrics);
+        }
+    }
+
+    /**
+     * JDK Flight Recorderを利用できるかどうかを判定します。
+     *
+     * @return 利用できる場合はtrue
+     */
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+}
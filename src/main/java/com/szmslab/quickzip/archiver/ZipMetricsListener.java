@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+/**
+ * 圧縮・解凍の計測値を受け取るリスナーです。
+ * <p>
+ * エントリ毎の計測値は、そのエントリの書き込みを終えたスレッドから通知します。
+ * 並列に解凍する場合は、複数のスレッドから同時に呼び出されることがあります。
+ * </p>
+ *
+ * @author szmslab
+ * @see ZipCompressor#metricsListener(ZipMetricsListener)
+ * @see ZipExtractor#metricsListener(ZipMetricsListener)
+ */
+public interface ZipMetricsListener {
+
+    /**
+     * エントリの圧縮・解凍が完了した際に呼び出されます。
+     *
+     * @param metrics
+     *            エントリの計測値
+     */
+    void entryCompleted(EntryMetrics metrics);
+
+    /**
+     * Zipファイル全体の圧縮・解凍が完了した際に呼び出されます（失敗した場合は呼び出されません）。
+     *
+     * @param metrics
+     *            Zipファイル全体の計測値
+     */
+    void archiveCompleted(ArchiveMetrics metrics);
+
+}
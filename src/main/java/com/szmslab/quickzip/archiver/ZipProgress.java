@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 非同期の圧縮・解凍、または進捗のリスナーを設定した圧縮の進捗を保持するクラスです。
+ * <p>
+ * 処理中のスレッドが更新するため、任意のスレッドから参照できます。
+ * 圧縮では読み込んだ圧縮元のバイト数、解凍では書き込んだ展開後のバイト数を集計します。
+ * </p>
+ *
+ * @author szmslab
+ * @see ZipFuture#progress()
+ * @see ZipProgressListener
+ */
+public class ZipProgress {
+
+    /**
+     * 処理したエントリ数。
+     */
+    private final AtomicLong entries = new AtomicLong();
+
+    /**
+     * 処理したバイト数。
+     */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * 処理するバイト数の合計（不明な場合は-1）。
+     */
+    private volatile long totalBytes = -1;
+
+    /**
+     * キャンセルされたかどうか。
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * 処理の終了を待つためのラッチ。
+     */
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    /**
+     * 開始時刻。
+     */
+    private final long start = System.nanoTime();
+
+    /**
+     * 進捗を受け取るリスナー（未設定の場合はnull）。
+     */
+    private volatile ZipProgressListener listener;
+
+    /**
+     * リスナーを呼び出す間隔（ナノ秒）。
+     */
+    private volatile long intervalNanos;
+
+    /**
+     * 最後にリスナーを呼び出した時刻。
+     */
+    private final AtomicLong notified = new AtomicLong(start);
+
+    /**
+     * 処理したエントリ数を取得します。
+     *
+     * @return 処理したエントリ数
+     */
+    public long entries() {
+        return entries.get();
+    }
+
+    /**
+     * 処理したバイト数を取得します。
+     *
+     * @return 処理したバイト数
+     */
+    public long bytes() {
+        return bytes.get();
+    }
+
+    /**
+     * 処理するバイト数の合計を取得します。
+     * <p>
+     * ディレクトリを走査しながら圧縮する場合など、事前にわからない場合は-1を返します。
+     * </p>
+     *
+     * @return 処理するバイト数の合計（不明な場合は-1）
+     */
+    public long totalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * 開始からの経過時間を取得します。
+     *
+     * @return 経過時間（ミリ秒）
+     */
+    public long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * 開始からの平均の処理速度を取得します。
+     *
+     * @return 1秒あたりに処理したバイト数
+     */
+    public double bytesPerSecond() {
+        long elapsed = System.nanoTime() - start;
+        return elapsed > 0 ? bytes.get() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed : 0;
+    }
+
+    /**
+     * 開始からの平均の処理速度で、完了までの残り時間を見積もります。
+     * <p>
+     * 処理するバイト数の合計が不明な場合と、まだ処理したバイトがない場合は-1を返します。
+     * </p>
+     *
+     * @return 完了までの残り時間（ミリ秒、見積もれない場合は-1）
+     */
+    public long etaMillis() {
+        long total = totalBytes;
+        long done = bytes.get();
+        if (total < 0 || done <= 0) {
+            return -1;
+        }
+        if (isFinished()) {
+            return 0;
+        }
+        long elapsed = System.nanoTime() - start;
+        return TimeUnit.NANOSECONDS.toMillis((long) (elapsed * (double) Math.max(0, total - done) / done));
+    }
+
+    /**
+     * キャンセルされたかどうかを取得します。
+     *
+     * @return キャンセルされた場合はtrue
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 処理が終了したかどうかを取得します。
+     * <p>
+     * キャンセルした場合は、書き込み途中の出力の削除が終わった時点で終了となります。
+     * </p>
+     *
+     * @return 終了した場合はtrue
+     */
+    public boolean isFinished() {
+        return finished.getCount() == 0;
+    }
+
+    /**
+     * 処理が終了するまで待機します。
+     *
+     * @throws InterruptedException
+     */
+    public void await() throws InterruptedException {
+        finished.await();
+    }
+
+    /**
+     * 処理が終了するまで、指定した時間を上限に待機します。
+     *
+     * @param timeout
+     *            待機する時間
+     * @param unit
+     *            待機する時間の単位
+     * @return 終了した場合はtrue、時間切れの場合はfalse
+     * @throws InterruptedException
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    /**
+     * 処理したエントリを加算します。
+     */
+    void addEntry() {
+        entries.incrementAndGet();
+        report(false);
+    }
+
+    /**
+     * 処理したバイト数を加算します。
+     *
+     * @param n
+     *            バイト数
+     */
+    void addBytes(long n) {
+        bytes.addAndGet(n);
+        report(false);
+    }
+
+    /**
+     * 処理するバイト数の合計を設定します。
+     *
+     * @param totalBytes
+     *            処理するバイト数の合計
+     */
+    void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * キャンセルを通知します。
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * キャンセルされている場合は例外をスローします。
+     *
+     * @throws InterruptedIOException
+     *             キャンセルされている場合
+     */
+    void check() throws InterruptedIOException {
+        if (cancelled) {
+            throw new InterruptedIOException("cancelled");
+        }
+    }
+
+    /**
+     * 処理の終了を通知します。
+     */
+    void finish() {
+        boolean first = finished.getCount() > 0;
+        finished.countDown();
+        if (first) {
+            report(true);
+        }
+    }
+
+    /**
+     * 進捗を受け取るリスナーを設定します。
+     *
+     * @param listener
+     *            進捗を受け取るリスナー
+     * @param intervalMillis
+     *            リスナーを呼び出す間隔（ミリ秒）
+     */
+    void setListener(ZipProgressListener listener, long intervalMillis) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.listener = listener;
+    }
+
+    /**
+     * 前回から間隔が空いていれば、リスナーに進捗を通知します。
+     *
+     * @param force
+     *            間隔に関わらず通知するかどうか
+     */
+    private void report(boolean force) {
+        ZipProgressListener l = listener;
+        if (l == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        long last = notified.get();
+        if (force) {
+            notified.set(now);
+        } else if (now - last < intervalNanos || !notified.compareAndSet(last, now)) {
+            // 間隔が空いていないか、他のスレッドが通知した
+            return;
+        }
+        l.progressed(this);
+    }
+
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+/**
+ * 圧縮の進捗を定期的に受け取るリスナーです。
+ * <p>
+ * 圧縮を行っているいずれかのスレッドから、設定した間隔以上を空けて呼び出します。
+ * 完了時（失敗・キャンセルを含む）には、間隔に関わらず {@link ZipProgress#isFinished()} がtrueの状態で1回呼び出します。
+ * </p>
+ *
+ * @author szmslab
+ * @see ZipCompressor#progressListener(ZipProgressListener)
+ */
+public interface ZipProgressListener {
+
+    /**
+     * 進捗が更新された際に呼び出されます。
+     *
+     * @param progress
+     *            進捗
+     */
+    void progressed(ZipProgress progress);
+
+}
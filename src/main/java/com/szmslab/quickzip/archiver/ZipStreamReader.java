@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.UnsupportedEncodingException;
+
+import net.lingala.zip4j.exception.ZipException;
+import net.lingala.zip4j.util.InternalZipConstants;
+import net.lingala.zip4j.util.Zip4jConstants;
+
+import com.szmslab.quickzip.enums.EncryptionType;
+
+/**
+ * シークできない入力ストリームから、ローカルファイルヘッダを先頭から順にたどってエントリを読み込むクラスです。
+ * <p>
+ * セントラルディレクトリは読み込まないため、ダウンロード中のデータなどを到着順に展開できます。
+ * セントラルディレクトリに達した時点で読み込みを終了し、入力ストリームは閉じません。
+ * </p>
+ *
+ * @author szmslab
+ */
+class ZipStreamReader {
+
+    /**
+     * Zipファイルのストリーム。
+     */
+    private final PushbackInputStream in;
+
+    /**
+     * ファイル名のエンコーディング。
+     */
+    private final String encoding;
+
+    /**
+     * バッファとInflaterのプール。
+     */
+    private final ResourcePool pool;
+
+    /**
+     * 現在のエントリデータの入力ストリーム。
+     */
+    private LocalEntryInputStream current;
+
+    /**
+     * 最後のエントリまで読み込んだかどうか。
+     */
+    private boolean finished;
+
+    /**
+     * コンストラクタです。
+     *
+     * @param in
+     *            Zipファイルのストリーム
+     * @param encoding
+     *            ファイル名のエンコーディング
+     * @param pool
+     *            バッファとInflaterのプール
+     */
+    ZipStreamReader(InputStream in, String encoding, ResourcePool pool) {
+        // データディスクリプタを探す際に読み過ぎたデータを戻せるように、先読みバッファと同じ大きさを確保する
+        this.in = new PushbackInputStream(in, EntryCompressor.BUFFER_SIZE);
+        this.encoding = encoding;
+        this.pool = pool;
+    }
+
+    /**
+     * 次のエントリのローカルファイルヘッダを読み込みます。
+     * <p>
+     * 前のエントリのデータが残っている場合は読み捨てます。
+     * </p>
+     *
+     * @return Zipエントリのヘッダ情報（最後のエントリの後はnull）
+     * @throws IOException
+     * @throws ZipException
+     */
+    ZipEntryRecord nextEntry() throws IOException, ZipException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        if (finished) {
+            return null;
+        }
+        byte[] loc = new byte[InternalZipConstants.LOCHDR];
+        if (!readFully(loc, 0, 4, true)) {
+            finished = true;
+            return null;
+        }
+        long signature = ZipArchiveReader.readInt(loc, 0);
+        if (signature == InternalZipConstants.CENSIG || signature == InternalZipConstants.ENDSIG) {
+            finished = true;
+            return null;
+        }
+        if (signature != InternalZipConstants.LOCSIG) {
+            throw new ZipException("invalid local file header. probably not a zip file");
+        }
+        readFully(loc, 4, InternalZipConstants.LOCHDR - 4, false);
+        int flags = ZipArchiveReader.readShort(loc, 6);
+        int method = ZipArchiveReader.readShort(loc, 8);
+        byte[] nameBytes = new byte[ZipArchiveReader.readShort(loc, 26)];
+        byte[] extra = new byte[ZipArchiveReader.readShort(loc, 28)];
+        readFully(nameBytes, 0, nameBytes.length, false);
+        readFully(extra, 0, extra.length, false);
+
+        ZipEntryRecord record = new ZipEntryRecord();
+        record.setNameBytes(nameBytes);
+        record.setName(decodeName(nameBytes, flags));
+        record.setDirectory(record.getName().endsWith("/") || record.getName().endsWith("\\"));
+        record.setFlags(flags);
+        record.setCompressionMethod(method);
+        record.setDosTime((int) ZipArchiveReader.readInt(loc, 10));
+        record.setCrc(ZipArchiveReader.readInt(loc, 14));
+        record.setCompressedSize(ZipArchiveReader.readInt(loc, 18));
+        record.setUncompressedSize(ZipArchiveReader.readInt(loc, 22));
+        ZipArchiveReader.readZip64Extra(record, extra, 0, extra.length, false);
+        if ((flags & ZipEntryRecord.FLAG_ENCRYPTED) != 0) {
+            if (method == Zip4jConstants.ENC_METHOD_AES) {
+                ZipArchiveReader.readAesExtra(record, extra, 0, extra.length);
+            } else {
+                record.setEncryptionType(EncryptionType.ZIP_CRYPTO);
+            }
+        }
+        if (record.getCompressionMethod() != Zip4jConstants.COMP_STORE
+                && record.getCompressionMethod() != Zip4jConstants.COMP_DEFLATE) {
+            throw new ZipException("unsupported compression method: " + record.getName());
+        }
+        int trailerLength = record.isAesEncrypted() ? InternalZipConstants.AES_AUTH_LENGTH : 0;
+        current = new LocalEntryInputStream(in, record, trailerLength, pool);
+        return record;
+    }
+
+    /**
+     * 現在のエントリデータ（展開・復号済み）の入力ストリームを開きます。
+     * <p>
+     * 入力ストリームは終端でCRC-32（AESの場合は認証コード）を検証します。
+     * 閉じると現在のエントリデータの終端まで読み捨てます。
+     * </p>
+     *
+     * @param record
+     *            {@link #nextEntry()} で読み込んだZipエントリのヘッダ情報
+     * @param password
+     *            パスワード
+     * @return エントリデータの入力ストリーム
+     * @throws IOException
+     * @throws ZipException
+     */
+    InputStream openEntry(ZipEntryRecord record, String password) throws IOException, ZipException {
+        return openEntry(record, password, null);
+    }
+
+    /**
+     * 現在のエントリのデータを読み込み、読み込み・復号の時間を計測する入力ストリームを開きます。
+     *
+     * @param record
+     *            {@link #nextEntry()} で読み込んだZipエントリのヘッダ情報
+     * @param password
+     *            パスワード
+     * @param metrics
+     *            エントリの計測値（計測しない場合はnull）
+     * @return エントリデータの入力ストリーム
+     * @throws IOException
+     * @throws ZipException
+     */
+    InputStream openEntry(ZipEntryRecord record, String password, EntryMetrics metrics)
+            throws IOException, ZipException {
+        InputStream entry = ZipArchiveReader.timed(current, metrics, EntryMetrics.READ);
+        if (record.getEncryptionType() != EncryptionType.NO_ENCRYPTION) {
+            // 鍵の導出も復号の時間として計測する
+            int phase = metrics != null ? metrics.enter(EntryMetrics.ENCRYPT) : 0;
+            try {
+                entry = ZipArchiveReader.timed(new DecryptingInputStream(entry, record, password, current, pool),
+                    metrics, EntryMetrics.ENCRYPT);
+            } finally {
+                if (metrics != null) {
+                    metrics.exit(phase);
+                }
+            }
+        }
+        if (record.getCompressionMethod() == Zip4jConstants.COMP_DEFLATE) {
+            entry = new EntryInflaterInputStream(entry, pool);
+        }
+        return new CrcCheckingInputStream(entry, record);
+    }
+
+    /**
+     * バッファとInflaterのプールを取得します。
+     *
+     * @return バッファとInflaterのプール
+     */
+    ResourcePool getPool() {
+        return pool;
+    }
+
+    /**
+     * エントリ名をデコードします。
+     *
+     * @param nameBytes
+     *            エンコード済みのエントリ名
+     * @param flags
+     *            汎用フラグ
+     * @return エントリ名
+     * @throws UnsupportedEncodingException
+     */
+    private String decodeName(byte[] nameBytes, int flags) throws UnsupportedEncodingException {
+        if ((flags & ZipEntryRecord.FLAG_UTF8) != 0) {
+            return new String(nameBytes, InternalZipConstants.CHARSET_UTF8);
+        }
+        return new String(nameBytes, encoding);
+    }
+
+    /**
+     * 指定バイト数を読み込みます。
+     *
+     * @param b
+     *            読み込み先
+     * @param off
+     *            開始位置
+     * @param len
+     *            読み込むバイト数
+     * @param allowEof
+     *            先頭で終端に達した場合にfalseを返すかどうか
+     * @return 読み込んだ場合はtrue
+     * @throws IOException
+     */
+    private boolean readFully(byte[] b, int off, int len, boolean allowEof) throws IOException {
+        int total = 0;
+        while (total < len) {
+            int n = in.read(b, off + total, len - total);
+            if (n < 0) {
+                if (allowEof && total == 0) {
+                    return false;
+                }
+                throw new IOException("unexpected end of zip stream");
+            }
+            total += n;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.enums;
+
+/**
+ * 既存のZipファイルを更新する際の、置き換えたエントリの扱いです。
+ *
+ * @author szmslab
+ */
+public enum UpdatePolicy {
+
+    /**
+     * 既存のエントリデータはそのままにして、新しいエントリを追記し、セントラルディレクトリのみを書き直す。
+     * 置き換えたエントリのデータはセントラルディレクトリから参照されない領域としてファイルに残る。
+     */
+    APPEND,
+
+    /**
+     * 一時ファイルに既存のエントリデータを再圧縮せずにコピーし、新しいエントリを追記した後、元のZipファイルと置き換える。
+     * 置き換えたエントリのデータは残らない。
+     */
+    COMPACT;
+
+}
@@ -6,13 +6,19 @@
  */
 package com.szmslab.quickzip.archiver;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.Random;
 
 import net.lingala.zip4j.exception.ZipException;
 
@@ -64,6 +70,58 @@ public abstract class AbstractTest {
         }
     }
 
+    protected File mkLargeFile(File dir, String fileName, int size) throws IOException {
+        dir.mkdir();
+        BufferedOutputStream bos = null;
+        try {
+            File file = toFile(dir, fileName);
+            bos = new BufferedOutputStream(new FileOutputStream(file));
+            Random random = new Random(size);
+            for (int i = 0; i < size; i++) {
+                bos.write('a' + random.nextInt(16));
+            }
+            return file;
+        } finally {
+            if (bos != null) {
+                bos.close();
+            }
+        }
+    }
+
+    protected File mkRandomFile(File dir, String fileName, int size) throws IOException {
+        dir.mkdir();
+        BufferedOutputStream bos = null;
+        try {
+            File file = toFile(dir, fileName);
+            bos = new BufferedOutputStream(new FileOutputStream(file));
+            byte[] data = new byte[size];
+            new Random(size).nextBytes(data);
+            bos.write(data);
+            return file;
+        } finally {
+            if (bos != null) {
+                bos.close();
+            }
+        }
+    }
+
+    protected byte[] readBytes(File file) throws IOException {
+        BufferedInputStream bis = null;
+        try {
+            bis = new BufferedInputStream(new FileInputStream(file));
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            int b = 0;
+            while ((b = bis.read()) >= 0) {
+                baos.write(b);
+            }
+            return baos.toByteArray();
+        } finally {
+            if (bis != null) {
+                bis.close();
+            }
+        }
+    }
+
     protected String readFile(File file) throws IOException {
         BufferedReader br = null;
         try {
@@ -9,11 +9,22 @@ package com.szmslab.quickzip.archiver;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
 
+import net.lingala.zip4j.core.ZipFile;
 import net.lingala.zip4j.exception.ZipException;
+import net.lingala.zip4j.model.FileHeader;
+import net.lingala.zip4j.util.Zip4jConstants;
 
 import org.junit.Test;
 
@@ -54,6 +65,41 @@ public class ZipCompressorTest extends AbstractTest {
         check(zipFile);
     }
 
+    @Test
+    public void testCompressionMethod_store_file_changed() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File file = mkFile(testDir, method.getName() + ".txt", "abcd");
+        ResourcePool pool = new ResourcePool();
+        EntryCompressor compressor = new EntryCompressor("UTF-8", CompressionMethod.STORE,
+            EncryptionType.NO_ENCRYPTION, null, pool);
+        try {
+            ZipEntryRecord record = compressor.createRecord(file,
+                Files.readAttributes(file.toPath(), BasicFileAttributes.class), file.getName());
+            compressor.checksum(record);
+            CRC32 crc = new CRC32();
+            crc.update("abcd".getBytes("UTF-8"));
+            assertThat(record.getCrc(), is(crc.getValue()));
+
+            // CRC-32の計算後にファイルが変更された場合は、書き込んだデータと一致しないため失敗させる
+            mkFile(testDir, file.getName(), "abcdef");
+            file.setLastModified(record.getSourceLastModified() + 2000);
+            ZipArchiveWriter writer = new ZipArchiveWriter(new ByteArrayOutputStream(), pool, true);
+            try {
+                writer.putEntry(record);
+                writer.transferFrom(file, record.getUncompressedSize());
+                compressor.checkUnchanged(record);
+                fail();
+            } catch (IOException e) {
+                assertThat(e.getMessage(), containsString("file changed while compressing"));
+            } finally {
+                writer.close();
+            }
+        } finally {
+            compressor.close();
+            pool.clear();
+        }
+    }
+
     @Test
     public void testCompressionMethod_deflate_fastest() throws IOException, ZipException {
         Method method = new Object(){}.getClass().getEnclosingMethod();
@@ -145,6 +191,288 @@ public class ZipCompressorTest extends AbstractTest {
         check(zipFile);
     }
 
+    @Test
+    public void testEncryptionType_aes_parallel() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File randomFile = mkRandomFile(testDir, "random.bin", 3 * 1024 * 1024 + 5);
+        File zipFile = new ZipCompressor()
+            .parallelism(4)
+            .blockParallelThreshold(1)
+            .encryptionType(EncryptionType.AES_256, PASSWORD)
+            .execute(setUpZipFile(method), randomFile);
+        check(zipFile);
+
+        // zip4jで復号・認証コードの検証ができること
+        File extractDir = new File(testDir, method.getName());
+        ZipFile zip4j = new ZipFile(zipFile);
+        zip4j.setPassword(PASSWORD);
+        zip4j.extractAll(extractDir.getPath());
+        assertThat(readBytes(toFile(extractDir, randomFile.getName())), is(readBytes(randomFile)));
+    }
+
+    @Test
+    public void testKeyDerivationParallelism() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File dir = mkDir(testDir, "small");
+        for (int i = 0; i < 40; i++) {
+            mkFile(dir, "file" + i + ".txt", "content" + i);
+        }
+        File zipFile = new ZipCompressor()
+            .keyDerivationParallelism(2)
+            .parallelism(2)
+            .encryptionType(EncryptionType.AES_128, PASSWORD)
+            .execute(setUpZipFile(method), dir);
+
+        // 事前に導出した鍵で暗号化したエントリをzip4jで復号できること
+        File extractDir = new File(testDir, method.getName());
+        ZipFile zip4j = new ZipFile(zipFile);
+        zip4j.setPassword(PASSWORD);
+        zip4j.extractAll(extractDir.getPath());
+        for (int i = 0; i < 40; i++) {
+            assertThat(readBytes(toFile(extractDir, "small/file" + i + ".txt")), is(("content" + i).getBytes()));
+        }
+    }
+
+    @Test
+    public void testParallelism() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = new ZipCompressor()
+            .parallelism(4)
+            .execute(setUpZipFile(method), dir1, file1);
+        check(zipFile);
+    }
+
+    @Test
+    public void testWalkParallelism() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = new ZipCompressor()
+            .walkParallelism(4)
+            .parallelism(2)
+            .execute(setUpZipFile(method), dir1, file1);
+        check(zipFile);
+    }
+
+    @Test
+    public void testWalkParallelism_entry_order() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File tree = mkDir(testDir, "tree");
+        for (int i = 0; i < 5; i++) {
+            File dir = mkDir(tree, "dir" + i);
+            for (int j = 0; j < 3; j++) {
+                mkFile(mkDir(dir, "sub" + j), "file" + j + ".txt", "content" + i + j);
+            }
+            mkDir(dir, "empty");
+            mkFile(tree, "file" + i + ".txt", "content" + i);
+        }
+        File serialZip = new ZipCompressor()
+            .execute(new File(setUpZipFile(method).getParentFile(), "serial.zip"), tree);
+        File parallelZip = new ZipCompressor()
+            .walkParallelism(4)
+            .execute(setUpZipFile(method), tree);
+        List<String> names = entryNames(parallelZip);
+        assertThat(names.size(), is(5 * 4 + 5));
+        assertThat(names, is(entryNames(serialZip)));
+        assertThat(names, hasItem("tree/dir0/empty/"));
+    }
+
+    @Test
+    public void testPipeline() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = new ZipCompressor()
+            .pipeline(true)
+            .encryptionType(EncryptionType.AES_256, PASSWORD)
+            .execute(setUpZipFile(method), dir1, file1);
+        check(zipFile);
+    }
+
+    @Test
+    public void testMetricsListener() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File[] files = new File[3];
+        long total = 0;
+        for (int i = 0; i < files.length; i++) {
+            files[i] = mkRandomFile(testDir, "random" + i + ".bin", 100 * 1024 + i);
+            total += files[i].length();
+        }
+        final List<EntryMetrics> entries = new ArrayList<EntryMetrics>();
+        final List<ArchiveMetrics> archives = new ArrayList<ArchiveMetrics>();
+        File zipFile = new ZipCompressor()
+            .parallelism(2)
+            .encryptionType(EncryptionType.AES_256, PASSWORD)
+            .metricsListener(new ZipMetricsListener() {
+                public synchronized void entryCompleted(EntryMetrics metrics) {
+                    entries.add(metrics);
+                }
+
+                public synchronized void archiveCompleted(ArchiveMetrics metrics) {
+                    archives.add(metrics);
+                }
+            })
+            .execute(setUpZipFile(method), files);
+
+        assertThat(entries.size(), is(3));
+        for (EntryMetrics metrics : entries) {
+            assertThat(metrics.bytesIn(), is(greaterThan(100L * 1024 - 1)));
+            assertThat(metrics.bytesOut(), is(greaterThan(metrics.bytesIn())));
+            assertThat(metrics.ratio(), is(greaterThan(1.0)));
+            assertThat(metrics.encryptNanos(), is(greaterThan(0L)));
+            assertThat(metrics.writeNanos(), is(greaterThan(0L)));
+        }
+        assertThat(archives.size(), is(1));
+        ArchiveMetrics archive = archives.get(0);
+        assertThat(archive.file(), is(zipFile));
+        assertThat(archive.isExtraction(), is(false));
+        assertThat(archive.entries(), is(3L));
+        assertThat(archive.bytesIn(), is(total));
+        assertThat(archive.elapsedNanos(), is(greaterThan(0L)));
+        assertThat(archive.bytesPerSecond(), is(greaterThan(0.0)));
+    }
+
+    @Test
+    public void testRateLimiter() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File[] files = new File[3];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = mkRandomFile(testDir, "random" + i + ".bin", 100 * 1024);
+        }
+        RateLimiter limiter = new RateLimiter(200 * 1024);
+        long start = System.currentTimeMillis();
+        File zipFile = new ZipCompressor()
+            .compressionMethod(CompressionMethod.STORE)
+            .readLimiter(limiter)
+            .writeLimiter(limiter)
+            .execute(setUpZipFile(method), files);
+        long elapsed = System.currentTimeMillis() - start;
+        check(zipFile);
+
+        // 読み込みと書き込みで合計600KB以上を200KB/sに制限する
+        assertThat(elapsed, is(greaterThan(1500L)));
+
+        limiter.bytesPerSecond(0);
+        start = System.currentTimeMillis();
+        new ZipCompressor()
+            .compressionMethod(CompressionMethod.STORE)
+            .readLimiter(limiter)
+            .writeLimiter(limiter)
+            .execute(zipFile, files);
+        assertThat(System.currentTimeMillis() - start, is(lessThan(elapsed)));
+        check(zipFile);
+
+        // CRC-32の比較と、前回のZipファイルからのコピーの読み込みも制限する
+        limiter.bytesPerSecond(200 * 1024);
+        ZipCompressor compressor = new ZipCompressor()
+            .compressionMethod(CompressionMethod.STORE)
+            .baseline(zipFile)
+            .baselineChecksum(true)
+            .readLimiter(limiter);
+        start = System.currentTimeMillis();
+        File rebuilt = compressor.execute(new File(testDir, "rebuilt.zip"), files);
+        assertThat(compressor.statistics().reusedEntries(), is(3L));
+        // 読み込みで合計600KB以上を200KB/sに制限する
+        assertThat(System.currentTimeMillis() - start, is(greaterThan(2000L)));
+        check(rebuilt);
+
+        // 無圧縮に切り替えるかどうかの試し圧縮の読み込みも制限する（64KB以下のファイルは全体を2回読み込む）
+        File[] samples = new File[3];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = mkRandomFile(testDir, "sample" + i + ".bin", 60 * 1024);
+        }
+        compressor = new ZipCompressor()
+            .adaptiveStore(true)
+            .readLimiter(new RateLimiter(100 * 1024));
+        start = System.currentTimeMillis();
+        compressor.execute(new File(testDir, "adaptive.zip"), samples);
+        assertThat(compressor.statistics().fallbackEntries(), is(3L));
+        // 読み込みで合計360KBを100KB/sに制限する
+        assertThat(System.currentTimeMillis() - start, is(greaterThan(2000L)));
+    }
+
+    @Test
+    public void testProgressListener() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File[] files = new File[3];
+        long total = 0;
+        for (int i = 0; i < files.length; i++) {
+            files[i] = mkRandomFile(testDir, "random" + i + ".bin", 100 * 1024 + i);
+            total += files[i].length();
+        }
+        final List<Long> bytes = new ArrayList<Long>();
+        final List<Boolean> finished = new ArrayList<Boolean>();
+        final List<Long> etas = new ArrayList<Long>();
+        final List<Long> totals = new ArrayList<Long>();
+        ZipCompressor compressor = new ZipCompressor()
+            .progressInterval(0)
+            .progressListener(new ZipProgressListener() {
+                public synchronized void progressed(ZipProgress progress) {
+                    bytes.add(progress.bytes());
+                    finished.add(progress.isFinished());
+                    etas.add(progress.etaMillis());
+                    totals.add(progress.totalBytes());
+                }
+            });
+        File zipFile = compressor.execute(setUpZipFile(method), files);
+        check(zipFile);
+
+        assertThat(bytes.size(), is(greaterThan(3)));
+        int last = bytes.size() - 1;
+        assertThat(bytes.get(last), is(total));
+        assertThat(totals.get(last), is(total));
+        assertThat(finished.get(last), is(true));
+        assertThat(etas.get(last), is(0L));
+        assertThat(finished.subList(0, last), not(hasItem(true)));
+
+        // 前回のZipファイルを再利用する場合も、収集した時点で合計が確定し、再利用したエントリも加算する
+        total -= files[0].length();
+        files[0] = mkRandomFile(testDir, "random0.bin", 50 * 1024);
+        files[0].setLastModified(files[0].lastModified() + 10000);
+        total += files[0].length();
+        bytes.clear();
+        finished.clear();
+        etas.clear();
+        totals.clear();
+        compressor.baseline(zipFile).execute(new File(testDir, "rebuilt.zip"), files);
+        assertThat(compressor.statistics().reusedEntries(), is(2L));
+        last = bytes.size() - 1;
+        assertThat(bytes.get(last), is(total));
+        assertThat(totals, everyItem(is(total)));
+        assertThat(finished.get(last), is(true));
+        assertThat(etas.get(last), is(0L));
+    }
+
+    @Test
+    public void testAdaptiveStore() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File randomFile = mkRandomFile(testDir, "random.bin", 200 * 1024);
+        File imageFile = mkLargeFile(testDir, "image.JPG", 200 * 1024);
+        File textFile = mkLargeFile(testDir, "text.txt", 200 * 1024);
+        ZipCompressor compressor = new ZipCompressor().adaptiveStore(true);
+        File zipFile = compressor.execute(setUpZipFile(method), dir1, file1, randomFile, imageFile, textFile);
+        check(zipFile);
+
+        Map<String, Integer> methods = new HashMap<String, Integer>();
+        for (Object header : new ZipFile(zipFile).getFileHeaders()) {
+            FileHeader fileHeader = (FileHeader) header;
+            methods.put(fileHeader.getFileName(), fileHeader.getCompressionMethod());
+        }
+        assertThat(methods.get(randomFile.getName()), is(Zip4jConstants.COMP_STORE));
+        assertThat(methods.get(imageFile.getName()), is(Zip4jConstants.COMP_STORE));
+        assertThat(methods.get(textFile.getName()), is(Zip4jConstants.COMP_DEFLATE));
+
+        CompressionStatistics statistics = compressor.statistics();
+        assertThat(statistics.storedEntries(), is(2L));
+        assertThat(statistics.storedBytes(), is(400L * 1024));
+        assertThat(statistics.fallbackEntries(), is(2L));
+        assertThat(statistics.deflatedEntries(), is(4L));
+    }
+
+    private List<String> entryNames(File zipFile) throws ZipException {
+        List<String> names = new ArrayList<String>();
+        for (Object header : new ZipFile(zipFile).getFileHeaders()) {
+            names.add(((FileHeader) header).getFileName());
+        }
+        return names;
+    }
+
     private void check(File zipFile) {
         assertThat(zipFile.exists(), is(true));
         assertThat(zipFile.length(), greaterThan(0L));
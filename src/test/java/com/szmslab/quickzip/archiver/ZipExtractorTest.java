@@ -9,16 +9,44 @@ package com.szmslab.quickzip.archiver;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 import net.lingala.zip4j.exception.ZipException;
+import net.lingala.zip4j.model.ZipParameters;
+import net.lingala.zip4j.util.InternalZipConstants;
+import net.lingala.zip4j.util.Zip4jConstants;
 
 import org.junit.Test;
 
 import com.szmslab.quickzip.enums.CompressionMethod;
 import com.szmslab.quickzip.enums.EncryptionType;
+import com.szmslab.quickzip.enums.UpdatePolicy;
 
 public class ZipExtractorTest extends AbstractTest {
 
@@ -134,6 +162,29 @@ public class ZipExtractorTest extends AbstractTest {
         check(extractDir);
     }
 
+    @Test
+    public void testCompressionMethod_store_large() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File largeFile = mkLargeFile(testDir, "large.txt", 17 * 1024 * 1024 + 123);
+        File zipFile = new ZipCompressor()
+            .compressionMethod(CompressionMethod.STORE)
+            .execute(setUpZipFile(method), largeFile, file1);
+        File extractDir = extract(method, zipFile);
+        assertThat(readBytes(toFile(extractDir, largeFile.getName())), is(readBytes(largeFile)));
+        assertThat(readFile(toFile(extractDir, file1.getName())), is(FILE1_CONTENT));
+    }
+
+    @Test
+    public void testCompressionMethod_deflate_large() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File largeFile = mkLargeFile(testDir, "large.txt", 17 * 1024 * 1024 + 123);
+        File zipFile = new ZipCompressor()
+            .execute(setUpZipFile(method), largeFile, file1);
+        File extractDir = extract(method, zipFile);
+        assertThat(readBytes(toFile(extractDir, largeFile.getName())), is(readBytes(largeFile)));
+        assertThat(readFile(toFile(extractDir, file1.getName())), is(FILE1_CONTENT));
+    }
+
     @Test
     public void testEncryptionType_no_encryption() throws IOException, ZipException {
         Method method = new Object(){}.getClass().getEnclosingMethod();
@@ -166,6 +217,970 @@ public class ZipExtractorTest extends AbstractTest {
         check(extractDir);
     }
 
+    @Test
+    public void testParallelism() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = new ZipCompressor()
+            .parallelism(4)
+            .execute(setUpZipFile(method), dir1, file1);
+        File extractDir = extract(method, zipFile);
+        check(extractDir);
+    }
+
+    @Test
+    public void testParallelism_store() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = new ZipCompressor()
+            .parallelism(4)
+            .compressionMethod(CompressionMethod.STORE)
+            .execute(setUpZipFile(method), dir1, file1);
+        File extractDir = extract(method, zipFile);
+        check(extractDir);
+    }
+
+    @Test
+    public void testParallelism_zip_crypto() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = new ZipCompressor()
+            .parallelism(4)
+            .encryptionType(EncryptionType.ZIP_CRYPTO, PASSWORD)
+            .execute(setUpZipFile(method), dir1, file1);
+        File extractDir = extract(method, zipFile, PASSWORD);
+        check(extractDir);
+    }
+
+    @Test
+    public void testParallelism_aes_128() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = new ZipCompressor()
+            .parallelism(4)
+            .encryptionType(EncryptionType.AES_128, PASSWORD)
+            .execute(setUpZipFile(method), dir1, file1);
+        File extractDir = extract(method, zipFile, PASSWORD);
+        check(extractDir);
+    }
+
+    @Test
+    public void testParallelism_aes_256() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = new ZipCompressor()
+            .parallelism(4)
+            .encryptionType(EncryptionType.AES_256, PASSWORD)
+            .execute(setUpZipFile(method), dir1, file1);
+        File extractDir = extract(method, zipFile, PASSWORD);
+        check(extractDir);
+    }
+
+    @Test
+    public void testBlockParallelThreshold() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File largeFile = mkLargeFile(testDir, "large.txt", 3 * 1024 * 1024 + 123);
+        File zipFile = new ZipCompressor()
+            .parallelism(4)
+            .blockParallelThreshold(1)
+            .execute(setUpZipFile(method), largeFile);
+        File extractDir = extract(method, zipFile);
+        assertThat(readBytes(toFile(extractDir, largeFile.getName())), is(readBytes(largeFile)));
+    }
+
+    @Test
+    public void testBlockParallelThreshold_aes_256() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File largeFile = mkLargeFile(testDir, "large.txt", 3 * 1024 * 1024 + 123);
+        File zipFile = new ZipCompressor()
+            .parallelism(4)
+            .blockParallelThreshold(1)
+            .encryptionType(EncryptionType.AES_256, PASSWORD)
+            .execute(setUpZipFile(method), largeFile);
+        File extractDir = extract(method, zipFile, PASSWORD);
+        assertThat(readBytes(toFile(extractDir, largeFile.getName())), is(readBytes(largeFile)));
+    }
+
+    @Test
+    public void testExecute_output_stream() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = setUpZipFile(method);
+        OutputStream out = new FileOutputStream(zipFile);
+        try {
+            new ZipCompressor()
+                .encryptionType(EncryptionType.AES_256, PASSWORD)
+                .parallelism(4)
+                .execute(new BufferedOutputStream(out), dir1, file1);
+            // 出力ストリームは閉じられない
+            out.write(new byte[0]);
+        } finally {
+            out.close();
+        }
+        File extractDir = new ZipExtractor()
+            .execute(createExtractDir(method), zipFile, PASSWORD);
+        check(extractDir);
+    }
+
+    @Test
+    public void testExecute_channel() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = setUpZipFile(method);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ZipCompressor()
+            .compressionMethod(CompressionMethod.STORE)
+            .execute(Channels.newChannel(out), dir1, file1);
+        FileOutputStream fos = new FileOutputStream(zipFile);
+        try {
+            fos.write(out.toByteArray());
+        } finally {
+            fos.close();
+        }
+        File extractDir = new ZipExtractor()
+            .execute(createExtractDir(method), zipFile);
+        check(extractDir);
+    }
+
+    @Test
+    public void testExecute_entry_source() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        byte[] csv = "id,name\n1,quick-zip\n".getBytes("UTF-8");
+        byte[] large = readBytes(mkLargeFile(testDir, "large.txt", 300 * 1024));
+        File zipFile = new ZipCompressor()
+            .encryptionType(EncryptionType.AES_256, PASSWORD)
+            .rootPathOfZipEntry("report")
+            .parallelism(4)
+            .execute(setUpZipFile(method),
+                EntrySource.of("a.csv", csv).lastModified(1420070400000L),
+                EntrySource.of("sub/b.txt", ByteBuffer.wrap(large)),
+                EntrySource.of("c.txt", new ByteArrayInputStream(large)));
+        File extractDir = new ZipExtractor()
+            .execute(createExtractDir(method), zipFile, PASSWORD);
+        assertThat(readBytes(new File(extractDir, "report/a.csv")), is(csv));
+        assertThat(readBytes(new File(extractDir, "report/sub/b.txt")), is(large));
+        assertThat(readBytes(new File(extractDir, "report/c.txt")), is(large));
+        assertThat(new File(extractDir, "report/a.csv").lastModified(), is(1420070400000L));
+    }
+
+    @Test
+    public void testParallelism_extract() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = new ZipCompressor().execute(setUpZipFile(method), dir1, file1);
+        File extractDir = new ZipExtractor()
+            .parallelism(4)
+            .execute(createExtractDir(method), zipFile);
+        check(extractDir);
+    }
+
+    @Test
+    public void testParallelism_extract_store() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = compress(method, CompressionMethod.STORE);
+        File extractDir = new ZipExtractor()
+            .parallelism(4)
+            .execute(createExtractDir(method), zipFile);
+        check(extractDir);
+    }
+
+    @Test
+    public void testParallelism_extract_zip_crypto() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = compress(method, EncryptionType.ZIP_CRYPTO);
+        File extractDir = new ZipExtractor()
+            .parallelism(4)
+            .execute(createExtractDir(method), zipFile, PASSWORD);
+        check(extractDir);
+    }
+
+    @Test
+    public void testParallelism_extract_aes_128() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = compress(method, EncryptionType.AES_128);
+        File extractDir = new ZipExtractor()
+            .parallelism(4)
+            .execute(createExtractDir(method), zipFile, PASSWORD);
+        check(extractDir);
+    }
+
+    @Test
+    public void testParallelism_extract_aes_256() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = compress(method, EncryptionType.AES_256);
+        File extractDir = new ZipExtractor()
+            .parallelism(4)
+            .execute(createExtractDir(method), zipFile, PASSWORD);
+        check(extractDir);
+    }
+
+    @Test(expected = ZipException.class)
+    public void testParallelism_extract_wrong_password() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = compress(method, EncryptionType.AES_256);
+        new ZipExtractor()
+            .parallelism(4)
+            .execute(createExtractDir(method), zipFile, PASSWORD + "x");
+    }
+
+    @Test
+    public void testParallelism_extract_large() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File largeFile = mkLargeFile(testDir, "large.txt", 3 * 1024 * 1024 + 123);
+        File zipFile = new ZipCompressor()
+            .parallelism(4)
+            .blockParallelThreshold(1)
+            .execute(setUpZipFile(method), largeFile, file1);
+        File extractDir = new ZipExtractor()
+            .parallelism(4)
+            .execute(createExtractDir(method), zipFile);
+        assertThat(readBytes(toFile(extractDir, largeFile.getName())), is(readBytes(largeFile)));
+        assertThat(readFile(toFile(extractDir, file1.getName())), is(FILE1_CONTENT));
+    }
+
+    @Test
+    public void testExecuteAsync() throws Exception {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File largeFile = mkLargeFile(testDir, "large.txt", 1024 * 1024 + 123);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ZipFuture compressing = new ZipCompressor()
+                .executeAsync(executor, setUpZipFile(method), largeFile, file1);
+            File zipFile = compressing.get(30, TimeUnit.SECONDS);
+            assertThat(compressing.progress().entries(), is(2L));
+            assertThat(compressing.progress().bytes(), is(largeFile.length() + file1.length()));
+
+            ZipFuture extracting = new ZipExtractor().executeAsync(executor, createExtractDir(method), zipFile);
+            File extractDir = extracting.get(30, TimeUnit.SECONDS);
+            assertThat(extracting.progress().isFinished(), is(true));
+            assertThat(extracting.progress().totalBytes(), is(largeFile.length() + file1.length()));
+            assertThat(extracting.progress().bytes(), is(extracting.progress().totalBytes()));
+            assertThat(readBytes(toFile(extractDir, largeFile.getName())), is(readBytes(largeFile)));
+            assertThat(readFile(toFile(extractDir, file1.getName())), is(FILE1_CONTENT));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testExecuteAsync_cancel() throws Exception {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = setUpZipFile(method);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // 終端のないデータ元を圧縮中にキャンセルする
+            ZipFuture future = new ZipCompressor()
+                .executeAsync(executor, zipFile, EntrySource.of("zero.bin", new ZeroInputStream(Long.MAX_VALUE)));
+            while (future.progress().bytes() < 1024 * 1024) {
+                assertThat(future.isDone(), is(false));
+                Thread.sleep(10);
+            }
+            assertThat(future.cancel(true), is(true));
+            assertThat(future.progress().await(30, TimeUnit.SECONDS), is(true));
+            assertThat(future.isCancelled(), is(true));
+            assertThat(zipFile.exists(), is(false));
+            try {
+                future.get();
+                fail();
+            } catch (CancellationException e) {
+                // expected
+            }
+
+            // 実行スレッドは割り込み状態を残さずに再利用できる
+            ZipFuture next = new ZipCompressor().executeAsync(executor, zipFile, file1);
+            assertThat(next.get(30, TimeUnit.SECONDS), is(zipFile));
+        } catch (ExecutionException e) {
+            throw new AssertionError(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testParallelism_aes_large() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File randomFile = mkRandomFile(testDir, "random.bin", 3 * 1024 * 1024 + 5);
+        // zip4jで暗号化したエントリを、鍵ストリームを並列に生成して復号する
+        File zipFile = setUpZipFile(method);
+        ZipParameters parameters = new ZipParameters();
+        parameters.setEncryptFiles(true);
+        parameters.setEncryptionMethod(Zip4jConstants.ENC_METHOD_AES);
+        parameters.setAesKeyStrength(Zip4jConstants.AES_STRENGTH_256);
+        parameters.setPassword(PASSWORD);
+        new net.lingala.zip4j.core.ZipFile(zipFile).addFile(randomFile, parameters);
+
+        File extractDir = new ZipExtractor()
+            .parallelism(4)
+            .execute(createExtractDir(method), zipFile, PASSWORD);
+        assertThat(readBytes(toFile(extractDir, randomFile.getName())), is(readBytes(randomFile)));
+    }
+
+    @Test
+    public void testPipelineMemory() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File[] files = new File[4];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = mkRandomFile(testDir, "random" + i + ".bin", 300 * 1024 + i);
+        }
+        // 先頭のエントリの読み込みを遅らせ、後続のエントリが先に圧縮を終えて一時保持されるようにする
+        EntrySource[] sources = new EntrySource[files.length];
+        sources[0] = EntrySource.of(files[0].getName(), new FileInputStream(files[0]) {
+            private boolean delayed;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (!delayed) {
+                    delayed = true;
+                    try {
+                        Thread.sleep(500);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                return super.read(b, off, len);
+            }
+        });
+        for (int i = 1; i < files.length; i++) {
+            sources[i] = EntrySource.of(files[i].getName(), readBytes(files[i]));
+        }
+        ZipCompressor compressor = new ZipCompressor()
+            .parallelism(2)
+            .pipelineDepth(3)
+            .pipelineMemory(256 * 1024);
+        File zipFile = compressor.execute(new File(mkDir(testDir, "out"), method.getName() + ".zip"), sources);
+        assertThat(compressor.statistics().spilledEntries(), is(greaterThan(0L)));
+        assertThat(compressor.statistics().spoolMemoryPeak(), is(lessThanOrEqualTo(256L * 1024)));
+        // 退避した一時ファイルはZipファイルと同じディレクトリに作成し、書き込み後に削除する
+        assertThat(zipFile.getParentFile().list(), is(arrayContaining(zipFile.getName())));
+
+        File extractDir = new ZipExtractor().execute(createExtractDir(method), zipFile);
+        for (File file : files) {
+            assertThat(readBytes(toFile(extractDir, file.getName())), is(readBytes(file)));
+        }
+    }
+
+    @Test
+    public void testPipelineMemory_large_entry() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File large = mkRandomFile(testDir, "large.bin", 8 * 1024 * 1024);
+        File small = mkRandomFile(testDir, "small.bin", 16 * 1024);
+        ZipCompressor compressor = new ZipCompressor()
+            .parallelism(2)
+            .blockParallelThreshold(1024 * 1024)
+            .pipelineMemory(64 * 1024);
+        File zipFile = compressor.execute(setUpZipFile(method), large, small);
+        // 書き込む順番が来たエントリは一時ファイルに退避せずに書き込む
+        assertThat(compressor.statistics().spilledEntries(), is(0L));
+
+        File extractDir = new ZipExtractor().execute(createExtractDir(method), zipFile);
+        assertThat(readBytes(toFile(extractDir, large.getName())), is(readBytes(large)));
+        assertThat(readBytes(toFile(extractDir, small.getName())), is(readBytes(small)));
+    }
+
+    @Test
+    public void testExecute_input_stream() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = new ZipCompressor().execute(setUpZipFile(method), dir1, file1);
+        File extractDir = extractStream(createExtractDir(method), zipFile, null);
+        check(extractDir);
+    }
+
+    @Test
+    public void testExecute_input_stream_store_zip_crypto() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File largeFile = mkLargeFile(testDir, "large.txt", 300 * 1024 + 123);
+        File zipFile = new ZipCompressor()
+            .compressionMethod(CompressionMethod.STORE)
+            .encryptionType(EncryptionType.ZIP_CRYPTO, PASSWORD)
+            .execute(setUpZipFile(method), largeFile, file1);
+        File extractDir = extractStream(createExtractDir(method), zipFile, PASSWORD);
+        assertThat(readBytes(toFile(extractDir, largeFile.getName())), is(readBytes(largeFile)));
+        assertThat(readFile(toFile(extractDir, file1.getName())), is(FILE1_CONTENT));
+    }
+
+    @Test
+    public void testExecute_input_stream_aes_256() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File largeFile = mkLargeFile(testDir, "large.txt", 300 * 1024 + 123);
+        File zipFile = new ZipCompressor()
+            .encryptionType(EncryptionType.AES_256, PASSWORD)
+            .execute(setUpZipFile(method), largeFile, file1);
+        File extractDir = extractStream(createExtractDir(method), zipFile, PASSWORD);
+        assertThat(readBytes(toFile(extractDir, largeFile.getName())), is(readBytes(largeFile)));
+        assertThat(readFile(toFile(extractDir, file1.getName())), is(FILE1_CONTENT));
+    }
+
+    @Test
+    public void testExecute_input_stream_parallel() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = new ZipCompressor()
+            .encryptionType(EncryptionType.AES_128, PASSWORD)
+            .parallelism(4)
+            .execute(setUpZipFile(method), dir1, file1);
+        File extractDir = extractStream(createExtractDir(method), zipFile, PASSWORD);
+        check(extractDir);
+    }
+
+    @Test
+    public void testExecute_input_stream_jdk() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File largeFile = mkLargeFile(testDir, "large.txt", 300 * 1024 + 123);
+        File zipFile = setUpZipFile(method);
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipFile));
+        try {
+            zos.putNextEntry(new ZipEntry(largeFile.getName()));
+            zos.write(readBytes(largeFile));
+            zos.putNextEntry(new ZipEntry("dir/"));
+            zos.putNextEntry(new ZipEntry("dir/empty.txt"));
+        } finally {
+            zos.close();
+        }
+        File extractDir = extractStream(createExtractDir(method), zipFile, null);
+        assertThat(readBytes(toFile(extractDir, largeFile.getName())), is(readBytes(largeFile)));
+        assertThat(toFile(extractDir, "dir").isDirectory(), is(true));
+        assertThat(toFile(extractDir, "dir/empty.txt").length(), is(0L));
+    }
+
+    @Test(expected = ZipException.class)
+    public void testExecute_input_stream_wrong_password() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = compress(method, EncryptionType.AES_256);
+        extractStream(createExtractDir(method), zipFile, "wrong");
+    }
+
+    @Test
+    public void testOpen() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File largeFile = mkLargeFile(testDir, "large.txt", 300 * 1024 + 123);
+        File zipFile = new ZipCompressor()
+            .encryptionType(EncryptionType.AES_256, PASSWORD)
+            .execute(setUpZipFile(method), dir1, file1, largeFile);
+        ZipArchive archive = new ZipExtractor().open(zipFile);
+        try {
+            assertThat(archive.entryNames().size(), is(4));
+            assertThat(archive.contains(dir1.getName() + "/" + file2.getName()), is(true));
+            assertThat(archive.contains(dir1.getName() + "\\" + file3.getName()), is(true));
+            assertThat(archive.contains("none.txt"), is(false));
+            assertThat(archive.size(largeFile.getName()), is(largeFile.length()));
+
+            InputStream in = archive.openEntry(dir1.getName() + "/" + file2.getName(), PASSWORD);
+            try {
+                assertThat(new String(readAll(in)), is(FILE2_CONTENT));
+            } finally {
+                in.close();
+            }
+            in = Channels.newInputStream(archive.openChannel(largeFile.getName(), PASSWORD));
+            try {
+                assertThat(readAll(in), is(readBytes(largeFile)));
+            } finally {
+                in.close();
+            }
+        } finally {
+            archive.close();
+        }
+    }
+
+    @Test(expected = ZipException.class)
+    public void testOpen_entry_not_found() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = new ZipCompressor().execute(setUpZipFile(method), dir1, file1);
+        ZipArchive archive = new ZipExtractor().open(zipFile);
+        try {
+            archive.openEntry("none.txt");
+        } finally {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void testIndexCache() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile1 = new ZipCompressor().execute(testFile(method.getName() + 1), dir1, file1);
+        File zipFile2 = new ZipCompressor().execute(testFile(method.getName() + 2), dir1, file1);
+        ArchiveIndexCache cache = new ArchiveIndexCache(5);
+        ZipExtractor extractor = new ZipExtractor().indexCache(cache);
+
+        check(extractor.execute(mkDir(testDir, method.getName() + 1), zipFile1));
+        check(extractor.execute(mkDir(testDir, method.getName() + 2), zipFile1));
+        ZipArchive archive = extractor.open(zipFile1);
+        try {
+            assertThat(readAll(archive.openEntry(file1.getName())), is(readBytes(file1)));
+        } finally {
+            archive.close();
+        }
+        assertThat(cache.misses(), is(1L));
+        assertThat(cache.hits(), is(2L));
+        assertThat(cache.entryCount(), is(3L));
+
+        // 上限を超えるため、最も長く使用されていない索引を破棄する
+        check(extractor.execute(mkDir(testDir, method.getName() + 3), zipFile2));
+        assertThat(cache.misses(), is(2L));
+        assertThat(cache.evictions(), is(1L));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test
+    public void testIncludes_excludes() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = compressJsonTree(method);
+        File extractDir = new ZipExtractor()
+            .includes("**/*.json")
+            .excludes("data/secret*")
+            .parallelism(4)
+            .execute(createExtractDir(method), zipFile, PASSWORD);
+        assertThat(toFile(extractDir, "data/a.json").isFile(), is(true));
+        assertThat(toFile(extractDir, "data/sub/b.json").isFile(), is(true));
+        assertThat(toFile(extractDir, "data/secret.json").exists(), is(false));
+        assertThat(toFile(extractDir, "data/c.txt").exists(), is(false));
+    }
+
+    @Test
+    public void testFilter_input_stream() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = compressJsonTree(method);
+        ZipExtractor extractor = new ZipExtractor()
+            .includes("data/{a,c}.*", "data/sub/**")
+            .filter(new EntryFilter() {
+                public boolean accept(String name) {
+                    return !name.endsWith(".txt");
+                }
+            });
+        File extractDir;
+        InputStream in = new FileInputStream(zipFile);
+        try {
+            extractDir = extractor.execute(createExtractDir(method), in, PASSWORD);
+        } finally {
+            in.close();
+        }
+        assertThat(toFile(extractDir, "data/a.json").isFile(), is(true));
+        assertThat(toFile(extractDir, "data/sub/b.json").isFile(), is(true));
+        assertThat(toFile(extractDir, "data/secret.json").exists(), is(false));
+        assertThat(toFile(extractDir, "data/c.txt").exists(), is(false));
+    }
+
+    @Test
+    public void testUpdate_append() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = compressJsonTree(method);
+        long length = zipFile.length();
+        updateJsonTree(zipFile, UpdatePolicy.APPEND);
+        assertThat(zipFile.length(), is(greaterThan(length)));
+        checkUpdatedJsonTree(method, zipFile);
+    }
+
+    @Test
+    public void testUpdate_compact() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = compressJsonTree(method);
+        File appended = new File(zipFile.getParentFile(), "appended.zip");
+        copyFile(zipFile, appended);
+        updateJsonTree(appended, UpdatePolicy.APPEND);
+        updateJsonTree(zipFile, UpdatePolicy.COMPACT);
+        assertThat(zipFile.length(), is(lessThan(appended.length())));
+        checkUpdatedJsonTree(method, zipFile);
+    }
+
+    @Test
+    public void testUpdate_append_failed() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = compressJsonTree(method);
+        byte[] original = readBytes(zipFile);
+        InputStream failing = new InputStream() {
+            private int count;
+
+            public int read() throws IOException {
+                if (++count > 300 * 1024) {
+                    throw new IOException("source failed");
+                }
+                return count & 0x7F;
+            }
+        };
+        try {
+            new ZipCompressor().update(zipFile, EntrySource.of("data/e.bin", failing));
+            fail();
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("source failed"));
+        }
+
+        // 書き込み途中で失敗しても元のZipファイルのまま読める
+        assertThat(readBytes(zipFile), is(original));
+        ZipArchive archive = new ZipExtractor().open(zipFile);
+        try {
+            assertThat(archive.entryNames().size(), is(4));
+        } finally {
+            archive.close();
+        }
+        File extractDir = new ZipExtractor().execute(createExtractDir(method), zipFile, PASSWORD);
+        assertThat(new String(readBytes(toFile(extractDir, "data/c.txt")), "UTF-8"), is("c"));
+        assertThat(new String(readBytes(toFile(extractDir, "data/sub/b.json")), "UTF-8"), is("[]"));
+    }
+
+    @Test
+    public void testBaseline() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = compressJsonTree(method);
+        File data = toFile(testDir, "data");
+        File c = toFile(data, "c.txt");
+        mkFile(data, "c.txt", "changed");
+        c.setLastModified(c.lastModified() + 10000);
+
+        ZipCompressor compressor = new ZipCompressor()
+            .encryptionType(EncryptionType.ZIP_CRYPTO, PASSWORD)
+            .baseline(zipFile);
+        compressor.execute(zipFile, data);
+        assertThat(compressor.statistics().reusedEntries(), is(3L));
+        File extractDir = new ZipExtractor().execute(createExtractDir(method), zipFile, PASSWORD);
+        assertThat(new String(readBytes(toFile(extractDir, "data/c.txt")), "UTF-8"), is("changed"));
+        assertThat(new String(readBytes(toFile(extractDir, "data/sub/b.json")), "UTF-8"), is("[]"));
+
+        // パスワードが異なる場合は再利用しない
+        compressor.encryptionType(EncryptionType.ZIP_CRYPTO, "other").execute(zipFile, data);
+        assertThat(compressor.statistics().reusedEntries(), is(0L));
+    }
+
+    @Test
+    public void testBaseline_output_stream_aes() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File data = mkDir(testDir, "data");
+        mkLargeFile(data, "a.txt", 100 * 1024);
+        mkFile(data, "b.txt", "bbbb");
+        ZipCompressor compressor = new ZipCompressor().encryptionType(EncryptionType.AES_256, PASSWORD);
+        File baseline = compressor.execute(new File(testDir, "baseline.zip"), data);
+        File zipFile = setUpZipFile(method);
+
+        // 出力先がストリームの場合も再利用する（パスワードは暗号化ヘッダの検証値のみで確認する）
+        compressor.baseline(baseline);
+        OutputStream out = new FileOutputStream(zipFile);
+        try {
+            compressor.execute(out, data);
+        } finally {
+            out.close();
+        }
+        assertThat(compressor.statistics().reusedEntries(), is(2L));
+        File extractDir = new ZipExtractor().execute(createExtractDir(method), zipFile, PASSWORD);
+        assertThat(readBytes(toFile(extractDir, "data/a.txt")), is(readBytes(toFile(data, "a.txt"))));
+        assertThat(new String(readBytes(toFile(extractDir, "data/b.txt")), "UTF-8"), is("bbbb"));
+
+        // パスワードが異なる場合は再利用しない
+        compressor.encryptionType(EncryptionType.AES_256, "other");
+        out = new FileOutputStream(zipFile);
+        try {
+            compressor.execute(out, data);
+        } finally {
+            out.close();
+        }
+        assertThat(compressor.statistics().reusedEntries(), is(0L));
+    }
+
+    @Test
+    public void testBaseline_checksum() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File data = mkDir(testDir, "data");
+        File a = mkFile(data, "a.txt", "aaaa");
+        mkFile(data, "b.txt", "bbbb");
+        File zipFile = new ZipCompressor().execute(setUpZipFile(method), data);
+        long lastModified = a.lastModified();
+        mkFile(data, "a.txt", "AAAA");
+        a.setLastModified(lastModified);
+
+        File rebuilt = new File(zipFile.getParentFile(), "rebuilt.zip");
+        ZipCompressor compressor = new ZipCompressor().baseline(zipFile);
+        compressor.execute(rebuilt, data);
+        assertThat(compressor.statistics().reusedEntries(), is(2L));
+        compressor.baselineChecksum(true).execute(rebuilt, data);
+        assertThat(compressor.statistics().reusedEntries(), is(1L));
+        File extractDir = new ZipExtractor().execute(createExtractDir(method), rebuilt);
+        assertThat(new String(readBytes(toFile(extractDir, "data/a.txt")), "UTF-8"), is("AAAA"));
+        assertThat(new String(readBytes(toFile(extractDir, "data/b.txt")), "UTF-8"), is("bbbb"));
+    }
+
+    @Test
+    public void testDeduplicate() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File data = createDuplicateTree();
+        File plain = new ZipCompressor().execute(new File(testDir, "plain.zip"), data);
+        ZipCompressor compressor = new ZipCompressor().deduplicate(true).parallelism(2);
+        File zipFile = compressor.execute(setUpZipFile(method), data);
+        assertThat(compressor.statistics().deduplicatedEntries(), is(2L));
+        assertThat(compressor.statistics().deduplicatedCompressedBytes(), is(greaterThan(0L)));
+        assertThat(zipFile.length(), is(lessThan(plain.length())));
+        checkDuplicateTree(extract(method, zipFile));
+    }
+
+    @Test
+    public void testMetricsListener() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = new ZipCompressor()
+            .encryptionType(EncryptionType.ZIP_CRYPTO, PASSWORD)
+            .execute(setUpZipFile(method), dir1, file1);
+        final List<EntryMetrics> entries = new ArrayList<EntryMetrics>();
+        final List<ArchiveMetrics> archives = new ArrayList<ArchiveMetrics>();
+        File extractDir = new ZipExtractor()
+            .parallelism(2)
+            .metricsListener(new ZipMetricsListener() {
+                public synchronized void entryCompleted(EntryMetrics metrics) {
+                    entries.add(metrics);
+                }
+
+                public synchronized void archiveCompleted(ArchiveMetrics metrics) {
+                    archives.add(metrics);
+                }
+            })
+            .execute(createExtractDir(method), zipFile, PASSWORD);
+        check(extractDir);
+
+        // ディレクトリを除くエントリ毎に通知される
+        long total = 0;
+        for (EntryMetrics metrics : entries) {
+            assertThat(metrics.name(), not(endsWith("/")));
+            assertThat(metrics.bytesOut(), is(toFile(extractDir, metrics.name()).length()));
+            assertThat(metrics.readNanos(), is(greaterThan(0L)));
+            assertThat(metrics.writeNanos(), is(greaterThan(0L)));
+            total += metrics.bytesOut();
+        }
+        assertThat(archives.size(), is(1));
+        ArchiveMetrics archive = archives.get(0);
+        assertThat(archive.isExtraction(), is(true));
+        assertThat(archive.entries(), is((long) entries.size()));
+        assertThat(archive.entries(), is(greaterThan(0L)));
+        assertThat(archive.bytesOut(), is(total));
+    }
+
+    @Test
+    public void testMetricsListener_input_stream_aes_tampered() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File largeFile = mkLargeFile(testDir, "large.txt", 10 * 1024);
+        File zipFile = new ZipCompressor()
+            .compressionMethod(CompressionMethod.STORE)
+            .encryptionType(EncryptionType.AES_256, PASSWORD)
+            .execute(setUpZipFile(method), largeFile);
+
+        // 先頭のエントリの暗号化データ（ソルトとパスワード検証値の後）を1バイト書き換える
+        RandomAccessFile file = new RandomAccessFile(zipFile, "rw");
+        try {
+            ByteBuffer header = ByteBuffer.allocate(InternalZipConstants.LOCHDR).order(ByteOrder.LITTLE_ENDIAN);
+            file.readFully(header.array());
+            long offset = InternalZipConstants.LOCHDR + header.getShort(26) + header.getShort(28)
+                + AesCipher.saltLength(Zip4jConstants.AES_STRENGTH_256)
+                + DecryptingInputStream.AES_PASSWORD_VERIFIER_LENGTH + 100;
+            file.seek(offset);
+            int b = file.read();
+            file.seek(offset);
+            file.write(b ^ 0x01);
+        } finally {
+            file.close();
+        }
+
+        InputStream in = new BufferedInputStream(new FileInputStream(zipFile));
+        try {
+            new ZipExtractor()
+                .metricsListener(new ZipMetricsListener() {
+                    public void entryCompleted(EntryMetrics metrics) {
+                    }
+
+                    public void archiveCompleted(ArchiveMetrics metrics) {
+                    }
+                })
+                .execute(createExtractDir(method), in, PASSWORD);
+            fail();
+        } catch (ZipException e) {
+            // 認証コードの不一致（EntryChecksumException）として通知される
+            assertThat(e.getMessage(), containsString("MAC"));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testKeyDerivationParallelism() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File data = createDuplicateTree();
+        // 重複排除したエントリは同じソルトを共有するため、鍵のキャッシュを使用する
+        File zipFile = new ZipCompressor()
+            .encryptionType(EncryptionType.AES_256, PASSWORD)
+            .deduplicate(true)
+            .keyDerivationParallelism(2)
+            .execute(setUpZipFile(method), data);
+        File extractDir = new ZipExtractor()
+            .keyDerivationParallelism(2)
+            .parallelism(2)
+            .execute(createExtractDir(method), zipFile, PASSWORD);
+        checkDuplicateTree(extractDir);
+    }
+
+    @Test
+    public void testDeduplicate_reader_compatible() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File data = createDuplicateTree();
+        ZipCompressor compressor = new ZipCompressor()
+            .encryptionType(EncryptionType.AES_256, PASSWORD)
+            .deduplicate(true)
+            .readerCompatible(true);
+        File zipFile = compressor.execute(setUpZipFile(method), data);
+        assertThat(compressor.statistics().deduplicatedEntries(), is(2L));
+        assertThat(compressor.statistics().deduplicatedCompressedBytes(), is(0L));
+        checkDuplicateTree(extractStream(createExtractDir(method), zipFile, PASSWORD));
+    }
+
+    @Test
+    public void testZip64_entries() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        EntrySource[] sources = new EntrySource[70000];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = EntrySource.of("data/" + i + ".txt", String.valueOf(i).getBytes("UTF-8"));
+        }
+        File zipFile = new ZipCompressor().execute(setUpZipFile(method), sources);
+        new ZipCompressor().update(zipFile, EntrySource.of("last.txt", "last".getBytes("UTF-8")));
+
+        ZipFile jdk = new ZipFile(zipFile);
+        try {
+            assertThat(jdk.size(), is(70001));
+        } finally {
+            jdk.close();
+        }
+        ZipArchive archive = new ZipExtractor().open(zipFile);
+        try {
+            assertThat(archive.entryNames().size(), is(70001));
+            InputStream in = archive.openEntry("data/69999.txt");
+            try {
+                assertThat(new String(readAll(in), "UTF-8"), is("69999"));
+            } finally {
+                in.close();
+            }
+            in = archive.openEntry("last.txt");
+            try {
+                assertThat(new String(readAll(in), "UTF-8"), is("last"));
+            } finally {
+                in.close();
+            }
+        } finally {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void testZip64_large_entry() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        long size = InternalZipConstants.ZIP_64_LIMIT + 1024 * 1024;
+        File zipFile = new ZipCompressor()
+            .compressionMethod(CompressionMethod.DEFLATE_FASTEST)
+            .execute(setUpZipFile(method),
+                EntrySource.of("known.bin", new ZeroInputStream(size)).size(size),
+                EntrySource.of("unknown.bin", new ZeroInputStream(size)),
+                EntrySource.of("after.txt", "after".getBytes("UTF-8")));
+
+        ZipFile jdk = new ZipFile(zipFile);
+        try {
+            assertThat(jdk.getEntry("known.bin").getSize(), is(size));
+            assertThat(jdk.getEntry("unknown.bin").getSize(), is(size));
+            assertThat(readAll(jdk.getInputStream(jdk.getEntry("after.txt"))), is("after".getBytes("UTF-8")));
+        } finally {
+            jdk.close();
+        }
+        // セントラルディレクトリを使用しないストリームの読み込みでも、ZIP64形式のデータディスクリプタを読める
+        ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new FileInputStream(zipFile)));
+        try {
+            byte[] b = new byte[64 * 1024];
+            for (String name : Arrays.asList("known.bin", "unknown.bin")) {
+                assertThat(zis.getNextEntry().getName(), is(name));
+                long total = 0;
+                int len;
+                while ((len = zis.read(b)) >= 0) {
+                    total += len;
+                }
+                assertThat(total, is(size));
+            }
+            assertThat(zis.getNextEntry().getName(), is("after.txt"));
+            assertThat(readAll(zis), is("after".getBytes("UTF-8")));
+            assertThat(zis.getNextEntry(), is(nullValue()));
+        } finally {
+            zis.close();
+        }
+        ZipArchive archive = new ZipExtractor().open(zipFile);
+        try {
+            assertThat(archive.size("known.bin"), is(size));
+            assertThat(archive.size("unknown.bin"), is(size));
+            assertThat(readAll(archive.openEntry("after.txt")), is("after".getBytes("UTF-8")));
+        } finally {
+            archive.close();
+        }
+
+        ResourcePool pool = new ResourcePool();
+        InputStream in = new BufferedInputStream(new FileInputStream(zipFile));
+        try {
+            ZipStreamReader reader = new ZipStreamReader(in, new ZipExtractor().encoding(), pool);
+            // 大きなエントリは展開せずに読み飛ばし、データディスクリプタのサイズを確認する
+            List<ZipEntryRecord> records = new ArrayList<ZipEntryRecord>();
+            ZipEntryRecord record;
+            while ((record = reader.nextEntry()) != null) {
+                records.add(record);
+            }
+            assertThat(records.size(), is(3));
+            assertThat(records.get(0).getUncompressedSize(), is(size));
+            assertThat(records.get(1).getName(), is("unknown.bin"));
+            // サイズが不明なエントリもローカルファイルヘッダにZIP64拡張フィールドを持つ
+            assertThat(records.get(1).isZip64(), is(true));
+            assertThat(records.get(2).isZip64(), is(false));
+            assertThat(records.get(1).getUncompressedSize(), is(size));
+            assertThat(records.get(2).getName(), is("after.txt"));
+        } finally {
+            in.close();
+            pool.clear();
+        }
+    }
+
+    @Test
+    public void testZip64_unknown_size_small() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        byte[] csv = "id,name\n1,a\n2,b\n".getBytes("UTF-8");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ZipCompressor().execute(out,
+            EntrySource.of("g.csv", new ByteArrayInputStream(csv)),
+            EntrySource.of("after.txt", "after".getBytes("UTF-8")));
+        File zipFile = new ZipCompressor().execute(setUpZipFile(method),
+            EntrySource.of("g.csv", new ByteArrayInputStream(csv)),
+            EntrySource.of("after.txt", "after".getBytes("UTF-8")));
+
+        // サイズ不明の小さなエントリは、ストリームでもファイルでもZIP64形式でないデータディスクリプタとして読める
+        for (InputStream in : Arrays.asList(new ByteArrayInputStream(out.toByteArray()),
+                new BufferedInputStream(new FileInputStream(zipFile)))) {
+            ZipInputStream zis = new ZipInputStream(in);
+            try {
+                assertThat(zis.getNextEntry().getName(), is("g.csv"));
+                assertThat(readAll(zis), is(csv));
+                assertThat(zis.getNextEntry().getName(), is("after.txt"));
+                assertThat(readAll(zis), is("after".getBytes("UTF-8")));
+                assertThat(zis.getNextEntry(), is(nullValue()));
+            } finally {
+                zis.close();
+            }
+        }
+        ZipFile jdk = new ZipFile(zipFile);
+        try {
+            assertThat(readAll(jdk.getInputStream(jdk.getEntry("g.csv"))), is(csv));
+        } finally {
+            jdk.close();
+        }
+        File extractDir = new ZipExtractor().execute(createExtractDir(method), zipFile);
+        assertThat(readBytes(toFile(extractDir, "g.csv")), is(csv));
+    }
+
+    @Test
+    public void testResourcePool() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        ResourcePool pool = new ResourcePool();
+        for (int i = 0; i < 3; i++) {
+            File zipFile = new ZipCompressor()
+                .resourcePool(pool)
+                .encryptionType(EncryptionType.AES_256, PASSWORD)
+                .execute(testFile(method.getName() + i), dir1, file1);
+            File extractDir = new ZipExtractor()
+                .resourcePool(pool)
+                .execute(mkDir(testDir, method.getName() + i), zipFile, PASSWORD);
+            check(extractDir);
+        }
+        pool.clear();
+    }
+
+    @Test(expected = ZipException.class)
+    public void testEncryptionType_zip_crypto_wrong_password() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = compress(method, EncryptionType.ZIP_CRYPTO);
+        extract(method, zipFile, PASSWORD + "x");
+    }
+
     private File createExtractDir(Method method) {
         return mkDir(testDir, method.getName());
     }
@@ -178,6 +1193,90 @@ public class ZipExtractorTest extends AbstractTest {
         return new ZipExtractor().execute(createExtractDir(method), zipFile, password);
     }
 
+    private File compressJsonTree(Method method) throws IOException, ZipException {
+        File data = mkDir(testDir, "data");
+        mkFile(data, "a.json", "{}");
+        mkFile(data, "secret.json", "{}");
+        mkFile(data, "c.txt", "c");
+        mkFile(mkDir(data, "sub"), "b.json", "[]");
+        return new ZipCompressor()
+            .encryptionType(EncryptionType.ZIP_CRYPTO, PASSWORD)
+            .execute(setUpZipFile(method), data);
+    }
+
+    private void updateJsonTree(File zipFile, UpdatePolicy policy) throws IOException, ZipException {
+        new ZipCompressor()
+            .encryptionType(EncryptionType.AES_256, PASSWORD)
+            .updatePolicy(policy)
+            .update(zipFile,
+                EntrySource.of("data/a.json", "{\"a\":1}".getBytes("UTF-8")),
+                EntrySource.of("data/d.txt", "d".getBytes("UTF-8")));
+    }
+
+    private void checkUpdatedJsonTree(Method method, File zipFile) throws IOException, ZipException {
+        ZipArchive archive = new ZipExtractor().open(zipFile);
+        try {
+            assertThat(archive.entryNames().size(), is(5));
+        } finally {
+            archive.close();
+        }
+        File extractDir = new ZipExtractor().execute(createExtractDir(method), zipFile, PASSWORD);
+        assertThat(new String(readBytes(toFile(extractDir, "data/a.json")), "UTF-8"), is("{\"a\":1}"));
+        assertThat(new String(readBytes(toFile(extractDir, "data/d.txt")), "UTF-8"), is("d"));
+        assertThat(new String(readBytes(toFile(extractDir, "data/secret.json")), "UTF-8"), is("{}"));
+        assertThat(new String(readBytes(toFile(extractDir, "data/sub/b.json")), "UTF-8"), is("[]"));
+    }
+
+    private void copyFile(File src, File dest) throws IOException {
+        InputStream in = new FileInputStream(src);
+        try {
+            OutputStream out = new FileOutputStream(dest);
+            try {
+                out.write(readAll(in));
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private File createDuplicateTree() throws IOException {
+        File data = mkDir(testDir, "data");
+        mkLargeFile(data, "a.txt", 100 * 1024);
+        mkLargeFile(mkDir(data, "lib1"), "a.txt", 100 * 1024);
+        mkLargeFile(mkDir(data, "lib2"), "a.txt", 100 * 1024);
+        mkRandomFile(data, "b.bin", 100 * 1024);
+        return data;
+    }
+
+    private void checkDuplicateTree(File extractDir) throws IOException {
+        byte[] a = readBytes(toFile(testDir, "data/a.txt"));
+        assertThat(readBytes(toFile(extractDir, "data/a.txt")), is(a));
+        assertThat(readBytes(toFile(extractDir, "data/lib1/a.txt")), is(a));
+        assertThat(readBytes(toFile(extractDir, "data/lib2/a.txt")), is(a));
+        assertThat(readBytes(toFile(extractDir, "data/b.bin")), is(readBytes(toFile(testDir, "data/b.bin"))));
+    }
+
+    private byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] b = new byte[8192];
+        int len;
+        while ((len = in.read(b)) >= 0) {
+            baos.write(b, 0, len);
+        }
+        return baos.toByteArray();
+    }
+
+    private File extractStream(File extractDir, File zipFile, String password) throws IOException, ZipException {
+        InputStream in = new BufferedInputStream(new FileInputStream(zipFile), 1000);
+        try {
+            return new ZipExtractor().execute(extractDir, in, password);
+        } finally {
+            in.close();
+        }
+    }
+
     private void check(File extractDir) throws IOException {
         /*
          * extractDir
@@ -219,4 +1318,37 @@ public class ZipExtractorTest extends AbstractTest {
         assertThat(readFile(f3), is(FILE3_CONTENT));
     }
 
+    /**
+     * 指定バイト数の0を返す入力ストリームです。
+     */
+    private static class ZeroInputStream extends InputStream {
+
+        private long remaining;
+
+        ZeroInputStream(long size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (remaining == 0) {
+                return -1;
+            }
+            remaining--;
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = (int) Math.min(len, remaining);
+            Arrays.fill(b, off, off + n, (byte) 0);
+            remaining -= n;
+            return n;
+        }
+
+    }
+
 }
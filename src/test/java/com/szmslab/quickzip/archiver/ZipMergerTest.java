@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2015 szmslab
+ *
+ * This software is released under the MIT License.
+ * http://opensource.org/licenses/mit-license.php
+ */
+package com.szmslab.quickzip.archiver;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+import net.lingala.zip4j.exception.ZipException;
+
+import org.junit.Test;
+
+import com.szmslab.quickzip.enums.EncryptionType;
+
+public class ZipMergerTest extends AbstractTest {
+
+    @Test
+    public void testExecute() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File a = mkDir(testDir, "a");
+        mkFile(a, "x.txt", "x1");
+        mkFile(a, "y.txt", "y1");
+        File b = mkDir(testDir, "b");
+        mkFile(b, "x.txt", "x2");
+        mkFile(b, "z.txt", "z2");
+        File zipA = new ZipCompressor()
+            .rootPathOfZipEntry("data")
+            .execute(new File(testDir, "a.zip"), a.listFiles());
+        File zipB = new ZipCompressor()
+            .rootPathOfZipEntry("data")
+            .encryptionType(EncryptionType.AES_256, PASSWORD)
+            .execute(new File(testDir, "b.zip"), b.listFiles());
+
+        File zipFile = new ZipMerger().execute(setUpZipFile(method), zipA, zipB);
+        ZipArchive archive = new ZipExtractor().open(zipFile);
+        try {
+            assertThat(archive.entryNames(), contains("data/x.txt", "data/y.txt", "data/z.txt"));
+        } finally {
+            archive.close();
+        }
+        // 暗号化されたエントリは元のパスワードのまま格納される
+        File extractDir = new ZipExtractor().execute(mkDir(testDir, method.getName()), zipFile, PASSWORD);
+        assertThat(readFile(toFile(extractDir, "data/x.txt")), is("x2"));
+        assertThat(readFile(toFile(extractDir, "data/y.txt")), is("y1"));
+        assertThat(readFile(toFile(extractDir, "data/z.txt")), is("z2"));
+    }
+
+    @Test
+    public void testExecute_missing_archive() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File out = mkDir(testDir, "out");
+        File zipFile = new ZipCompressor().execute(new File(out, method.getName() + ".zip"), dir1, file1);
+        byte[] original = readBytes(zipFile);
+        File archive = new ZipCompressor().execute(new File(testDir, "archive.zip"), file1);
+        try {
+            new ZipMerger().execute(zipFile, archive, new File(testDir, "missing.zip"));
+            fail();
+        } catch (ZipException e) {
+            assertThat(e.getMessage(), containsString("missing.zip"));
+        }
+        // 壊れたZipファイルを対象に含めた場合も同じ
+        File broken = mkFile(testDir, "broken.zip", "not a zip file");
+        try {
+            new ZipMerger().execute(zipFile, broken);
+            fail();
+        } catch (ZipException e) {
+            // 失敗する
+        }
+        // 失敗した場合も既存の出力先のファイルは変わらず、一時ファイルも残らない
+        assertThat(readBytes(zipFile), is(original));
+        assertThat(out.list(), is(arrayContaining(zipFile.getName())));
+    }
+
+    @Test
+    public void testExecute_filter_in_place() throws IOException, ZipException {
+        Method method = new Object(){}.getClass().getEnclosingMethod();
+        File zipFile = new ZipCompressor().execute(setUpZipFile(method), dir1, file1);
+        new ZipMerger()
+            .excludes(dir1.getName() + "/**")
+            .execute(zipFile, zipFile);
+        ZipArchive archive = new ZipExtractor().open(zipFile);
+        try {
+            assertThat(archive.entryNames(), contains(file1.getName()));
+        } finally {
+            archive.close();
+        }
+        File extractDir = new ZipExtractor().execute(mkDir(testDir, method.getName()), zipFile);
+        assertThat(readFile(toFile(extractDir, file1.getName())), is(FILE1_CONTENT));
+    }
+
+}